@@ -0,0 +1,399 @@
+package Prototype;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjLongConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of the edits made to one note while autosave is on.
+ * Edits are queued in memory as inserts and removals and appended to the journal file in
+ * one group commit every commit interval. The journal is folded into the stored note in
+ * the background, so an edit costs the same however large the note is, and a crash loses
+ * at most the edits of one commit interval.
+ */
+public class AutosaveJournal {
+    // Journal files live in this subfolder of the note folder
+    static final String JOURNAL_FOLDER = ".autosave";
+    static final String JOURNAL_EXTENSION = ".journal";
+    // Starts the journal file, followed by the storage stamp of the note the edits apply to
+    private static final int JOURNAL_MAGIC = 0x4A524E4C;
+    private static final byte INSERT = 1;
+    private static final byte REMOVE = 2;
+    // The journal is folded once it grows past this size, or once it has been idle for the fold interval
+    private static final long FOLD_SIZE = 1024 * 1024;
+    private static final long FOLD_MILLIS = 5000;
+    // Runs the commits and folds of all journals; a journal cut short at exit is recovered on the next load
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(NoteIOService.namedThreads("autosave", true));
+
+    // Journal files of the journals that are open, which recovery must leave alone
+    private static final Set<File> openJournals = ConcurrentHashMap.newKeySet();
+
+    // The folder holding the note
+    private final Folder folder;
+    // The note as last folded into the storage
+    private final Note base;
+    // The note content with all committed edits applied
+    private final StringBuilder content;
+    // The journal file
+    private final File file;
+    private FileChannel channel;
+    // Edits waiting for the next commit
+    private final List<Edit> pending = new ArrayList<>();
+    // Receives the note and its storage stamp after every fold
+    private final ObjLongConsumer<Note> onFold;
+    // Stamp of the stored version the journal applies to; a fold replaces only that version
+    private volatile long stamp;
+    // Set once a fold found the note saved by another editor; the edits then stay in the journal
+    private volatile boolean stale;
+    // The periodic commit
+    private final ScheduledFuture<?> commits;
+    // Time of the last commit that wrote edits
+    private long lastCommitMillis;
+    // Whether there are committed edits that were not folded yet
+    private boolean unfolded;
+    private boolean closed;
+
+    /**
+     * Starts a journal for a note.
+     * The journal file is created in the background; edits recorded before then are kept in memory.
+     * @param folder the folder holding the note
+     * @param note the note the edits apply to, with its content; its highlights are stored with every fold
+     * @param storeNote true if the note has to be stored first because it differs from the stored note
+     * @param expectedStamp the stamp of the stored version the note is based on, or -1 for a new note
+     * @param commitMillis the group commit interval in milliseconds
+     * @param onFold receives the note and its new stamp after every fold, on the autosave thread
+     */
+    public AutosaveJournal(Folder folder, Note note, boolean storeNote, long expectedStamp, long commitMillis, ObjLongConsumer<Note> onFold) {
+        this.folder = folder;
+        this.base = note;
+        this.content = new StringBuilder(note.getContent());
+        this.onFold = onFold;
+        this.stamp = expectedStamp;
+        this.file = journalFile(folder, note.getTitle());
+        openJournals.add(file);
+        scheduler.execute(() -> {
+            try {
+                if (storeNote) {
+                    store(note);
+                }
+                file.getParentFile().mkdirs();
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                writeHeader();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        this.commits = scheduler.scheduleWithFixedDelay(this::commitQuietly, commitMillis, commitMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the journal file of a note.
+     * @param folder the folder holding the note
+     * @param title the title of the note
+     * @return the journal file
+     */
+    static File journalFile(Folder folder, String title) {
+        return new File(new File(folder.getName(), JOURNAL_FOLDER), title + JOURNAL_EXTENSION);
+    }
+
+    /**
+     * Records text inserted into the note. Called on the event thread for every edit.
+     * @param offset where the text was inserted
+     * @param text the inserted text
+     */
+    public synchronized void insert(int offset, String text) {
+        pending.add(new Edit(INSERT, offset, text, 0));
+    }
+
+    /**
+     * Records text removed from the note. Called on the event thread for every edit.
+     * @param offset where the text was removed
+     * @param length how many characters were removed
+     */
+    public synchronized void remove(int offset, int length) {
+        pending.add(new Edit(REMOVE, offset, null, length));
+    }
+
+    /**
+     * Commits the pending edits and folds the journal if it is due, reporting failures.
+     */
+    private void commitQuietly() {
+        try {
+            commit();
+            long now = System.currentTimeMillis();
+            if (unfolded && (channel.size() > FOLD_SIZE || now - lastCommitMillis > FOLD_MILLIS)) {
+                fold();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Appends the pending edits to the journal as one checksummed frame and forces it to disk.
+     * @throws IOException if the journal cannot be written
+     */
+    private void commit() throws IOException {
+        if (channel == null) {
+            return;  // The journal file could not be created; the edits stay pending
+        }
+        List<Edit> edits;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            edits = new ArrayList<>(pending);
+            pending.clear();
+        }
+
+        ByteBuffer frame = encode(edits);
+        while (frame.hasRemaining()) {
+            channel.write(frame);
+        }
+        channel.force(false);
+        for (Edit edit : edits) {
+            edit.applyTo(content);
+        }
+        lastCommitMillis = System.currentTimeMillis();
+        unfolded = true;
+    }
+
+    /**
+     * Stores the note with the committed edits applied and starts the journal over.
+     * If another editor saved the note meanwhile, the note is left as they saved it and the
+     * edits stay in the journal, to be stored by an explicit save.
+     * @throws IOException if the note or the journal cannot be written
+     */
+    private void fold() throws IOException {
+        Note note = new Note(base.getTitle(), content.toString(), base.getCreationTime());
+        note.setHighlights(base.getHighlights().copy());
+        if (!store(note)) {
+            return;
+        }
+        channel.truncate(0);
+        channel.position(0);
+        writeHeader();
+        unfolded = false;
+    }
+
+    /**
+     * Stores a version of the note over the version the journal applies to.
+     * @return false if another editor saved the note since
+     */
+    private boolean store(Note note) throws IOException {
+        if (stale) {
+            return false;
+        }
+        try {
+            stamp = folder.getStorage().saveIfUnchanged(note, stamp);
+        } catch (StaleNoteException e) {
+            stale = true;
+            System.err.println(e.getMessage() + "; autosave stopped storing " + note.getTitle());
+            return false;
+        }
+        onFold.accept(note, stamp);
+        return true;
+    }
+
+    /**
+     * Returns the stamp of the stored version of the note as the journal last left it, which
+     * a save following the journal can expect. Valid once the future returned by close completes.
+     * @return the stamp
+     */
+    public long getStamp() {
+        return stamp;
+    }
+
+    /**
+     * Writes the journal header, which names the stored note version the edits apply to.
+     * @throws IOException if the header cannot be written
+     */
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(12);
+        header.putInt(JOURNAL_MAGIC).putLong(stamp);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(false);
+    }
+
+    /**
+     * Commits and folds the remaining edits in the background, then deletes the journal.
+     * Edits recorded after this call are ignored.
+     * @return completes once the note has been stored
+     */
+    public Future<?> close() {
+        synchronized (this) {
+            if (closed) {
+                return scheduler.submit(() -> { });
+            }
+            closed = true;
+        }
+        commits.cancel(false);
+        return scheduler.submit(() -> {
+            try {
+                commit();
+                if (unfolded) {
+                    fold();
+                }
+                if (channel != null) {
+                    channel.close();
+                    Files.deleteIfExists(file.toPath());
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                openJournals.remove(file);
+            }
+        });
+    }
+
+    /**
+     * Applies the journal left behind by a crash to the stored note, then deletes the journal.
+     * A journal written against an older version of the note was already folded and is discarded.
+     * The journal of a note that is being edited is left alone.
+     * @param folder the folder holding the note
+     * @param title the title of the note
+     * @return true if edits were recovered into the stored note
+     * @throws IOException if the journal or the note cannot be read or the note cannot be written
+     */
+    public static boolean recover(Folder folder, String title) throws IOException {
+        File file = journalFile(folder, title);
+        if (!file.exists() || openJournals.contains(file)) {
+            return false;
+        }
+        ByteBuffer journal = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        boolean recovered = false;
+        long stamp;
+        if (journal.remaining() >= 12 && journal.getInt() == JOURNAL_MAGIC
+                && (stamp = journal.getLong()) == folder.getStorage().stamp(title)) {
+            Note note = folder.getStorage().load(title);
+            if (note != null) {
+                StringBuilder content = new StringBuilder(note.getContent());
+                List<Edit> edits;
+                while ((edits = decode(journal)) != null) {
+                    for (Edit edit : edits) {
+                        edit.applyTo(content);
+                        recovered = true;
+                    }
+                }
+                if (recovered) {
+                    Note recoveredNote = new Note(title, content.toString(), note.getCreationTime());
+                    recoveredNote.setHighlights(note.getHighlights());
+                    try {
+                        folder.getStorage().saveIfUnchanged(recoveredNote, stamp);
+                    } catch (StaleNoteException e) {
+                        recovered = false;  // Saved by another editor while the journal was read
+                    }
+                }
+            }
+        }
+        Files.delete(file.toPath());
+        return recovered;
+    }
+
+    /**
+     * Encodes edits as a frame: body length, body, CRC32 of the body.
+     */
+    private static ByteBuffer encode(List<Edit> edits) {
+        int bodyLength = 4;
+        List<byte[]> texts = new ArrayList<>(edits.size());
+        for (Edit edit : edits) {
+            byte[] text = edit.text == null ? null : edit.text.getBytes(StandardCharsets.UTF_8);
+            texts.add(text);
+            bodyLength += 1 + 4 + 4 + (text == null ? 0 : text.length);
+        }
+        ByteBuffer frame = ByteBuffer.allocate(4 + bodyLength + 4);
+        frame.putInt(bodyLength).putInt(edits.size());
+        for (int i = 0; i < edits.size(); i++) {
+            Edit edit = edits.get(i);
+            frame.put(edit.type).putInt(edit.offset);
+            if (edit.type == INSERT) {
+                frame.putInt(texts.get(i).length).put(texts.get(i));
+            } else {
+                frame.putInt(edit.length);
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(frame.array(), 4, bodyLength);
+        frame.putInt((int) crc.getValue());
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Decodes the next frame of a journal.
+     * @return the edits of the frame, or null at the end of the journal or at a frame torn by a crash
+     */
+    private static List<Edit> decode(ByteBuffer journal) {
+        if (journal.remaining() < 8) {
+            return null;
+        }
+        int bodyLength = journal.getInt();
+        if (bodyLength < 4 || journal.remaining() < bodyLength + 4) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(journal.array(), journal.position(), bodyLength);
+        if ((int) crc.getValue() != journal.getInt(journal.position() + bodyLength)) {
+            return null;
+        }
+        int count = journal.getInt();
+        List<Edit> edits = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte type = journal.get();
+            int offset = journal.getInt();
+            int length = journal.getInt();
+            if (type == INSERT) {
+                byte[] text = new byte[length];
+                journal.get(text);
+                edits.add(new Edit(INSERT, offset, new String(text, StandardCharsets.UTF_8), 0));
+            } else {
+                edits.add(new Edit(REMOVE, offset, null, length));
+            }
+        }
+        journal.getInt();  // CRC, checked above
+        return edits;
+    }
+
+    /**
+     * One insert or removal.
+     */
+    private static class Edit {
+        private final byte type;
+        private final int offset;
+        private final String text;
+        private final int length;
+
+        Edit(byte type, int offset, String text, int length) {
+            this.type = type;
+            this.offset = offset;
+            this.text = text;
+            this.length = length;
+        }
+
+        void applyTo(StringBuilder content) {
+            if (type == INSERT) {
+                content.insert(offset, text);
+            } else {
+                content.delete(offset, offset + length);
+            }
+        }
+    }
+}
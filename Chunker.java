@@ -0,0 +1,160 @@
+package Prototype;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Splits note content into content-defined chunks and names them by their hash.
+ * Boundaries are placed where a gear rolling hash over the last 64 bytes has its top
+ * AVERAGE_BITS bits clear, so they depend on the bytes around them and not on their
+ * position: an edit changes the chunks it touches and leaves the chunks before and
+ * after it, and their ids, as they were. Chunks are between MIN_SIZE and MAX_SIZE bytes,
+ * about 4 KB on average. Ids are the first ID_BYTES bytes of the SHA-256 of the chunk.
+ */
+public final class Chunker {
+    static final int MIN_SIZE = 1024;
+    static final int MAX_SIZE = 16 * 1024;
+    static final int AVERAGE_BITS = 12;
+    // Bytes of a chunk id
+    public static final int ID_BYTES = 16;
+    // A boundary is where these bits of the rolling hash are clear
+    private static final long BOUNDARY_MASK = ((1L << AVERAGE_BITS) - 1) << (64 - AVERAGE_BITS);
+    // Random value for every byte value; fixed, since both sides of a sync must cut alike
+    private static final long[] GEAR = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x4E4F544553L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);  // Every JDK has SHA-256
+        }
+    });
+
+    private Chunker() {
+    }
+
+    /**
+     * Splits bytes into chunks.
+     * @param data the bytes
+     * @return the chunks in order, covering all of the bytes; none if there are no bytes
+     */
+    public static List<Chunk> split(byte[] data) {
+        List<Chunk> chunks = new ArrayList<>(data.length / (1 << AVERAGE_BITS) + 1);
+        int start = 0;
+        while (start < data.length) {
+            int end = boundary(data, start);
+            chunks.add(new Chunk(start, end - start, id(data, start, end - start)));
+            start = end;
+        }
+        return chunks;
+    }
+
+    /**
+     * Finds the end of the chunk starting at an offset.
+     */
+    private static int boundary(byte[] data, int start) {
+        int limit = Math.min(data.length, start + MAX_SIZE);
+        if (limit - start <= MIN_SIZE) {
+            return limit;
+        }
+        long hash = 0;
+        for (int i = start + MIN_SIZE - 64; i < limit; i++) {  // The hash covers 64 bytes, so start that far before the minimum
+            hash = (hash << 1) + GEAR[data[i] & 0xFF];
+            if (i >= start + MIN_SIZE && (hash & BOUNDARY_MASK) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Hashes bytes to a chunk id.
+     * @param data the array holding the bytes
+     * @param offset where they start
+     * @param length how many there are
+     * @return the id
+     */
+    public static byte[] id(byte[] data, int offset, int length) {
+        MessageDigest digest = DIGESTS.get();
+        digest.update(data, offset, length);
+        return Arrays.copyOf(digest.digest(), ID_BYTES);
+    }
+
+    /**
+     * Hashes what a note stores besides its title and creation time: content and highlights.
+     * Two notes with the same digest are the same version.
+     * @param note the note with its content
+     * @return the digest, ID_BYTES long
+     */
+    public static byte[] digest(Note note) {
+        MessageDigest digest = DIGESTS.get();
+        digest.update(note.getContent().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(note.getHighlights().encode().getBytes(StandardCharsets.UTF_8));
+        return Arrays.copyOf(digest.digest(), ID_BYTES);
+    }
+
+    /**
+     * Writes an id as hexadecimal, for maps and file names.
+     * @param id the id
+     * @return the hexadecimal string
+     */
+    public static String hex(byte[] id) {
+        StringBuilder hex = new StringBuilder(id.length * 2);
+        for (byte b : id) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * A chunk of some bytes.
+     */
+    public static class Chunk {
+        private final int offset;
+        private final int length;
+        private final byte[] id;
+
+        Chunk(int offset, int length, byte[] id) {
+            this.offset = offset;
+            this.length = length;
+            this.id = id;
+        }
+
+        /**
+         * Returns where the chunk starts in the bytes it was split from.
+         * @return the offset
+         */
+        public int getOffset() {
+            return offset;
+        }
+
+        /**
+         * Returns the length of the chunk.
+         * @return the number of bytes
+         */
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * Returns the hash of the chunk.
+         * @return the id, ID_BYTES long
+         */
+        public byte[] getId() {
+            return id;
+        }
+    }
+}
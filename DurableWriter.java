@@ -0,0 +1,262 @@
+package Prototype;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replaces files atomically and durably.
+ * Each file is written to a temporary file next to it, forced to disk and renamed over the
+ * original, so a crash leaves either the old or the new file, never a truncated one.
+ * Writes that arrive within a short window are committed together, which shares the
+ * directory syncs and thread hand-offs between them.
+ * Temporary files are named after their target, a random token of the writer and a sequence
+ * number, so they never collide with those of another process or of an earlier run; the
+ * ones a crash leaves behind are deleted by sweep when their folder is opened again.
+ */
+public class DurableWriter {
+    // System property with the group commit window in milliseconds
+    static final String WINDOW_PROPERTY = "notes.commit.windowMillis";
+    // Upper bound on the number of writes committed together
+    private static final int MAX_BATCH = 256;
+    // Marks temporary files in their names: target, TEMP_MARKER, token, '-', sequence number
+    static final String TEMP_MARKER = ".tmp-";
+    // Temporary files older than this were left by a crash, not being written by another process
+    private static final long STALE_TEMP_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    // Shared writer used by the note storage
+    private static final DurableWriter DEFAULT = new DurableWriter(Long.getLong(WINDOW_PROPERTY, 2));
+
+    // How long the committer waits for more writes after the first one of a batch
+    private final long windowNanos;
+    // Writes waiting to be committed
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    // Time from the start of a batch until its files are durable
+    private final LatencyHistogram commitLatency = new LatencyHistogram();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    // Makes temporary file names unique: the token between writers and runs, the sequence within a writer
+    private final String token = Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Constructs a DurableWriter and starts its committer thread.
+     * @param windowMillis how long to wait for more writes to commit together, in milliseconds
+     */
+    public DurableWriter(long windowMillis) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        NoteIOService.namedThreads("durable-writer", true).newThread(this::commitLoop).start();
+    }
+
+    /**
+     * Returns the writer shared by the note storage.
+     * @return the shared writer
+     */
+    public static DurableWriter getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Queues a file replacement.
+     * @param target the file to replace
+     * @param data the new content of the file
+     * @return completes once the new content is durable, or exceptionally if it could not be written
+     */
+    public CompletableFuture<Void> submit(Path target, byte[] data) {
+        Request request = new Request(target, data);
+        NoteMetrics.addBytesWritten(data.length);
+        queue.add(request);
+        return request.done;
+    }
+
+    /**
+     * Replaces a file and waits until the new content is durable.
+     * @param target the file to replace
+     * @param data the new content of the file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(Path target, byte[] data) throws IOException {
+        try {
+            submit(target, data).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing " + target);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    /**
+     * Returns the time from the start of a batch until its files were durable.
+     * @return the commit latency histogram
+     */
+    public LatencyHistogram getCommitLatency() {
+        return commitLatency;
+    }
+
+    /**
+     * Returns the number of batches committed.
+     * @return the batch count
+     */
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /**
+     * Returns the number of files written.
+     * @return the write count
+     */
+    public long getWriteCount() {
+        return writes.get();
+    }
+
+    /**
+     * Collects writes into batches and commits them, forever.
+     */
+    private void commitLoop() {
+        List<Request> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < MAX_BATCH) {
+                    Request next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                commit(batch);
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes and forces the temporary files of a batch, renames them into place and syncs
+     * their directories once per batch. Later writes to the same file in a batch win.
+     * @param batch the writes to commit
+     */
+    private void commit(List<Request> batch) {
+        long start = System.nanoTime();
+        List<Request> written = new ArrayList<>(batch.size());
+        for (Request request : batch) {
+            try {
+                request.temp = request.target.resolveSibling(request.target.getFileName() + TEMP_MARKER + token + "-" + sequence.incrementAndGet());
+                try (FileChannel channel = FileChannel.open(request.temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                    ByteBuffer buffer = ByteBuffer.wrap(request.data);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(true);
+                }
+                written.add(request);
+            } catch (IOException e) {
+                deleteQuietly(request.temp);
+                request.done.completeExceptionally(e);
+            }
+        }
+
+        Set<Path> directories = new LinkedHashSet<>();
+        for (Request request : written) {
+            try {
+                Files.move(request.temp, request.target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                directories.add(request.target.toAbsolutePath().getParent());
+            } catch (IOException e) {
+                deleteQuietly(request.temp);
+                request.done.completeExceptionally(e);
+            }
+        }
+        for (Path directory : directories) {
+            syncDirectory(directory);
+        }
+
+        commitLatency.record(System.nanoTime() - start);
+        batches.incrementAndGet();
+        for (Request request : written) {
+            if (!request.done.isDone()) {
+                writes.incrementAndGet();
+                request.done.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Deletes the temporary files a crash left in a directory. Files younger than a few
+     * minutes are kept, as another process may be about to rename them.
+     * @param directory the directory
+     * @return the number of files deleted
+     */
+    static int sweep(Path directory) {
+        int deleted = 0;
+        long staleBefore = System.currentTimeMillis() - STALE_TEMP_MILLIS;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + TEMP_MARKER + "*")) {
+            for (Path file : stream) {
+                if (Files.isRegularFile(file) && Files.getLastModifiedTime(file).toMillis() < staleBefore) {
+                    Files.deleteIfExists(file);
+                    deleted++;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();  // Swept again the next time the folder is opened
+        }
+        return deleted;
+    }
+
+    /**
+     * Forces a directory so that the renames in it are durable.
+     * Some platforms cannot open directories; the rename is still atomic there.
+     */
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported on this platform
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            if (file != null) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * One queued file replacement.
+     */
+    private static class Request {
+        private final Path target;
+        private final byte[] data;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private Path temp;
+
+        Request(Path target, byte[] data) {
+            this.target = target;
+            this.data = data;
+        }
+    }
+}
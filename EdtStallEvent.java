@@ -0,0 +1,30 @@
+package Prototype;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event for an event-dispatch task that took longer than the stall threshold.
+ */
+@Name("Prototype.EdtStall")
+@Label("EDT Stall")
+@Category("Note Taking")
+@Description("An event-dispatch task that blocked the Swing event thread")
+@StackTrace(false)
+public class EdtStallEvent extends Event {
+    @Label("Event Type")
+    String eventType;
+
+    @Label("Source")
+    @Description("Class of the component or object the event was dispatched for")
+    String source;
+
+    @Label("Dispatch Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long dispatchTime;
+}
@@ -0,0 +1,480 @@
+package Prototype;
+
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.event.UndoableEditListener;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.CompoundEdit;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Finds and replaces text in the document of a text component while it is being edited.
+ * Matching runs on a background thread over copies of the document taken under its read
+ * lock, a chunk at a time, starting with the lines in view; each chunk's matches are handed
+ * to the event thread as one batch, and the text is repainted only if the batch is in view.
+ * An edit moves the matches after it and rescans only the text around it; batches read
+ * before an edit are moved through the edits made since. The matches are painted by RunHighlighter,
+ * which looks up only those on the lines it paints. Except for the scanning, everything
+ * here runs on the event thread.
+ */
+public class FindEngine {
+    // Characters of the document scanned per batch
+    static final int CHUNK = 256 * 1024;
+    // Characters read around a match to expand a regular expression replacement
+    private static final int REPLACE_CONTEXT = 256;
+
+    private final JTextComponent editor;
+    private final RunHighlighter highlighter;
+    // Called on the event thread when the matches change
+    private final Runnable onUpdate;
+    private final ExecutorService worker;
+    private final FindMatches matches;
+    private final DocumentListener editListener;
+    // Edits made while scans were pending: {version, offset, inserted length or minus removed length}
+    private final List<int[]> edits;
+    private Document document;
+    // What to find, or null if nothing is being found
+    private TextFinder finder;
+    // Changed by every new query; scans of earlier queries are dropped
+    private volatile int generation;
+    // Counts the edits of the document; read by the worker under the document's read lock
+    private volatile int version;
+    // Scans submitted whose matches have not been applied
+    private int pending;
+    // A replace-all waiting for the scan to finish, or null
+    private String pendingReplaceAll;
+    // True while replacing all, when edits are not rescanned
+    private boolean replacing;
+
+    /**
+     * Constructs a find engine for a text component. The engine follows the component to new documents.
+     * @param editor the text component
+     * @param highlighter the highlighter of the component, which paints the matches
+     * @param onUpdate called on the event thread when the matches change
+     */
+    public FindEngine(JTextComponent editor, RunHighlighter highlighter, Runnable onUpdate) {
+        this.editor = editor;
+        this.highlighter = highlighter;
+        this.onUpdate = onUpdate;
+        this.worker = Executors.newSingleThreadExecutor(NoteIOService.namedThreads("note-find", true));
+        this.matches = new FindMatches();
+        this.editListener = new EditListener();
+        this.edits = new ArrayList<>();
+        this.document = editor.getDocument();
+        document.addDocumentListener(editListener);
+        editor.addPropertyChangeListener("document", e -> documentChanged());
+        highlighter.setFindMatches(matches);
+    }
+
+    /**
+     * Finds a text or regular expression, replacing the previous query.
+     * Documents are scanned in chunks, so a regular expression match is only found whole if
+     * it ends within TextFinder.REGEX_LOOKAHEAD characters (16K) after the chunk it starts in;
+     * a match running further is cut short at that point or missed.
+     * @param text the text or expression; empty to find nothing
+     * @param regex true if the text is a regular expression
+     * @param matchCase false to ignore case
+     * @throws java.util.regex.PatternSyntaxException if the expression is not valid; the previous query is kept
+     */
+    public void setQuery(String text, boolean regex, boolean matchCase) {
+        TextFinder next = text.isEmpty() ? null : regex ? TextFinder.regex(text, matchCase) : TextFinder.literal(text, matchCase);
+        finder = next;
+        restart();
+    }
+
+    /**
+     * Drops the matches and scans the whole document again, starting with the lines in view.
+     */
+    private void restart() {
+        generation++;
+        pending = 0;
+        edits.clear();
+        matches.clear();
+        pendingReplaceAll = null;
+        if (finder != null) {
+            int visible = lineStart(visibleRange()[0]);
+            submit(visible, -1);
+            if (visible > 0) {
+                submit(0, visible);
+            }
+        }
+        highlighter.repaint();
+        onUpdate.run();
+    }
+
+    /**
+     * Returns the number of matches found so far.
+     * @return the number of matches
+     */
+    public int getMatchCount() {
+        return matches.size();
+    }
+
+    /**
+     * Checks whether parts of the document are still being scanned.
+     * @return true until every match has been found
+     */
+    public boolean isScanning() {
+        return pending > 0;
+    }
+
+    /**
+     * Returns the position of the selected match among the matches.
+     * @return the index of the match, or -1 if the selection is not a match
+     */
+    public int getSelectedIndex() {
+        int index = matches.indexStartingAt(editor.getSelectionStart());
+        return index < matches.size() && matches.getStart(index) == editor.getSelectionStart()
+                && matches.getEnd(index) == editor.getSelectionEnd() ? index : -1;
+    }
+
+    /**
+     * Selects the first match after the selection, wrapping around to the first match.
+     * @return true if there was a match to select
+     */
+    public boolean next() {
+        int index = matches.indexStartingAt(editor.getSelectionEnd());
+        return select(index < matches.size() ? index : 0);
+    }
+
+    /**
+     * Selects the last match before the selection, wrapping around to the last match.
+     * @return true if there was a match to select
+     */
+    public boolean previous() {
+        int index = matches.indexStartingAt(editor.getSelectionStart()) - 1;
+        return select(index >= 0 ? index : matches.size() - 1);
+    }
+
+    private boolean select(int index) {
+        if (index < 0 || index >= matches.size()) {
+            return false;
+        }
+        editor.setCaretPosition(matches.getStart(index));
+        editor.moveCaretPosition(matches.getEnd(index));  // Scrolls the match into view
+        editor.getCaret().setSelectionVisible(true);  // Also while the find field has the focus
+        onUpdate.run();
+        return true;
+    }
+
+    /**
+     * Replaces the selected match and selects the next one. If the selection is not a match,
+     * only selects the next match.
+     * @param replacement the replacement; for regular expressions $n refers to group n
+     */
+    public void replace(String replacement) {
+        int index = getSelectedIndex();
+        if (index >= 0) {
+            int start = matches.getStart(index);
+            int replaced = replaceMatch(start, matches.getEnd(index), replacement);
+            if (replaced >= 0) {
+                editor.setCaretPosition(start + replaced);  // Find the next match after the replacement
+            }
+        }
+        next();
+    }
+
+    /**
+     * Replaces every match. If the document is still being scanned, the matches are replaced
+     * when the scan is done. The replacements reach the document's undoable edit listeners
+     * as one compound edit, so they are undone together.
+     * @param replacement the replacement; for regular expressions $n refers to group n
+     * @return the number of matches replaced, or -1 if they will be replaced after the scan
+     */
+    public int replaceAll(String replacement) {
+        if (finder == null) {
+            return 0;
+        }
+        if (pending > 0) {
+            pendingReplaceAll = replacement;
+            return -1;
+        }
+        int count = 0;
+        UndoableEditListener[] listeners = document instanceof AbstractDocument
+                ? ((AbstractDocument) document).getUndoableEditListeners() : new UndoableEditListener[0];
+        CompoundEdit replacements = new CompoundEdit();
+        UndoableEditListener collector = e -> replacements.addEdit(e.getEdit());
+        for (UndoableEditListener listener : listeners) {
+            document.removeUndoableEditListener(listener);
+        }
+        document.addUndoableEditListener(collector);
+        replacing = true;
+        try {
+            for (int i = matches.size() - 1; i >= 0; i--) {  // Last first, so the earlier offsets stay put
+                if (replaceMatch(matches.getStart(i), matches.getEnd(i), replacement) >= 0) {
+                    count++;
+                }
+            }
+        } finally {
+            replacing = false;
+            document.removeUndoableEditListener(collector);
+            for (UndoableEditListener listener : listeners) {
+                document.addUndoableEditListener(listener);
+            }
+            replacements.end();
+        }
+        if (count > 0) {
+            UndoableEditEvent event = new UndoableEditEvent(document, replacements);
+            for (UndoableEditListener listener : listeners) {
+                listener.undoableEditHappened(event);
+            }
+        }
+        restart();  // The replacements can hold new matches
+        return count;
+    }
+
+    /**
+     * Replaces the text of one match, if the text still matches.
+     * @return the length of the replacement, or -1 if nothing was replaced
+     */
+    private int replaceMatch(int start, int end, String replacement) {
+        try {
+            int windowStart = Math.max(0, start - REPLACE_CONTEXT);
+            int windowEnd = Math.min(document.getLength(), end + REPLACE_CONTEXT);
+            String window = document.getText(windowStart, windowEnd - windowStart);
+            String expanded = finder.expand(window, start - windowStart, end - windowStart, replacement);
+            if (expanded == null) {
+                return -1;
+            }
+            if (document instanceof AbstractDocument) {
+                ((AbstractDocument) document).replace(start, end - start, expanded, null);
+            } else {
+                document.remove(start, end - start);
+                document.insertString(start, expanded, null);
+            }
+            return expanded.length();
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    /**
+     * Stops the scanning thread and detaches from the text component's document.
+     */
+    public void close() {
+        worker.shutdownNow();
+        document.removeDocumentListener(editListener);
+        highlighter.setFindMatches(null);
+    }
+
+    /**
+     * Moves to the text component's new document and finds the query in it.
+     */
+    private void documentChanged() {
+        document.removeDocumentListener(editListener);
+        document = editor.getDocument();
+        document.addDocumentListener(editListener);
+        restart();
+    }
+
+    /**
+     * Scans document[from, to) in the background, a chunk at a time.
+     * @param to where to stop, or -1 for the end of the document
+     */
+    private void submit(int from, int to) {
+        try {
+            Position start = document.createPosition(from);
+            Position stop = to < 0 ? null : document.createPosition(to);  // Positions follow the edits made before the scan
+            int scanGeneration = generation;
+            Document scanned = document;
+            TextFinder scanFinder = finder;
+            pending++;
+            worker.execute(() -> scan(scanGeneration, scanned, scanFinder, start, stop));
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Finds the matches in the next chunk of a range, on the worker thread.
+     */
+    private void scan(int scanGeneration, Document scanned, TextFinder scanFinder, Position start, Position stop) {
+        if (scanGeneration != generation) {
+            return;
+        }
+        int[] range = new int[4];  // from, to, read version, window start
+        String[] window = new String[1];
+        scanned.render(() -> {
+            int length = scanned.getLength();
+            int from = Math.min(start.getOffset(), length);
+            int to = stop == null ? length : Math.min(Math.max(stop.getOffset(), from), length);
+            int chunkEnd = Math.min(to, from + CHUNK);
+            int windowStart = Math.max(0, from - scanFinder.getLookbehind());
+            int windowEnd = Math.min(length, chunkEnd + scanFinder.getLookahead());
+            Segment text = new Segment();
+            try {
+                scanned.getText(windowStart, windowEnd - windowStart, text);
+            } catch (BadLocationException e) {
+                e.printStackTrace();
+                return;
+            }
+            window[0] = text.toString();  // A copy; matching runs after the lock is released
+            range[0] = from;
+            range[1] = to;
+            range[2] = version;
+            range[3] = windowStart;
+        });
+        if (window[0] == null) {
+            return;
+        }
+        int from = range[0];
+        int chunkEnd = Math.min(range[1], from + CHUNK);
+        FindMatches batch = new FindMatches();
+        scanFinder.findAll(window[0], from - range[3], chunkEnd - range[3], range[3], batch);
+        int next = batch.size() > 0 ? Math.max(chunkEnd, batch.getEnd(batch.size() - 1)) : chunkEnd;
+        SwingUtilities.invokeLater(() -> apply(scanGeneration, scanned, from, next, range[1], range[2], batch, stop));
+    }
+
+    /**
+     * Puts the matches of a chunk in place of the ones found there before, on the event thread.
+     */
+    private void apply(int scanGeneration, Document scanned, int from, int next, int to, int readVersion, FindMatches batch, Position stop) {
+        if (scanGeneration != generation || scanned != document) {
+            return;
+        }
+        pending--;
+        boolean touched = false;
+        for (int[] edit : edits) {
+            if (edit[0] <= readVersion) {
+                continue;  // The chunk was read after this edit
+            }
+            if (finder.getLookbehind() > 0 && edit[1] >= from && edit[1] <= next + finder.getLookahead()) {
+                touched = true;  // The edit's rescan did not know these matches, which can reach into the edited lines
+            }
+            if (edit[2] > 0) {
+                batch.insertUpdate(edit[1], edit[2]);
+            } else {
+                batch.removeUpdate(edit[1], -edit[2]);
+            }
+            from = moved(from, edit);
+            next = moved(next, edit);
+            to = moved(to, edit);
+        }
+        int removedEnd = matches.replace(from, next, batch);
+        if (touched) {
+            submit(from, next);
+        }
+        if (next < to) {
+            submit(next, stop == null ? -1 : stop.getOffset());
+        } else if (removedEnd > next) {
+            submit(next, removedEnd);  // The batch ended inside a removed match; a full scan finds another after it
+        } else if (pending == 0) {
+            edits.clear();
+            if (pendingReplaceAll != null) {
+                replaceAll(pendingReplaceAll);
+                return;
+            }
+        }
+        int[] visible = visibleRange();
+        if (from <= visible[1] && next >= visible[0]) {
+            highlighter.repaint();  // Only batches in view are painted
+        }
+        onUpdate.run();
+    }
+
+    private static int moved(int offset, int[] edit) {
+        if (edit[2] > 0) {
+            return offset >= edit[1] ? offset + edit[2] : offset;
+        }
+        return offset > edit[1] ? Math.max(edit[1], offset + edit[2]) : offset;
+    }
+
+    /**
+     * Returns the first and last offsets of the text in view.
+     */
+    private int[] visibleRange() {
+        Rectangle visible = editor.getVisibleRect();
+        int first = Math.max(0, editor.viewToModel2D(visible.getLocation()));
+        int last = editor.viewToModel2D(new Point(visible.x + visible.width, visible.y + visible.height));
+        return new int[] {first, last < 0 ? document.getLength() : last};
+    }
+
+    private int lineStart(int offset) {
+        Element root = document.getDefaultRootElement();
+        return root.getElement(root.getElementIndex(offset)).getStartOffset();
+    }
+
+    private int lineEnd(int offset) {
+        Element root = document.getDefaultRootElement();
+        return Math.min(document.getLength(), root.getElement(root.getElementIndex(offset)).getEndOffset());
+    }
+
+    /**
+     * Moves the matches with the edits and rescans the edited lines.
+     */
+    private class EditListener implements DocumentListener {
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            version++;
+            if (finder == null || replacing) {
+                return;
+            }
+            int offset = e.getOffset();
+            int length = e.getLength();
+            int[] dropped = matches.insertUpdate(offset, length);
+            edits.add(new int[] {version, offset, length});
+            int from = dropped == null ? offset : Math.min(offset, dropped[0]);
+            int to = dropped == null ? offset + length : Math.max(offset + length, dropped[1] + length);
+            rescan(from, to);
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            version++;
+            if (finder == null || replacing) {
+                return;
+            }
+            int offset = e.getOffset();
+            int length = e.getLength();
+            int[] dropped = matches.removeUpdate(offset, length);
+            edits.add(new int[] {version, offset, -length});
+            int from = dropped == null ? offset : Math.min(offset, dropped[0]);
+            int to = dropped == null ? offset : Math.max(offset, dropped[1] - length);
+            rescan(from, to);
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+            // Attribute changes do not move text
+        }
+
+        /**
+         * Scans the text around an edit again: the text a literal match could span, or for a
+         * regular expression the edited lines and the line before, which a match ending in
+         * them can start on, with a match reaching into them from further back.
+         */
+        private void rescan(int from, int to) {
+            if (finder.getLookbehind() > 0) {
+                from = lineStart(Math.max(0, lineStart(from) - 1));
+                int before = matches.indexAfter(from - 1);
+                if (before < matches.size() && matches.getStart(before) < from) {
+                    from = lineStart(matches.getStart(before));  // The match may now end elsewhere
+                }
+                to = lineEnd(to);
+            } else {
+                from = Math.max(0, from - finder.getLookahead());
+                int kept = matches.indexStartingAt(from);
+                if (kept > 0) {
+                    from = Math.max(from, matches.getEnd(kept - 1));  // A full scan resumes after the match before
+                }
+                to = Math.min(document.getLength(), to + finder.getLookahead());
+            }
+            submit(from, to);
+            onUpdate.run();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package Prototype;
+
+import java.util.Arrays;
+
+/**
+ * The matches of a find in a document: ranges in order that do not overlap, kept in two
+ * arrays of offsets. The match at an offset is found by binary search, so the matches on
+ * the lines being painted are found without walking the others. Offsets follow text edits;
+ * a match an edit touches is dropped, to be found again by rescanning the edited text.
+ */
+public class FindMatches {
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int size;
+
+    /**
+     * Appends a match after the others.
+     * @param start where the match starts
+     * @param end where the match ends
+     */
+    public void add(int start, int end) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+        starts[size] = start;
+        ends[size++] = end;
+    }
+
+    /**
+     * Returns the number of matches.
+     * @return the number of matches
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getStart(int index) {
+        return starts[index];
+    }
+
+    public int getEnd(int index) {
+        return ends[index];
+    }
+
+    /**
+     * Removes every match.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Finds the first match ending after an offset, which is the first match at or after it.
+     * @param offset the offset
+     * @return the index of the match, or size() if there is none
+     */
+    public int indexAfter(int offset) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ends[mid] <= offset) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Finds the first match starting at or after an offset.
+     * @param offset the offset
+     * @return the index of the match, or size() if there is none
+     */
+    public int indexStartingAt(int offset) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] < offset) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Replaces the matches starting in a range with the matches found there again.
+     * Matches of the batch that overlap the match before the range are dropped, and so are
+     * the matches after the range that the last match of the batch overlaps.
+     * @param from where the range starts
+     * @param to where the range ends
+     * @param batch the matches found in the range, in order
+     * @return the end of the last match removed, or Integer.MIN_VALUE if none was removed
+     */
+    public int replace(int from, int to, FindMatches batch) {
+        int first = indexStartingAt(from);
+        int last = indexStartingAt(to);
+        int skip = 0;
+        while (skip < batch.size && first > 0 && batch.starts[skip] < ends[first - 1]) {
+            skip++;
+        }
+        int added = batch.size - skip;
+        int after = last;
+        int end = added > 0 ? batch.ends[batch.size - 1] : Integer.MIN_VALUE;
+        while (after < size && starts[after] < end) {
+            after++;
+        }
+        int removedEnd = after > first ? ends[after - 1] : Integer.MIN_VALUE;
+        int newSize = size - (after - first) + added;
+        if (newSize > starts.length) {
+            int capacity = Math.max(newSize, starts.length * 2);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+        System.arraycopy(starts, after, starts, first + added, size - after);
+        System.arraycopy(ends, after, ends, first + added, size - after);
+        System.arraycopy(batch.starts, skip, starts, first, added);
+        System.arraycopy(batch.ends, skip, ends, first, added);
+        size = newSize;
+        return removedEnd;
+    }
+
+    /**
+     * Moves the matches after text inserted into the document, dropping a match the text
+     * was inserted into.
+     * @param offset where the text was inserted
+     * @param length the length of the text
+     * @return the start and end of the dropped match before the edit, or null if none was dropped
+     */
+    public int[] insertUpdate(int offset, int length) {
+        int index = indexAfter(offset);
+        int[] dropped = null;
+        if (index < size && starts[index] < offset) {
+            dropped = new int[] {starts[index], ends[index]};
+            remove(index, index + 1);
+        }
+        for (int i = index; i < size; i++) {
+            starts[i] += length;
+            ends[i] += length;
+        }
+        return dropped;
+    }
+
+    /**
+     * Moves the matches after text removed from the document, dropping the matches that
+     * overlapped the removed text.
+     * @param offset where the text was removed
+     * @param length the length of the removed text
+     * @return the start and end of the dropped matches before the edit, or null if none were dropped
+     */
+    public int[] removeUpdate(int offset, int length) {
+        int first = indexAfter(offset);
+        int last = indexStartingAt(offset + length);
+        int[] dropped = null;
+        if (first < last) {
+            dropped = new int[] {starts[first], ends[last - 1]};
+            remove(first, last);
+        }
+        for (int i = first; i < size; i++) {
+            starts[i] -= length;
+            ends[i] -= length;
+        }
+        return dropped;
+    }
+
+    private void remove(int from, int to) {
+        System.arraycopy(starts, to, starts, from, size - to);
+        System.arraycopy(ends, to, ends, from, size - to);
+        size -= to - from;
+    }
+}
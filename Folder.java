@@ -1,28 +1,106 @@
 package Prototype;
 
 import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Represents a folder that contains notes.
  * Provides functionality to create a folder and manage notes within it.
+ * Notes already stored in the folder are discovered when it is opened.
  */
 public class Folder {
+    // Orders notes by creation time, oldest first
+    private static final Comparator<Note> CREATION_ORDER = Comparator.comparing(Note::getCreationTime);
+    // Orders notes by title ignoring case, as TitleTrie does
+    private static final Comparator<Note> TITLE_ORDER = Comparator.comparing((Note note) -> note.getTitle().toLowerCase());
+    // Orders notes by modification time, oldest first; notes never saved here count as modified when created
+    private static final Comparator<Note> MODIFIED_ORDER = Comparator.comparing(
+            (Note note) -> note.getModifiedTime() != null ? note.getModifiedTime() : note.getCreationTime());
+
+    // The orders the notes of a folder can be listed in
+    public enum Order {
+        CREATED("Created"), TITLE("Title"), MODIFIED("Modified");
+
+        private final String label;
+
+        Order(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
     // The name of the folder
     private String name;
-    // A list to store the notes in the folder
+    // Notes keyed by title for constant time lookup
+    private Map<String, Note> notesByTitle;
+    // The same notes ordered by creation time
     private List<Note> notes;
+    // Where the notes are stored on disk
+    private NoteStorage storage;
+    // Full-text index of the notes, created on first use
+    private SearchIndex searchIndex;
+    // Saved versions of the notes, opened on first use
+    private NoteHistory history;
+    // Sync state of the folder, read the first time the folder is synced
+    private SyncManifest syncManifest;
+    // Titles of the notes for type-ahead filtering, built on first use after a change
+    private TitleTrie titleTrie;
+    // The notes ordered by title and by modification time, sorted on first use and then kept in order
+    private List<Note> titleNotes;
+    private List<Note> modifiedNotes;
 
     /**
      * Constructs a Folder with the specified name.
-     * Initializes the notes list and creates the folder in the file system.
+     * Creates the folder in the file system and indexes the notes already in it.
      * @param name the name of the folder
      */
     public Folder(String name) {
         this.name = name;
+        this.notesByTitle = new ConcurrentHashMap<>();
+        this.notes = new ArrayList<>();
+        createFolder();
+        scanFolder();
+        NoteMetrics.addFolder(this);
+    }
+
+    /**
+     * Constructs a Folder from notes already known, for example from a workspace snapshot,
+     * without listing the stored notes. The caller checks the notes against the storage later.
+     * @param name the name of the folder
+     * @param known notes with title and creation time
+     */
+    public Folder(String name, Collection<Note> known) {
+        this.name = name;
+        this.notesByTitle = new ConcurrentHashMap<>();
         this.notes = new ArrayList<>();
         createFolder();
+        try {
+            storage = NoteStorage.open(new File(name));
+        } catch (IOException e) {
+            e.printStackTrace();
+            storage = new LegacyNoteStorage(new File(name));
+        }
+        for (Note note : known) {
+            notesByTitle.put(note.getTitle(), note);
+        }
+        notes.addAll(notesByTitle.values());
+        notes.sort(CREATION_ORDER);
+        NoteMetrics.addFolder(this);
     }
 
     /**
@@ -35,20 +113,209 @@ public class Folder {
         }
     }
 
+    /**
+     * Indexes the notes stored in the folder.
+     * Only titles and creation times are read here, not note content.
+     */
+    private void scanFolder() {
+        try {
+            storage = NoteStorage.open(new File(name));
+            for (Note note : storage.list()) {
+                notesByTitle.put(note.getTitle(), note);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            if (storage == null) {
+                storage = new LegacyNoteStorage(new File(name));
+            }
+        }
+        notes.addAll(notesByTitle.values());
+        notes.sort(CREATION_ORDER);
+    }
+
     /**
      * Adds a note to the folder.
+     * A note with the same title that is already in the folder is replaced.
+     * Notes are added once they are saved, so a note without a modification time gets the current time.
      * @param note the note to be added
+     * @return the first position in creation-time order whose note changed
+     */
+    public synchronized int addNote(Note note) {
+        stampModified(note, LocalDateTime.now());
+        Note previous = notesByTitle.put(note.getTitle(), note);
+        titleTrie = null;
+        int first = Integer.MAX_VALUE;
+        if (previous != null) {
+            first = indexOf(notes, previous, CREATION_ORDER);
+            notes.remove(first);
+            remove(titleNotes, previous, TITLE_ORDER);
+            remove(modifiedNotes, previous, MODIFIED_ORDER);
+        }
+        insert(titleNotes, note, TITLE_ORDER);
+        insert(modifiedNotes, note, MODIFIED_ORDER);
+        return Math.min(first, insert(notes, note, CREATION_ORDER));
+    }
+
+    /**
+     * Adds many notes to the folder at once, sorting the notes once instead of inserting each.
+     * Notes with the titles of notes already in the folder replace them.
+     * @param added the notes to add
+     * @return the first position in creation-time order whose note changed
+     */
+    public synchronized int addNotes(Collection<Note> added) {
+        Map<String, Note> byTitle = new LinkedHashMap<>();
+        LocalDateTime now = LocalDateTime.now();
+        for (Note note : added) {
+            stampModified(note, now);
+            byTitle.put(note.getTitle(), note);  // The last of several notes with one title wins
+        }
+        if (byTitle.isEmpty()) {
+            return Integer.MAX_VALUE;
+        }
+        titleTrie = null;
+        titleNotes = null;  // Sorted again on next use, once for the whole batch
+        modifiedNotes = null;
+        Set<Note> replaced = Collections.newSetFromMap(new IdentityHashMap<>());
+        Note first = null;
+        for (Note note : byTitle.values()) {
+            Note previous = notesByTitle.put(note.getTitle(), note);
+            if (previous != null) {
+                replaced.add(previous);
+            }
+            if (first == null || CREATION_ORDER.compare(note, first) < 0) {
+                first = note;
+            }
+        }
+        int index = 0;
+        if (replaced.isEmpty()) {
+            index = Collections.binarySearch(notes, first, CREATION_ORDER);
+            index = index < 0 ? -index - 1 : index;
+        } else {
+            notes.removeIf(replaced::contains);
+        }
+        notes.addAll(byTitle.values());
+        notes.sort(CREATION_ORDER);
+        return index;
+    }
+
+    /**
+     * Removes a note from the folder index. The stored note is not touched.
+     * @param title the title of the note
+     * @return the position the note had in creation-time order, or -1 if it was not in the folder
+     */
+    public synchronized int removeNote(String title) {
+        Note note = notesByTitle.remove(title);
+        if (note == null) {
+            return -1;
+        }
+        titleTrie = null;
+        remove(titleNotes, note, TITLE_ORDER);
+        remove(modifiedNotes, note, MODIFIED_ORDER);
+        int index = indexOf(notes, note, CREATION_ORDER);
+        notes.remove(index);
+        return index;
+    }
+
+    private static void stampModified(Note note, LocalDateTime now) {
+        if (note.getModifiedTime() == null) {
+            note.setModifiedTime(now);
+        }
+    }
+
+    /**
+     * Inserts a note into a sorted list.
+     * @param sorted the list, or null if it is not kept
+     * @return the position of the note
+     */
+    private static int insert(List<Note> sorted, Note note, Comparator<Note> order) {
+        if (sorted == null) {
+            return Integer.MAX_VALUE;
+        }
+        int index = Collections.binarySearch(sorted, note, order);
+        index = index < 0 ? -index - 1 : index;
+        sorted.add(index, note);
+        return index;
+    }
+
+    /**
+     * Removes a note from a sorted list.
+     * @param sorted the list, or null if it is not kept
+     */
+    private static void remove(List<Note> sorted, Note note, Comparator<Note> order) {
+        if (sorted != null) {
+            sorted.remove(indexOf(sorted, note, order));
+        }
+    }
+
+    /**
+     * Finds the position of a note in a sorted list.
+     * @param sorted the list
+     * @param note the note to find
+     * @param order the order of the list
+     * @return the index of the note
      */
-    public void addNote(Note note) {
-        notes.add(note);
+    private static int indexOf(List<Note> sorted, Note note, Comparator<Note> order) {
+        int index = Collections.binarySearch(sorted, note, order);
+        if (index < 0) {
+            return sorted.indexOf(note);  // The note's sort key changed after it was added
+        }
+        // Several notes can share a sort key, so look around the match
+        for (int i = index; i >= 0 && order.compare(sorted.get(i), note) == 0; i--) {
+            if (sorted.get(i) == note) {
+                return i;
+            }
+        }
+        for (int i = index + 1; i < sorted.size() && order.compare(sorted.get(i), note) == 0; i++) {
+            if (sorted.get(i) == note) {
+                return i;
+            }
+        }
+        return sorted.indexOf(note);
     }
 
     /**
-     * Returns the list of notes in the folder.
-     * @return the list of notes
+     * Returns the notes in the folder ordered by creation time.
+     * @return an unmodifiable view of the notes
      */
     public List<Note> getNotes() {
-        return notes;
+        return Collections.unmodifiableList(notes);
+    }
+
+    /**
+     * Returns the notes in the folder in an order. Each order is sorted the first time it is
+     * asked for and then kept in order as notes are added and removed, one insertion each.
+     * @param order the order
+     * @return an unmodifiable view of the notes
+     */
+    public synchronized List<Note> getNotes(Order order) {
+        switch (order) {
+            case TITLE:
+                return Collections.unmodifiableList(titleNotes());
+            case MODIFIED:
+                if (modifiedNotes == null) {
+                    modifiedNotes = new ArrayList<>(notes);
+                    modifiedNotes.sort(MODIFIED_ORDER);
+                }
+                return Collections.unmodifiableList(modifiedNotes);
+            default:
+                return getNotes();
+        }
+    }
+
+    private List<Note> titleNotes() {
+        if (titleNotes == null) {
+            titleNotes = TitleTrie.sortByTitle(notes);
+        }
+        return titleNotes;
+    }
+
+    /**
+     * Returns the titles of the notes in the folder.
+     * The set is safe to iterate while notes are being added.
+     * @return an unmodifiable view of the titles
+     */
+    public Set<String> getTitles() {
+        return Collections.unmodifiableSet(notesByTitle.keySet());
     }
 
     /**
@@ -59,12 +326,95 @@ public class Folder {
         return name;
     }
 
+    /**
+     * Returns the storage holding the notes of the folder.
+     * @return the note storage
+     */
+    public NoteStorage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Closes the storage of the folder.
+     * @throws IOException if the storage cannot be closed cleanly
+     */
+    public void close() throws IOException {
+        NoteMetrics.removeFolder(this);
+        try {
+            storage.close();
+        } finally {
+            synchronized (this) {
+                if (history != null) {
+                    history.close();
+                    history = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a note with its content from the folder.
+     * @param title the title of the note
+     * @return the note, or null if it is not stored
+     * @throws IOException if the note cannot be read
+     */
+    public Note loadNote(String title) throws IOException {
+        return storage.load(title);
+    }
+
+    /**
+     * Returns the full-text index of the notes in the folder.
+     * The index is created empty; call SearchIndex.build to fill it.
+     * @return the search index
+     */
+    public synchronized SearchIndex getSearchIndex() {
+        if (searchIndex == null) {
+            searchIndex = new SearchIndex(this);
+        }
+        return searchIndex;
+    }
+
+    /**
+     * Returns the sync state of the folder, reading it the first time.
+     * @return the sync manifest
+     */
+    public synchronized SyncManifest getSyncManifest() {
+        if (syncManifest == null) {
+            syncManifest = SyncManifest.load(this);
+        }
+        return syncManifest;
+    }
+
+    /**
+     * Returns the saved versions of the notes in the folder, opening the history the first time.
+     * @return the note history
+     * @throws IOException if the history cannot be opened
+     */
+    public synchronized NoteHistory getHistory() throws IOException {
+        if (history == null) {
+            history = new NoteHistory(new File(name));
+        }
+        return history;
+    }
+
+    /**
+     * Returns a trie of the titles of the notes in the folder, for filtering them by title.
+     * The trie is built again on the first call after the notes change.
+     * @return the title trie
+     */
+    public synchronized TitleTrie getTitleTrie() {
+        if (titleTrie == null) {
+            titleTrie = TitleTrie.ofSorted(titleNotes());
+        }
+        return titleTrie;
+    }
+
     /**
      * Finds a note by its title.
      * @param title the title of the note
      * @return the note if found, otherwise null
      */
     public Note getNoteByTitle(String title) {
-        return notes.stream().filter(note -> note.getTitle().equals(title)).findFirst().orElse(null);
+        return notesByTitle.get(title);
     }
 }
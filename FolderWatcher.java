@@ -0,0 +1,330 @@
+package Prototype;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Follows the note files of open folders as they are changed by other programs.
+ * One thread waits on a WatchService for all folders. The titles touched by file events
+ * are collected until the folder has been quiet for a moment, then compared with the
+ * folder index, so a burst of events becomes one change listing only the notes that
+ * were added, removed or rewritten. Only folders kept as separate note files are
+ * watched; the segment store is written by this program alone.
+ */
+public class FolderWatcher implements Closeable {
+    // Changes are passed on once no event arrived for this long
+    static final long QUIET_MILLIS = Long.getLong("notes.watch.quietMillis", 200);
+    // Changes are passed on after this long even while events keep arriving
+    static final long MAX_DELAY_MILLIS = 2000;
+
+    private final WatchService watchService;
+    // The watched folders by their watch key
+    private final Map<WatchKey, Folder> folders = new ConcurrentHashMap<>();
+    // Receives the changes, on the watch thread
+    private final Consumer<Change> listener;
+    // Titles touched since the last change was passed on, by folder; used by the watch thread only
+    private final Map<Folder, Pending> pending = new HashMap<>();
+    private final Thread thread;
+
+    /**
+     * Starts the watch thread.
+     * @param listener receives the changes of every watched folder, on the watch thread
+     * @throws IOException if the file system cannot be watched
+     */
+    public FolderWatcher(Consumer<Change> listener) throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.listener = listener;
+        this.thread = NoteIOService.namedThreads("folder-watch", true).newThread(this::run);
+        thread.start();
+    }
+
+    /**
+     * Starts following the note files of a folder.
+     * @param folder the folder
+     * @return true if the folder is watched, false if its storage is not separate note files
+     * @throws IOException if the folder cannot be watched
+     */
+    public boolean watch(Folder folder) throws IOException {
+        if (!(folder.getStorage() instanceof LegacyNoteStorage)) {
+            return false;
+        }
+        WatchKey key = new File(folder.getName()).toPath().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        folders.put(key, folder);
+        return true;
+    }
+
+    /**
+     * Stops following a folder.
+     * @param folder the folder
+     */
+    public void unwatch(Folder folder) {
+        folders.entrySet().removeIf(entry -> {
+            if (entry.getValue() != folder) {
+                return false;
+            }
+            entry.getKey().cancel();
+            return true;
+        });
+    }
+
+    /**
+     * Stops the watch thread. Changes not passed on yet are dropped.
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    /**
+     * Collects events and passes on the changes once the folders are quiet.
+     */
+    private void run() {
+        long firstEvent = 0;
+        long lastEvent = 0;
+        try {
+            while (true) {
+                WatchKey key;
+                if (pending.isEmpty()) {
+                    key = watchService.take();
+                    firstEvent = System.nanoTime();
+                } else {
+                    long deadline = Math.min(lastEvent + TimeUnit.MILLISECONDS.toNanos(QUIET_MILLIS),
+                            firstEvent + TimeUnit.MILLISECONDS.toNanos(MAX_DELAY_MILLIS));
+                    long wait = deadline - System.nanoTime();
+                    key = wait > 0 ? watchService.poll(wait, TimeUnit.NANOSECONDS) : null;
+                }
+                if (key == null) {
+                    flush();
+                    continue;
+                }
+                lastEvent = System.nanoTime();
+                collect(key);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Takes the events of a watch key and notes the titles of the note files they name.
+     */
+    private void collect(WatchKey key) {
+        Folder folder = folders.get(key);
+        List<WatchEvent<?>> events = key.pollEvents();
+        if (!key.reset()) {
+            folders.remove(key);  // The directory is gone
+        }
+        if (folder == null) {
+            return;
+        }
+        Pending touched = pending.computeIfAbsent(folder, f -> new Pending());
+        for (WatchEvent<?> event : events) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                touched.rescan = true;  // Events were lost; compare the whole folder
+            } else {
+                String title = LegacyNoteStorage.noteTitleOf((Path) event.context());
+                if (title != null) {
+                    touched.titles.add(title);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares the touched notes of every folder with the folder index and passes on the changes.
+     */
+    private void flush() {
+        for (Map.Entry<Folder, Pending> entry : pending.entrySet()) {
+            Folder folder = entry.getKey();
+            if (!folders.containsValue(folder)) {
+                continue;  // No longer watched
+            }
+            try {
+                Change change = entry.getValue().rescan ? rescan(folder) : diff(folder, entry.getValue().titles);
+                if (!change.isEmpty()) {
+                    listener.accept(change);
+                }
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        pending.clear();
+    }
+
+    /**
+     * Compares some notes of a folder with what is stored.
+     * @param folder the folder
+     * @param titles the titles of the notes whose files were touched
+     * @return the change
+     */
+    static Change diff(Folder folder, Set<String> titles) {
+        LegacyNoteStorage storage = (LegacyNoteStorage) folder.getStorage();
+        Change change = new Change(folder);
+        for (String title : titles) {
+            Note stored = storage.describe(title);
+            boolean known = folder.getNoteByTitle(title) != null;
+            if (stored == null) {
+                if (known) {
+                    change.removed.add(title);
+                }
+            } else if (known) {
+                change.changed.put(title, stored);
+            } else {
+                change.added.add(stored);
+            }
+        }
+        return change;
+    }
+
+    /**
+     * Compares all notes of a folder with what is stored. Every note still stored counts as changed.
+     * @param folder the folder
+     * @return the change
+     * @throws IOException if the folder cannot be listed
+     */
+    static Change rescan(Folder folder) throws IOException {
+        Change change = new Change(folder);
+        Set<String> stored = new HashSet<>();
+        for (Note note : folder.getStorage().list()) {
+            stored.add(note.getTitle());
+            if (folder.getNoteByTitle(note.getTitle()) == null) {
+                change.added.add(note);
+            } else {
+                change.changed.put(note.getTitle(), note);
+            }
+        }
+        for (String title : folder.getTitles()) {
+            if (!stored.contains(title)) {
+                change.removed.add(title);
+            }
+        }
+        return change;
+    }
+
+    /**
+     * Compares the notes a folder lists, for example from a workspace snapshot, with what is stored.
+     * Only notes added or removed are reported; the search index finds rewritten notes by their stamps.
+     * @param folder the folder
+     * @return the change
+     * @throws IOException if the folder cannot be listed
+     */
+    static Change verify(Folder folder) throws IOException {
+        Change change = new Change(folder);
+        Set<String> stored = new HashSet<>();
+        for (Note note : folder.getStorage().list()) {
+            stored.add(note.getTitle());
+            if (folder.getNoteByTitle(note.getTitle()) == null) {
+                change.added.add(note);
+            }
+        }
+        for (String title : folder.getTitles()) {
+            if (!stored.contains(title)) {
+                change.removed.add(title);
+            }
+        }
+        return change;
+    }
+
+    /**
+     * The titles touched in one folder since the last change was passed on.
+     */
+    private static class Pending {
+        final Set<String> titles = new HashSet<>();
+        boolean rescan;
+    }
+
+    /**
+     * Notes of a folder that were added, removed or rewritten on disk.
+     */
+    public static class Change {
+        private final Folder folder;
+        private final List<Note> added = new ArrayList<>();
+        private final Set<String> removed = new HashSet<>();
+        private final Map<String, Note> changed = new HashMap<>();
+
+        Change(Folder folder) {
+            this.folder = folder;
+        }
+
+        /**
+         * Returns the folder that changed.
+         * @return the folder
+         */
+        public Folder getFolder() {
+            return folder;
+        }
+
+        /**
+         * Returns the notes stored but not in the folder index.
+         * @return notes with title and creation time; their content is null
+         */
+        public List<Note> getAdded() {
+            return Collections.unmodifiableList(added);
+        }
+
+        /**
+         * Returns the titles in the folder index that are no longer stored.
+         * @return the titles
+         */
+        public Set<String> getRemoved() {
+            return Collections.unmodifiableSet(removed);
+        }
+
+        /**
+         * Returns the titles of the indexed notes whose files were written.
+         * @return the titles
+         */
+        public Set<String> getChanged() {
+            return Collections.unmodifiableSet(changed.keySet());
+        }
+
+        /**
+         * Returns the indexed notes whose files were written, as they are now stored.
+         * @return notes with title, creation and modification time; their content is null
+         */
+        public Collection<Note> getChangedNotes() {
+            return Collections.unmodifiableCollection(changed.values());
+        }
+
+        /**
+         * Returns the titles of all notes in the change.
+         * @return the titles
+         */
+        public Set<String> getTitles() {
+            Set<String> titles = new HashSet<>(removed);
+            titles.addAll(changed.keySet());
+            for (Note note : added) {
+                titles.add(note.getTitle());
+            }
+            return titles;
+        }
+
+        /**
+         * Checks whether nothing changed.
+         * @return true if no note was added, removed or rewritten
+         */
+        public boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty() && changed.isEmpty();
+        }
+    }
+}
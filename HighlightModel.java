@@ -0,0 +1,412 @@
+package Prototype;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The highlighted runs of a note's text, each with a color.
+ * Runs are kept disjoint in a treap ordered by start offset, which makes the tree an interval
+ * tree: the runs overlapping a range are found with one descent and an in-order walk.
+ * A new run replaces the parts of other-colored runs it covers and merges with overlapping or
+ * adjacent runs of its color, so repeated highlighting cannot pile up. Offsets follow text edits:
+ * an edit splits the tree at the edit and shifts the part after it by tagging its root, so a
+ * keystroke costs a few steps down the tree however many runs follow it. Tags are pushed down
+ * to the children when a later operation passes through the node.
+ * Colors are stored as 0xRRGGBB values so the model has no AWT dependency.
+ */
+public class HighlightModel {
+    // Color of highlights stored before colors were saved
+    public static final int DEFAULT_RGB = 0xFFFF00;
+
+    // Root of the treap of disjoint runs, or null if there are none
+    private Node root;
+
+    /**
+     * Highlights a range, replacing other colors in it and merging with runs of the same color.
+     * @param start the start offset, inclusive
+     * @param end the end offset, exclusive
+     * @param rgb the color as 0xRRGGBB
+     */
+    public synchronized void add(int start, int end, int rgb) {
+        if (end <= start) {
+            return;
+        }
+        rgb &= 0xFFFFFF;
+        int newStart = start;
+        int newEnd = end;
+        for (Run run : overlapping(start - 1, end + 1)) {
+            if (run.rgb == rgb) {
+                // Same color: merge overlapping or touching runs
+                remove(run.start);
+                newStart = Math.min(newStart, run.start);
+                newEnd = Math.max(newEnd, run.end);
+            } else if (run.start < end && run.end > start) {
+                // Other color: keep only the parts outside the new run
+                remove(run.start);
+                if (run.start < start) {
+                    put(run.start, start, run.rgb);
+                }
+                if (run.end > end) {
+                    put(end, run.end, run.rgb);
+                }
+            }
+        }
+        put(newStart, newEnd, rgb);
+    }
+
+    /**
+     * Removes all highlights.
+     */
+    public synchronized void clear() {
+        root = null;
+    }
+
+    /**
+     * Returns the number of runs.
+     * @return the run count
+     */
+    public synchronized int size() {
+        return size(root);
+    }
+
+    /**
+     * Returns the runs overlapping a range, in order.
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, exclusive
+     * @return the overlapping runs
+     */
+    public synchronized List<Run> getRuns(int from, int to) {
+        return overlapping(from, to);
+    }
+
+    /**
+     * Returns all runs in order.
+     * @return the runs
+     */
+    public synchronized List<Run> getRuns() {
+        return overlapping(Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns a copy of the model that does not change with this one.
+     * @return the copy
+     */
+    public synchronized HighlightModel copy() {
+        HighlightModel copy = new HighlightModel();
+        copy.root = copy(root);
+        return copy;
+    }
+
+    /**
+     * Moves the runs after an insertion. A run containing the insertion point grows.
+     * @param offset where the text was inserted
+     * @param length how many characters were inserted
+     */
+    public synchronized void insertUpdate(int offset, int length) {
+        Node[] parts = split(root, offset);
+        Node containing = last(parts[0]);
+        if (containing != null && containing.end > offset) {
+            containing.end += length;
+        }
+        shift(parts[1], length);
+        root = merge(parts[0], parts[1]);
+    }
+
+    /**
+     * Moves and trims the runs after a removal, dropping runs that were removed entirely.
+     * @param offset where the text was removed
+     * @param length how many characters were removed
+     */
+    public synchronized void removeUpdate(int offset, int length) {
+        int removedEnd = offset + length;
+        Node[] parts = split(root, offset);
+        Node before = parts[0];
+        Node[] rest = split(parts[1], removedEnd);
+        Node after = rest[1];
+
+        // A run starting before the removal loses the part removed
+        Node last = last(before);
+        if (last != null && last.end > offset) {
+            last.end = last.end > removedEnd ? last.end - length : offset;
+        }
+        // Runs starting in the removal are dropped, except what the last one has past it
+        Node cut = last(rest[0]);
+        shift(after, -length);
+        if (cut != null && cut.end > removedEnd) {
+            after = merge(new Node(offset, cut.end - length, cut.rgb), after);
+        }
+
+        // Runs of one color that now touch become one run
+        last = last(before);
+        Node first = first(after);
+        if (last != null && first != null && last.end == first.start && last.rgb == first.rgb) {
+            last.end = first.end;
+            after = split(after, first.start + 1)[1];
+        }
+        root = merge(before, after);
+    }
+
+    /**
+     * Collects the runs that overlap a range, in order.
+     */
+    private List<Run> overlapping(int from, int to) {
+        List<Run> result = new ArrayList<>();
+        collect(root, 0, from, to, result);
+        return result;
+    }
+
+    /**
+     * Adds the runs of a subtree that overlap a range. Runs are disjoint, so the runs left of
+     * a node end by its start and the runs right of it start from its end.
+     * @param shift the tags of the node's ancestors, not yet pushed down to it
+     */
+    private static void collect(Node node, int shift, int from, int to, List<Run> result) {
+        if (node == null) {
+            return;
+        }
+        int start = node.start + shift;
+        int end = node.end + shift;
+        if (start > from) {
+            collect(node.left, shift + node.shift, from, to, result);
+        }
+        if (start < to && end > from) {
+            result.add(new Run(start, end, node.rgb));
+        }
+        if (end < to) {
+            collect(node.right, shift + node.shift, from, to, result);
+        }
+    }
+
+    private void put(int start, int end, int rgb) {
+        Node[] parts = split(root, start);
+        root = merge(merge(parts[0], new Node(start, end, rgb)), parts[1]);
+    }
+
+    private void remove(int start) {
+        Node[] parts = split(root, start);
+        root = merge(parts[0], split(parts[1], start + 1)[1]);
+    }
+
+    /**
+     * Splits a subtree into the runs starting before an offset and the others.
+     * @return the two subtrees
+     */
+    private static Node[] split(Node node, int offset) {
+        if (node == null) {
+            return new Node[2];
+        }
+        node.push();
+        Node[] parts;
+        if (node.start < offset) {
+            parts = split(node.right, offset);
+            node.right = parts[0];
+            parts[0] = node;
+        } else {
+            parts = split(node.left, offset);
+            node.left = parts[1];
+            parts[1] = node;
+        }
+        node.update();
+        return parts;
+    }
+
+    /**
+     * Joins two subtrees, all of whose runs in the first start before those in the second.
+     */
+    private static Node merge(Node first, Node second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        if (first.priority > second.priority) {
+            first.push();
+            first.right = merge(first.right, second);
+            first.update();
+            return first;
+        }
+        second.push();
+        second.left = merge(first, second.left);
+        second.update();
+        return second;
+    }
+
+    /**
+     * Returns the first run of a subtree with its offsets up to date.
+     */
+    private static Node first(Node node) {
+        while (node != null) {
+            node.push();
+            if (node.left == null) {
+                break;
+            }
+            node = node.left;
+        }
+        return node;
+    }
+
+    /**
+     * Returns the last run of a subtree with its offsets up to date.
+     */
+    private static Node last(Node node) {
+        while (node != null) {
+            node.push();
+            if (node.right == null) {
+                break;
+            }
+            node = node.right;
+        }
+        return node;
+    }
+
+    private static void shift(Node node, int distance) {
+        if (node != null) {
+            node.start += distance;
+            node.end += distance;
+            node.shift += distance;
+        }
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static Node copy(Node node) {
+        if (node == null) {
+            return null;
+        }
+        Node copy = new Node(node.start, node.end, node.rgb);
+        copy.shift = node.shift;
+        copy.left = copy(node.left);
+        copy.right = copy(node.right);
+        copy.size = node.size;
+        return copy;
+    }
+
+    /**
+     * Encodes the runs compactly: a palette of the colors used, then for every run the gap
+     * since the previous run, its length and its palette index.
+     * For example "ffff00,ffafaf;4,5,0;0,3,1" is yellow 4-9 followed by pink 9-12.
+     * @return the encoded runs, empty if there are none
+     */
+    public synchronized String encode() {
+        if (root == null) {
+            return "";
+        }
+        List<Integer> palette = new ArrayList<>();
+        StringBuilder encodedRuns = new StringBuilder();
+        int previousEnd = 0;
+        for (Run run : getRuns()) {
+            int colorIndex = palette.indexOf(run.rgb);
+            if (colorIndex < 0) {
+                colorIndex = palette.size();
+                palette.add(run.rgb);
+            }
+            encodedRuns.append(';').append(run.start - previousEnd).append(',')
+                    .append(run.end - run.start).append(',').append(colorIndex);
+            previousEnd = run.end;
+        }
+        StringBuilder encoded = new StringBuilder();
+        for (int i = 0; i < palette.size(); i++) {
+            if (i > 0) {
+                encoded.append(',');
+            }
+            encoded.append(String.format("%06x", palette.get(i)));
+        }
+        return encoded.append(encodedRuns).toString();
+    }
+
+    /**
+     * Decodes runs written by encode.
+     * @param encoded the encoded runs
+     * @return the model
+     * @throws IllegalArgumentException if the text is not valid encoded runs
+     */
+    public static HighlightModel decode(String encoded) {
+        HighlightModel model = new HighlightModel();
+        if (encoded == null || encoded.isEmpty()) {
+            return model;
+        }
+        String[] parts = encoded.split(";");
+        String[] colors = parts[0].split(",");
+        int[] palette = new int[colors.length];
+        for (int i = 0; i < colors.length; i++) {
+            palette[i] = Integer.parseInt(colors[i], 16);
+        }
+        int previousEnd = 0;
+        for (int i = 1; i < parts.length; i++) {
+            String[] fields = parts[i].split(",");
+            if (fields.length != 3) {
+                throw new IllegalArgumentException("Invalid highlight run: " + parts[i]);
+            }
+            int start = previousEnd + Integer.parseInt(fields[0]);
+            int end = start + Integer.parseInt(fields[1]);
+            model.put(start, end, palette[Integer.parseInt(fields[2])]);
+            previousEnd = end;
+        }
+        return model;
+    }
+
+    /**
+     * A run in the treap. Its offsets include the tags of its ancestors that were pushed down
+     * to it; its own tag is still to be added to the offsets of its children.
+     */
+    private static final class Node {
+        private int start;
+        private int end;
+        private final int rgb;
+        private final int priority = ThreadLocalRandom.current().nextInt();
+        // Distance the runs below this node have yet to move
+        private int shift;
+        private int size = 1;
+        private Node left;
+        private Node right;
+
+        Node(int start, int end, int rgb) {
+            this.start = start;
+            this.end = end;
+            this.rgb = rgb;
+        }
+
+        void push() {
+            if (shift != 0) {
+                HighlightModel.shift(left, shift);
+                HighlightModel.shift(right, shift);
+                shift = 0;
+            }
+        }
+
+        void update() {
+            size = 1 + HighlightModel.size(left) + HighlightModel.size(right);
+        }
+    }
+
+    /**
+     * A highlighted range of text with its color.
+     */
+    public static class Run {
+        private final int start;
+        private final int end;
+        private final int rgb;
+
+        Run(int start, int end, int rgb) {
+            this.start = start;
+            this.end = end;
+            this.rgb = rgb;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+
+        public int getRgb() {
+            return rgb;
+        }
+    }
+}
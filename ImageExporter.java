@@ -0,0 +1,521 @@
+package Prototype;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.font.FontRenderContext;
+import java.awt.font.LineBreakMeasurer;
+import java.awt.font.LineMetrics;
+import java.awt.font.TextAttribute;
+import java.awt.font.TextLayout;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.AttributedString;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders notes to image files without the editor.
+ * The whole note is laid out with the font and width given, then painted one band of
+ * TILE_HEIGHT rows at a time while the image writer encodes the rows already painted,
+ * so memory stays at one band whatever the length of the note. Nothing here touches
+ * Swing components, so exports run on any thread and folders are exported in parallel.
+ */
+public class ImageExporter {
+    // Image format written when the file name names no other
+    public static final String DEFAULT_FORMAT = "png";
+    // Width of the images exported without a user interface, in pixels
+    static final int DEFAULT_WIDTH = 800;
+    // Rows painted at a time
+    static final int TILE_HEIGHT = 256;
+    // Space around the text, in pixels
+    private static final int MARGIN = 8;
+
+    // Font the text is drawn in
+    private final Font font;
+    // Width of the images, in pixels
+    private final int width;
+    // Antialiased, with fractional metrics, the same for layout and painting
+    private final FontRenderContext renderContext = new FontRenderContext(null, true, true);
+
+    /**
+     * Constructs an exporter.
+     * @param font the font the text is drawn in
+     * @param width the width of the images in pixels; longer lines are wrapped
+     */
+    public ImageExporter(Font font, int width) {
+        this.font = font;
+        this.width = Math.max(width, 2 * MARGIN + 1);
+    }
+
+    /**
+     * Writes a note with its highlights to an image file.
+     * The format follows the file extension. PNG is streamed a band at a time; the JDK
+     * JPEG writer asks for one raster of the whole image, so it needs memory for all of it
+     * and cannot write images taller than 65500 pixels.
+     * @param note the note to export
+     * @param output the image file
+     * @param cancelled stops the export, which deletes the partly written file, once true
+     * @throws IOException if the image cannot be written
+     * @throws CancellationException if the export was cancelled
+     */
+    public void export(Note note, File output, AtomicBoolean cancelled) throws IOException {
+        OperationEvent event = NoteMetrics.begin(NoteMetrics.Operation.EXPORT_IMAGE);
+        NoteImage image = new NoteImage(note.getContent(), note.getHighlights(), cancelled);
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersBySuffix(formatOf(output));
+        if (!writers.hasNext()) {
+            throw new IOException("No image writer for " + output.getName());
+        }
+        ImageWriter writer = writers.next();
+        // Written next to the image and moved over it, so a failed export leaves no partial file
+        File temp = new File(output.getPath() + ".tmp");
+        temp.delete();
+        boolean written = false;
+        try (ImageOutputStream out = new FileImageOutputStream(temp)) {
+            writer.setOutput(out);
+            writer.write(image);
+            written = true;
+        } finally {
+            writer.dispose();
+            if (!written) {
+                temp.delete();
+            }
+        }
+        Files.move(temp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        NoteMetrics.end(event, output.getName(), (long) image.getWidth() * image.getHeight());
+    }
+
+    /**
+     * Exports every note of a folder into a directory, on as many threads as there are cores.
+     * Each note becomes an image named after its title. Notes too large to read are left out.
+     * @param folder the folder to export
+     * @param directory the directory the images are written to
+     * @param format the image format, for example png
+     * @return the export, already started; its counts report the progress
+     */
+    public BatchExport exportFolder(Folder folder, File directory, String format) {
+        List<String> titles = List.copyOf(folder.getTitles());
+        BatchExport batch = new BatchExport(titles.size());
+        directory.mkdirs();
+        int threads = Math.min(Math.max(titles.size(), 1), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads, NoteIOService.namedThreads("image-export", true));
+        CompletableFuture<?>[] exports = new CompletableFuture<?>[titles.size()];
+        for (int i = 0; i < exports.length; i++) {
+            String title = titles.get(i);
+            exports[i] = CompletableFuture.runAsync(() -> {
+                if (batch.isCancelled()) {
+                    return;
+                }
+                try {
+                    Note note = isTooLarge(folder, title) ? null : folder.loadNote(title);
+                    if (note == null || note.getContent() == null) {
+                        batch.skipped.incrementAndGet();
+                    } else {
+                        export(note, new File(directory, title + "." + format), batch.cancelled);
+                        batch.exported.incrementAndGet();
+                    }
+                } catch (CancellationException e) {
+                    // Nothing was written
+                } catch (IOException | RuntimeException e) {
+                    e.printStackTrace();
+                    batch.failed.incrementAndGet();
+                }
+            }, executor);
+        }
+        CompletableFuture.allOf(exports).whenComplete((done, e) -> {
+            executor.shutdown();
+            batch.done.complete(batch);
+        });
+        return batch;
+    }
+
+    /**
+     * Exports every note of a folder with a plain monospaced font and waits until it is done.
+     * Used without a user interface; works with java.awt.headless=true.
+     * @param folder the folder to export
+     * @param directory the directory the images are written to
+     * @param format the image format, for example png
+     * @return the number of notes written as images
+     * @throws IOException if any note could not be exported
+     */
+    static int exportFolderAndWait(Folder folder, File directory, String format) throws IOException {
+        ImageExporter exporter = new ImageExporter(new Font(Font.MONOSPACED, Font.PLAIN, 12), DEFAULT_WIDTH);
+        BatchExport batch = exporter.exportFolder(folder, directory, format).getDone().join();
+        if (batch.getFailed() > 0) {
+            throw new IOException(batch.getFailed() + " of " + batch.getTotal() + " notes could not be exported");
+        }
+        return batch.getExported();
+    }
+
+    /**
+     * Checks whether a note is one that is mapped rather than read, see MappedDocument.
+     */
+    private static boolean isTooLarge(Folder folder, String title) {
+        return folder.getStorage() instanceof LegacyNoteStorage
+                && MappedDocument.shouldMap(((LegacyNoteStorage) folder.getStorage()).getNoteFile(title));
+    }
+
+    /**
+     * Returns the image format named by the extension of a file.
+     * @param file the image file
+     * @return the extension, or DEFAULT_FORMAT if the file has none
+     */
+    static String formatOf(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? DEFAULT_FORMAT : name.substring(dot + 1).toLowerCase();
+    }
+
+    /**
+     * Progress of a folder export. Counts are updated by the exporting threads.
+     */
+    public static class BatchExport {
+        private final int total;
+        private final AtomicInteger exported = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private final CompletableFuture<BatchExport> done = new CompletableFuture<>();
+
+        BatchExport(int total) {
+            this.total = total;
+        }
+
+        /**
+         * Returns the number of notes in the folder.
+         * @return the number of notes
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * Returns the number of notes finished, whether exported, skipped or failed.
+         * @return the number of finished notes
+         */
+        public int getCompleted() {
+            return exported.get() + skipped.get() + failed.get();
+        }
+
+        /**
+         * Returns the number of notes written as images.
+         * @return the number of exported notes
+         */
+        public int getExported() {
+            return exported.get();
+        }
+
+        /**
+         * Returns the number of notes left out because they are empty or too large.
+         * @return the number of skipped notes
+         */
+        public int getSkipped() {
+            return skipped.get();
+        }
+
+        /**
+         * Returns the number of notes that could not be exported.
+         * @return the number of failed notes
+         */
+        public int getFailed() {
+            return failed.get();
+        }
+
+        /**
+         * Stops the export. Images being written are deleted and no more are started.
+         */
+        public void cancel() {
+            cancelled.set(true);
+        }
+
+        /**
+         * Returns whether the export was cancelled.
+         * @return true if cancelled
+         */
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+
+        /**
+         * Returns a future completed once every note is finished or the export was cancelled.
+         * @return the future, completed with this export
+         */
+        public CompletableFuture<BatchExport> getDone() {
+            return done;
+        }
+    }
+
+    /**
+     * The image of a laid out note, painted a band at a time as the writer asks for its rows.
+     * The layout keeps only where each wrapped line starts and ends; text layouts are made
+     * again for the lines of the band being painted.
+     */
+    private class NoteImage implements RenderedImage {
+        private final String text;
+        private final HighlightModel highlights;
+        private final AtomicBoolean cancelled;
+        // Start and end of every wrapped line, without the line separator
+        private int[] lineStarts = new int[64];
+        private int[] lineEnds = new int[64];
+        private int lineCount;
+        private final int lineHeight;
+        private final float ascent;
+        private final int height;
+        // The band last painted, and its first row
+        private final BufferedImage band;
+        private int bandY = -1;
+
+        NoteImage(String text, HighlightModel highlights, AtomicBoolean cancelled) {
+            // Tabs are drawn as spaces; one for one, so offsets stay those of the note
+            this.text = text.replace('\t', ' ');
+            this.highlights = highlights;
+            this.cancelled = cancelled;
+            LineMetrics metrics = font.getLineMetrics("Ag", renderContext);
+            this.ascent = metrics.getAscent();
+            this.lineHeight = (int) Math.ceil(metrics.getAscent() + metrics.getDescent() + metrics.getLeading());
+            layout();
+            this.height = 2 * MARGIN + Math.max(lineCount, 1) * lineHeight;
+            this.band = new BufferedImage(width, TILE_HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        }
+
+        /**
+         * Breaks every paragraph of the text into lines that fit the width.
+         */
+        private void layout() {
+            float wrapWidth = width - 2 * MARGIN;
+            int start = 0;
+            while (start <= text.length()) {
+                checkCancelled();
+                int end = text.indexOf('\n', start);
+                if (end < 0) {
+                    end = text.length();
+                }
+                if (end == start) {
+                    addLine(start, end);
+                } else {
+                    AttributedString paragraph = new AttributedString(text.substring(start, end));
+                    paragraph.addAttribute(TextAttribute.FONT, font);
+                    LineBreakMeasurer measurer = new LineBreakMeasurer(paragraph.getIterator(), renderContext);
+                    int position = 0;
+                    while (position < end - start) {
+                        int next = measurer.nextOffset(wrapWidth);
+                        addLine(start + position, start + next);
+                        measurer.setPosition(next);
+                        position = next;
+                    }
+                }
+                start = end + 1;
+            }
+        }
+
+        private void addLine(int start, int end) {
+            if (lineCount == lineStarts.length) {
+                lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+                lineEnds = Arrays.copyOf(lineEnds, lineCount * 2);
+            }
+            lineStarts[lineCount] = start;
+            lineEnds[lineCount] = end;
+            lineCount++;
+        }
+
+        private void checkCancelled() {
+            if (cancelled.get()) {
+                throw new CancellationException("Export cancelled");
+            }
+        }
+
+        /**
+         * Paints the band of TILE_HEIGHT rows starting at a row, unless it is the band painted last.
+         */
+        private void paintBand(int y) {
+            if (y == bandY) {
+                return;
+            }
+            checkCancelled();
+            bandY = y;
+            Graphics2D graphics = band.createGraphics();
+            try {
+                graphics.setColor(Color.WHITE);
+                graphics.fillRect(0, 0, width, TILE_HEIGHT);
+                graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+                graphics.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+                graphics.translate(MARGIN, MARGIN - y);
+                int first = Math.max(0, (y - MARGIN) / lineHeight);
+                int last = Math.min(lineCount - 1, (y + TILE_HEIGHT - MARGIN) / lineHeight);
+                for (int line = first; line <= last; line++) {
+                    paintLine(graphics, line);
+                }
+            } finally {
+                graphics.dispose();
+            }
+        }
+
+        private void paintLine(Graphics2D graphics, int line) {
+            int start = lineStarts[line];
+            int end = lineEnds[line];
+            int top = line * lineHeight;
+            if (start == end) {
+                return;
+            }
+            TextLayout layout = new TextLayout(text.substring(start, end), font, renderContext);
+            for (HighlightModel.Run run : highlights.getRuns(start, end)) {
+                Shape shape = layout.getLogicalHighlightShape(Math.max(run.getStart(), start) - start, Math.min(run.getEnd(), end) - start);
+                graphics.setColor(new Color(run.getRgb()));
+                graphics.translate(0, top + ascent);
+                graphics.fill(shape);
+                graphics.translate(0, -(top + ascent));
+            }
+            graphics.setColor(Color.BLACK);
+            layout.draw(graphics, 0, top + ascent);
+        }
+
+        /**
+         * Returns the rows of a rectangle, copied out of the bands covering it.
+         */
+        @Override
+        public Raster getData(Rectangle rect) {
+            WritableRaster raster = band.getRaster().createCompatibleWritableRaster(rect.x, rect.y, rect.width, rect.height);
+            copyData(raster);
+            return raster;
+        }
+
+        @Override
+        public WritableRaster copyData(WritableRaster raster) {
+            if (raster == null) {
+                raster = band.getRaster().createCompatibleWritableRaster(0, 0, width, height);
+            }
+            int minY = raster.getMinY();
+            int maxY = minY + raster.getHeight();
+            for (int y = minY - minY % TILE_HEIGHT; y < maxY; y += TILE_HEIGHT) {
+                paintBand(y);
+                int from = Math.max(y, minY);
+                int to = Math.min(y + TILE_HEIGHT, maxY);
+                Raster rows = band.getRaster().createChild(raster.getMinX(), from - y, raster.getWidth(), to - from, raster.getMinX(), from, null);
+                raster.setRect(rows);
+            }
+            return raster;
+        }
+
+        /**
+         * Returns the whole image. This paints every band into one raster, so it needs
+         * memory for all of it; image writers that stream ask for rows instead.
+         */
+        @Override
+        public Raster getData() {
+            return copyData(null);
+        }
+
+        @Override
+        public Raster getTile(int tileX, int tileY) {
+            return getData(new Rectangle(0, tileY * TILE_HEIGHT, width, Math.min(TILE_HEIGHT, height - tileY * TILE_HEIGHT)));
+        }
+
+        @Override
+        public Vector<RenderedImage> getSources() {
+            return null;
+        }
+
+        @Override
+        public Object getProperty(String name) {
+            return java.awt.Image.UndefinedProperty;
+        }
+
+        @Override
+        public String[] getPropertyNames() {
+            return null;
+        }
+
+        @Override
+        public ColorModel getColorModel() {
+            return band.getColorModel();
+        }
+
+        @Override
+        public SampleModel getSampleModel() {
+            return band.getSampleModel().createCompatibleSampleModel(width, TILE_HEIGHT);
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public int getMinX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinY() {
+            return 0;
+        }
+
+        @Override
+        public int getNumXTiles() {
+            return 1;
+        }
+
+        @Override
+        public int getNumYTiles() {
+            return (height + TILE_HEIGHT - 1) / TILE_HEIGHT;
+        }
+
+        @Override
+        public int getMinTileX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinTileY() {
+            return 0;
+        }
+
+        @Override
+        public int getTileWidth() {
+            return width;
+        }
+
+        @Override
+        public int getTileHeight() {
+            return TILE_HEIGHT;
+        }
+
+        @Override
+        public int getTileGridXOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getTileGridYOffset() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package Prototype;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in power-of-two microsecond buckets.
+ * Recording is lock-free and allocation-free, so it can be used on hot paths.
+ */
+public class LatencyHistogram {
+    // Bucket i counts latencies below 2^i microseconds; the last bucket takes everything longer
+    private static final int BUCKETS = 32;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records one latency.
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        counts.incrementAndGet(bucket);
+        totalNanos.addAndGet(nanos);
+        maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Returns the number of recorded latencies.
+     * @return the count
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the mean recorded latency.
+     * @return the mean in microseconds, or 0 if nothing was recorded
+     */
+    public double getMeanMicros() {
+        long count = getCount();
+        return count == 0 ? 0 : totalNanos.get() / 1000.0 / count;
+    }
+
+    /**
+     * Returns the longest recorded latency.
+     * @return the maximum in microseconds
+     */
+    public long getMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxNanos.get());
+    }
+
+    /**
+     * Returns an upper bound for a percentile of the recorded latencies.
+     * @param percentile the percentile, between 0 and 100
+     * @return the upper edge of the bucket holding the percentile, in microseconds
+     */
+    public long getPercentileMicros(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= Math.max(1, rank)) {
+                return i == BUCKETS - 1 ? getMaxMicros() : 1L << i;
+            }
+        }
+        return getMaxMicros();
+    }
+
+    /**
+     * Returns the count of every bucket; bucket i holds latencies below 2^i microseconds.
+     * @return the bucket counts
+     */
+    public long[] getBucketCounts() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Forgets all recorded latencies. Latencies recorded meanwhile may be partly kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.1fus p50<=%dus p99<=%dus max=%dus",
+                getCount(), getMeanMicros(), getPercentileMicros(50), getPercentileMicros(99), getMaxMicros());
+    }
+}
@@ -0,0 +1,366 @@
+package Prototype;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores each note as its own file, the layout used before the segment store.
+ * Notes are written as .properties files, compressed by the default NoteCodec; .txt files
+ * written by Note.saveToFile are read as well and stay plain text.
+ */
+public class LegacyNoteStorage implements NoteStorage {
+    // File extension used by the notes saved from MainApp
+    static final String PROPERTIES_EXTENSION = ".properties";
+    // File extension used by Note.saveToFile
+    static final String TEXT_EXTENSION = ".txt";
+    // File caching the creation time stored in each note, so listing the folder reads no note
+    static final String CREATED_FILE = ".notes.created";
+
+    // The folder holding the note files
+    private final File directory;
+    // Codec for the notes saved
+    private final NoteCodec codec = NoteCodec.getDefault();
+    // Sizes and times of the notes compressed and decompressed
+    private final NoteCodec.Stats compressionStats = new NoteCodec.Stats();
+    // Serializes the writes of each note with other storages of the folder
+    private final NoteLocks locks;
+    // Creation times by title, read from CREATED_FILE on first use; null until then
+    private Map<String, LocalDateTime> createdTimes;
+    // Whether createdTimes has entries that CREATED_FILE does not
+    private boolean createdChanged;
+
+    /**
+     * Constructs a LegacyNoteStorage for a folder.
+     * @param directory the folder holding the note files
+     */
+    public LegacyNoteStorage(File directory) {
+        this.directory = directory;
+        this.locks = NoteLocks.acquire(directory);
+    }
+
+    /**
+     * Lists the note files in the folder. File attributes are read in parallel.
+     * A .properties note wins over a .txt note with the same title.
+     * Creation times come from CREATED_FILE; notes missing from it are read once to add them.
+     */
+    @Override
+    public List<Note> list() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath())) {
+            for (Path file : stream) {
+                if (noteTitleOf(file) != null) {
+                    files.add(file);
+                }
+            }
+        }
+
+        Map<String, Note> notes = new ConcurrentHashMap<>();
+        files.parallelStream().forEach(file -> {
+            Note note = readMetadata(file);
+            if (note != null) {
+                if (file.getFileName().toString().endsWith(PROPERTIES_EXTENSION)) {
+                    notes.put(note.getTitle(), note);
+                } else {
+                    notes.putIfAbsent(note.getTitle(), note);
+                }
+            }
+        });
+        saveCreatedTimes();
+        return new ArrayList<>(notes.values());
+    }
+
+    /**
+     * Reads the title, creation and modification time of one stored note without its content.
+     * @param title the title of the note
+     * @return the note with null content, or null if it is not stored
+     */
+    Note describe(String title) {
+        File file = getNoteFile(title);
+        return file == null ? null : readMetadata(file.toPath());
+    }
+
+    /**
+     * Creates a note without content from the attributes of a note file,
+     * with the file's last modified time as the note's modification time.
+     * A .properties note has the creation time it stores; a .txt note, which is never
+     * replaced, the creation time of its file. The file of a .properties note is replaced
+     * by every save, so its own creation time is that of the last save.
+     * @param file the note file
+     * @return the note, or null if the attributes could not be read
+     */
+    private Note readMetadata(Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            String title = noteTitleOf(file);
+            LocalDateTime creationTime = file.getFileName().toString().endsWith(PROPERTIES_EXTENSION)
+                    ? createdTime(title, file)
+                    : LocalDateTime.ofInstant(attributes.creationTime().toInstant(), ZoneId.systemDefault());
+            Note note = new Note(title, null, creationTime);
+            note.setModifiedTime(LocalDateTime.ofInstant(attributes.lastModifiedTime().toInstant(), ZoneId.systemDefault()));
+            return note;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Returns the creation time stored in a .properties note, from CREATED_FILE if it is
+     * there and from the note otherwise.
+     */
+    private LocalDateTime createdTime(String title, Path file) throws IOException {
+        LocalDateTime creationTime = createdTimes().get(title);
+        if (creationTime == null) {
+            creationTime = Note.loadFromProperties(file.toFile(), compressionStats).getCreationTime();
+            rememberCreated(title, creationTime);
+        }
+        return creationTime;
+    }
+
+    /**
+     * Returns the cached creation times, reading CREATED_FILE the first time.
+     * A damaged file is ignored; the notes are read again instead.
+     */
+    private synchronized Map<String, LocalDateTime> createdTimes() {
+        if (createdTimes == null) {
+            createdTimes = new ConcurrentHashMap<>();
+            File file = new File(directory, CREATED_FILE);
+            if (file.exists()) {
+                Properties props = new Properties();
+                try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                    props.load(reader);
+                    for (String title : props.stringPropertyNames()) {
+                        createdTimes.put(title, LocalDateTime.parse(props.getProperty(title)));
+                    }
+                } catch (IOException | RuntimeException e) {
+                    e.printStackTrace();
+                    createdTimes.clear();
+                }
+            }
+        }
+        return createdTimes;
+    }
+
+    /**
+     * Caches the creation time of a note; saveCreatedTimes writes it to CREATED_FILE.
+     */
+    private synchronized void rememberCreated(String title, LocalDateTime creationTime) {
+        if (creationTime == null) {
+            createdChanged |= createdTimes().remove(title) != null;
+        } else if (!creationTime.equals(createdTimes().put(title, creationTime))) {
+            createdChanged = true;
+        }
+    }
+
+    /**
+     * Writes the cached creation times if notes were added or removed since they were written.
+     * The file is only a cache, so it is not locked; a note missing from it is read again.
+     */
+    private synchronized void saveCreatedTimes() {
+        if (!createdChanged) {
+            return;
+        }
+        Properties props = new Properties();
+        for (Map.Entry<String, LocalDateTime> entry : createdTimes.entrySet()) {
+            props.setProperty(entry.getKey(), entry.getValue().toString());
+        }
+        StringWriter writer = new StringWriter();
+        try {
+            props.store(writer, "Note creation times");
+            DurableWriter.getDefault().write(new File(directory, CREATED_FILE).toPath(), writer.toString().getBytes(StandardCharsets.UTF_8));
+            createdChanged = false;
+        } catch (IOException e) {
+            e.printStackTrace();  // Written with the next change
+        }
+    }
+
+    /**
+     * Returns the note title for a note file name.
+     * @param file the file to check
+     * @return the title, or null if the file is not a note file
+     */
+    static String noteTitleOf(Path file) {
+        String fileName = file.getFileName().toString();
+        if (fileName.endsWith(PROPERTIES_EXTENSION)) {
+            return fileName.substring(0, fileName.length() - PROPERTIES_EXTENSION.length());
+        }
+        if (fileName.endsWith(TEXT_EXTENSION)) {
+            return fileName.substring(0, fileName.length() - TEXT_EXTENSION.length());
+        }
+        return null;
+    }
+
+    /**
+     * Returns the file a note is stored in.
+     * @param title the title of the note
+     * @return the .properties or .txt file of the note, or null if there is none
+     */
+    File getNoteFile(String title) {
+        File propertiesFile = new File(directory, title + PROPERTIES_EXTENSION);
+        if (propertiesFile.exists()) {
+            return propertiesFile;
+        }
+        File textFile = new File(directory, title + TEXT_EXTENSION);
+        return textFile.exists() ? textFile : null;
+    }
+
+    @Override
+    public Note load(String title) throws IOException {
+        File file = getNoteFile(title);
+        if (file == null) {
+            return null;
+        }
+        if (file.getName().endsWith(PROPERTIES_EXTENSION)) {
+            return Note.loadFromProperties(file, compressionStats);
+        }
+        if (NoteMetrics.isCollecting()) {
+            NoteMetrics.addBytesRead(file.length());
+        }
+        Note note = new Note(title, null);
+        note.loadFromFile(directory.getPath());
+        return note;
+    }
+
+    @Override
+    public void save(Note note) throws IOException {
+        NoteLocks.Held lock = locks.lock(note.getTitle());
+        try {
+            note.saveToProperties(directory, codec, compressionStats);
+        } finally {
+            lock.unlock();
+        }
+        rememberCreated(note.getTitle(), note.getCreationTime());
+        saveCreatedTimes();
+    }
+
+    /**
+     * Compares and writes while holding the note's stripe of the folder lock file, which
+     * every process writing the folder takes for its saves and deletes.
+     */
+    @Override
+    public long saveIfUnchanged(Note note, long expectedStamp) throws IOException {
+        NoteLocks.Held lock = locks.lock(note.getTitle());
+        long stamp;
+        try {
+            stamp = stamp(note.getTitle());
+            if (stamp != expectedStamp) {
+                throw new StaleNoteException(note.getTitle(), stamp);
+            }
+            note.saveToProperties(directory, codec, compressionStats);
+            stamp = stamp(note.getTitle());
+        } finally {
+            lock.unlock();
+        }
+        rememberCreated(note.getTitle(), note.getCreationTime());
+        saveCreatedTimes();
+        return stamp;
+    }
+
+    /**
+     * Locks a note against writers in this and other processes, for writes made outside this storage.
+     * @param title the title of the note
+     * @return the lock, released by unlock
+     * @throws IOException if the lock file cannot be locked
+     */
+    NoteLocks.Held lock(String title) throws IOException {
+        return locks.lock(title);
+    }
+
+    /**
+     * Queues all notes with the durable writer before waiting, so they are committed in shared batches.
+     * The stripes of all the notes are held until the batch is durable, like the stripe of a
+     * single save, so a saveIfUnchanged in this or another process compares its stamp with
+     * the note either before or after the batch, never while it is being written.
+     */
+    @Override
+    public void saveAll(List<Note> notes) throws IOException {
+        List<String> titles = new ArrayList<>(notes.size());
+        for (Note note : notes) {
+            titles.add(note.getTitle());
+        }
+        NoteLocks.Held lock = locks.lockAll(titles);
+        try {
+            List<CompletableFuture<Void>> writes = new ArrayList<>(notes.size());
+            for (Note note : notes) {
+                writes.add(DurableWriter.getDefault().submit(new File(directory, note.getTitle() + PROPERTIES_EXTENSION).toPath(),
+                        codec.encode(note.toProperties(), compressionStats)));
+            }
+            CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while saving notes");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            lock.unlock();
+        }
+        for (Note note : notes) {
+            rememberCreated(note.getTitle(), note.getCreationTime());
+        }
+        saveCreatedTimes();
+    }
+
+    @Override
+    public NoteCodec.Stats getCompressionStats() {
+        return compressionStats;
+    }
+
+    @Override
+    public boolean delete(String title) throws IOException {
+        NoteLocks.Held lock = locks.lock(title);
+        try {
+            boolean deleted = Files.deleteIfExists(new File(directory, title + PROPERTIES_EXTENSION).toPath());
+            deleted = Files.deleteIfExists(new File(directory, title + TEXT_EXTENSION).toPath()) || deleted;
+            rememberCreated(title, null);
+            saveCreatedTimes();
+            return deleted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Combines the last modified time, length and file key of the note file. Notes are written
+     * to a new file that replaces the old one, so the file key changes with every save even
+     * when two saves fall in the same clock tick.
+     */
+    @Override
+    public long stamp(String title) {
+        File file = getNoteFile(title);
+        if (file == null) {
+            return -1;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            Object key = attributes.fileKey();
+            long stamp = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS) ^ (attributes.size() << 40)
+                    ^ ((long) (key == null ? 0 : key.hashCode()) << 20);
+            return stamp == -1 ? 0 : stamp;
+        } catch (IOException e) {
+            return -1;  // Deleted meanwhile
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        locks.release();
+    }
+}
@@ -0,0 +1,196 @@
+package Prototype;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two texts line by line and writes the difference in unified diff form.
+ * Lines the texts start and end with in common are skipped before the comparison, so
+ * an edit to a large note costs time in proportion to the edited region; the region is
+ * compared with Myers' algorithm, which takes time in proportion to its size times the
+ * number of changed lines. A region with more than MAX_EDITS changes is reported as
+ * replaced whole.
+ */
+public final class LineDiff {
+    // Changed lines beyond which a region is reported as replaced instead of compared
+    static final int MAX_EDITS = 4096;
+
+    private static final int SAME = 0;
+    private static final int REMOVED = 1;
+    private static final int ADDED = 2;
+
+    private LineDiff() {
+    }
+
+    /**
+     * Compares two texts.
+     * @param before the older text
+     * @param after the newer text
+     * @param context unchanged lines shown around each change
+     * @return the hunks of the difference, empty if the texts have the same lines
+     */
+    public static String unified(String before, String after, int context) {
+        String[] a = before.split("\n", -1);
+        String[] b = after.split("\n", -1);
+        int prefix = 0;
+        while (prefix < a.length && prefix < b.length && a[prefix].equals(b[prefix])) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < a.length - prefix && suffix < b.length - prefix
+                && a[a.length - 1 - suffix].equals(b[b.length - 1 - suffix])) {
+            suffix++;
+        }
+        List<int[]> edits = compare(a, b, prefix, a.length - suffix, prefix, b.length - suffix);
+
+        // Unchanged lines around the compared region, as context
+        List<int[]> script = new ArrayList<>();
+        for (int i = Math.max(0, prefix - context); i < prefix; i++) {
+            script.add(new int[] {SAME, i, i});
+        }
+        script.addAll(edits);
+        for (int i = 0; i < Math.min(context, suffix); i++) {
+            script.add(new int[] {SAME, a.length - suffix + i, b.length - suffix + i});
+        }
+        return format(script, a, b, context);
+    }
+
+    /**
+     * Compares a[aStart, aEnd) with b[bStart, bEnd).
+     * @return the edit script, each entry {kind, line in a, line in b}
+     */
+    private static List<int[]> compare(String[] a, String[] b, int aStart, int aEnd, int bStart, int bEnd) {
+        // Compare lines by number instead of by text
+        Map<String, Integer> numbers = new HashMap<>();
+        int[] x = new int[aEnd - aStart];
+        int[] y = new int[bEnd - bStart];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = numbers.computeIfAbsent(a[aStart + i], line -> numbers.size());
+        }
+        for (int i = 0; i < y.length; i++) {
+            y[i] = numbers.computeIfAbsent(b[bStart + i], line -> numbers.size());
+        }
+
+        int n = x.length;
+        int m = y.length;
+        int max = Math.min(n + m, MAX_EDITS);
+        int offset = max + 1;
+        int[] v = new int[2 * max + 3];
+        List<int[]> trace = new ArrayList<>();  // v before each step, for the walk back
+        int found = -1;
+        for (int d = 0; d <= max && found < 0; d++) {
+            trace.add(Arrays.copyOfRange(v, offset - d - 1, offset + d + 2));
+            for (int k = -d; k <= d; k += 2) {
+                int i = k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1]) ? v[offset + k + 1] : v[offset + k - 1] + 1;
+                int j = i - k;
+                while (i < n && j < m && x[i] == y[j]) {
+                    i++;
+                    j++;
+                }
+                v[offset + k] = i;
+                if (i >= n && j >= m) {
+                    found = d;
+                    break;
+                }
+            }
+        }
+
+        List<int[]> edits = new ArrayList<>();
+        if (found < 0) {
+            // Too many changes to compare: the region was replaced
+            for (int i = 0; i < n; i++) {
+                edits.add(new int[] {REMOVED, aStart + i, bStart});
+            }
+            for (int j = 0; j < m; j++) {
+                edits.add(new int[] {ADDED, aStart + n, bStart + j});
+            }
+            return edits;
+        }
+        int i = n;
+        int j = m;
+        for (int d = found; d > 0; d--) {
+            int[] previous = trace.get(d);
+            int base = -d - 1;  // previous[0] holds k = -d - 1
+            int k = i - j;
+            boolean down = k == -d || (k != d && previous[k - 1 - base] < previous[k + 1 - base]);
+            int previousK = down ? k + 1 : k - 1;
+            int previousI = previous[previousK - base];
+            int previousJ = previousI - previousK;
+            while (i > previousI && j > previousJ) {
+                i--;
+                j--;
+                edits.add(new int[] {SAME, aStart + i, bStart + j});
+            }
+            if (down) {
+                j--;
+                edits.add(new int[] {ADDED, aStart + i, bStart + j});
+            } else {
+                i--;
+                edits.add(new int[] {REMOVED, aStart + i, bStart + j});
+            }
+        }
+        while (i > 0 && j > 0) {
+            i--;
+            j--;
+            edits.add(new int[] {SAME, aStart + i, bStart + j});
+        }
+        Collections.reverse(edits);
+        return edits;
+    }
+
+    /**
+     * Groups an edit script into hunks with their headers.
+     */
+    private static String format(List<int[]> script, String[] a, String[] b, int context) {
+        StringBuilder out = new StringBuilder();
+        int index = 0;
+        while (index < script.size()) {
+            while (index < script.size() && script.get(index)[0] == SAME) {
+                index++;
+            }
+            if (index == script.size()) {
+                break;
+            }
+            int start = index;
+            for (int shown = 0; shown < context && start > 0 && script.get(start - 1)[0] == SAME; shown++) {
+                start--;
+            }
+            // Extend over changes separated by fewer than two contexts of unchanged lines
+            int end = index;
+            int unchanged = 0;
+            while (end < script.size() && unchanged <= 2 * context) {
+                unchanged = script.get(end)[0] == SAME ? unchanged + 1 : 0;
+                end++;
+            }
+            end -= Math.max(0, unchanged - context);
+
+            int aCount = 0;
+            int bCount = 0;
+            for (int e = start; e < end; e++) {
+                int kind = script.get(e)[0];
+                aCount += kind != ADDED ? 1 : 0;
+                bCount += kind != REMOVED ? 1 : 0;
+            }
+            int[] first = script.get(start);
+            out.append("@@ -").append(first[1] + (aCount > 0 ? 1 : 0)).append(',').append(aCount)
+                    .append(" +").append(first[2] + (bCount > 0 ? 1 : 0)).append(',').append(bCount).append(" @@\n");
+            for (int e = start; e < end; e++) {
+                int[] edit = script.get(e);
+                if (edit[0] == SAME) {
+                    out.append(' ').append(a[edit[1]]);
+                } else if (edit[0] == REMOVED) {
+                    out.append('-').append(a[edit[1]]);
+                } else {
+                    out.append('+').append(b[edit[2]]);
+                }
+                out.append('\n');
+            }
+            index = end;
+        }
+        return out.toString();
+    }
+}
@@ -1,39 +1,111 @@
 package Prototype;
 
 import javax.swing.*;  // For creating the GUI components
+import javax.swing.event.DocumentEvent;  // For search field changes
+import javax.swing.event.DocumentListener;  // For reacting to search field changes
 import javax.swing.filechooser.FileNameExtensionFilter;  // For filtering file types in JFileChooser
 import javax.swing.text.BadLocationException;  // For handling bad locations in text components
-import javax.swing.text.DefaultHighlighter;  // For highlighting text
-import javax.swing.text.Highlighter;  // For highlighting text in JTextComponent
+import javax.swing.text.Document;  // For switching the editor between documents
 import javax.swing.text.JTextComponent;  // Base class for text components like JTextField and JTextArea
 import java.awt.*;  // For layout managers, colors, and graphics
 import java.awt.event.ActionEvent;  // For handling action events
 import java.awt.event.ActionListener;  // For creating action listeners
-import java.awt.image.BufferedImage;  // For handling images
+import java.awt.event.WindowAdapter;  // For reacting to the window closing
+import java.awt.event.WindowEvent;  // For window events
 import java.io.File;  // For file handling
-import java.io.FileReader;  // For reading files
-import java.io.FileWriter;  // For writing files
 import java.io.IOException;  // For handling IO exceptions
-import java.text.SimpleDateFormat;  // For formatting dates
+import java.time.LocalDateTime;  // For the prototype list row and modification times
 import java.util.ArrayList;  // For using ArrayList collection
-import java.util.Date;  // For handling dates
-import java.util.Properties;  // For storing and retrieving properties
-import javax.imageio.ImageIO;  // For reading and writing images
+import java.util.List;  // For search results
+import java.util.concurrent.CompletableFuture;  // For an already completed autosave and background exports
+import java.util.concurrent.CompletionException;  // For failures of background exports
+import java.util.concurrent.ExecutorService;  // For background indexing
+import java.util.concurrent.Executors;  // For creating the indexing thread
+import java.util.concurrent.Future;  // For waiting on autosave
+import java.util.concurrent.atomic.AtomicBoolean;  // For exports that are never cancelled
+import java.util.function.LongSupplier;  // For the version a save replaces
+import java.util.regex.PatternSyntaxException;  // For invalid find expressions
 
 public class MainApp extends Window {
     public static final JTextComponent TitleField = null;  // Unused static field, can be removed
     private JTextField noteTitleField;  // Text field for note title
     private JTextArea noteContentArea;  // Text area for note content
-    private JComboBox<String> folderComboBox;  // Dropdown for selecting folders
-    private JList<String> noteList;  // List for displaying notes
-    private DefaultListModel<String> noteListModel;  // Model for managing note list data
-    private ArrayList<Folder> folders;  // List of folders
+    private JComboBox<Workspace.Entry> folderComboBox;  // Dropdown for selecting folders
+    private JList<NoteListModel.Entry> noteList;  // List for displaying notes
+    private NoteListModel noteListModel;  // Model for managing note list data
+    private Workspace workspace;  // Registered folders, keyed by canonical path
+    private File snapshotFile;  // Where the workspace is saved on exit
     private File selectedFolder;  // Currently selected folder
-    private Highlighter highlighter;  // Highlighter for text area
+    private RunHighlighter highlighter;  // Highlighter for text area
+    private NoteIOService noteIO;  // Reads and writes notes off the event thread
+    private NoteCache noteCache;  // Recently loaded notes
+    private ExecutorService indexExecutor;  // Builds search indexes in the background
+    private JTextField searchField;  // Text field for full-text search
+    private List<SearchIndex.Hit> searchHits;  // Notes listed for the current search, or null when not searching
+    private JTextField filterField;  // Text field filtering the listed notes by title
+    private JCheckBox fuzzyCheckBox;  // Matches titles holding the filter's characters in order
+    private JComboBox<Folder.Order> sortComboBox;  // Order the notes of a folder are listed in
+    private JCheckBox descendingCheckBox;  // Lists the notes last first
+    private FindEngine findEngine;  // Finds and replaces text in the note content
+    private JTextField findField;  // Text or expression to find in the note content
+    private JTextField replaceField;  // Replacement for the found text
+    private JCheckBox regexCheckBox;  // Finds a regular expression instead of literal text
+    private JCheckBox matchCaseCheckBox;  // Finds only text of the same case
+    private JLabel findStatusLabel;  // Number of matches found
+    private static final int MAX_SEARCH_RESULTS = 200;  // Maximum number of search results listed
+    private JCheckBox autosaveCheckBox;  // Turns autosave on and off
+    private AutosaveJournal autosave;  // Journal of the note being edited while autosave is on
+    private Folder shownFolder;  // Folder of the note shown in the editor
+    private Note shownNote;  // Stored note shown in the editor, or null for a new note
+    private long shownStamp = -1;  // Storage stamp of the version the editor is based on, which a save may replace
+    private Document plainDocument;  // Editor document for notes loaded into memory
+    private DocumentListener highlightOffsetListener;  // Keeps highlights on their text
+    private DocumentListener autosaveListener;  // Journals edits while autosave is on
+    private ExecutorService imageExecutor;  // Saves notes as images in the background
+    private FolderWatcher folderWatcher;  // Picks up notes changed by other programs
+    private static final int DEFAULT_IMAGE_WIDTH = 800;  // Width of images exported before the editor is shown
 
     public MainApp() {
         super(900,700);
-        folders = new ArrayList<>();  // Initialize folder list
+        snapshotFile = Workspace.defaultSnapshotFile();
+        workspace = Workspace.restore(snapshotFile, Integer.getInteger(Workspace.MAX_OPEN_PROPERTY, Workspace.DEFAULT_MAX_OPEN));
+        noteIO = new NoteIOService(SwingUtilities::invokeLater);  // Deliver I/O results on the event thread
+        indexExecutor = Executors.newSingleThreadExecutor(NoteIOService.namedThreads("note-index", true));
+        imageExecutor = Executors.newSingleThreadExecutor(NoteIOService.namedThreads("note-image", true));
+        noteCache = new NoteCache(Long.getLong("notes.cache.bytes", 32L * 1024 * 1024));  // Byte budget of the note cache
+        NoteMetrics.setCache(noteCache);  // Report its hits, misses and evictions through JMX
+        try {
+            folderWatcher = new FolderWatcher(change -> SwingUtilities.invokeLater(() -> applyFolderChange(change)));
+        } catch (IOException e) {
+            e.printStackTrace();  // Notes changed by other programs show up when the folder is opened again
+        }
+        restoreWorkspace();
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                // Close the folders after autosave and the queued saves, then stop the I/O threads
+                Future<?> autosaved = stopAutosave();
+                findEngine.close();
+                if (folderWatcher != null) {
+                    try {
+                        folderWatcher.close();
+                    } catch (IOException ex) {
+                        ex.printStackTrace();
+                    }
+                }
+                byte[] snapshot = workspace.snapshot((Workspace.Entry) folderComboBox.getSelectedItem());
+                List<Folder> openFolders = workspace.getOpenFolders();
+                noteIO.save(MainApp.class.getName(), () -> {
+                    autosaved.get();
+                    Workspace.save(snapshot, snapshotFile);
+                    for (Folder folder : openFolders) {
+                        folder.close();
+                    }
+                    return openFolders;
+                }, closed -> { }, Throwable::printStackTrace);
+                noteIO.shutdown();
+            }
+        });
     }
 
     /**
@@ -51,6 +123,27 @@ public class MainApp extends Window {
         folderComboBox = new JComboBox<>();
         folderComboBox.addActionListener(new FolderSelectionListener());  // Add listener for folder selection change
         folderPanel.add(folderComboBox);
+        autosaveCheckBox = new JCheckBox("Autosave");
+        autosaveCheckBox.addActionListener(e -> {
+            if (noteContentArea.getDocument() instanceof MappedDocument) {
+                return;  // Large notes are not journaled
+            }
+            if (autosaveCheckBox.isSelected()) {
+                startAutosave(!noteContentArea.getText().equals(shownNote == null ? null : shownNote.getContent()));
+            } else {
+                stopAutosave();
+            }
+        });
+        folderPanel.add(autosaveCheckBox);
+        JButton exportFolderButton = new JButton("Export Folder as Images");
+        exportFolderButton.addActionListener(new ExportFolderListener());  // Save every note of the folder as an image
+        folderPanel.add(exportFolderButton);
+        JButton exportArchiveButton = new JButton("Export Archive");
+        exportArchiveButton.addActionListener(new ExportArchiveListener());  // Pack the folder into one file
+        folderPanel.add(exportArchiveButton);
+        JButton importButton = new JButton("Import Notes");
+        importButton.addActionListener(new ImportNotesListener());  // Unpack an archive or a directory of text notes
+        folderPanel.add(importButton);
 
         panel.add(folderPanel, BorderLayout.NORTH);
 
@@ -62,9 +155,50 @@ public class MainApp extends Window {
         noteInputPanel.add(noteTitleField);
         noteInputPanel.add(new JLabel("Note Content:"));
         noteContentArea = new JTextArea(40, 70);
+        highlighter = new RunHighlighter();  // Paints the highlight runs of the shown note
+        noteContentArea.setHighlighter(highlighter);
+        noteContentArea.setUI(new PagedTextView.TextAreaUI());  // Shows large notes without measuring every line
+        plainDocument = noteContentArea.getDocument();
+        highlightOffsetListener = new HighlightOffsetListener();
+        autosaveListener = new AutosaveListener();
+        plainDocument.addDocumentListener(highlightOffsetListener);
+        plainDocument.addDocumentListener(autosaveListener);
         noteInputPanel.add(new JScrollPane(noteContentArea));
         notePanel.add(noteInputPanel, BorderLayout.CENTER);
 
+        // Find panel
+        JPanel findPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        findPanel.add(new JLabel("Find:"));
+        findField = new JTextField(15);
+        findField.getDocument().addDocumentListener(new FindListener());  // Find as the text is typed
+        findField.addActionListener(e -> findEngine.next());  // Enter selects the next match
+        findPanel.add(findField);
+        findPanel.add(new JLabel("Replace:"));
+        replaceField = new JTextField(10);
+        findPanel.add(replaceField);
+        regexCheckBox = new JCheckBox("Regex");
+        regexCheckBox.addActionListener(e -> updateFind());
+        findPanel.add(regexCheckBox);
+        matchCaseCheckBox = new JCheckBox("Match case");
+        matchCaseCheckBox.addActionListener(e -> updateFind());
+        findPanel.add(matchCaseCheckBox);
+        JButton previousButton = new JButton("Previous");
+        previousButton.addActionListener(e -> findEngine.previous());
+        findPanel.add(previousButton);
+        JButton nextButton = new JButton("Next");
+        nextButton.addActionListener(e -> findEngine.next());
+        findPanel.add(nextButton);
+        JButton replaceButton = new JButton("Replace");
+        replaceButton.addActionListener(e -> findEngine.replace(replaceField.getText()));
+        findPanel.add(replaceButton);
+        JButton replaceAllButton = new JButton("Replace All");
+        replaceAllButton.addActionListener(e -> findEngine.replaceAll(replaceField.getText()));  // Waits for the scan to finish
+        findPanel.add(replaceAllButton);
+        findStatusLabel = new JLabel(" ");
+        findPanel.add(findStatusLabel);
+        notePanel.add(findPanel, BorderLayout.NORTH);
+        findEngine = new FindEngine(noteContentArea, highlighter, this::updateFindStatus);  // Follows the editor between documents
+
         // Buttons panel
         JPanel buttonPanel = new JPanel(new BorderLayout());
 
@@ -80,22 +214,57 @@ public class MainApp extends Window {
         saveAsImageButton.addActionListener(new SaveAsImageListener());  // Save note as image action
         buttonPanel.add(saveAsImageButton, BorderLayout.CENTER);
 
+        JButton historyButton = new JButton("Note History");
+        historyButton.addActionListener(new HistoryListener());  // List, compare and restore saved versions
+        buttonPanel.add(historyButton, BorderLayout.EAST);
+
         notePanel.add(buttonPanel, BorderLayout.SOUTH);
 
         panel.add(notePanel, BorderLayout.CENTER);
 
         // Note list panel
-        noteListModel = new DefaultListModel<>();
+        JPanel noteListPanel = new JPanel(new BorderLayout());
+        searchField = new JTextField();
+        searchField.setToolTipText("Search all folders");
+        searchField.getDocument().addDocumentListener(new SearchListener());  // Search as the query is typed
+        JPanel filterPanel = new JPanel(new BorderLayout());
+        filterField = new JTextField();
+        filterField.setToolTipText("Filter the notes of the folder by title");
+        filterField.getDocument().addDocumentListener(new FilterListener());  // Filter as the title is typed
+        filterPanel.add(filterField, BorderLayout.CENTER);
+        fuzzyCheckBox = new JCheckBox("Fuzzy");
+        fuzzyCheckBox.setToolTipText("Also list titles containing the typed characters in order");
+        fuzzyCheckBox.addActionListener(e -> applyFilter());
+        filterPanel.add(fuzzyCheckBox, BorderLayout.EAST);
+        JPanel sortPanel = new JPanel(new BorderLayout());
+        sortComboBox = new JComboBox<>(Folder.Order.values());
+        sortComboBox.setToolTipText("Sort the notes of the folder");
+        sortPanel.add(sortComboBox, BorderLayout.CENTER);
+        descendingCheckBox = new JCheckBox("Descending");
+        sortPanel.add(descendingCheckBox, BorderLayout.EAST);
+        JPanel queryPanel = new JPanel(new GridLayout(3, 1));
+        queryPanel.add(searchField);
+        queryPanel.add(filterPanel);
+        queryPanel.add(sortPanel);
+        noteListPanel.add(queryPanel, BorderLayout.NORTH);
+        noteListModel = new NoteListModel();
+        ActionListener sortListener = e -> noteListModel.setOrder((Folder.Order) sortComboBox.getSelectedItem(), descendingCheckBox.isSelected());
+        sortComboBox.addActionListener(sortListener);  // Sorting reorders a view of the folder; nothing is copied
+        descendingCheckBox.addActionListener(sortListener);
         noteList = new JList<>(noteListModel);
+        noteList.setPrototypeCellValue(new NoteListModel.Entry(null, "A typical note title here",
+                new Note("A typical note title here", null, LocalDateTime.of(2000, 1, 1, 0, 0)), false));  // Rows are not measured one by one
         noteList.addListSelectionListener(e -> {
             if (!e.getValueIsAdjusting()) {
-                String selectedNoteTitle = noteList.getSelectedValue();
-                if (selectedNoteTitle != null) {
-                    loadNoteContent(selectedNoteTitle.split(" - ")[0]);  // Load selected note content
+                NoteListModel.Entry selected = noteList.getSelectedValue();
+                if (selected != null) {
+                    selectedFolder = new File(selected.getFolder().getName());  // A search hit can be in any open folder
+                    loadNoteContent(selected.getTitle());  // Load selected note content
                 }
             }
         });
-        panel.add(new JScrollPane(noteList), BorderLayout.EAST);
+        noteListPanel.add(new JScrollPane(noteList), BorderLayout.CENTER);
+        panel.add(noteListPanel, BorderLayout.EAST);
 
         // Highlighting panel
         JPanel highlightPanel = new JPanel(new FlowLayout());
@@ -126,34 +295,490 @@ public class MainApp extends Window {
 
     /**
      * Loads the content of a note by its title.
+     * The file is read in the background and the note is shown once it has been read;
+     * selecting another note before then cancels this load. Large text notes are mapped
+     * instead of read, so they open at once whatever their size.
      * @param noteTitle the title of the note to load
      */
     private void loadNoteContent(String noteTitle) {
         if (selectedFolder != null) {
-            File noteFile = new File(selectedFolder, noteTitle + ".properties");  // Locate note file
-            if (noteFile.exists()) {
-                Properties props = new Properties();
-                try (FileReader reader = new FileReader(noteFile)) {
-                    props.load(reader);  // Load properties from file
-                    noteTitleField.setText(props.getProperty("title"));  // Set title
-                    noteContentArea.setText(props.getProperty("content"));  // Set content
-                    
-                    // Restore highlights
-                    for (String key : props.stringPropertyNames()) {
-                        if (key.startsWith("highlight_")) {
-                            int start = Integer.parseInt(key.substring(10));
-                            int length = Integer.parseInt(props.getProperty(key));
-                            try {
-                                highlighter.addHighlight(start, start + length, new DefaultHighlighter.DefaultHighlightPainter(Color.YELLOW));  // Restore highlight
-                            } catch (BadLocationException ex) {
-                                ex.printStackTrace();
-                            }
-                        }
-                    }
-                } catch (IOException ex) {
-                    ex.printStackTrace();
+            Folder folder = findFolder(selectedFolder);
+            if (folder == null) {
+                return;
+            }
+            long[] readStamp = {-1};  // The version read, which a save of the edited note may replace
+            noteIO.load(() -> {
+                OperationEvent event = NoteMetrics.begin(NoteMetrics.Operation.LOAD_NOTE);
+                MappedDocument document = openMapped(folder, noteTitle);
+                if (document != null) {
+                    readStamp[0] = folder.getStorage().stamp(noteTitle);
+                    NoteMetrics.end(event, noteTitle, document.getLength());
+                    return document;
+                }
+                Note note = readNote(folder, noteTitle, readStamp);
+                NoteMetrics.end(event, noteTitle, note == null ? 0 : note.getContent().length());
+                return note;
+            }, loaded -> {
+                if (loaded instanceof MappedDocument) {
+                    showMappedNote(folder, noteTitle, (MappedDocument) loaded, readStamp[0]);
+                } else if (loaded != null) {
+                    showNote(folder, (Note) loaded, readStamp[0]);
+                }
+            }, Throwable::printStackTrace);
+        }
+    }
+
+    /**
+     * Reads a note from the folder's storage, or from the cache if it has not changed since.
+     * Edits left in an autosave journal by a crash are stored first, by the thread that saves
+     * notes so that the lock it takes is never interrupted. Runs on the load thread.
+     * @param folder the folder containing the note
+     * @param noteTitle the title of the note
+     * @param readStamp receives the stamp of the version read
+     * @return the note, or null if it is not stored
+     * @throws IOException if the note cannot be read
+     */
+    private Note readNote(Folder folder, String noteTitle, long[] readStamp) throws IOException {
+        if (AutosaveJournal.journalFile(folder, noteTitle).exists()) {
+            noteIO.write(() -> AutosaveJournal.recover(folder, noteTitle));  // Apply edits journaled before a crash, on the save thread
+        }
+        NoteStorage storage = folder.getStorage();
+        long stamp = storage.stamp(noteTitle);
+        if (stamp == -1) {
+            return null;
+        }
+        readStamp[0] = stamp;  // Read before the note, so a save in between makes the stamp older, never newer
+        return noteCache.get(cacheKey(folder, noteTitle), stamp, () -> storage.load(noteTitle));
+    }
+
+    /**
+     * Maps a note that is too large to read, if it is one. Runs on a background thread.
+     * @param folder the folder containing the note
+     * @param noteTitle the title of the note
+     * @return the mapped note, or null if the note should be read
+     * @throws IOException if the note cannot be mapped
+     */
+    private MappedDocument openMapped(Folder folder, String noteTitle) throws IOException {
+        if (!(folder.getStorage() instanceof LegacyNoteStorage)) {
+            return null;  // Only text files can be mapped
+        }
+        File file = ((LegacyNoteStorage) folder.getStorage()).getNoteFile(noteTitle);
+        return MappedDocument.shouldMap(file) ? new MappedDocument(file.toPath()) : null;
+    }
+
+    /**
+     * Returns the key of a note in the note cache.
+     * @param folder the folder containing the note
+     * @param noteTitle the title of the note
+     * @return the cache key
+     */
+    private static String cacheKey(Folder folder, String noteTitle) {
+        return folder.getName() + File.separator + noteTitle;
+    }
+
+    /**
+     * Shows a loaded note in the editor and restores its highlights.
+     * @param folder the folder holding the note
+     * @param note the note to show
+     * @param stamp the storage stamp of the version shown
+     */
+    private void showNote(Folder folder, Note note, long stamp) {
+        stopAutosave();  // Setting the text below must not be journaled
+        setEditorDocument(plainDocument);
+        noteTitleField.setText(note.getTitle());  // Set title
+        noteContentArea.setText(note.getContent());  // Set content
+        highlighter.setModel(note.getHighlights().copy());  // Restore all highlights with one repaint
+        shownFolder = folder;
+        shownNote = note;
+        shownStamp = stamp;
+        if (autosaveCheckBox.isSelected()) {
+            startAutosave(false);
+        }
+    }
+
+    /**
+     * Shows a mapped note in the editor. Mapped notes have no highlights and are not autosaved.
+     * @param folder the folder holding the note
+     * @param noteTitle the title of the note
+     * @param document the mapped note
+     * @param stamp the storage stamp of the version shown
+     */
+    private void showMappedNote(Folder folder, String noteTitle, MappedDocument document, long stamp) {
+        stopAutosave();
+        noteTitleField.setText(noteTitle);
+        highlighter.setModel(new HighlightModel());
+        setEditorDocument(document);
+        shownFolder = folder;
+        shownNote = null;
+        shownStamp = stamp;
+    }
+
+    /**
+     * Switches the editor to another document, moving the document listeners along.
+     * @param document the document to edit
+     */
+    private void setEditorDocument(Document document) {
+        Document current = noteContentArea.getDocument();
+        if (current == document) {
+            return;
+        }
+        current.removeDocumentListener(highlightOffsetListener);
+        current.removeDocumentListener(autosaveListener);
+        noteContentArea.setDocument(document);
+        document.addDocumentListener(highlightOffsetListener);
+        document.addDocumentListener(autosaveListener);
+        autosaveCheckBox.setEnabled(!(document instanceof MappedDocument));
+    }
+
+    /**
+     * Starts journaling the edits to the note shown in the editor, if autosave can be used for it.
+     * Autosave needs a folder and a title; a note that is new or has unsaved edits is stored first.
+     * @param storeNote true if the editor content differs from the stored note
+     */
+    private void startAutosave(boolean storeNote) {
+        Folder folder = shownFolder != null ? shownFolder : (selectedFolder == null ? null : findFolder(selectedFolder));
+        String noteTitle = noteTitleField.getText();
+        if (autosave != null || folder == null || noteTitle.isEmpty() || noteContentArea.getDocument() instanceof MappedDocument) {
+            return;
+        }
+        if (shownNote == null || !shownNote.getTitle().equals(noteTitle) || shownFolder != folder) {
+            shownNote = new Note(noteTitle, noteContentArea.getText());
+            shownStamp = -1;  // A new note, which must not replace a stored one
+            storeNote = true;
+        } else if (storeNote) {
+            shownNote = new Note(noteTitle, noteContentArea.getText(), shownNote.getCreationTime());
+        }
+        shownFolder = folder;
+        // The journal stores the live highlights, which follow the edits, with every fold
+        Note journaled = new Note(shownNote.getTitle(), shownNote.getContent(), shownNote.getCreationTime());
+        journaled.setHighlights(highlighter.getModel());
+        autosave = new AutosaveJournal(folder, journaled, storeNote, shownStamp, Long.getLong("notes.autosave.commitMillis", 200), (folded, stamp) -> {
+            noteCache.put(cacheKey(folder, folded.getTitle()), stamp, folded);
+            folder.getSearchIndex().update(folded.getTitle(), folded.getContent(), stamp);  // Keep search results current
+            SwingUtilities.invokeLater(() -> {
+                addToFolder(folder, folded);
+                if (shownFolder == folder && shownNote != null && shownNote.getTitle().equals(folded.getTitle())) {
+                    shownStamp = stamp;  // The editor is now based on the folded version
+                }
+            });
+        });
+    }
+
+    /**
+     * Stops journaling edits; the journaled edits are stored in the background.
+     * @return completes once the journaled edits are stored
+     */
+    private Future<?> stopAutosave() {
+        if (autosave == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Future<?> closed = autosave.close();
+        autosave = null;
+        return closed;
+    }
+
+    /**
+     * Shows the notes of a folder in the note list, or the search results while a search is active.
+     * @param folder the folder to show
+     */
+    private void showFolderNotes(Folder folder) {
+        if (searchHits != null) {
+            runSearch();
+            return;
+        }
+        if (!filterField.getText().isEmpty()) {
+            filterNotes(folder, null);
+            return;
+        }
+        noteListModel.showFolder(folder);  // Shows the folder's own list; nothing is copied
+    }
+
+    /**
+     * Filters the notes of the selected folder by the title typed in the filter field.
+     */
+    private void applyFilter() {
+        if (searchHits != null) {
+            return;  // The search results are listed; the filter applies when the search is cleared
+        }
+        Folder folder = selectedFolder == null ? null : findFolder(selectedFolder);
+        if (folder == null) {
+            return;
+        }
+        if (filterField.getText().isEmpty()) {
+            noteListModel.showFolder(folder);
+        } else {
+            filterNotes(folder, noteListModel.getFolder() == folder ? noteListModel.getMatches() : null);
+        }
+    }
+
+    /**
+     * Lists the notes of a folder whose titles match the filter field.
+     * @param folder the folder
+     * @param previous the matches listed for an earlier filter, narrowed when the filter was extended, or null
+     */
+    private void filterNotes(Folder folder, TitleTrie.Matches previous) {
+        TitleTrie trie = folder.getTitleTrie();
+        String query = filterField.getText();
+        noteListModel.showMatches(folder, fuzzyCheckBox.isSelected() ? trie.fuzzy(query, previous) : trie.prefix(query));
+    }
+
+    /**
+     * Updates the note list after the notes of a folder changed, if it shows the folder.
+     * @param folder the folder
+     * @param first the first position in creation-time order whose note changed
+     * @param oldSize the number of notes before the change
+     */
+    private void folderNotesChanged(Folder folder, int first, int oldSize) {
+        if (noteListModel.getFolder() != folder) {
+            return;
+        }
+        if (noteListModel.getMatches() != null) {
+            filterNotes(folder, null);  // Filter the changed notes again
+        } else {
+            noteListModel.notesChanged(first, oldSize);
+        }
+    }
+
+    /**
+     * Adds a note to the index of a folder and updates the note list if it shows the folder.
+     * The index keeps only the title and times; the content stays in the storage.
+     * @param folder the folder
+     * @param note the saved note
+     */
+    private void addToFolder(Folder folder, Note note) {
+        Note indexed = new Note(note.getTitle(), null, note.getCreationTime());
+        indexed.setModifiedTime(LocalDateTime.now());  // Called once the note is saved
+        int oldSize = folder.getNotes().size();
+        int first = folder.addNote(indexed);
+        folderNotesChanged(folder, first, oldSize);
+    }
+
+    /**
+     * Applies notes added, removed or rewritten by other programs to the folder index,
+     * the note list, the note cache and the search index.
+     * @param change the notes that changed on disk
+     */
+    private void applyFolderChange(FolderWatcher.Change change) {
+        Folder folder = change.getFolder();
+        if (!workspace.isOpen(folder)) {
+            return;
+        }
+        int oldSize = folder.getNotes().size();
+        int first = Integer.MAX_VALUE;
+        for (String title : change.getRemoved()) {
+            if (folder.getStorage().stamp(title) != -1) {
+                continue;  // Saved by this program since the change was found
+            }
+            int index = folder.removeNote(title);
+            if (index >= 0) {
+                first = Math.min(first, index);
+            }
+        }
+        for (Note note : change.getAdded()) {
+            if (folder.getNoteByTitle(note.getTitle()) == null) {  // Not saved by this program meanwhile
+                first = Math.min(first, folder.addNote(note));
+            }
+        }
+        for (Note stored : change.getChangedNotes()) {
+            Note indexed = folder.getNoteByTitle(stored.getTitle());
+            if (indexed != null && (indexed.getModifiedTime() == null
+                    || stored.getModifiedTime().isAfter(indexed.getModifiedTime()))) {  // Not saved by this program since
+                first = Math.min(first, folder.addNote(stored));  // Moves the note in modified order
+            }
+        }
+        folderNotesChanged(folder, first, oldSize);  // One event for the whole change
+        for (String title : change.getTitles()) {
+            noteCache.invalidate(cacheKey(folder, title));
+        }
+        indexExecutor.execute(() -> {
+            folder.getSearchIndex().refresh(change.getTitles());
+            SwingUtilities.invokeLater(() -> {
+                if (searchHits != null) {
+                    runSearch();  // Include the changed notes
                 }
+            });
+        });
+    }
+
+    /**
+     * Builds the search index of a folder in the background and saves it next to the notes.
+     * @param folder the folder to index
+     */
+    private void indexFolder(Folder folder) {
+        indexExecutor.execute(() -> {
+            SearchIndex index = folder.getSearchIndex();
+            index.build();
+            try {
+                index.save();
+            } catch (IOException ex) {
+                ex.printStackTrace();
             }
+            SwingUtilities.invokeLater(() -> {
+                if (searchHits != null) {
+                    runSearch();  // Include the newly indexed notes
+                }
+            });
+        });
+    }
+
+    /**
+     * Searches all open folders for the text in the search field and lists the best matches.
+     * Clearing the search field lists the notes of the selected folder again.
+     */
+    private void runSearch() {
+        String query = searchField.getText();
+        if (query.trim().isEmpty()) {
+            searchHits = null;
+            Folder folder = selectedFolder == null ? null : findFolder(selectedFolder);
+            if (folder != null) {
+                showFolderNotes(folder);
+            } else {
+                noteListModel.clear();
+            }
+            return;
+        }
+
+        List<SearchIndex.Hit> hits = new ArrayList<>();
+        for (Folder folder : workspace.getOpenFolders()) {
+            hits.addAll(folder.getSearchIndex().search(query, MAX_SEARCH_RESULTS));
+        }
+        hits.sort((hit1, hit2) -> Double.compare(hit2.getScore(), hit1.getScore()));
+        searchHits = hits.size() > MAX_SEARCH_RESULTS ? new ArrayList<>(hits.subList(0, MAX_SEARCH_RESULTS)) : hits;
+
+        List<NoteListModel.Entry> entries = new ArrayList<>(searchHits.size());
+        for (SearchIndex.Hit hit : searchHits) {
+            Folder folder = hit.getFolder();
+            boolean otherFolder = selectedFolder == null || !new File(folder.getName()).equals(selectedFolder);
+            entries.add(new NoteListModel.Entry(folder, hit.getTitle(), folder.getNoteByTitle(hit.getTitle()), otherFolder));
+        }
+        noteListModel.showEntries(entries);
+    }
+
+    /**
+     * Finds the text of the find field in the note content, with the chosen options.
+     */
+    private void updateFind() {
+        try {
+            findEngine.setQuery(findField.getText(), regexCheckBox.isSelected(), matchCaseCheckBox.isSelected());
+        } catch (PatternSyntaxException e) {
+            findStatusLabel.setText("Invalid expression");  // Keep the matches of the last valid expression
+        }
+    }
+
+    /**
+     * Shows the number of matches and which of them is selected.
+     */
+    private void updateFindStatus() {
+        if (findField.getText().isEmpty()) {
+            findStatusLabel.setText(" ");
+            return;
+        }
+        int count = findEngine.getMatchCount();
+        int selected = findEngine.getSelectedIndex();
+        String status = selected >= 0 ? (selected + 1) + " of " + count : count + (count == 1 ? " match" : " matches");
+        findStatusLabel.setText(findEngine.isScanning() ? status + "..." : status);
+    }
+
+    /**
+     * Starts picking up the notes other programs change in a folder.
+     * @param folder the opened folder
+     */
+    private void watchFolder(Folder folder) {
+        if (folderWatcher == null) {
+            return;
+        }
+        try {
+            folderWatcher.watch(folder);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Finds an open folder by its location.
+     * @param directory the folder location
+     * @return the folder, or null if it is not open
+     */
+    private Folder findFolder(File directory) {
+        return workspace.find(directory);
+    }
+
+    /**
+     * Opens the folder of a workspace entry if it is closed. A newly opened folder is indexed
+     * and watched in the background, and one listed from the snapshot is checked against the
+     * disk. Folders closed to stay within the bound are closed after the queued saves.
+     * @param entry the entry
+     * @return the open folder
+     */
+    private Folder openFolder(Workspace.Entry entry) {
+        boolean wasOpen = entry.getFolder() != null;
+        List<Folder> closed = new ArrayList<>();
+        Folder folder = workspace.open(entry, shownFolder, closed);
+        for (Folder evicted : closed) {
+            closeFolder(evicted);
+        }
+        if (!wasOpen) {
+            if (workspace.needsVerify(entry)) {
+                verifyFolder(folder);
+            }
+            indexFolder(folder);  // Build the search index in the background
+            watchFolder(folder);
+        }
+        return folder;
+    }
+
+    /**
+     * Stops watching a folder the workspace closed and closes its storage after the queued saves.
+     * @param folder the closed folder
+     */
+    private void closeFolder(Folder folder) {
+        if (folderWatcher != null) {
+            folderWatcher.unwatch(folder);
+        }
+        noteIO.save("close " + System.identityHashCode(folder), () -> {  // Never merged with the close of a reopened folder
+            folder.close();
+            return folder;
+        }, closed -> {
+            if (searchHits != null) {
+                runSearch();  // Drop the hits in the closed folder
+            }
+        }, Throwable::printStackTrace);
+    }
+
+    /**
+     * Checks the notes of a folder listed from the snapshot against the disk in the background
+     * and applies the notes added or removed since the snapshot was saved.
+     * @param folder the folder
+     */
+    private void verifyFolder(Folder folder) {
+        indexExecutor.execute(() -> {
+            try {
+                FolderWatcher.Change change = FolderWatcher.verify(folder);
+                if (!change.isEmpty()) {
+                    SwingUtilities.invokeLater(() -> applyFolderChange(change));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Fills the folder combo box from the restored workspace and reopens the folders that
+     * were open on exit, listing their notes from the snapshot.
+     */
+    private void restoreWorkspace() {
+        Workspace.Entry selection = workspace.getRestoredSelection();
+        for (Workspace.Entry entry : workspace.getRestoredOpen()) {
+            if (entry != selection) {
+                openFolder(entry);
+            }
+        }
+        DefaultComboBoxModel<Workspace.Entry> model = new DefaultComboBoxModel<>(workspace.getEntries().toArray(new Workspace.Entry[0]));
+        model.setSelectedItem(null);
+        folderComboBox.setModel(model);
+        if (selection != null) {
+            folderComboBox.setSelectedItem(selection);  // Opens and shows the folder
         }
     }
 
@@ -167,15 +792,18 @@ public class MainApp extends Window {
             fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);  // Only directories can be selected
             int option = fileChooser.showOpenDialog(frame);
             if (option == JFileChooser.APPROVE_OPTION) {
-                selectedFolder = fileChooser.getSelectedFile();  // Get selected folder
-                folderComboBox.addItem(selectedFolder.getName());  // Add folder name to combo box
-                folderComboBox.setSelectedItem(selectedFolder.getName());
-                Folder folder = new Folder(selectedFolder.getPath());
-                folders.add(folder);
-                noteListModel.clear();
-                for (Note note : folder.getNotes()) {
-                    noteListModel.addElement(note.getTitle() + " - " + note.getFormattedCreationTime());  // Add notes to list
+                Workspace.Entry entry;
+                try {
+                    entry = workspace.register(fileChooser.getSelectedFile());  // The same folder under another path is the same entry
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                    JOptionPane.showMessageDialog(frame, "Cannot open folder", "Error", JOptionPane.ERROR_MESSAGE);
+                    return;
                 }
+                if (((DefaultComboBoxModel<Workspace.Entry>) folderComboBox.getModel()).getIndexOf(entry) < 0) {
+                    folderComboBox.addItem(entry);  // Add folder to combo box once
+                }
+                folderComboBox.setSelectedItem(entry);  // Opens and shows the folder
             }
         }
     }
@@ -186,6 +814,10 @@ public class MainApp extends Window {
     private class SaveNoteListener implements ActionListener {
         @Override
         public void actionPerformed(ActionEvent e) {
+            if (noteContentArea.getDocument() instanceof MappedDocument) {
+                saveMappedNote((MappedDocument) noteContentArea.getDocument());
+                return;
+            }
             String noteTitle = noteTitleField.getText();
             String noteContent = noteContentArea.getText();
             if (noteTitle.isEmpty() || noteContent.isEmpty()) {
@@ -198,33 +830,136 @@ public class MainApp extends Window {
                 return;
             }
 
-            Properties props = new Properties();
-            props.setProperty("title", noteTitle);
-            props.setProperty("content", noteContent);
-            File noteFile = new File(selectedFolder, noteTitle + ".properties");
-
-            // Save highlights
-            if (highlighter != null) {
-                Highlighter.Highlight[] highlights = highlighter.getHighlights();
-                for (Highlighter.Highlight highlight : highlights) {
-                    int start = highlight.getStartOffset();
-                    int end = highlight.getEndOffset();
-                    int length = end - start;
-                    props.setProperty("highlight_" + start, String.valueOf(length));  // Store highlight properties
-                }
+            // Write the note in the background; repeated saves of one note are merged
+            Folder folder = findFolder(selectedFolder);
+            if (folder == null) {
+                JOptionPane.showMessageDialog(frame, "No folder selected", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
             }
+            // The save replaces only the version this editor read or last stored
+            boolean sameNote = folder == shownFolder && shownNote != null && shownNote.getTitle().equals(noteTitle);
+            Note replaced = sameNote ? shownNote : folder.getNoteByTitle(noteTitle);
+            Note note = new Note(noteTitle, noteContent, replaced != null ? replaced.getCreationTime() : LocalDateTime.now());  // A rewritten note keeps its place
+            note.setHighlights(highlighter.getModel().copy());  // Save highlights with their colors
+            long readStamp = sameNote ? shownStamp : -1;
+            AutosaveJournal journal = sameNote ? autosave : null;
+            Future<?> autosaved = stopAutosave();
+            storeNote(folder, note, autosaved, () -> journal != null ? journal.getStamp() : readStamp);
+        }
+    }
 
-            try (FileWriter writer = new FileWriter(noteFile)) {
-                props.store(writer, "Note Properties");
-                noteListModel.addElement(noteTitle + " - " + new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(noteFile.lastModified())));  // Add note to list
-                JOptionPane.showMessageDialog(frame, "Note saved successfully", "Success", JOptionPane.INFORMATION_MESSAGE);
-                TitleField.setText("");  // Clear title field
+    /**
+     * Saves a note from the editor in the background, if the stored note is still the version
+     * the editor is based on. Otherwise asks whether to overwrite the version saved by the other editor.
+     * @param folder the folder of the note
+     * @param note the note to save
+     * @param autosaved completes once the autosave of the note has stored its edits
+     * @param expectedStamp gives the stamp of the version the note is based on, once autosave is done
+     */
+    private void storeNote(Folder folder, Note note, Future<?> autosaved, LongSupplier expectedStamp) {
+        String noteTitle = note.getTitle();
+        String noteContent = note.getContent();
+        long[] savedStamp = new long[1];
+        noteIO.save(cacheKey(folder, noteTitle), () -> {
+            autosaved.get();  // Let autosave store its edits first so this save is the last write
+            OperationEvent event = NoteMetrics.begin(NoteMetrics.Operation.SAVE_NOTE);
+            NoteStorage storage = folder.getStorage();
+            long stamp = storage.saveIfUnchanged(note, expectedStamp.getAsLong());
+            savedStamp[0] = stamp;
+            folder.getHistory().record(note);  // Stores only the chunks this save changed
+            noteCache.put(cacheKey(folder, noteTitle), stamp, note);  // The next load of this note needs no parsing
+            SearchIndex index = folder.getSearchIndex();
+            index.update(noteTitle, noteContent, stamp);  // Keep search results current
+            noteIO.save(SearchIndex.INDEX_FILE_NAME + folder.getName(), () -> {
+                index.save();
+                return index;
+            }, savedIndex -> { }, Throwable::printStackTrace);
+            NoteMetrics.end(event, noteTitle, noteContent.length());
+            return note;
+        }, savedNote -> {
+            addToFolder(folder, note);  // Keep the folder index and the note list current
+            JOptionPane.showMessageDialog(frame, "Note saved successfully", "Success", JOptionPane.INFORMATION_MESSAGE);
+            if (autosave != null) {
+                return;  // Another note was opened meanwhile
+            }
+            if (noteTitleField.getText().equals(noteTitle) && noteContentArea.getText().equals(noteContent)) {
+                noteTitleField.setText("");  // Clear title field
                 noteContentArea.setText("");  // Clear content area
-            } catch (IOException ex) {
-                ex.printStackTrace();
-                JOptionPane.showMessageDialog(frame, "Error saving note", "Error", JOptionPane.ERROR_MESSAGE);
+                shownFolder = null;
+                shownNote = null;
+            } else if (noteTitleField.getText().equals(noteTitle)) {
+                shownFolder = folder;  // Still editing the saved note
+                shownNote = note;
+                shownStamp = savedStamp[0];
+                if (autosaveCheckBox.isSelected()) {
+                    startAutosave(!noteContentArea.getText().equals(noteContent));
+                }
             }
+        }, ex -> {
+            if (ex instanceof StaleNoteException) {
+                long storedStamp = ((StaleNoteException) ex).getStoredStamp();
+                int choice = JOptionPane.showOptionDialog(frame,
+                        noteTitle + " was saved by another window or program since you opened it.\nOverwrite it with your version?",
+                        "Note Changed", JOptionPane.DEFAULT_OPTION, JOptionPane.WARNING_MESSAGE, null,
+                        new Object[] {"Overwrite", "Cancel"}, "Cancel");
+                if (choice == 0) {
+                    storeNote(folder, note, CompletableFuture.completedFuture(null), () -> storedStamp);
+                }
+                return;
+            }
+            ex.printStackTrace();
+            JOptionPane.showMessageDialog(frame, "Error saving note", "Error", JOptionPane.ERROR_MESSAGE);
+        });
+    }
+
+    /**
+     * Saves a mapped note back to its text file, streaming it so it is never loaded whole.
+     * The search index keeps the version of the note it last read.
+     * @param document the mapped note
+     */
+    private void saveMappedNote(MappedDocument document) {
+        String noteTitle = noteTitleField.getText();
+        Folder folder = shownFolder;
+        if (noteTitle.isEmpty() || folder == null) {
+            JOptionPane.showMessageDialog(frame, "Note title cannot be empty", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
         }
+        File file = new File(folder.getName(), noteTitle + LegacyNoteStorage.TEXT_EXTENSION);
+        long readStamp = shownStamp;
+        noteIO.save(cacheKey(folder, noteTitle), () -> {
+            OperationEvent event = NoteMetrics.begin(NoteMetrics.Operation.SAVE_NOTE);
+            LegacyNoteStorage storage = (LegacyNoteStorage) folder.getStorage();  // Only text files are mapped
+            long stamp;
+            NoteLocks.Held lock = storage.lock(noteTitle);
+            try {
+                long stored = storage.stamp(noteTitle);
+                if (stored != readStamp) {
+                    throw new StaleNoteException(noteTitle, stored);
+                }
+                document.writeTo(file.toPath());
+                stamp = storage.stamp(noteTitle);
+            } finally {
+                lock.unlock();
+            }
+            noteCache.invalidate(cacheKey(folder, noteTitle));
+            NoteMetrics.end(event, noteTitle, document.getLength());
+            return stamp;
+        }, savedStamp -> {
+            if (folder.getNoteByTitle(noteTitle) == null) {
+                addToFolder(folder, new Note(noteTitle, null));
+            }
+            if (noteContentArea.getDocument() == document) {
+                shownStamp = savedStamp;
+            }
+            JOptionPane.showMessageDialog(frame, "Note saved successfully", "Success", JOptionPane.INFORMATION_MESSAGE);
+        }, ex -> {
+            if (ex instanceof StaleNoteException) {
+                JOptionPane.showMessageDialog(frame, noteTitle + " was saved by another window or program since you opened it; open it again to edit it", "Note Changed", JOptionPane.WARNING_MESSAGE);
+                return;
+            }
+            ex.printStackTrace();
+            JOptionPane.showMessageDialog(frame, "Error saving note", "Error", JOptionPane.ERROR_MESSAGE);
+        });
     }
 
     /**
@@ -233,14 +968,122 @@ public class MainApp extends Window {
     private class FolderSelectionListener implements ActionListener {
         @Override
         public void actionPerformed(ActionEvent e) {
-            if (selectedFolder != null) {
-                Folder folder = new Folder(selectedFolder.getPath());
-                noteListModel.clear();
-                for (Note note : folder.getNotes()) {
-                    noteListModel.addElement(note.getTitle() + " - " + note.getFormattedCreationTime());  // Update note list
+            Workspace.Entry entry = (Workspace.Entry) folderComboBox.getSelectedItem();
+            if (entry == null) {
+                return;
+            }
+            Folder folder = openFolder(entry);  // Reuse the open folder; one storage per folder
+            selectedFolder = new File(folder.getName());
+            showFolderNotes(folder);
+        }
+    }
+
+    /**
+     * Listener that moves the highlight runs as the note content is edited.
+     */
+    private class HighlightOffsetListener implements DocumentListener {
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            highlighter.getModel().insertUpdate(e.getOffset(), e.getLength());
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            highlighter.getModel().removeUpdate(e.getOffset(), e.getLength());
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+            // Attribute changes do not move text
+        }
+    }
+
+    /**
+     * Listener that records edits to the note content in the autosave journal.
+     */
+    private class AutosaveListener implements DocumentListener {
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            if (autosave != null) {
+                try {
+                    autosave.insert(e.getOffset(), e.getDocument().getText(e.getOffset(), e.getLength()));
+                } catch (BadLocationException ex) {
+                    ex.printStackTrace();
                 }
             }
         }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            if (autosave != null) {
+                autosave.remove(e.getOffset(), e.getLength());
+            }
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+            // Attribute changes do not change the text
+        }
+    }
+
+    /**
+     * Listener that runs the search whenever the search field changes.
+     */
+    private class SearchListener implements DocumentListener {
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            runSearch();
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            runSearch();
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+            runSearch();
+        }
+    }
+
+    /**
+     * Listener that filters the note list whenever the filter field changes.
+     */
+    private class FilterListener implements DocumentListener {
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            applyFilter();
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            applyFilter();
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+            applyFilter();
+        }
+    }
+
+    /**
+     * Listener that finds in the note content whenever the find field changes.
+     */
+    private class FindListener implements DocumentListener {
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            updateFind();
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            updateFind();
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+            updateFind();
+        }
     }
 
     /**
@@ -255,17 +1098,10 @@ public class MainApp extends Window {
 
         @Override
         public void actionPerformed(ActionEvent e) {
-            if (highlighter == null) {
-                highlighter = noteContentArea.getHighlighter();  // Initialize highlighter
-            }
-            Highlighter.HighlightPainter painter = new DefaultHighlighter.DefaultHighlightPainter(color);
             int start = noteContentArea.getSelectionStart();
             int end = noteContentArea.getSelectionEnd();
-            try {
-                highlighter.addHighlight(start, end, painter);  // Add highlight to selected text
-            } catch (BadLocationException ex) {
-                ex.printStackTrace();
-            }
+            highlighter.getModel().add(start, end, color.getRGB());  // Add highlight to selected text
+            highlighter.repaint();
         }
     }
 
@@ -275,21 +1111,29 @@ public class MainApp extends Window {
     private class ClearHighlightListener implements ActionListener {
         @Override
         public void actionPerformed(ActionEvent e) {
-            if (highlighter != null) {
-                highlighter.removeAllHighlights();  // Clear all highlights
-            }
+            highlighter.getModel().clear();  // Clear all highlights
+            highlighter.repaint();
         }
     }
 
+    /**
+     * Returns an exporter that draws notes as the editor shows them.
+     * @return the exporter
+     */
+    private ImageExporter createImageExporter() {
+        int width = noteContentArea.getVisibleRect().width;
+        return new ImageExporter(noteContentArea.getFont(), width > 0 ? width : DEFAULT_IMAGE_WIDTH);
+    }
+
     /**
      * Listener for saving a note as an image.
+     * The whole note is drawn, not just the part on screen, and the image is written in the background.
      */
     private class SaveAsImageListener implements ActionListener {
         @Override
         public void actionPerformed(ActionEvent e) {
             String noteTitle = noteTitleField.getText();
-            String noteContent = noteContentArea.getText();
-            if (noteTitle.isEmpty() || noteContent.isEmpty()) {
+            if (noteTitle.isEmpty() || noteContentArea.getDocument().getLength() == 0) {  // Large notes are not copied to check
                 JOptionPane.showMessageDialog(frame, "Note title and content cannot be empty", "Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
@@ -299,26 +1143,246 @@ public class MainApp extends Window {
                 return;
             }
 
+            if (noteContentArea.getDocument() instanceof MappedDocument) {
+                JOptionPane.showMessageDialog(frame, "This note is too large to save as an image", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+
             JFileChooser fileChooser = new JFileChooser();
-            fileChooser.setFileFilter(new FileNameExtensionFilter("JPEG files", "jpg", "jpeg"));  // Set file filter for JPEG
+            FileNameExtensionFilter pngFilter = new FileNameExtensionFilter("PNG files", "png");
+            fileChooser.addChoosableFileFilter(pngFilter);
+            fileChooser.addChoosableFileFilter(new FileNameExtensionFilter("JPEG files", "jpg", "jpeg"));
+            fileChooser.setFileFilter(pngFilter);  // PNG is written a band at a time, whatever the length of the note
             int option = fileChooser.showSaveDialog(frame);
             if (option == JFileChooser.APPROVE_OPTION) {
-                File outputFile = fileChooser.getSelectedFile();
-                if (!outputFile.getName().toLowerCase().endsWith(".jpg") && !outputFile.getName().toLowerCase().endsWith(".jpeg")) {
-                    outputFile = new File(outputFile.getParentFile(), outputFile.getName() + ".jpg");  // Ensure file has .jpg extension
+                File selectedFile = fileChooser.getSelectedFile();
+                String name = selectedFile.getName().toLowerCase();
+                File outputFile = name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg")
+                        ? selectedFile
+                        : new File(selectedFile.getParentFile(), selectedFile.getName() + "." + ImageExporter.DEFAULT_FORMAT);  // Ensure file has an image extension
+                Note note = new Note(noteTitle, noteContentArea.getText());
+                note.setHighlights(highlighter.getModel().copy());  // Export the highlights as they are now
+                ImageExporter exporter = createImageExporter();
+                CompletableFuture.runAsync(() -> {
+                    try {
+                        exporter.export(note, outputFile, new AtomicBoolean());
+                    } catch (IOException ex) {
+                        throw new CompletionException(ex);
+                    }
+                }, imageExecutor).whenComplete((exported, ex) -> SwingUtilities.invokeLater(() -> {
+                    if (ex == null) {
+                        JOptionPane.showMessageDialog(frame, "Note saved as image successfully", "Success", JOptionPane.INFORMATION_MESSAGE);
+                    } else {
+                        ex.printStackTrace();
+                        JOptionPane.showMessageDialog(frame, "Error saving note as image", "Error", JOptionPane.ERROR_MESSAGE);
+                    }
+                }));
+            }
+        }
+    }
+
+    /**
+     * Listener for showing the saved versions of the note in the editor.
+     * Two selected versions are compared with each other, one with the version before it.
+     * Restoring a version shows it in the editor, and saving it makes it the newest version.
+     */
+    private class HistoryListener implements ActionListener {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            String noteTitle = noteTitleField.getText();
+            Folder folder = shownFolder != null ? shownFolder : selectedFolder == null ? null : findFolder(selectedFolder);
+            if (noteTitle.isEmpty() || folder == null) {
+                JOptionPane.showMessageDialog(frame, "No note selected", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            // Queued behind the saves of the note, so their versions are listed
+            noteIO.save("history " + cacheKey(folder, noteTitle), () -> folder.getHistory().list(noteTitle),
+                    versions -> showHistory(folder, noteTitle, versions), ex -> {
+                ex.printStackTrace();
+                JOptionPane.showMessageDialog(frame, "Error reading note history", "Error", JOptionPane.ERROR_MESSAGE);
+            });
+        }
+
+        private void showHistory(Folder folder, String noteTitle, List<NoteHistory.Version> versions) {
+            if (versions.isEmpty()) {
+                JOptionPane.showMessageDialog(frame, "No saved versions of " + noteTitle, "Note History", JOptionPane.INFORMATION_MESSAGE);
+                return;
+            }
+            JDialog dialog = new JDialog(frame, "History of " + noteTitle, false);
+            DefaultListModel<NoteHistory.Version> model = new DefaultListModel<>();
+            for (int i = versions.size() - 1; i >= 0; i--) {
+                model.addElement(versions.get(i));  // Newest first
+            }
+            JList<NoteHistory.Version> versionList = new JList<>(model);
+            versionList.setSelectedIndex(0);
+            JTextArea diffArea = new JTextArea(30, 80);
+            diffArea.setEditable(false);
+            diffArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+
+            JButton compareButton = new JButton("Compare");
+            compareButton.addActionListener(event -> {
+                List<NoteHistory.Version> selected = versionList.getSelectedValuesList();
+                if (selected.isEmpty()) {
+                    return;
                 }
-                try {
-                    BufferedImage image = new BufferedImage(noteContentArea.getWidth(), noteContentArea.getHeight(), BufferedImage.TYPE_INT_RGB);  // Create image
-                    Graphics2D graphics = image.createGraphics();
-                    noteContentArea.paint(graphics);  // Paint note content onto image
-                    graphics.dispose();
-                    ImageIO.write(image, "jpg", outputFile);  // Write image to file
-                    JOptionPane.showMessageDialog(frame, "Note saved as image successfully", "Success", JOptionPane.INFORMATION_MESSAGE);
-                } catch (IOException ex) {
+                NoteHistory.Version newer = selected.get(0);
+                NoteHistory.Version older = selected.size() > 1 ? selected.get(selected.size() - 1) : null;
+                noteIO.save("history diff " + cacheKey(folder, noteTitle), () -> {
+                    NoteHistory history = folder.getHistory();
+                    NoteHistory.Version base = older != null ? older : history.get(noteTitle, newer.getNumber() - 1);
+                    if (base == null) {
+                        return LineDiff.unified("", history.read(newer).getContent(), 3);  // The first version
+                    }
+                    return history.diff(base, newer);
+                }, diff -> {
+                    diffArea.setText(diff.isEmpty() ? "No changes to the text" : diff);
+                    diffArea.setCaretPosition(0);
+                }, ex -> {
                     ex.printStackTrace();
-                    JOptionPane.showMessageDialog(frame, "Error saving note as image", "Error", JOptionPane.ERROR_MESSAGE);
+                    JOptionPane.showMessageDialog(dialog, "Error comparing versions", "Error", JOptionPane.ERROR_MESSAGE);
+                });
+            });
+            JButton restoreButton = new JButton("Restore");
+            restoreButton.addActionListener(event -> {
+                NoteHistory.Version version = versionList.getSelectedValue();
+                if (version == null) {
+                    return;
                 }
+                long[] storedStamp = {-1};
+                noteIO.save("history restore " + cacheKey(folder, noteTitle), () -> {
+                    storedStamp[0] = folder.getStorage().stamp(noteTitle);  // Saving the restored version replaces the stored one
+                    return folder.getHistory().read(version);
+                }, restored -> {
+                    dialog.dispose();
+                    showNote(folder, restored, storedStamp[0]);
+                    JOptionPane.showMessageDialog(frame, "Version " + version.getNumber() + " restored; save the note to keep it", "Note History", JOptionPane.INFORMATION_MESSAGE);
+                }, ex -> {
+                    ex.printStackTrace();
+                    JOptionPane.showMessageDialog(dialog, "Error restoring version", "Error", JOptionPane.ERROR_MESSAGE);
+                });
+            });
+
+            JPanel buttons = new JPanel(new FlowLayout());
+            buttons.add(compareButton);
+            buttons.add(restoreButton);
+            dialog.add(new JScrollPane(versionList), BorderLayout.WEST);
+            dialog.add(new JScrollPane(diffArea), BorderLayout.CENTER);
+            dialog.add(buttons, BorderLayout.SOUTH);
+            dialog.pack();
+            dialog.setLocationRelativeTo(frame);
+            dialog.setVisible(true);
+        }
+    }
+
+    /**
+     * Listener for saving every note of the selected folder as an image.
+     * The notes are exported in parallel; a progress dialog shows how far the export is and can cancel it.
+     */
+    private class ExportFolderListener implements ActionListener {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            Folder folder = selectedFolder == null ? null : findFolder(selectedFolder);
+            if (folder == null) {
+                JOptionPane.showMessageDialog(frame, "No folder selected", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+
+            JFileChooser fileChooser = new JFileChooser();
+            fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);  // The images go into a directory
+            fileChooser.setDialogTitle("Export Folder as Images");
+            if (fileChooser.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            ImageExporter.BatchExport batch = createImageExporter().exportFolder(folder, fileChooser.getSelectedFile(), ImageExporter.DEFAULT_FORMAT);
+            ProgressMonitor monitor = new ProgressMonitor(frame, "Exporting " + new File(folder.getName()).getName(), null, 0, batch.getTotal());
+            // Poll the counts instead of posting an event per note
+            Timer progressTimer = new Timer(200, tick -> {
+                monitor.setProgress(batch.getCompleted());
+                if (monitor.isCanceled()) {
+                    batch.cancel();
+                }
+            });
+            progressTimer.start();
+            batch.getDone().thenAccept(done -> SwingUtilities.invokeLater(() -> {
+                progressTimer.stop();
+                monitor.close();
+                String message = done.getExported() + " of " + done.getTotal() + " notes saved as images";
+                if (done.getSkipped() > 0) {
+                    message += ", " + done.getSkipped() + " too large or empty";
+                }
+                if (done.getFailed() > 0) {
+                    message += ", " + done.getFailed() + " failed";
+                }
+                JOptionPane.showMessageDialog(frame, done.isCancelled() ? "Export cancelled: " + message : message,
+                        "Export Folder", done.getFailed() > 0 ? JOptionPane.WARNING_MESSAGE : JOptionPane.INFORMATION_MESSAGE);
+            }));
+        }
+    }
+
+    /**
+     * Listener for packing every note of the selected folder into one archive file.
+     */
+    private class ExportArchiveListener implements ActionListener {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            Folder folder = selectedFolder == null ? null : findFolder(selectedFolder);
+            if (folder == null) {
+                JOptionPane.showMessageDialog(frame, "No folder selected", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+
+            JFileChooser fileChooser = new JFileChooser();
+            fileChooser.setFileFilter(new FileNameExtensionFilter("Note archives", NoteArchive.EXTENSION.substring(1)));
+            if (fileChooser.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            File selectedFile = fileChooser.getSelectedFile();
+            File archive = selectedFile.getName().endsWith(NoteArchive.EXTENSION)
+                    ? selectedFile
+                    : new File(selectedFile.getParentFile(), selectedFile.getName() + NoteArchive.EXTENSION);  // Ensure file has the archive extension
+            noteIO.save(archive.getPath(), () -> NoteArchive.exportFolder(folder, archive), count ->
+                    JOptionPane.showMessageDialog(frame, count + " notes exported", "Success", JOptionPane.INFORMATION_MESSAGE), ex -> {
+                ex.printStackTrace();
+                JOptionPane.showMessageDialog(frame, "Error exporting notes", "Error", JOptionPane.ERROR_MESSAGE);
+            });
+        }
+    }
+
+    /**
+     * Listener for adding the notes of an archive, or of a directory of text notes, to the selected folder.
+     */
+    private class ImportNotesListener implements ActionListener {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            Folder folder = selectedFolder == null ? null : findFolder(selectedFolder);
+            if (folder == null) {
+                JOptionPane.showMessageDialog(frame, "No folder selected", "Error", JOptionPane.ERROR_MESSAGE);
+                return;
             }
+
+            JFileChooser fileChooser = new JFileChooser();
+            fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);  // An archive or a directory of .txt notes
+            fileChooser.setFileFilter(new FileNameExtensionFilter("Note archives", NoteArchive.EXTENSION.substring(1)));
+            if (fileChooser.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            File source = fileChooser.getSelectedFile();
+            // Queued behind earlier saves, so the import replaces what they stored instead of racing them
+            noteIO.save(folder.getName() + File.pathSeparator + source.getPath(), () -> source.isDirectory()
+                    ? NoteArchive.importDirectory(source, folder.getStorage())
+                    : NoteArchive.importArchive(source, folder.getStorage()), imported -> {
+                int oldSize = folder.getNotes().size();
+                int first = folder.addNotes(imported);
+                folderNotesChanged(folder, first, oldSize);
+                for (Note note : imported) {
+                    noteCache.invalidate(cacheKey(folder, note.getTitle()));
+                }
+                indexFolder(folder);  // Index the imported notes in the background
+                JOptionPane.showMessageDialog(frame, imported.size() + " notes imported", "Success", JOptionPane.INFORMATION_MESSAGE);
+            }, ex -> {
+                ex.printStackTrace();
+                JOptionPane.showMessageDialog(frame, "Error importing notes", "Error", JOptionPane.ERROR_MESSAGE);
+            });
         }
     }
 
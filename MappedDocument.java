@@ -0,0 +1,843 @@
+package Prototype;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.UndoableEdit;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Plain text document backed by a memory-mapped note file, for notes too large to load.
+ * The file is split into pages of about 64 KB. Opening the document scans the file once to
+ * count the characters and lines of every page; after that only the pages being viewed are
+ * decoded, and only a few decoded pages are kept. Edits are kept in a piece table over the
+ * mapped text, so the file is never copied onto the heap and heap use does not grow with the
+ * size of the note. Lines are not stored as elements either: the line elements are created
+ * on demand from the page line counts. Show the document with PagedTextView.
+ */
+public class MappedDocument extends AbstractDocument {
+    private static final long serialVersionUID = 1L;
+    // Notes at least this large are opened as mapped documents
+    static final String THRESHOLD_PROPERTY = "notes.mapped.thresholdBytes";
+    private static final long DEFAULT_THRESHOLD = 8L * 1024 * 1024;
+    // Target size of a page of the mapped file
+    private static final int PAGE_BYTES = 64 * 1024;
+    // Decoded pages kept in memory
+    private static final int CACHED_PAGES = 16;
+    // Characters written at a time when saving
+    private static final int WRITE_CHUNK = 64 * 1024;
+
+    // The mapped file
+    private final Path file;
+    // The text: the mapped file with the edits applied
+    private final PieceContent pieces;
+    // The root of the line elements
+    private final Element lines = new LinesElement();
+
+    /**
+     * Opens a note file as a document.
+     * @param file the note file, in the default charset
+     * @throws IOException if the file cannot be mapped or is too large for a document
+     */
+    public MappedDocument(Path file) throws IOException {
+        this(file, new PieceContent(new MappedText(file, Charset.defaultCharset())));
+    }
+
+    private MappedDocument(Path file, PieceContent pieces) {
+        super(pieces);
+        this.file = file;
+        this.pieces = pieces;
+    }
+
+    /**
+     * Checks whether a note file is large enough to be opened as a mapped document.
+     * Only .txt notes in a charset whose pages can be decoded separately qualify.
+     * @param file the note file
+     * @return true if the file should be mapped
+     */
+    public static boolean shouldMap(File file) {
+        if (file == null || !file.getName().endsWith(LegacyNoteStorage.TEXT_EXTENSION)) {
+            return false;
+        }
+        Charset charset = Charset.defaultCharset();
+        boolean pageable = charset.equals(StandardCharsets.UTF_8) || charset.newEncoder().maxBytesPerChar() == 1;
+        return pageable && file.length() >= Long.getLong(THRESHOLD_PROPERTY, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Returns the file the document was opened from.
+     * @return the note file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Returns an upper bound of the longest line, for sizing views without measuring every line.
+     * @return the length of the longest line in characters, at most
+     */
+    public int getLongestLineEstimate() {
+        return pieces.longestLine;
+    }
+
+    /**
+     * Writes the text to a file without loading it: the text is encoded in chunks into a
+     * temporary file, which is forced to disk and then moved over the target.
+     * @param target the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void writeTo(Path target) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        readLock();
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // Unpaired surrogates left by edits are replaced, as String.getBytes does
+            CharsetEncoder encoder = pieces.text.charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            Writer writer = new BufferedWriter(Channels.newWriter(channel, encoder, WRITE_CHUNK));
+            char[] chunk = new char[WRITE_CHUNK];
+            int length = getLength();
+            for (int offset = 0; offset < length; offset += WRITE_CHUNK) {
+                int count = Math.min(WRITE_CHUNK, length - offset);
+                pieces.copy(offset, count, chunk, 0);
+                writer.write(chunk, 0, count);
+            }
+            writer.flush();
+            channel.force(true);
+        } finally {
+            readUnlock();
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public Element getDefaultRootElement() {
+        return lines;
+    }
+
+    @Override
+    public Element getParagraphElement(int pos) {
+        return lines.getElement(lines.getElementIndex(pos));
+    }
+
+    @Override
+    protected void insertUpdate(DefaultDocumentEvent chng, AttributeSet attr) {
+        pieces.noteLongLine(chng.getOffset(), chng.getLength());
+        super.insertUpdate(chng, attr);
+    }
+
+    /**
+     * The lines of the document. A line ends after its newline, like the lines of PlainDocument.
+     */
+    private class LinesElement extends Line {
+        LinesElement() {
+            super(null, -1);
+        }
+
+        @Override
+        public String getName() {
+            return AbstractDocument.SectionElementName;
+        }
+
+        @Override
+        public int getStartOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getEndOffset() {
+            return pieces.length();
+        }
+
+        @Override
+        public int getElementIndex(int offset) {
+            return Math.min(pieces.lineOf(Math.max(0, offset)), getElementCount() - 1);
+        }
+
+        @Override
+        public int getElementCount() {
+            return pieces.newlines;
+        }
+
+        @Override
+        public Element getElement(int index) {
+            return index < 0 || index >= getElementCount() ? null : new Line(this, index);
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return false;
+        }
+    }
+
+    /**
+     * One line, created when it is asked for; its offsets are looked up from the line number.
+     */
+    private class Line implements Element {
+        private final Element parent;
+        private final int line;
+
+        Line(Element parent, int line) {
+            this.parent = parent;
+            this.line = line;
+        }
+
+        @Override
+        public javax.swing.text.Document getDocument() {
+            return MappedDocument.this;
+        }
+
+        @Override
+        public Element getParentElement() {
+            return parent;
+        }
+
+        @Override
+        public String getName() {
+            return AbstractDocument.ParagraphElementName;
+        }
+
+        @Override
+        public AttributeSet getAttributes() {
+            return javax.swing.text.SimpleAttributeSet.EMPTY;
+        }
+
+        @Override
+        public int getStartOffset() {
+            return pieces.lineStart(line);
+        }
+
+        @Override
+        public int getEndOffset() {
+            return pieces.lineStart(line + 1);
+        }
+
+        @Override
+        public int getElementIndex(int offset) {
+            return -1;
+        }
+
+        @Override
+        public int getElementCount() {
+            return 0;
+        }
+
+        @Override
+        public Element getElement(int index) {
+            return null;
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return true;
+        }
+    }
+
+    /**
+     * Piece table over the mapped text: the text is a list of pieces, each a range of the
+     * mapped text or of the buffer of inserted text. Ends with the newline every document has.
+     * Inserted text is never removed from the buffer, so an edit is undone and redone by
+     * removing or putting back its pieces.
+     */
+    private static class PieceContent implements AbstractDocument.Content {
+        private final MappedText text;
+        // Text inserted by edits
+        private final StringBuilder added = new StringBuilder("\n");
+        private final List<Piece> list = new ArrayList<>();
+        // Positions handed out, moved by every edit
+        private final List<WeakReference<Mark>> marks = new ArrayList<>();
+        private int length;
+        private int newlines;
+        private int longestLine;
+
+        PieceContent(MappedText text) {
+            this.text = text;
+            if (text.length > 0) {
+                list.add(new Piece(true, 0, text.length, text.lines));
+            }
+            list.add(new Piece(false, 0, 1, 1));
+            length = text.length + 1;
+            newlines = text.lines + 1;
+            longestLine = text.longestLine;
+        }
+
+        @Override
+        public synchronized Position createPosition(int offset) throws BadLocationException {
+            if (offset < 0 || offset > length) {
+                throw new BadLocationException("Invalid position", offset);
+            }
+            Mark mark = new Mark(offset);
+            marks.add(new WeakReference<>(mark));
+            return mark;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public synchronized UndoableEdit insertString(int where, String str) throws BadLocationException {
+            if (where < 0 || where >= length) {
+                throw new BadLocationException("Invalid insert", where);
+            }
+            int index = split(where);
+            int start = added.length();
+            added.append(str);
+            int lineBreaks = countNewlines(str, 0, str.length());
+            Piece piece = new Piece(false, start, str.length(), lineBreaks);
+            Piece previous = index > 0 ? list.get(index - 1) : null;
+            if (previous != null && !previous.mapped && previous.start + previous.length == start) {
+                // Typing extends the piece of the previous keystroke
+                list.set(index - 1, new Piece(false, previous.start, previous.length + str.length(), previous.newlines + lineBreaks));
+            } else {
+                list.add(index, piece);
+            }
+            length += str.length();
+            newlines += lineBreaks;
+            moveMarksAfterInsert(where, str.length());
+            return new PieceEdit(where, Collections.singletonList(piece), true);
+        }
+
+        @Override
+        public synchronized UndoableEdit remove(int where, int nitems) throws BadLocationException {
+            if (where < 0 || nitems < 0 || where + nitems >= length) {
+                throw new BadLocationException("Invalid remove", where + nitems);
+            }
+            return new PieceEdit(where, removePieces(where, nitems), false);
+        }
+
+        /**
+         * Takes a range out of the text.
+         * @return the pieces that held the range
+         */
+        private List<Piece> removePieces(int where, int nitems) {
+            int from = split(where);
+            int to = split(where + nitems);
+            List<Piece> removed = new ArrayList<>(list.subList(from, to));
+            for (Piece piece : removed) {
+                newlines -= piece.newlines;
+            }
+            list.subList(from, to).clear();
+            length -= nitems;
+            for (Iterator<WeakReference<Mark>> iterator = marks.iterator(); iterator.hasNext(); ) {
+                Mark mark = iterator.next().get();
+                if (mark == null) {
+                    iterator.remove();
+                } else if (mark.offset > where + nitems) {
+                    mark.offset -= nitems;
+                } else if (mark.offset > where) {
+                    mark.offset = where;
+                }
+            }
+            return removed;
+        }
+
+        /**
+         * Puts pieces taken out by removePieces, or made by insertString, back into the text.
+         */
+        private void insertPieces(int where, List<Piece> pieces) {
+            int index = split(where);
+            int inserted = 0;
+            for (Piece piece : pieces) {
+                newlines += piece.newlines;
+                inserted += piece.length;
+            }
+            list.addAll(index, pieces);
+            length += inserted;
+            moveMarksAfterInsert(where, inserted);
+            noteLongLine(where, inserted);
+        }
+
+        private void moveMarksAfterInsert(int where, int inserted) {
+            for (Iterator<WeakReference<Mark>> iterator = marks.iterator(); iterator.hasNext(); ) {
+                Mark mark = iterator.next().get();
+                if (mark == null) {
+                    iterator.remove();
+                } else if (mark.offset > where || (mark.offset == where && where > 0)) {
+                    mark.offset += inserted;
+                }
+            }
+        }
+
+        /**
+         * Undoes and redoes one insertion or removal of the piece table.
+         */
+        private class PieceEdit extends AbstractUndoableEdit {
+            private static final long serialVersionUID = 1L;
+
+            private final int where;
+            // The pieces inserted or removed
+            private final List<Piece> pieces;
+            private final boolean insertion;
+
+            PieceEdit(int where, List<Piece> pieces, boolean insertion) {
+                this.where = where;
+                this.pieces = pieces;
+                this.insertion = insertion;
+            }
+
+            @Override
+            public void undo() throws CannotUndoException {
+                super.undo();
+                apply(!insertion);
+            }
+
+            @Override
+            public void redo() throws CannotRedoException {
+                super.redo();
+                apply(insertion);
+            }
+
+            private void apply(boolean insert) {
+                synchronized (PieceContent.this) {
+                    if (insert) {
+                        insertPieces(where, pieces);
+                    } else {
+                        int removed = 0;
+                        for (Piece piece : pieces) {
+                            removed += piece.length;
+                        }
+                        removePieces(where, removed);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public String getString(int where, int len) throws BadLocationException {
+            check(where, len);
+            char[] chars = new char[len];
+            copy(where, len, chars, 0);
+            return new String(chars);
+        }
+
+        @Override
+        public void getChars(int where, int len, Segment txt) throws BadLocationException {
+            check(where, len);
+            char[] chars = new char[len];
+            copy(where, len, chars, 0);
+            txt.array = chars;
+            txt.offset = 0;
+            txt.count = len;
+        }
+
+        private void check(int where, int len) throws BadLocationException {
+            if (where < 0 || len < 0 || where + len > length) {
+                throw new BadLocationException("Invalid range", where + len);
+            }
+        }
+
+        /**
+         * Copies characters of the text into an array.
+         */
+        synchronized void copy(int where, int len, char[] dest, int destPos) {
+            int pieceOffset = 0;
+            for (Piece piece : list) {
+                if (len == 0) {
+                    return;
+                }
+                int pieceEnd = pieceOffset + piece.length;
+                if (where < pieceEnd) {
+                    int from = where - pieceOffset;
+                    int count = Math.min(len, piece.length - from);
+                    if (piece.mapped) {
+                        text.copy(piece.start + from, count, dest, destPos);
+                    } else {
+                        added.getChars(piece.start + from, piece.start + from + count, dest, destPos);
+                    }
+                    where += count;
+                    len -= count;
+                    destPos += count;
+                }
+                pieceOffset = pieceEnd;
+            }
+        }
+
+        /**
+         * Splits the piece containing an offset so that a piece starts there.
+         * @return the index of the piece starting at the offset
+         */
+        private int split(int offset) {
+            int pieceOffset = 0;
+            for (int i = 0; i < list.size(); i++) {
+                Piece piece = list.get(i);
+                if (offset == pieceOffset) {
+                    return i;
+                }
+                if (offset < pieceOffset + piece.length) {
+                    int headLength = offset - pieceOffset;
+                    int headNewlines = newlinesIn(piece, 0, headLength);
+                    list.set(i, new Piece(piece.mapped, piece.start, headLength, headNewlines));
+                    list.add(i + 1, new Piece(piece.mapped, piece.start + headLength, piece.length - headLength, piece.newlines - headNewlines));
+                    return i + 1;
+                }
+                pieceOffset += piece.length;
+            }
+            return list.size();
+        }
+
+        /**
+         * Returns the number of the line holding an offset, which is the number of newlines before it.
+         */
+        synchronized int lineOf(int offset) {
+            int pieceOffset = 0;
+            int line = 0;
+            for (Piece piece : list) {
+                if (offset < pieceOffset + piece.length) {
+                    return line + newlinesIn(piece, 0, offset - pieceOffset);
+                }
+                line += piece.newlines;
+                pieceOffset += piece.length;
+            }
+            return line;
+        }
+
+        /**
+         * Returns the offset a line starts at, which is just after the newline ending the line before.
+         */
+        synchronized int lineStart(int line) {
+            if (line <= 0) {
+                return 0;
+            }
+            int pieceOffset = 0;
+            int seen = 0;
+            for (Piece piece : list) {
+                if (seen + piece.newlines >= line) {
+                    int n = line - seen;
+                    int newline = piece.mapped
+                            ? text.nthNewline(piece.start, n) - piece.start
+                            : added.indexOf("\n", nthAddedNewline(piece.start, n)) - piece.start;
+                    return pieceOffset + newline + 1;
+                }
+                seen += piece.newlines;
+                pieceOffset += piece.length;
+            }
+            return length;
+        }
+
+        /**
+         * Returns where the search for the nth newline of the inserted text after an index can start.
+         */
+        private int nthAddedNewline(int from, int n) {
+            int index = from;
+            for (int i = 1; i < n; i++) {
+                index = added.indexOf("\n", index) + 1;
+            }
+            return index;
+        }
+
+        private int newlinesIn(Piece piece, int from, int to) {
+            if (piece.mapped) {
+                return text.newlinesBefore(piece.start + to) - text.newlinesBefore(piece.start + from);
+            }
+            return countNewlines(added, piece.start + from, piece.start + to);
+        }
+
+        private static int countNewlines(CharSequence chars, int from, int to) {
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                if (chars.charAt(i) == '\n') {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Raises the longest line estimate if an insertion made a line longer than it.
+         */
+        synchronized void noteLongLine(int offset, int insertedLength) {
+            int line = lineOf(offset);
+            int lastLine = lineOf(offset + insertedLength);
+            for (int i = line; i <= lastLine && i - line < 2; i++) {
+                longestLine = Math.max(longestLine, lineStart(i + 1) - lineStart(i));
+            }
+            if (lastLine - line >= 2) {
+                longestLine = Math.max(longestLine, insertedLength);
+            }
+        }
+    }
+
+    /**
+     * A range of the mapped text or of the inserted text.
+     */
+    private static class Piece {
+        private final boolean mapped;
+        private final int start;
+        private final int length;
+        private final int newlines;
+
+        Piece(boolean mapped, int start, int length, int newlines) {
+            this.mapped = mapped;
+            this.start = start;
+            this.length = length;
+            this.newlines = newlines;
+        }
+    }
+
+    /**
+     * A position that moves with the edits.
+     */
+    private static class Mark implements Position {
+        private int offset;
+
+        Mark(int offset) {
+            this.offset = offset;
+        }
+
+        @Override
+        public int getOffset() {
+            return offset;
+        }
+    }
+
+    /**
+     * The mapped note file, split into pages that are decoded on demand.
+     * Pages start at character boundaries, so each can be decoded on its own.
+     */
+    private static class MappedText {
+        private final Charset charset;
+        private final ByteBuffer bytes;
+        private final int pageCount;
+        // Byte offset, character offset and newlines before every page, with one more entry for the end
+        private final int[] pageByte;
+        private final int[] pageChar;
+        private final int[] pageLine;
+        private final int length;
+        private final int lines;
+        private final int longestLine;
+        // Recently decoded pages
+        private final Map<Integer, char[]> decoded = new LinkedHashMap<Integer, char[]>(CACHED_PAGES, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, char[]> eldest) {
+                return size() > CACHED_PAGES;
+            }
+        };
+
+        MappedText(Path file, Charset charset) throws IOException {
+            this.charset = charset;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE - 1) {
+                    throw new IOException("Note is too large to open: " + file);
+                }
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+
+            // Find the page boundaries, then decode the pages in parallel to count their characters and lines
+            int size = bytes.capacity();
+            int maxPages = size / (PAGE_BYTES - 3) + 1;
+            int[] boundaries = new int[maxPages + 1];
+            int count = 0;
+            while (boundaries[count] < size) {
+                boundaries[count + 1] = pageEnd(boundaries[count]);
+                count++;
+            }
+            pageCount = Math.max(1, count);
+            pageByte = Arrays.copyOf(boundaries, pageCount + 1);
+            PageCounts[] counts = new PageCounts[count];
+            IntStream.range(0, count).parallel().forEach(i -> counts[i] = new PageCounts(this, pageByte[i], pageByte[i + 1]));
+
+            pageChar = new int[pageCount + 1];
+            pageLine = new int[pageCount + 1];
+            long chars = 0;
+            int newlines = 0;
+            int lineLength = 0;
+            int longest = 0;
+            for (int i = 0; i < count; i++) {
+                PageCounts page = counts[i];
+                chars += page.chars;
+                if (chars > Integer.MAX_VALUE - 1) {
+                    throw new IOException("Note is too large to open: " + file);
+                }
+                if (page.newlines > 0) {
+                    longest = Math.max(longest, Math.max(lineLength + page.leading, page.longest));
+                    lineLength = page.trailing;
+                } else {
+                    lineLength += page.chars;
+                }
+                newlines += page.newlines;
+                pageChar[i + 1] = (int) chars;
+                pageLine[i + 1] = newlines;
+            }
+            length = (int) chars;
+            lines = newlines;
+            longestLine = Math.max(longest, lineLength);
+        }
+
+        /**
+         * Returns where the page starting at a byte offset ends: about a page later, at a character boundary.
+         */
+        private int pageEnd(int start) {
+            int end = Math.min(start + PAGE_BYTES, bytes.capacity());
+            if (end < bytes.capacity() && charset.equals(StandardCharsets.UTF_8)) {
+                while (end > start + 1 && (bytes.get(end) & 0xC0) == 0x80) {
+                    end--;  // Do not split a multi-byte character
+                }
+            }
+            return end;
+        }
+
+        private void decode(int from, int to, CharBuffer out) {
+            CharsetDecoder decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            ByteBuffer in = bytes.duplicate();
+            in.position(from).limit(to);
+            decoder.decode(in, out, true);
+            decoder.flush(out);
+        }
+
+        /**
+         * Returns the characters of a page, decoding it if it is not cached.
+         */
+        private synchronized char[] page(int index) {
+            char[] chars = decoded.get(index);
+            if (chars == null) {
+                chars = new char[pageChar[index + 1] - pageChar[index]];
+                decode(pageByte[index], pageByte[index + 1], CharBuffer.wrap(chars));
+                decoded.put(index, chars);
+            }
+            return chars;
+        }
+
+        /**
+         * Finds the page holding a character offset.
+         */
+        private int pageOf(int offset) {
+            int low = 0;
+            int high = pageCount - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (pageChar[middle] <= offset) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return low;
+        }
+
+        void copy(int offset, int count, char[] dest, int destPos) {
+            while (count > 0) {
+                int index = pageOf(offset);
+                char[] chars = page(index);
+                int from = offset - pageChar[index];
+                int n = Math.min(count, chars.length - from);
+                System.arraycopy(chars, from, dest, destPos, n);
+                offset += n;
+                destPos += n;
+                count -= n;
+            }
+        }
+
+        /**
+         * Returns the number of newlines before a character offset.
+         */
+        int newlinesBefore(int offset) {
+            if (offset >= length) {
+                return lines;
+            }
+            int index = pageOf(offset);
+            char[] chars = page(index);
+            int count = pageLine[index];
+            for (int i = 0, end = offset - pageChar[index]; i < end; i++) {
+                if (chars[i] == '\n') {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Returns the offset of the nth newline at or after a character offset, counting from 1.
+         */
+        int nthNewline(int from, int n) {
+            int target = newlinesBefore(from) + n;  // Newlines up to and including the one wanted
+            int low = 0;
+            int high = pageCount - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (pageLine[middle] < target) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            char[] chars = page(low);
+            int seen = pageLine[low];
+            for (int i = 0; i < chars.length; i++) {
+                if (chars[i] == '\n' && ++seen == target) {
+                    return pageChar[low] + i;
+                }
+            }
+            return length;
+        }
+    }
+
+    /**
+     * The characters and lines of one page of a MappedText.
+     */
+    private static class PageCounts {
+        private int chars;
+        private int newlines;
+        // Characters before the first newline, after the last newline, and of the longest line between
+        private int leading;
+        private int trailing;
+        private int longest;
+
+        PageCounts(MappedText text, int from, int to) {
+            CharBuffer page = CharBuffer.allocate(to - from);
+            text.decode(from, to, page);
+            page.flip();
+            chars = page.limit();
+            int lineLength = 0;
+            for (int i = 0; i < chars; i++) {
+                if (page.get(i) == '\n') {
+                    if (newlines == 0) {
+                        leading = lineLength;
+                    } else {
+                        longest = Math.max(longest, lineLength);
+                    }
+                    newlines++;
+                    lineLength = 0;
+                } else {
+                    lineLength++;
+                }
+            }
+            trailing = lineLength;
+        }
+    }
+}
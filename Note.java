@@ -1,24 +1,39 @@
 package Prototype;
 
 import java.io.File;
-import java.io.FileWriter;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
 import java.io.FileReader;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.io.IOException;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.Properties;
 
 /**
  * Represents a note with a title, content, and creation timestamp.
  * Provides functionality to save the note to a file.
  */
 public class Note {
+    // Formats creation times for display; formatters are immutable, so one is shared
+    private static final DateTimeFormatter DISPLAY_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
     // The title of the note
     private String title;
     // The content of the note
     private String content;
     // The creation timestamp of the note
     private LocalDateTime creationTime;
+    // When the note was last saved, or null if it is not known
+    private LocalDateTime modifiedTime;
+    // Highlighted runs of the content with their colors
+    private HighlightModel highlights = new HighlightModel();
 
     /**
      * Constructs a Note with the specified title, content, and creation timestamp.
@@ -44,12 +59,13 @@ public class Note {
 
     /**
      * Saves the note to a file in the specified folder.
+     * The file is replaced atomically, so a failed save keeps the previous content.
      * @param folderName the name of the folder to save the note in
      */
     public void saveToFile(String folderName) {
         File file = new File(folderName + "/" + title + ".txt");
-        try (FileWriter writer = new FileWriter(file)) {
-            writer.write(content);
+        try {
+            DurableWriter.getDefault().write(file.toPath(), content.getBytes(Charset.defaultCharset()));
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -73,6 +89,106 @@ public class Note {
         this.content = contentBuilder.toString();
     }
 
+    /**
+     * Saves the note and its highlights as a properties file in the specified folder.
+     * The file is replaced atomically, so a failed save keeps the previous version.
+     * @param folder the folder to save the note in
+     * @return the file the note was written to
+     * @throws IOException if the file cannot be written
+     */
+    public File saveToProperties(File folder) throws IOException {
+        return saveToProperties(folder, NoteCodec.getDefault(), null);
+    }
+
+    /**
+     * Saves the note and its highlights as a properties file, compressed by a codec.
+     * @param folder the folder to save the note in
+     * @param codec the codec
+     * @param stats receives the sizes and time of the compression, or null
+     * @return the file the note was written to
+     * @throws IOException if the file cannot be written
+     */
+    File saveToProperties(File folder, NoteCodec codec, NoteCodec.Stats stats) throws IOException {
+        File file = new File(folder, title + ".properties");
+        DurableWriter.getDefault().write(file.toPath(), codec.encode(toProperties(), stats));
+        return file;
+    }
+
+    /**
+     * Encodes the note and its highlights in the properties file format.
+     * @return the content of the properties file
+     * @throws IOException if the note cannot be encoded
+     */
+    byte[] toProperties() throws IOException {
+        Properties props = new Properties();
+        props.setProperty("title", title);
+        props.setProperty("content", content);
+        props.setProperty("created", creationTime.toString());
+        if (highlights.size() > 0) {
+            props.setProperty("highlights", highlights.encode());
+        }
+        StringWriter writer = new StringWriter();
+        props.store(writer, "Note Properties");
+        return writer.toString().getBytes(Charset.defaultCharset());
+    }
+
+    /**
+     * Loads a note and its highlights from a properties file.
+     * Files without a creation time use their last modified time instead, and highlights
+     * saved without a color, as highlight_<start>=<length>, are restored in yellow.
+     * @param file the properties file
+     * @return the loaded note
+     * @throws IOException if the file cannot be read
+     */
+    public static Note loadFromProperties(File file) throws IOException {
+        return loadFromProperties(file, null);
+    }
+
+    /**
+     * Loads a note and its highlights from a properties file that may be compressed.
+     * @param file the properties file
+     * @param stats receives the time spent decompressing, or null
+     * @return the loaded note
+     * @throws IOException if the file cannot be read
+     */
+    static Note loadFromProperties(File file, NoteCodec.Stats stats) throws IOException {
+        ByteBuffer bytes = NoteCodec.read(file.toPath(), stats);
+        Properties props = new Properties();
+        try (Reader reader = new InputStreamReader(new ByteArrayInputStream(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining()), Charset.defaultCharset())) {
+            props.load(reader);
+        }
+        String created = props.getProperty("created");
+        LocalDateTime creationTime = created != null
+                ? LocalDateTime.parse(created)
+                : LocalDateTime.ofInstant(Instant.ofEpochMilli(file.lastModified()), ZoneId.systemDefault());
+        Note note = new Note(props.getProperty("title"), props.getProperty("content"), creationTime);
+        note.highlights = HighlightModel.decode(props.getProperty("highlights"));
+        for (String key : props.stringPropertyNames()) {
+            if (key.startsWith("highlight_")) {
+                int start = Integer.parseInt(key.substring(10));
+                int length = Integer.parseInt(props.getProperty(key));
+                note.highlights.add(start, start + length, HighlightModel.DEFAULT_RGB);
+            }
+        }
+        return note;
+    }
+
+    /**
+     * Returns the highlighted runs of the note.
+     * @return the highlight model
+     */
+    public HighlightModel getHighlights() {
+        return highlights;
+    }
+
+    /**
+     * Replaces the highlighted runs of the note.
+     * @param highlights the highlight model
+     */
+    public void setHighlights(HighlightModel highlights) {
+        this.highlights = highlights;
+    }
+
     /**
      * Returns the title of the note.
      * @return the title of the note
@@ -97,11 +213,27 @@ public class Note {
         return creationTime;
     }
 
+    /**
+     * Returns when the note was last saved.
+     * @return the modification time, or null if it is not known
+     */
+    public LocalDateTime getModifiedTime() {
+        return modifiedTime;
+    }
+
+    /**
+     * Sets when the note was last saved.
+     * @param modifiedTime the modification time
+     */
+    public void setModifiedTime(LocalDateTime modifiedTime) {
+        this.modifiedTime = modifiedTime;
+    }
+
     /**
      * Returns a formatted string representation of the creation timestamp.
      * @return a formatted string representation of the creation timestamp
      */
     public String getFormattedCreationTime() {
-        return creationTime.format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+        return DISPLAY_FORMAT.format(creationTime);
     }
 }
@@ -0,0 +1,562 @@
+package Prototype;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Packs the notes of a folder into one archive file and unpacks them again.
+ * An archive holds a header, blocks of up to GROUP_SIZE notes each compressed with Deflater,
+ * then a central index of every note's title, creation time and block, and a footer pointing
+ * at the index. Notes are read, encoded and compressed on all cores while the calling thread
+ * writes the blocks in order. Only a few blocks per core are in flight at a time, so memory
+ * stays flat however many notes a folder holds. Importing decompresses, parses and stores
+ * blocks in parallel the same way, and stores each block with one NoteStorage.saveAll.
+ */
+public class NoteArchive {
+    // File extension of archives
+    public static final String EXTENSION = ".notes";
+    // Identifies an archive ("NARC") and its layout version
+    private static final int MAGIC = 0x4E415243;
+    private static final int VERSION = 1;
+    // Notes per compressed block
+    static final int GROUP_SIZE = 64;
+    // Magic and version
+    private static final int HEADER_BYTES = 8;
+    // Uncompressed length, compressed length and checksum before every block
+    private static final int BLOCK_HEADER_BYTES = 12;
+    // Index offset and magic at the end of the file
+    private static final int FOOTER_BYTES = 12;
+    // Blocks in flight per core
+    private static final int BLOCKS_PER_THREAD = 2;
+    // Deflate output is never smaller than about 1/1032 of its input
+    private static final int MAX_DEFLATE_RATIO = 1032;
+    // Smallest note in a block: title length, creation time, highlights length and content length
+    private static final int MIN_NOTE_BYTES = 20;
+    // Smallest central index entry: title length, creation time and block offset
+    private static final int MIN_ENTRY_BYTES = 20;
+
+    private NoteArchive() {
+    }
+
+    /**
+     * Writes every note of a folder to an archive, replacing the file if it exists.
+     * @param folder the folder to export
+     * @param archive the archive file
+     * @return the number of notes written
+     * @throws IOException if a note cannot be read or the archive cannot be written
+     */
+    public static int exportFolder(Folder folder, File archive) throws IOException {
+        List<String> titles = new ArrayList<>();
+        for (Note note : folder.getNotes()) {
+            titles.add(note.getTitle());
+        }
+        NoteStorage storage = folder.getStorage();
+        Path temp = archive.toPath().resolveSibling(archive.getName() + ".tmp");
+        List<Entry> entries = new ArrayList<>(titles.size());
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            Iterator<List<String>> groups = partition(titles).iterator();
+            long[] position = {HEADER_BYTES};  // DataOutputStream counts in an int
+            runOrdered(() -> {
+                if (!groups.hasNext()) {
+                    return null;
+                }
+                List<String> group = groups.next();
+                return () -> compress(storage, group);
+            }, block -> {
+                long offset = position[0];
+                out.writeInt(block.rawLength);
+                out.writeInt(block.compressed.length);
+                out.writeInt(block.checksum);
+                out.write(block.compressed);
+                position[0] += BLOCK_HEADER_BYTES + block.compressed.length;
+                for (Note note : block.notes) {
+                    entries.add(new Entry(note.getTitle(), note.getCreationTime(), offset));
+                }
+            });
+
+            long indexOffset = position[0];
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                writeString(out, entry.title);
+                out.writeLong(toEpochMillis(entry.creationTime));
+                out.writeLong(entry.blockOffset);
+            }
+            out.writeLong(indexOffset);
+            out.writeInt(MAGIC);
+            out.flush();
+            file.getChannel().force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, archive.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        NoteMetrics.addBytesWritten(archive.length());
+        return entries.size();
+    }
+
+    /**
+     * Reads and encodes a group of notes and compresses them into one block. Runs on a worker thread.
+     */
+    private static Block compress(NoteStorage storage, List<String> titles) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        List<Note> notes = new ArrayList<>(titles.size());
+        for (String title : titles) {
+            Note note = storage.load(title);
+            if (note != null && note.getContent() != null) {
+                notes.add(note);
+            }
+        }
+        out.writeInt(notes.size());
+        for (Note note : notes) {
+            writeString(out, note.getTitle());
+            out.writeLong(toEpochMillis(note.getCreationTime()));
+            writeString(out, note.getHighlights().encode());
+            writeString(out, note.getContent());
+        }
+        byte[] raw = bytes.toByteArray();
+
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 2 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+            }
+            CRC32 crc = new CRC32();
+            crc.update(raw);
+            return new Block(compressed.toByteArray(), raw.length, (int) crc.getValue(), withoutContent(notes));
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Stores the notes of an archive. Notes with the titles of stored notes replace them.
+     * @param archive the archive file
+     * @param storage the storage to add the notes to
+     * @return the imported notes with title and creation time; their content is null
+     * @throws IOException if the archive is damaged, holds a title that is not a valid file
+     *     name, or a note cannot be stored
+     */
+    public static List<Note> importArchive(File archive, NoteStorage storage) throws IOException {
+        List<Note> imported = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+            long indexOffset = checkArchive(channel, archive);
+            NoteMetrics.addBytesRead(channel.size());
+            long[] position = {HEADER_BYTES};
+            runOrdered(() -> {
+                if (position[0] >= indexOffset) {
+                    return null;
+                }
+                ByteBuffer header = read(channel, position[0], BLOCK_HEADER_BYTES);
+                int rawLength = header.getInt();
+                int compressedLength = header.getInt();
+                int checksum = header.getInt();
+                // Lengths are checked before allocating, so a damaged header cannot ask for any size
+                if (compressedLength < 0 || compressedLength > indexOffset - position[0] - BLOCK_HEADER_BYTES
+                        || rawLength < 0 || rawLength > (long) compressedLength * MAX_DEFLATE_RATIO + BLOCK_HEADER_BYTES) {
+                    throw new IOException(archive + " is damaged");
+                }
+                byte[] compressed = new byte[compressedLength];
+                read(channel, position[0] + BLOCK_HEADER_BYTES, compressedLength).get(compressed);
+                position[0] += BLOCK_HEADER_BYTES + compressedLength;
+                return () -> {
+                    List<Note> notes = decompress(compressed, rawLength, checksum);
+                    storage.saveAll(notes);
+                    return withoutContent(notes);
+                };
+            }, imported::addAll);
+        }
+        return imported;
+    }
+
+    /**
+     * Inflates a block, checks it and decodes its notes. Runs on a worker thread.
+     */
+    private static List<Note> decompress(byte[] compressed, int rawLength, int checksum) throws IOException {
+        byte[] raw = new byte[rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, length, rawLength - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new EOFException("Truncated archive block");
+                }
+                length += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Damaged archive block", e);
+        } finally {
+            inflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(raw);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Archive block checksum mismatch");
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(raw);
+        try {
+            int count = readCount(buffer, MIN_NOTE_BYTES);
+            List<Note> notes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String title = NoteStorage.checkTitle(readString(buffer));
+                LocalDateTime creationTime = toDateTime(buffer.getLong());
+                HighlightModel highlights = HighlightModel.decode(readString(buffer));
+                Note note = new Note(title, readString(buffer), creationTime);
+                note.setHighlights(highlights);
+                notes.add(note);
+            }
+            return notes;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Damaged archive block", e);
+        }
+    }
+
+    /**
+     * Stores the text files in a directory as notes, the way Note.saveToFile writes them:
+     * the file name is the title, the content is in the platform charset and the file's
+     * creation time is the note's. Notes with the titles of stored notes replace them.
+     * @param directory the directory holding the .txt files
+     * @param storage the storage to add the notes to
+     * @return the imported notes with title and creation time; their content is null
+     * @throws IOException if a file cannot be read or a note cannot be stored
+     */
+    public static List<Note> importDirectory(File directory, NoteStorage storage) throws IOException {
+        List<Note> imported = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath(), "*" + LegacyNoteStorage.TEXT_EXTENSION)) {
+            Iterator<Path> files = stream.iterator();
+            runOrdered(() -> {
+                List<Path> group = new ArrayList<>(GROUP_SIZE);
+                while (files.hasNext() && group.size() < GROUP_SIZE) {
+                    group.add(files.next());
+                }
+                if (group.isEmpty()) {
+                    return null;
+                }
+                return () -> {
+                    List<Note> notes = new ArrayList<>(group.size());
+                    for (Path file : group) {
+                        notes.add(readTextNote(file));
+                    }
+                    storage.saveAll(notes);
+                    return withoutContent(notes);
+                };
+            }, imported::addAll);
+        }
+        return imported;
+    }
+
+    /**
+     * Reads a note written by Note.saveToFile.
+     */
+    private static Note readTextNote(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        NoteMetrics.addBytesRead(bytes.length);
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        LocalDateTime creationTime = LocalDateTime.ofInstant(attributes.creationTime().toInstant(), ZoneId.systemDefault());
+        return new Note(LegacyNoteStorage.noteTitleOf(file), new String(bytes, Charset.defaultCharset()), creationTime);
+    }
+
+    /**
+     * Lists the notes in an archive from its central index, without reading the notes.
+     * @param archive the archive file
+     * @return the entries in the order the notes are stored
+     * @throws IOException if the archive cannot be read, is damaged or holds a title that is
+     *     not a valid file name
+     */
+    public static List<Entry> readIndex(File archive) throws IOException {
+        try (FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+            long indexOffset = checkArchive(channel, archive);
+            long indexLength = channel.size() - FOOTER_BYTES - indexOffset;
+            if (indexLength > Integer.MAX_VALUE) {
+                throw new IOException(archive + " is damaged");
+            }
+            ByteBuffer index = read(channel, indexOffset, (int) indexLength);
+            int count = readCount(index, MIN_ENTRY_BYTES);
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String title = NoteStorage.checkTitle(readString(index));
+                LocalDateTime creationTime = toDateTime(index.getLong());
+                entries.add(new Entry(title, creationTime, index.getLong()));
+            }
+            return entries;
+        } catch (BufferUnderflowException e) {
+            throw new IOException(archive + " is damaged", e);
+        }
+    }
+
+    /**
+     * Checks the header and footer of an archive.
+     * @return the offset of the central index
+     */
+    private static long checkArchive(FileChannel channel, File archive) throws IOException {
+        if (channel.size() < HEADER_BYTES + FOOTER_BYTES) {
+            throw new IOException(archive + " is not a note archive");
+        }
+        ByteBuffer header = read(channel, 0, HEADER_BYTES);
+        ByteBuffer footer = read(channel, channel.size() - FOOTER_BYTES, FOOTER_BYTES);
+        long indexOffset = footer.getLong();
+        if (header.getInt() != MAGIC || footer.getInt() != MAGIC) {
+            throw new IOException(archive + " is not a note archive");
+        }
+        if (header.getInt() != VERSION) {
+            throw new IOException(archive + " was written by a newer version");
+        }
+        if (indexOffset < HEADER_BYTES || indexOffset > channel.size() - FOOTER_BYTES) {
+            throw new IOException(archive + " is damaged");
+        }
+        return indexOffset;
+    }
+
+    /**
+     * Runs tasks on all cores and passes their results to a sink on the calling thread,
+     * in the order the tasks were taken. Tasks are taken only while few enough are in flight.
+     * If one fails, the tasks not started yet are skipped and the running ones finish before
+     * the failure is thrown; they are not interrupted, as an interrupt during I/O closes the
+     * channel a storage shares between all the notes of a folder.
+     * @param source supplies the tasks, on the calling thread
+     * @param sink receives the results, on the calling thread
+     * @param <T> the result type
+     * @throws IOException if a task, the source or the sink fails
+     */
+    private static <T> void runOrdered(TaskSource<T> source, Sink<T> sink) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, NoteIOService.namedThreads("note-archive", true));
+        Deque<Future<T>> inFlight = new ArrayDeque<>();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        try {
+            boolean more = true;
+            while (more || !inFlight.isEmpty()) {
+                while (more && inFlight.size() < threads * BLOCKS_PER_THREAD) {
+                    Callable<T> task = source.next();
+                    if (task == null) {
+                        more = false;
+                    } else {
+                        inFlight.add(executor.submit(() -> cancelled.get() ? null : task.call()));
+                    }
+                }
+                if (!inFlight.isEmpty()) {
+                    sink.accept(inFlight.remove().get());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while packing notes");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } finally {
+            cancelled.set(true);
+            executor.shutdown();
+            awaitTermination(executor);
+        }
+    }
+
+    /**
+     * Waits for the tasks of a shut down executor to finish, keeping the interrupt status.
+     */
+    private static void awaitTermination(ExecutorService executor) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Supplies tasks one at a time.
+     */
+    private interface TaskSource<T> {
+        /**
+         * @return the next task, or null when there are no more
+         */
+        Callable<T> next() throws IOException;
+    }
+
+    /**
+     * Receives task results in order.
+     */
+    private interface Sink<T> {
+        void accept(T result) throws IOException;
+    }
+
+    private static List<List<String>> partition(List<String> titles) {
+        List<List<String>> groups = new ArrayList<>();
+        for (int start = 0; start < titles.size(); start += GROUP_SIZE) {
+            groups.add(titles.subList(start, Math.min(start + GROUP_SIZE, titles.size())));
+        }
+        return groups;
+    }
+
+    private static List<Note> withoutContent(List<Note> notes) {
+        List<Note> listed = new ArrayList<>(notes.size());
+        for (Note note : notes) {
+            listed.add(new Note(note.getTitle(), null, note.getCreationTime()));
+        }
+        return listed;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Archive ends early");
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Writes a length-prefixed UTF-8 string.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string.
+     * @throws IOException if the length is negative or runs past the buffer
+     */
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Damaged archive string length " + length);
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    /**
+     * Reads a count of records, checking that that many records fit in the rest of the buffer.
+     * @param minBytes the size of the smallest record
+     * @throws IOException if the count is negative or too large
+     */
+    private static int readCount(ByteBuffer buffer, int minBytes) throws IOException {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / minBytes) {
+            throw new IOException("Damaged archive record count " + count);
+        }
+        return count;
+    }
+
+    private static LocalDateTime toDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    private static long toEpochMillis(LocalDateTime dateTime) {
+        return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * A compressed block of notes, ready to be written.
+     */
+    private static class Block {
+        private final byte[] compressed;
+        private final int rawLength;
+        private final int checksum;
+        // The notes in the block, without content
+        private final List<Note> notes;
+
+        Block(byte[] compressed, int rawLength, int checksum, List<Note> notes) {
+            this.compressed = compressed;
+            this.rawLength = rawLength;
+            this.checksum = checksum;
+            this.notes = notes;
+        }
+    }
+
+    /**
+     * A note listed in the central index of an archive.
+     */
+    public static class Entry {
+        private final String title;
+        private final LocalDateTime creationTime;
+        private final long blockOffset;
+
+        Entry(String title, LocalDateTime creationTime, long blockOffset) {
+            this.title = title;
+            this.creationTime = creationTime;
+            this.blockOffset = blockOffset;
+        }
+
+        /**
+         * Returns the title of the note.
+         * @return the title
+         */
+        public String getTitle() {
+            return title;
+        }
+
+        /**
+         * Returns the creation time of the note.
+         * @return the creation time
+         */
+        public LocalDateTime getCreationTime() {
+            return creationTime;
+        }
+
+        /**
+         * Returns where the block holding the note starts in the archive.
+         * @return the file offset of the block
+         */
+        public long getBlockOffset() {
+            return blockOffset;
+        }
+    }
+}
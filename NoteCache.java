@@ -0,0 +1,168 @@
+package Prototype;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps recently loaded notes in memory so that opening them again skips reading and parsing the file.
+ * Entries are keyed by note and checked against the storage stamp of the note, which changes
+ * whenever the stored note does.
+ * The least recently used entries are evicted once the cache grows past its byte budget.
+ */
+public class NoteCache {
+    // Estimated fixed cost of an entry in bytes
+    private static final int ENTRY_OVERHEAD = 128;
+    // Estimated cost of one highlight range in bytes
+    private static final int HIGHLIGHT_SIZE = 48;
+
+    // Maximum estimated size of the cached notes in bytes
+    private final long maxBytes;
+    // Cached entries in access order, least recently used first
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Estimated size of the cached notes in bytes
+    private long currentBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Reads a note from a file.
+     */
+    public interface Loader {
+        Note load() throws IOException;
+    }
+
+    /**
+     * Constructs a NoteCache with the specified byte budget.
+     * @param maxBytes the maximum estimated size of the cached notes in bytes
+     */
+    public NoteCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the cached note for a key, loading it if it is not cached or the stored note has changed.
+     * @param key identifies the note, for example its folder and title
+     * @param stamp the current storage stamp of the note
+     * @param loader reads the note when the cache cannot be used
+     * @return the note
+     * @throws IOException if the note cannot be read
+     */
+    public Note get(String key, long stamp, Loader loader) throws IOException {
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.stamp == stamp) {
+                hits++;
+                return entry.note;
+            }
+            misses++;
+        }
+        Note note = loader.load();
+        if (note != null) {
+            put(key, stamp, note);
+        }
+        return note;
+    }
+
+    /**
+     * Stores a note and evicts the least recently used notes until the cache is within its budget.
+     * @param key identifies the note
+     * @param stamp the storage stamp of the note
+     * @param note the note
+     */
+    public synchronized void put(String key, long stamp, Note note) {
+        Entry entry = new Entry(note, stamp);
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            currentBytes -= previous.size;
+        }
+        currentBytes += entry.size;
+
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            Entry eldest = iterator.next().getValue();
+            if (eldest == entry) {
+                continue;  // Always keep the note that was just stored
+            }
+            iterator.remove();
+            currentBytes -= eldest.size;
+            evictions++;
+        }
+    }
+
+    /**
+     * Removes the cached note for a key.
+     * @param key identifies the note
+     */
+    public synchronized void invalidate(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            currentBytes -= entry.size;
+        }
+    }
+
+    /**
+     * Returns the number of lookups answered from the cache.
+     * @return the hit count
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups that had to read the file.
+     * @return the miss count
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of notes evicted to stay within the byte budget.
+     * @return the eviction count
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the estimated size of the cached notes.
+     * @return the size in bytes
+     */
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    /**
+     * Returns the byte budget of the cache.
+     * @return the maximum size in bytes
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * A cached note together with the storage stamp it was read at.
+     */
+    private static class Entry {
+        private final Note note;
+        private final long stamp;
+        private final long size;
+
+        Entry(Note note, long stamp) {
+            this.note = note;
+            this.stamp = stamp;
+            this.size = estimateSize(note);
+        }
+
+        private static long estimateSize(Note note) {
+            long size = ENTRY_OVERHEAD + 2L * note.getTitle().length();
+            if (note.getContent() != null) {
+                size += 2L * note.getContent().length();
+            }
+            return size + (long) HIGHLIGHT_SIZE * note.getHighlights().size();
+        }
+    }
+}
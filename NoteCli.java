@@ -0,0 +1,247 @@
+package Prototype;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Command line for NoteEngine, for scripts, cron jobs and build machines without a display:
+ * <pre>
+ * java -cp notes.jar Prototype.NoteCli create &lt;folder&gt; &lt;title&gt; [content]
+ * java -cp notes.jar Prototype.NoteCli load &lt;folder&gt; &lt;title&gt;
+ * java -cp notes.jar Prototype.NoteCli list &lt;folder&gt;
+ * java -cp notes.jar Prototype.NoteCli search &lt;folder&gt; &lt;query&gt; [limit]
+ * java -cp notes.jar Prototype.NoteCli convert &lt;folder&gt; segment|legacy
+ * java -cp notes.jar Prototype.NoteCli export &lt;folder&gt; &lt;target&gt; archive|txt|png|jpg
+ * java -cp notes.jar Prototype.NoteCli import &lt;folder&gt; &lt;directory or archive&gt;
+ * java -cp notes.jar Prototype.NoteCli stats &lt;folder&gt;...
+ * java -cp notes.jar Prototype.NoteCli serve &lt;folder&gt; [host:]port
+ * java -cp notes.jar Prototype.NoteCli sync &lt;folder&gt; host:port
+ * java -cp notes.jar Prototype.NoteCli history &lt;folder&gt; &lt;title&gt;
+ * java -cp notes.jar Prototype.NoteCli diff &lt;folder&gt; &lt;title&gt; &lt;version&gt; &lt;version&gt;
+ * java -cp notes.jar Prototype.NoteCli restore &lt;folder&gt; &lt;title&gt; &lt;version&gt;
+ * </pre>
+ * create reads the content from standard input when none is given. serve listens on the
+ * loopback address unless a host is given, until the process is stopped. serve and sync
+ * use the shared secret in the NOTES_SYNC_SECRET environment variable, which serve needs
+ * to listen on any other address. Runs with java.awt.headless=true, and only the image
+ * formats of export load AWT classes.
+ */
+public class NoteCli {
+    // Search hits printed when no limit is given
+    private static final int DEFAULT_SEARCH_LIMIT = 20;
+    // Environment variable holding the secret sync peers share
+    static final String SYNC_SECRET_VARIABLE = "NOTES_SYNC_SECRET";
+
+    /**
+     * Runs one command.
+     * @param args the command and its arguments
+     */
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length < 2) {
+            usage();
+        }
+        int status;
+        try (NoteEngine engine = new NoteEngine()) {
+            status = run(engine, args);
+        } catch (IOException e) {
+            e.printStackTrace();
+            status = 1;
+        }
+        System.exit(status);  // Only after the engine has closed its folders
+    }
+
+    /**
+     * Runs one command with an engine.
+     * @param engine the engine
+     * @param args the command and its arguments
+     * @return the exit status
+     * @throws IOException if the command fails
+     */
+    static int run(NoteEngine engine, String[] args) throws IOException {
+        File folder = new File(args[1]);
+        switch (args[0]) {
+            case "create": {
+                requireArgs(args, 3, 4);
+                String content = args.length == 4 ? args[3] : readStandardInput();
+                Note note = engine.create(folder, args[2], content);
+                System.out.println("Saved " + note.getTitle());
+                return 0;
+            }
+            case "load": {
+                requireArgs(args, 3, 3);
+                Note note = engine.load(folder, args[2]);
+                if (note == null) {
+                    System.err.println("No note " + args[2]);
+                    return 1;
+                }
+                System.out.print(note.getContent());
+                return 0;
+            }
+            case "list": {
+                requireArgs(args, 2, 2);
+                StringBuilder out = new StringBuilder();
+                for (Note note : engine.list(folder)) {
+                    out.append(note.getFormattedCreationTime()).append('\t').append(note.getTitle()).append('\n');
+                }
+                System.out.print(out);
+                return 0;
+            }
+            case "search": {
+                requireArgs(args, 3, 4);
+                int limit = args.length == 4 ? Integer.parseInt(args[3]) : DEFAULT_SEARCH_LIMIT;
+                for (SearchIndex.Hit hit : engine.search(folder, args[2], limit)) {
+                    System.out.printf("%.3f\t%s%n", hit.getScore(), hit.getTitle());
+                }
+                return 0;
+            }
+            case "convert": {
+                requireArgs(args, 3, 3);
+                if (!args[2].equals("segment") && !args[2].equals("legacy")) {
+                    usage();
+                }
+                int count = engine.convert(folder, args[2].equals("segment"));
+                System.out.println("Migrated " + count + " notes to " + args[2] + " storage");
+                return 0;
+            }
+            case "export": {
+                requireArgs(args, 4, 4);
+                int count = engine.export(folder, new File(args[2]), args[3]);
+                System.out.println("Exported " + count + " notes");
+                return 0;
+            }
+            case "import": {
+                requireArgs(args, 3, 3);
+                int count = engine.importNotes(folder, new File(args[2]));
+                System.out.println("Imported " + count + " notes");
+                return 0;
+            }
+            case "stats": {
+                for (int i = 1; i < args.length; i++) {
+                    printStats(args[i], engine.stats(new File(args[i])));
+                }
+                return 0;
+            }
+            case "serve": {
+                requireArgs(args, 3, 3);
+                InetSocketAddress address = address(args[2], InetAddress.getLoopbackAddress().getHostAddress());
+                byte[] secret = syncSecret();
+                if (secret == null && (address.getAddress() == null || !address.getAddress().isLoopbackAddress())) {
+                    System.err.println("Set " + SYNC_SECRET_VARIABLE + " to serve " + args[2] + " beyond this machine");
+                    return 2;
+                }
+                SyncServer server = engine.serve(folder, address, secret);
+                System.out.println("Serving " + args[1] + " on port " + server.getPort());
+                try {
+                    Thread.currentThread().join();  // Until the process is stopped
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                server.close();
+                return 0;
+            }
+            case "sync": {
+                requireArgs(args, 3, 3);
+                System.out.println(engine.sync(folder, address(args[2], null), syncSecret()));
+                return 0;
+            }
+            case "history": {
+                requireArgs(args, 3, 3);
+                for (NoteHistory.Version version : engine.history(folder, args[2])) {
+                    System.out.println(version);
+                }
+                return 0;
+            }
+            case "diff": {
+                requireArgs(args, 5, 5);
+                System.out.print(engine.diff(folder, args[2], Integer.parseInt(args[3]), Integer.parseInt(args[4])));
+                return 0;
+            }
+            case "restore": {
+                requireArgs(args, 4, 4);
+                engine.restore(folder, args[2], Integer.parseInt(args[3]));
+                System.out.println("Restored version " + args[3] + " of " + args[2]);
+                return 0;
+            }
+            default:
+                usage();
+                return 2;
+        }
+    }
+
+    private static void printStats(String folder, NoteEngine.FolderStats stats) {
+        System.out.println(folder);
+        System.out.println("  notes:      " + stats.getNotes());
+        System.out.println("  characters: " + stats.getCharacters());
+        System.out.println("  words:      " + stats.getWords());
+        System.out.println("  lines:      " + stats.getLines());
+        System.out.println("  highlights: " + stats.getHighlights());
+        if (stats.getLargestTitle() != null) {
+            System.out.println("  largest:    " + stats.getLargestTitle());
+        }
+        NoteCodec.Stats compression = stats.getCompression();
+        if (compression.getDecodedBytes() > 0) {
+            System.out.printf("  compressed: %d bytes decompressed in %d us%n", compression.getDecodedBytes(), compression.getDecodeMicros());
+        }
+    }
+
+    /**
+     * Returns the shared sync secret from the environment, or null if none is set.
+     * The secret is not taken as an argument, where other users could read it.
+     */
+    private static byte[] syncSecret() {
+        String secret = System.getenv(SYNC_SECRET_VARIABLE);
+        return secret == null || secret.isEmpty() ? null : secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses host:port, or a port alone if there is a default host.
+     */
+    private static InetSocketAddress address(String value, String defaultHost) {
+        int colon = value.lastIndexOf(':');
+        if (colon < 0 && defaultHost == null) {
+            usage();
+        }
+        String host = colon < 0 ? defaultHost : value.substring(0, colon);
+        return new InetSocketAddress(host, Integer.parseInt(value.substring(colon + 1)));
+    }
+
+    private static String readStandardInput() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        InputStream in = System.in;
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, count);
+        }
+        return new String(bytes.toByteArray(), Charset.defaultCharset());
+    }
+
+    private static void requireArgs(String[] args, int min, int max) {
+        if (args.length < min || args.length > max) {
+            usage();
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: NoteCli create <folder> <title> [content]");
+        System.err.println("       NoteCli load|list <folder> [title]");
+        System.err.println("       NoteCli search <folder> <query> [limit]");
+        System.err.println("       NoteCli convert <folder> segment|legacy");
+        System.err.println("       NoteCli export <folder> <target> archive|txt|png|jpg");
+        System.err.println("       NoteCli import <folder> <directory or archive>");
+        System.err.println("       NoteCli stats <folder>...");
+        System.err.println("       NoteCli serve <folder> [host:]port");
+        System.err.println("       NoteCli sync <folder> host:port");
+        System.err.println("       NoteCli history <folder> <title>");
+        System.err.println("       NoteCli diff <folder> <title> <version> <version>");
+        System.err.println("       NoteCli restore <folder> <title> <version>");
+        System.exit(2);
+    }
+}
@@ -0,0 +1,485 @@
+package Prototype;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses stored notes.
+ * A compressed note starts with an eight byte header: 0x89 'N' 'Z', the codec id and the
+ * uncompressed length. No text file starts with 0x89 'N' 'Z', so notes stored before
+ * compression, or stored with NONE, load unchanged. Notes shorter than MIN_SIZE, or that
+ * would not get smaller, are stored as they are. The codec for new notes is picked with
+ * the notes.compression system property: none (the default), deflate or lz.
+ * Loading decompresses into buffers reused by each thread, so reading many notes
+ * allocates little besides the notes themselves.
+ */
+public enum NoteCodec {
+    // Stores notes as they are
+    NONE(0) {
+        @Override
+        byte[] compress(byte[] raw, int[] length) {
+            length[0] = raw.length;
+            return raw;
+        }
+
+        @Override
+        void decompress(byte[] data, int offset, int length, byte[] raw, int rawLength) {
+            System.arraycopy(data, offset, raw, 0, rawLength);
+        }
+    },
+    // Deflate at its fastest level; about 3-5x on prose
+    DEFLATE(1) {
+        @Override
+        byte[] compress(byte[] raw, int[] length) {
+            Deflater deflater = DEFLATERS.get();
+            deflater.reset();
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] out = buffer(COMPRESS_BUFFERS, raw.length + raw.length / 8 + 64);
+            int written = 0;
+            while (!deflater.finished()) {
+                if (written == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                written += deflater.deflate(out, written, out.length - written);
+            }
+            length[0] = written;
+            return out;
+        }
+
+        @Override
+        void decompress(byte[] data, int offset, int length, byte[] raw, int rawLength) throws IOException {
+            Inflater inflater = INFLATERS.get();
+            inflater.reset();
+            inflater.setInput(data, offset, length);
+            try {
+                int inflated = 0;
+                while (inflated < rawLength) {
+                    int count = inflater.inflate(raw, inflated, rawLength - inflated);
+                    if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IOException("Compressed note is truncated");
+                    }
+                    inflated += count;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Compressed note is damaged", e);
+            }
+        }
+    },
+    // Byte-oriented LZ77 in the style of LZ4: no entropy coding, so it decompresses at memory speed
+    LZ(2) {
+        @Override
+        byte[] compress(byte[] raw, int[] length) {
+            return Lz.compress(raw, length);
+        }
+
+        @Override
+        void decompress(byte[] data, int offset, int length, byte[] raw, int rawLength) throws IOException {
+            Lz.decompress(data, offset, length, raw, rawLength);
+        }
+    };
+
+    // System property naming the codec for new notes
+    static final String CODEC_PROPERTY = "notes.compression";
+    // Notes shorter than this are not worth compressing
+    static final int MIN_SIZE = 256;
+    // Marks a compressed note, followed by the codec id and the uncompressed length
+    private static final byte[] MAGIC = {(byte) 0x89, 'N', 'Z'};
+    private static final int HEADER_BYTES = 8;
+    // Buffers larger than this are not kept for reuse
+    private static final int MAX_RETAINED_BUFFER = 1 << 20;
+
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+    private static final ThreadLocal<byte[][]> COMPRESS_BUFFERS = ThreadLocal.withInitial(() -> new byte[1][]);
+    private static final ThreadLocal<byte[][]> READ_BUFFERS = ThreadLocal.withInitial(() -> new byte[1][]);
+    private static final ThreadLocal<byte[][]> DECODE_BUFFERS = ThreadLocal.withInitial(() -> new byte[1][]);
+
+    private static final NoteCodec DEFAULT = forName(System.getProperty(CODEC_PROPERTY, "none"));
+
+    // Stored in the header
+    private final int id;
+
+    NoteCodec(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Compresses bytes.
+     * @param raw the bytes to compress
+     * @param length receives the compressed length in its first element
+     * @return an array holding the compressed bytes at its start; it may be reused by the next call on this thread
+     */
+    abstract byte[] compress(byte[] raw, int[] length);
+
+    /**
+     * Decompresses bytes.
+     * @param data the array holding the compressed bytes
+     * @param offset where they start
+     * @param length how many there are
+     * @param raw receives the uncompressed bytes
+     * @param rawLength the uncompressed length
+     * @throws IOException if the compressed bytes are damaged
+     */
+    abstract void decompress(byte[] data, int offset, int length, byte[] raw, int rawLength) throws IOException;
+
+    /**
+     * Returns the codec new notes are stored with.
+     * @return the codec named by the notes.compression system property
+     */
+    public static NoteCodec getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Finds a codec by name, ignoring case.
+     * @param name none, deflate or lz
+     * @return the codec, or NONE if the name is not known
+     */
+    public static NoteCodec forName(String name) {
+        for (NoteCodec codec : values()) {
+            if (codec.name().equalsIgnoreCase(name)) {
+                return codec;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Encodes a note for storage: compressed with a header, or as it is if that is not smaller.
+     * @param raw the note as it would be stored uncompressed
+     * @param stats receives the sizes and time, or null
+     * @return the bytes to store
+     */
+    public byte[] encode(byte[] raw, Stats stats) {
+        long start = System.nanoTime();
+        byte[] encoded = raw;
+        if (this != NONE && raw.length >= MIN_SIZE) {
+            int[] length = new int[1];
+            byte[] compressed = compress(raw, length);
+            if (HEADER_BYTES + length[0] < raw.length) {
+                encoded = new byte[HEADER_BYTES + length[0]];
+                System.arraycopy(MAGIC, 0, encoded, 0, MAGIC.length);
+                encoded[3] = (byte) id;
+                ByteBuffer.wrap(encoded, 4, 4).putInt(raw.length);
+                System.arraycopy(compressed, 0, encoded, HEADER_BYTES, length[0]);
+            }
+        }
+        if (stats != null) {
+            stats.encoded(raw.length, encoded.length, System.nanoTime() - start);
+        }
+        return encoded;
+    }
+
+    /**
+     * Checks whether stored bytes are a compressed note.
+     * @param data the array holding the bytes
+     * @param offset where they start
+     * @param length how many there are
+     * @return true if they start with the compression header
+     */
+    public static boolean isEncoded(byte[] data, int offset, int length) {
+        return length >= HEADER_BYTES && data[offset] == MAGIC[0] && data[offset + 1] == MAGIC[1] && data[offset + 2] == MAGIC[2];
+    }
+
+    /**
+     * Returns the length stored bytes decode to, without decoding them, so a caller can
+     * refuse bytes that would decompress to more than it accepts.
+     * @param data the array holding the stored bytes
+     * @param offset where they start
+     * @param length how many there are
+     * @return the decoded length, negative if the header is damaged
+     */
+    static int decodedLength(byte[] data, int offset, int length) {
+        return isEncoded(data, offset, length) ? ByteBuffer.wrap(data, offset + 4, 4).getInt() : length;
+    }
+
+    /**
+     * Decodes stored bytes, decompressing them if they have the compression header.
+     * @param data the array holding the stored bytes
+     * @param offset where they start
+     * @param length how many there are
+     * @param stats receives the time, or null
+     * @return the note bytes; a compressed note is decompressed into a buffer that the next decode on this thread reuses
+     * @throws IOException if the bytes are damaged or use an unknown codec
+     */
+    public static ByteBuffer decode(byte[] data, int offset, int length, Stats stats) throws IOException {
+        if (!isEncoded(data, offset, length)) {
+            return ByteBuffer.wrap(data, offset, length);
+        }
+        long start = System.nanoTime();
+        int id = data[offset + 3];
+        int rawLength = ByteBuffer.wrap(data, offset + 4, 4).getInt();
+        if (id < 0 || id >= values().length || rawLength < 0) {
+            throw new IOException("Unknown note compression " + id);
+        }
+        byte[] raw = buffer(DECODE_BUFFERS, rawLength);
+        values()[id].decompress(data, offset + HEADER_BYTES, length - HEADER_BYTES, raw, rawLength);
+        if (stats != null) {
+            stats.decoded(rawLength, System.nanoTime() - start);
+        }
+        return ByteBuffer.wrap(raw, 0, rawLength);
+    }
+
+    /**
+     * Reads a stored note file into a reused buffer and decodes it.
+     * @param file the file
+     * @param stats receives the time, or null
+     * @return the note bytes, valid until the next read or decode on this thread
+     * @throws IOException if the file cannot be read or is damaged
+     */
+    public static ByteBuffer read(Path file, Stats stats) throws IOException {
+        long size = Files.size(file);
+        if (size > Integer.MAX_VALUE - HEADER_BYTES) {
+            throw new IOException(file + " is too large to load");
+        }
+        byte[] data = buffer(READ_BUFFERS, (int) size);
+        int length = 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            int count;
+            while (length < data.length && (count = in.read(data, length, data.length - length)) > 0) {
+                length += count;
+            }
+        }
+        NoteMetrics.addBytesRead(length);
+        return decode(data, 0, length, stats);
+    }
+
+    /**
+     * Returns a thread's reusable buffer of at least a length, growing it if needed.
+     * Buffers for very large notes are handed out but not kept.
+     */
+    private static byte[] buffer(ThreadLocal<byte[][]> buffers, int length) {
+        byte[][] holder = buffers.get();
+        byte[] buffer = holder[0];
+        if (buffer != null && buffer.length >= length) {
+            return buffer;
+        }
+        buffer = new byte[Math.max(length, 8192)];
+        holder[0] = buffer.length <= MAX_RETAINED_BUFFER ? buffer : null;
+        return buffer;
+    }
+
+    /**
+     * Sizes and times of the notes a storage compressed and decompressed.
+     */
+    public static class Stats {
+        private final LongAdder rawBytes = new LongAdder();
+        private final LongAdder storedBytes = new LongAdder();
+        private final LongAdder encodeNanos = new LongAdder();
+        private final LongAdder decodedBytes = new LongAdder();
+        private final LongAdder decodeNanos = new LongAdder();
+
+        void encoded(long raw, long stored, long nanos) {
+            rawBytes.add(raw);
+            storedBytes.add(stored);
+            encodeNanos.add(nanos);
+        }
+
+        void decoded(long raw, long nanos) {
+            decodedBytes.add(raw);
+            decodeNanos.add(nanos);
+        }
+
+        /**
+         * Returns how many times smaller the notes written were stored.
+         * @return uncompressed bytes divided by stored bytes, 1 if nothing was written
+         */
+        public double getRatio() {
+            long stored = storedBytes.sum();
+            return stored == 0 ? 1 : (double) rawBytes.sum() / stored;
+        }
+
+        /**
+         * Returns the uncompressed size of the notes written.
+         * @return the bytes
+         */
+        public long getRawBytes() {
+            return rawBytes.sum();
+        }
+
+        /**
+         * Returns the stored size of the notes written.
+         * @return the bytes
+         */
+        public long getStoredBytes() {
+            return storedBytes.sum();
+        }
+
+        /**
+         * Returns the time spent compressing.
+         * @return the time in microseconds
+         */
+        public long getEncodeMicros() {
+            return encodeNanos.sum() / 1000;
+        }
+
+        /**
+         * Returns the uncompressed size of the compressed notes read.
+         * @return the bytes
+         */
+        public long getDecodedBytes() {
+            return decodedBytes.sum();
+        }
+
+        /**
+         * Returns the time spent decompressing.
+         * @return the time in microseconds
+         */
+        public long getDecodeMicros() {
+            return decodeNanos.sum() / 1000;
+        }
+
+        /**
+         * Forgets everything counted so far.
+         */
+        public void reset() {
+            rawBytes.reset();
+            storedBytes.reset();
+            encodeNanos.reset();
+            decodedBytes.reset();
+            decodeNanos.reset();
+        }
+    }
+
+    /**
+     * The LZ codec. A block is a series of sequences, each a token byte holding a literal
+     * count and a match length in its two halves, extra length bytes for counts of 15 or
+     * more, the literals, then a two byte little-endian match offset and extra match length
+     * bytes. The last sequence has literals only.
+     */
+    private static final class Lz {
+        private static final int HASH_BITS = 14;
+        private static final int MIN_MATCH = 4;
+        private static final int MAX_OFFSET = 65535;
+        // No match starts this close to the end, and the last bytes are always literals
+        private static final int MATCH_SEARCH_LIMIT = 12;
+        private static final int LAST_LITERALS = 5;
+        private static final ThreadLocal<int[]> HASH_TABLES = ThreadLocal.withInitial(() -> new int[1 << HASH_BITS]);
+
+        private Lz() {
+        }
+
+        static byte[] compress(byte[] src, int[] length) {
+            int[] table = HASH_TABLES.get();
+            Arrays.fill(table, -1);
+            byte[] dst = buffer(COMPRESS_BUFFERS, src.length + src.length / 255 + 16);
+            int out = 0;
+            int anchor = 0;
+            int position = 0;
+            int searchLimit = src.length - MATCH_SEARCH_LIMIT;
+            int matchLimit = src.length - LAST_LITERALS;
+            while (position < searchLimit) {
+                int sequence = readInt(src, position);
+                int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+                int candidate = table[hash];
+                table[hash] = position;
+                if (candidate < 0 || position - candidate > MAX_OFFSET || readInt(src, candidate) != sequence) {
+                    position++;
+                    continue;
+                }
+                int matchLength = MIN_MATCH;
+                while (position + matchLength < matchLimit && src[candidate + matchLength] == src[position + matchLength]) {
+                    matchLength++;
+                }
+                out = writeSequence(src, anchor, position - anchor, dst, out, position - candidate, matchLength);
+                position += matchLength;
+                anchor = position;
+            }
+            length[0] = writeSequence(src, anchor, src.length - anchor, dst, out, 0, 0);
+            return dst;
+        }
+
+        private static int writeSequence(byte[] src, int literalStart, int literals, byte[] dst, int out, int offset, int matchLength) {
+            int token = out++;
+            int matchCode = matchLength == 0 ? 0 : matchLength - MIN_MATCH;
+            dst[token] = (byte) ((Math.min(literals, 15) << 4) | Math.min(matchCode, 15));
+            out = writeLength(dst, out, literals);
+            System.arraycopy(src, literalStart, dst, out, literals);
+            out += literals;
+            if (matchLength > 0) {
+                dst[out++] = (byte) offset;
+                dst[out++] = (byte) (offset >>> 8);
+                out = writeLength(dst, out, matchCode);
+            }
+            return out;
+        }
+
+        private static int writeLength(byte[] dst, int out, int length) {
+            if (length >= 15) {
+                length -= 15;
+                while (length >= 255) {
+                    dst[out++] = (byte) 255;
+                    length -= 255;
+                }
+                dst[out++] = (byte) length;
+            }
+            return out;
+        }
+
+        static void decompress(byte[] src, int offset, int length, byte[] dst, int rawLength) throws IOException {
+            int in = offset;
+            int end = offset + length;
+            int out = 0;
+            try {
+                while (in < end) {
+                    int token = src[in++] & 0xFF;
+                    int literals = token >>> 4;
+                    if (literals == 15) {
+                        int extra;
+                        do {
+                            extra = src[in++] & 0xFF;
+                            literals += extra;
+                        } while (extra == 255);
+                    }
+                    System.arraycopy(src, in, dst, out, literals);
+                    in += literals;
+                    out += literals;
+                    if (in >= end) {
+                        break;
+                    }
+                    int matchOffset = (src[in] & 0xFF) | (src[in + 1] & 0xFF) << 8;
+                    in += 2;
+                    int matchLength = token & 15;
+                    if (matchLength == 15) {
+                        int extra;
+                        do {
+                            extra = src[in++] & 0xFF;
+                            matchLength += extra;
+                        } while (extra == 255);
+                    }
+                    matchLength += MIN_MATCH;
+                    int from = out - matchOffset;
+                    if (matchOffset == 0 || from < 0) {
+                        throw new IOException("Compressed note is damaged");
+                    }
+                    if (matchOffset >= matchLength) {
+                        System.arraycopy(dst, from, dst, out, matchLength);
+                    } else {
+                        for (int i = 0; i < matchLength; i++) {
+                            dst[out + i] = dst[from + i];  // The match overlaps what it copies
+                        }
+                    }
+                    out += matchLength;
+                }
+            } catch (IndexOutOfBoundsException e) {
+                throw new IOException("Compressed note is damaged", e);
+            }
+            if (out != rawLength) {
+                throw new IOException("Compressed note is truncated");
+            }
+        }
+
+        private static int readInt(byte[] src, int position) {
+            return (src[position] & 0xFF) | (src[position + 1] & 0xFF) << 8 | (src[position + 2] & 0xFF) << 16 | (src[position + 3] & 0xFF) << 24;
+        }
+    }
+}
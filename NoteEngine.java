@@ -0,0 +1,385 @@
+package Prototype;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Note operations without a user interface, for scripts and the command line.
+ * Works on the same Folder and NoteStorage classes as MainApp, so folders written by
+ * either are read by the other. Nothing here touches AWT or Swing; only image export
+ * loads the imaging classes, when it is used. Bulk operations spread the notes of a
+ * folder over the common fork-join pool.
+ */
+public class NoteEngine implements Closeable {
+    // Folders opened so far, by canonical path
+    private final Map<String, Folder> folders = new HashMap<>();
+
+    /**
+     * Opens a folder, creating it if it does not exist. A folder is opened once per engine.
+     * @param directory the folder
+     * @return the folder
+     * @throws IOException if the canonical path cannot be resolved
+     */
+    public synchronized Folder open(File directory) throws IOException {
+        String path = directory.getCanonicalPath();
+        Folder folder = folders.get(path);
+        if (folder == null) {
+            folder = new Folder(path);
+            folders.put(path, folder);
+        }
+        return folder;
+    }
+
+    /**
+     * Creates or replaces a note. A replaced note keeps its creation time.
+     * @param directory the folder
+     * @param title the title of the note
+     * @param content the content of the note
+     * @return the saved note
+     * @throws IOException if the note cannot be written
+     */
+    public Note create(File directory, String title, String content) throws IOException {
+        Folder folder = open(directory);
+        Note replaced = folder.getNoteByTitle(title);
+        Note note = replaced != null ? new Note(title, content, replaced.getCreationTime()) : new Note(title, content);
+        folder.getStorage().save(note);
+        folder.getHistory().record(note);
+        folder.addNote(new Note(title, null, note.getCreationTime()));
+        return note;
+    }
+
+    /**
+     * Lists the saved versions of a note.
+     * @param directory the folder
+     * @param title the title of the note
+     * @return the versions, oldest first
+     * @throws IOException if the history cannot be opened
+     */
+    public List<NoteHistory.Version> history(File directory, String title) throws IOException {
+        return open(directory).getHistory().list(title);
+    }
+
+    /**
+     * Compares two saved versions of a note.
+     * @param directory the folder
+     * @param title the title of the note
+     * @param older the number of the older version
+     * @param newer the number of the newer version
+     * @return the changed lines in unified diff form
+     * @throws IOException if a version does not exist or cannot be read
+     */
+    public String diff(File directory, String title, int older, int newer) throws IOException {
+        NoteHistory history = open(directory).getHistory();
+        return history.diff(version(history, title, older), version(history, title, newer));
+    }
+
+    /**
+     * Makes a saved version of a note its current content, recorded as a new version.
+     * @param directory the folder
+     * @param title the title of the note
+     * @param number the number of the version
+     * @return the restored note
+     * @throws IOException if the version does not exist or the note cannot be written
+     */
+    public Note restore(File directory, String title, int number) throws IOException {
+        Folder folder = open(directory);
+        NoteHistory history = folder.getHistory();
+        Note note = history.read(version(history, title, number));
+        folder.getStorage().save(note);
+        history.record(note);
+        folder.addNote(new Note(title, null, note.getCreationTime()));
+        return note;
+    }
+
+    private static NoteHistory.Version version(NoteHistory history, String title, int number) throws IOException {
+        NoteHistory.Version version = history.get(title, number);
+        if (version == null) {
+            throw new IOException("No version " + number + " of " + title);
+        }
+        return version;
+    }
+
+    /**
+     * Reads a note with its content and highlights.
+     * @param directory the folder
+     * @param title the title of the note
+     * @return the note, or null if it is not stored
+     * @throws IOException if the note cannot be read
+     */
+    public Note load(File directory, String title) throws IOException {
+        return open(directory).loadNote(title);
+    }
+
+    /**
+     * Lists the notes of a folder without their content.
+     * @param directory the folder
+     * @return the notes ordered by creation time
+     * @throws IOException if the folder cannot be opened
+     */
+    public List<Note> list(File directory) throws IOException {
+        return open(directory).getNotes();
+    }
+
+    /**
+     * Searches the notes of a folder, bringing its saved search index up to date first.
+     * @param directory the folder
+     * @param query the words to find
+     * @param limit the most hits returned
+     * @return the hits, best first
+     * @throws IOException if the folder cannot be opened or the index cannot be saved
+     */
+    public List<SearchIndex.Hit> search(File directory, String query, int limit) throws IOException {
+        SearchIndex index = open(directory).getSearchIndex();
+        index.build();  // Tokenizes new and changed notes in parallel
+        index.save();
+        return index.search(query, limit);
+    }
+
+    /**
+     * Moves a folder to the segment store or back to separate note files.
+     * @param directory the folder
+     * @param toSegments true for the segment store, false for the note files
+     * @return the number of notes copied
+     * @throws IOException if the notes cannot be copied
+     */
+    public int convert(File directory, boolean toSegments) throws IOException {
+        Folder folder = forget(directory);
+        if (folder != null) {
+            folder.close();  // The migrator opens both storages itself
+        }
+        return StorageMigrator.migrate(directory, toSegments);
+    }
+
+    /**
+     * Exports the notes of a folder.
+     * @param directory the folder
+     * @param target the archive file, or the directory receiving text or image files
+     * @param format "archive", "txt", or an image format such as "png"
+     * @return the number of notes exported
+     * @throws IOException if the notes cannot be exported
+     */
+    public int export(File directory, File target, String format) throws IOException {
+        Folder folder = open(directory);
+        if (format.equals("archive")) {
+            return NoteArchive.exportFolder(folder, target);
+        }
+        if (format.equals(LegacyNoteStorage.TEXT_EXTENSION.substring(1))) {
+            return exportText(folder, target);
+        }
+        return ImageExporter.exportFolderAndWait(folder, target, format);  // Loads the imaging classes only now
+    }
+
+    /**
+     * Writes every note of a folder as a .txt file, loading the notes in parallel.
+     */
+    private static int exportText(Folder folder, File target) throws IOException {
+        if (!target.isDirectory() && !target.mkdirs()) {
+            throw new IOException("Cannot create " + target);
+        }
+        AtomicInteger exported = new AtomicInteger();
+        try {
+            folder.getTitles().parallelStream().forEach(title -> {
+                try {
+                    Note note = folder.loadNote(title);
+                    if (note != null) {
+                        DurableWriter.getDefault().write(new File(target, title + LegacyNoteStorage.TEXT_EXTENSION).toPath(),
+                                note.getContent().getBytes(Charset.defaultCharset()));
+                        exported.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return exported.get();
+    }
+
+    /**
+     * Imports a directory of .txt notes or a note archive into a folder.
+     * @param directory the folder
+     * @param source the directory or archive to import
+     * @return the number of notes imported
+     * @throws IOException if the notes cannot be imported
+     */
+    public int importNotes(File directory, File source) throws IOException {
+        Folder folder = open(directory);
+        List<Note> imported = source.isDirectory()
+                ? NoteArchive.importDirectory(source, folder.getStorage())
+                : NoteArchive.importArchive(source, folder.getStorage());
+        folder.addNotes(imported);
+        return imported.size();
+    }
+
+    /**
+     * Serves a folder to sync clients until the server is closed.
+     * @param directory the folder
+     * @param address the address to listen on
+     * @param secret the secret clients must know, or null to serve only a loopback address
+     * @return the running server
+     * @throws IOException if the address cannot be bound
+     * @throws IllegalArgumentException if there is no secret and the address is not a loopback address
+     */
+    public SyncServer serve(File directory, InetSocketAddress address, byte[] secret) throws IOException {
+        return new SyncServer(open(directory), address, secret);
+    }
+
+    /**
+     * Syncs a folder with one served by another instance.
+     * @param directory the folder
+     * @param address the address of the other instance's sync server
+     * @param secret the secret the server was started with, or null
+     * @return what the sync did
+     * @throws IOException if the sync fails
+     */
+    public SyncClient.Result sync(File directory, InetSocketAddress address, byte[] secret) throws IOException {
+        return new SyncClient(open(directory), secret).sync(address);
+    }
+
+    /**
+     * Counts the notes, characters, words and lines of a folder, reading the notes in parallel.
+     * @param directory the folder
+     * @return the statistics
+     * @throws IOException if a note cannot be read
+     */
+    public FolderStats stats(File directory) throws IOException {
+        Folder folder = open(directory);
+        List<String> titles = new ArrayList<>(folder.getTitles());
+        try {
+            FolderStats stats = titles.parallelStream().map(title -> {
+                try {
+                    return FolderStats.of(folder.loadNote(title));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).reduce(new FolderStats(), FolderStats::plus);
+            stats.compression = folder.getStorage().getCompressionStats();
+            return stats;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private synchronized Folder forget(File directory) throws IOException {
+        return folders.remove(directory.getCanonicalPath());
+    }
+
+    /**
+     * Closes the storage of every opened folder.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        IOException failure = null;
+        for (Folder folder : folders.values()) {
+            try {
+                folder.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        folders.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Totals over the notes of a folder.
+     */
+    public static class FolderStats {
+        private int notes;
+        private long characters;
+        private long words;
+        private long lines;
+        private long highlights;
+        private String largestTitle;
+        private int largestLength = -1;
+        private NoteCodec.Stats compression;
+
+        static FolderStats of(Note note) {
+            FolderStats stats = new FolderStats();
+            if (note == null) {
+                return stats;  // Deleted while counting
+            }
+            String content = note.getContent();
+            stats.notes = 1;
+            stats.characters = content.length();
+            stats.lines = content.isEmpty() ? 0 : 1;
+            boolean inWord = false;
+            for (int i = 0; i < content.length(); i++) {
+                char c = content.charAt(i);
+                if (c == '\n' && i < content.length() - 1) {
+                    stats.lines++;
+                }
+                boolean letter = Character.isLetterOrDigit(c);
+                if (letter && !inWord) {
+                    stats.words++;
+                }
+                inWord = letter;
+            }
+            stats.highlights = note.getHighlights().size();
+            stats.largestTitle = note.getTitle();
+            stats.largestLength = content.length();
+            return stats;
+        }
+
+        FolderStats plus(FolderStats other) {
+            FolderStats sum = new FolderStats();
+            sum.notes = notes + other.notes;
+            sum.characters = characters + other.characters;
+            sum.words = words + other.words;
+            sum.lines = lines + other.lines;
+            sum.highlights = highlights + other.highlights;
+            FolderStats largest = largestLength >= other.largestLength ? this : other;
+            sum.largestTitle = largest.largestTitle;
+            sum.largestLength = largest.largestLength;
+            return sum;
+        }
+
+        public int getNotes() {
+            return notes;
+        }
+
+        public long getCharacters() {
+            return characters;
+        }
+
+        public long getWords() {
+            return words;
+        }
+
+        public long getLines() {
+            return lines;
+        }
+
+        public long getHighlights() {
+            return highlights;
+        }
+
+        /**
+         * Returns the title of the longest note.
+         * @return the title, or null if the folder is empty
+         */
+        public String getLargestTitle() {
+            return largestTitle;
+        }
+
+        /**
+         * Returns the compression of the notes read and written while the folder was open.
+         * @return the compression statistics of the folder's storage
+         */
+        public NoteCodec.Stats getCompression() {
+            return compression;
+        }
+    }
+}
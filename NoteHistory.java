@@ -0,0 +1,468 @@
+package Prototype;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The saved versions of the notes of a folder, kept in the .history directory of the folder.
+ * Note content is split into content-defined chunks by Chunker, and each chunk is stored
+ * once, compressed, in chunks.pack under its id. Each save appends a small record to
+ * versions.log naming the chunks of that version; the chunk list is written as the runs
+ * it shares with the version before and the chunks that are new, so a save of a large note
+ * with a small edit adds a few kilobytes whatever the size of the note. Saving an unchanged
+ * note adds nothing. Version records are read into memory when the history is opened, so
+ * listing versions reads no file, and reading a version reads only its chunks.
+ * A record cut short by a crash is dropped when the history is next opened.
+ */
+public class NoteHistory implements Closeable {
+    static final String DIRECTORY = ".history";
+    static final String CHUNKS_FILE = "chunks.pack";
+    static final String VERSIONS_FILE = "versions.log";
+
+    // Chunk record header: id, then stored length
+    private static final int CHUNK_HEADER_BYTES = Chunker.ID_BYTES + 4;
+    // Chunk list entries of a version record
+    private static final int RUN = 0;
+    private static final int NEW_CHUNK = 1;
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final FileChannel chunks;
+    private final FileChannel log;
+    // Where each stored chunk starts in the pack, by id
+    private final Map<ByteBuffer, Long> chunkOffsets = new HashMap<>();
+    // Versions of every note, oldest first
+    private final Map<String, List<Version>> versions = new HashMap<>();
+    private long chunksSize;
+    private long logSize;
+
+    /**
+     * Opens the history of a folder, creating it if there is none.
+     * @param folderDirectory the folder
+     * @throws IOException if the history files cannot be opened
+     */
+    public NoteHistory(File folderDirectory) throws IOException {
+        File directory = new File(folderDirectory, DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        chunks = FileChannel.open(new File(directory, CHUNKS_FILE).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        log = FileChannel.open(new File(directory, VERSIONS_FILE).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        readChunks();
+        readVersions();
+    }
+
+    /**
+     * Records a saved note as its newest version, unless that version already has the same
+     * content and highlights.
+     * @param note the note with its content
+     * @return the newest version of the note
+     * @throws IOException if the history cannot be written
+     */
+    public synchronized Version record(Note note) throws IOException {
+        byte[] digest = Chunker.digest(note);
+        List<Version> noteVersions = versions.computeIfAbsent(note.getTitle(), title -> new ArrayList<>());
+        Version latest = noteVersions.isEmpty() ? null : noteVersions.get(noteVersions.size() - 1);
+        if (latest != null && Arrays.equals(latest.digest, digest)) {
+            return latest;
+        }
+
+        byte[] content = note.getContent().getBytes(StandardCharsets.UTF_8);
+        List<Chunker.Chunk> split = Chunker.split(content);
+        byte[][] ids = new byte[split.size()][];
+        int[] lengths = new int[split.size()];
+        boolean added = false;
+        for (int i = 0; i < ids.length; i++) {
+            Chunker.Chunk chunk = split.get(i);
+            ids[i] = chunk.getId();
+            lengths[i] = chunk.getLength();
+            if (!chunkOffsets.containsKey(ByteBuffer.wrap(ids[i]))) {
+                appendChunk(ids[i], content, chunk.getOffset(), chunk.getLength());
+                added = true;
+            }
+        }
+        if (added) {
+            chunks.force(false);  // Chunks reach the disk before the version naming them
+        }
+
+        Version version = new Version(note.getTitle(), noteVersions.size() + 1, System.currentTimeMillis(),
+                millisOf(note.getCreationTime()), note.getHighlights().encode(), digest, ids, lengths);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(body)) {
+            version.write(out, latest);
+        }
+        appendVersion(body.toByteArray());
+        noteVersions.add(version);
+        return version;
+    }
+
+    /**
+     * Lists the versions of a note.
+     * @param title the title of the note
+     * @return the versions, oldest first; empty if none were recorded
+     */
+    public synchronized List<Version> list(String title) {
+        List<Version> noteVersions = versions.get(title);
+        return noteVersions == null ? Collections.emptyList() : new ArrayList<>(noteVersions);
+    }
+
+    /**
+     * Returns one version of a note.
+     * @param title the title of the note
+     * @param number the version number, from 1
+     * @return the version, or null if there is no such version
+     */
+    public synchronized Version get(String title, int number) {
+        List<Version> noteVersions = versions.get(title);
+        return noteVersions == null || number < 1 || number > noteVersions.size() ? null : noteVersions.get(number - 1);
+    }
+
+    /**
+     * Reads a version of a note with its content and highlights.
+     * @param version the version
+     * @return the note as it was saved
+     * @throws IOException if its chunks cannot be read or do not match the version
+     */
+    public Note read(Version version) throws IOException {
+        byte[] content = new byte[version.getLength()];
+        int position = 0;
+        for (int i = 0; i < version.ids.length; i++) {
+            readChunk(version.ids[i], content, position, version.lengths[i]);
+            position += version.lengths[i];
+        }
+        Note note = new Note(version.title, new String(content, StandardCharsets.UTF_8),
+                LocalDateTime.ofInstant(Instant.ofEpochMilli(version.creationMillis), ZoneId.systemDefault()));
+        note.setHighlights(HighlightModel.decode(version.highlights));
+        if (!Arrays.equals(Chunker.digest(note), version.digest)) {
+            throw new IOException("Version " + version.number + " of " + version.title + " is damaged");
+        }
+        return note;
+    }
+
+    /**
+     * Compares two versions of a note.
+     * @param older the older version
+     * @param newer the newer version
+     * @return the changed lines in unified diff form
+     * @throws IOException if a version cannot be read
+     */
+    public String diff(Version older, Version newer) throws IOException {
+        return LineDiff.unified(read(older).getContent(), read(newer).getContent(), 3);
+    }
+
+    /**
+     * Returns the bytes the history takes on disk.
+     * @return the size of the chunk pack and version log
+     */
+    public synchronized long getStoredBytes() {
+        return chunksSize + logSize;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            chunks.close();
+        } finally {
+            log.close();
+        }
+    }
+
+    private void appendChunk(byte[] id, byte[] content, int offset, int length) throws IOException {
+        byte[] stored = NoteCodec.DEFLATE.encode(Arrays.copyOfRange(content, offset, offset + length), null);
+        ByteBuffer record = ByteBuffer.allocate(CHUNK_HEADER_BYTES + stored.length);
+        record.put(id).putInt(stored.length).put(stored).flip();
+        long start = chunksSize;
+        while (record.hasRemaining()) {
+            chunksSize += chunks.write(record, chunksSize);
+        }
+        chunkOffsets.put(ByteBuffer.wrap(id), start);
+    }
+
+    /**
+     * Copies a stored chunk into an array.
+     */
+    private void readChunk(byte[] id, byte[] target, int position, int length) throws IOException {
+        Long offset;
+        synchronized (this) {
+            offset = chunkOffsets.get(ByteBuffer.wrap(id));
+        }
+        if (offset == null) {
+            throw new IOException("Missing history chunk " + Chunker.hex(id));
+        }
+        ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER_BYTES);
+        readFully(chunks, header, offset);
+        byte[] stored = new byte[header.getInt(Chunker.ID_BYTES)];
+        readFully(chunks, ByteBuffer.wrap(stored), offset + CHUNK_HEADER_BYTES);
+        ByteBuffer raw = NoteCodec.decode(stored, 0, stored.length, null);
+        if (raw.remaining() != length) {
+            throw new IOException("History chunk " + Chunker.hex(id) + " is damaged");
+        }
+        raw.get(target, position, length);
+    }
+
+    private void appendVersion(byte[] body) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        ByteBuffer record = ByteBuffer.allocate(4 + body.length + 4);
+        record.putInt(body.length).put(body).putInt((int) crc.getValue()).flip();
+        while (record.hasRemaining()) {
+            logSize += log.write(record, logSize);
+        }
+        log.force(false);
+    }
+
+    /**
+     * Indexes the chunk pack by reading the record headers, dropping a record cut short.
+     */
+    private void readChunks() throws IOException {
+        long size = chunks.size();
+        long offset = 0;
+        ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER_BYTES);
+        while (offset + CHUNK_HEADER_BYTES <= size) {
+            header.clear();
+            readFully(chunks, header, offset);
+            int length = header.getInt(Chunker.ID_BYTES);
+            if (length < 0 || offset + CHUNK_HEADER_BYTES + length > size) {
+                break;
+            }
+            chunkOffsets.put(ByteBuffer.wrap(Arrays.copyOf(header.array(), Chunker.ID_BYTES)), offset);
+            offset += CHUNK_HEADER_BYTES + length;
+        }
+        if (offset < size) {
+            chunks.truncate(offset);
+        }
+        chunksSize = offset;
+    }
+
+    /**
+     * Reads the version log into memory, dropping records cut short or naming missing chunks.
+     */
+    private void readVersions() throws IOException {
+        long size = log.size();
+        ByteBuffer data = ByteBuffer.allocate((int) size);
+        readFully(log, data, 0);
+        int offset = 0;
+        while (offset + 8 <= size) {
+            int length = data.getInt(offset);
+            if (length < 0 || offset + 8L + length > size) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data.array(), offset + 4, length);
+            if ((int) crc.getValue() != data.getInt(offset + 4 + length)) {
+                break;
+            }
+            Version version;
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data.array(), offset + 4, length))) {
+                version = Version.read(in, versions);
+            } catch (IOException e) {
+                e.printStackTrace();
+                break;
+            }
+            if (!hasChunks(version)) {
+                break;
+            }
+            versions.computeIfAbsent(version.title, title -> new ArrayList<>()).add(version);
+            offset += 8 + length;
+        }
+        if (offset < size) {
+            log.truncate(offset);
+        }
+        logSize = offset;
+    }
+
+    private boolean hasChunks(Version version) {
+        for (byte[] id : version.ids) {
+            if (!chunkOffsets.containsKey(ByteBuffer.wrap(id))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position + buffer.position());
+            if (count < 0) {
+                throw new IOException("History file ends early");
+            }
+        }
+    }
+
+    private static long millisOf(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * One saved version of a note.
+     */
+    public static class Version {
+        private final String title;
+        private final int number;
+        private final long savedMillis;
+        private final long creationMillis;
+        private final String highlights;
+        private final byte[] digest;
+        // The chunks of the content, in order
+        private final byte[][] ids;
+        private final int[] lengths;
+
+        Version(String title, int number, long savedMillis, long creationMillis, String highlights,
+                byte[] digest, byte[][] ids, int[] lengths) {
+            this.title = title;
+            this.number = number;
+            this.savedMillis = savedMillis;
+            this.creationMillis = creationMillis;
+            this.highlights = highlights;
+            this.digest = digest;
+            this.ids = ids;
+            this.lengths = lengths;
+        }
+
+        /**
+         * Writes the version, naming the runs of chunks it shares with the version before.
+         */
+        void write(DataOutputStream out, Version previous) throws IOException {
+            out.writeUTF(title);
+            out.writeInt(number);
+            out.writeLong(savedMillis);
+            out.writeLong(creationMillis);
+            SyncProtocol.writeString(out, highlights);
+            out.write(digest);
+            Map<ByteBuffer, Integer> shared = new HashMap<>();
+            if (previous != null) {
+                for (int i = previous.ids.length - 1; i >= 0; i--) {
+                    shared.put(ByteBuffer.wrap(previous.ids[i]), i);  // First occurrence wins
+                }
+            }
+            ByteArrayOutputStream list = new ByteArrayOutputStream();
+            DataOutputStream entries = new DataOutputStream(list);
+            int count = 0;
+            int i = 0;
+            while (i < ids.length) {
+                Integer start = shared.get(ByteBuffer.wrap(ids[i]));
+                if (start == null) {
+                    entries.writeByte(NEW_CHUNK);
+                    entries.write(ids[i]);
+                    entries.writeInt(lengths[i]);
+                    i++;
+                } else {
+                    int run = 1;
+                    while (i + run < ids.length && start + run < previous.ids.length
+                            && Arrays.equals(ids[i + run], previous.ids[start + run])) {
+                        run++;
+                    }
+                    entries.writeByte(RUN);
+                    entries.writeInt(start);
+                    entries.writeInt(run);
+                    i += run;
+                }
+                count++;
+            }
+            out.writeInt(count);
+            list.writeTo(out);
+        }
+
+        /**
+         * Reads a version, resolving its runs against the versions already read.
+         */
+        static Version read(DataInputStream in, Map<String, List<Version>> versions) throws IOException {
+            String title = in.readUTF();
+            int number = in.readInt();
+            long savedMillis = in.readLong();
+            long creationMillis = in.readLong();
+            String highlights = SyncProtocol.readString(in);
+            byte[] digest = SyncManifest.readId(in);
+            List<Version> noteVersions = versions.getOrDefault(title, Collections.emptyList());
+            if (number != noteVersions.size() + 1) {
+                throw new IOException("Version " + number + " of " + title + " is out of order");
+            }
+            Version previous = noteVersions.isEmpty() ? null : noteVersions.get(noteVersions.size() - 1);
+            List<byte[]> ids = new ArrayList<>();
+            List<Integer> lengths = new ArrayList<>();
+            int count = in.readInt();
+            for (int e = 0; e < count; e++) {
+                if (in.readByte() == NEW_CHUNK) {
+                    ids.add(SyncManifest.readId(in));
+                    lengths.add(in.readInt());
+                } else {
+                    int start = in.readInt();
+                    int run = in.readInt();
+                    if (previous == null || start < 0 || run < 0 || start + run > previous.ids.length) {
+                        throw new IOException("Version " + number + " of " + title + " is damaged");
+                    }
+                    for (int i = start; i < start + run; i++) {
+                        ids.add(previous.ids[i]);
+                        lengths.add(previous.lengths[i]);
+                    }
+                }
+            }
+            int[] lengthArray = new int[lengths.size()];
+            for (int i = 0; i < lengthArray.length; i++) {
+                lengthArray[i] = lengths.get(i);
+            }
+            return new Version(title, number, savedMillis, creationMillis, highlights, digest,
+                    ids.toArray(new byte[0][]), lengthArray);
+        }
+
+        /**
+         * Returns the title of the note.
+         * @return the title
+         */
+        public String getTitle() {
+            return title;
+        }
+
+        /**
+         * Returns the number of the version, counting the versions of the note from 1.
+         * @return the version number
+         */
+        public int getNumber() {
+            return number;
+        }
+
+        /**
+         * Returns when the version was saved.
+         * @return the save time
+         */
+        public LocalDateTime getSavedTime() {
+            return LocalDateTime.ofInstant(Instant.ofEpochMilli(savedMillis), ZoneId.systemDefault());
+        }
+
+        /**
+         * Returns the length of the content in bytes.
+         * @return the content length
+         */
+        public int getLength() {
+            int length = 0;
+            for (int chunkLength : lengths) {
+                length += chunkLength;
+            }
+            return length;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + number + " - " + getSavedTime().format(TIME_FORMAT) + " - " + getLength() + " bytes";
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package Prototype;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Runs note file I/O on background threads and hands the results to a callback executor.
+ * A new load supersedes the previous one, and saves of the same note that are still
+ * waiting to run are merged into a single write.
+ * Threads doing I/O are never interrupted: an interrupt during a read or lock on a
+ * FileChannel closes the channel, which storages share between all the notes of a folder.
+ */
+public class NoteIOService {
+    // Thread that reads notes
+    private final ExecutorService loadExecutor;
+    // Thread that writes notes; a single thread keeps writes of one note in order
+    private final ExecutorService saveExecutor;
+    // Executor that receives the results, for example the Swing event thread
+    private final Executor callbackExecutor;
+    // Incremented for every load so that superseded results are dropped
+    private final AtomicLong loadGeneration = new AtomicLong();
+    // Saves that are queued but not started yet, keyed by note
+    private final Map<String, PendingSave<?>> pendingSaves = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a NoteIOService.
+     * @param callbackExecutor the executor that runs the result callbacks
+     */
+    public NoteIOService(Executor callbackExecutor) {
+        this.loadExecutor = Executors.newSingleThreadExecutor(namedThreads("note-load", true));
+        // Not a daemon thread, so queued saves finish before the JVM exits
+        this.saveExecutor = Executors.newSingleThreadExecutor(namedThreads("note-save", false));
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Loads a note in the background. A load that has not started yet is skipped, and the
+     * result of one that is running is dropped.
+     * @param loader reads the note
+     * @param onLoaded receives the result unless a newer load was started
+     * @param onError receives the failure unless a newer load was started
+     * @param <T> the result type
+     */
+    public <T> void load(Callable<T> loader, Consumer<T> onLoaded, Consumer<Exception> onError) {
+        long generation = loadGeneration.incrementAndGet();
+        loadExecutor.execute(() -> {
+            if (generation != loadGeneration.get()) {
+                return;
+            }
+            try {
+                T result = loader.call();
+                deliver(() -> {
+                    if (generation == loadGeneration.get()) {
+                        onLoaded.accept(result);
+                    }
+                });
+            } catch (Exception e) {
+                deliver(() -> {
+                    if (generation == loadGeneration.get()) {
+                        onError.accept(e);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Saves a note in the background.
+     * If a save with the same key is still queued, it is replaced by this one and
+     * only this one's callbacks run.
+     * @param key identifies the note being saved
+     * @param writer writes the note
+     * @param onSaved receives the result
+     * @param onError receives the failure
+     * @param <T> the result type
+     */
+    public <T> void save(String key, Callable<T> writer, Consumer<T> onSaved, Consumer<Exception> onError) {
+        PendingSave<T> save = new PendingSave<>(writer, onSaved, onError);
+        PendingSave<?> queued = pendingSaves.put(key, save);
+        if (queued == null) {
+            saveExecutor.execute(() -> runSave(key));
+        }
+    }
+
+    /**
+     * Runs a write on the save thread, after the saves queued before it, and waits for it.
+     * Loads that have to write first, such as recovering a journal, use this so that the
+     * write does not run on the load thread.
+     * @param writer the write
+     * @param <T> the result type
+     * @return the result of the write
+     * @throws IOException if the write fails or the wait is interrupted
+     */
+    public <T> T write(Callable<T> writer) throws IOException {
+        try {
+            return saveExecutor.submit(writer).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a write");
+        }
+    }
+
+    /**
+     * Runs the latest save queued for a key.
+     * @param key identifies the note being saved
+     */
+    private void runSave(String key) {
+        PendingSave<?> save = pendingSaves.remove(key);
+        if (save != null) {
+            save.run();
+        }
+    }
+
+    /**
+     * Runs a callback on the callback executor.
+     * @param callback the callback to run
+     */
+    private void deliver(Runnable callback) {
+        callbackExecutor.execute(callback);
+    }
+
+    /**
+     * Stops the background threads after the queued saves have been written.
+     * Queued loads are skipped.
+     */
+    public void shutdown() {
+        loadGeneration.incrementAndGet();
+        loadExecutor.shutdown();
+        saveExecutor.shutdown();
+    }
+
+    /**
+     * Creates a thread factory for named threads.
+     * @param name the thread name prefix
+     * @param daemon whether the threads are daemon threads
+     * @return the thread factory
+     */
+    static ThreadFactory namedThreads(String name, boolean daemon) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(daemon);
+            return thread;
+        };
+    }
+
+    /**
+     * A save waiting in the queue together with its callbacks.
+     * @param <T> the result type
+     */
+    private class PendingSave<T> {
+        private final Callable<T> writer;
+        private final Consumer<T> onSaved;
+        private final Consumer<Exception> onError;
+
+        PendingSave(Callable<T> writer, Consumer<T> onSaved, Consumer<Exception> onError) {
+            this.writer = writer;
+            this.onSaved = onSaved;
+            this.onError = onError;
+        }
+
+        void run() {
+            try {
+                T result = writer.call();
+                deliver(() -> onSaved.accept(result));
+            } catch (Exception e) {
+                deliver(() -> onError.accept(e));
+            }
+        }
+    }
+}
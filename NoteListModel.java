@@ -0,0 +1,204 @@
+package Prototype;
+
+import javax.swing.AbstractListModel;
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * List model showing the notes of a folder, the notes whose titles match a filter, or search
+ * results. The model is a view of one of the folder's orderings of its notes or of the
+ * filter's matches, so showing, sorting or filtering a folder copies nothing and the model
+ * keeps the same few fields whatever the folder's size. Rows and their labels are made only
+ * for the rows the list paints. Each row is an Entry naming its folder and note, so a
+ * selected row needs no parsing. Changes to the folder are announced with notesChanged,
+ * as one event for a whole batch.
+ */
+public class NoteListModel extends AbstractListModel<NoteListModel.Entry> {
+    private static final long serialVersionUID = 1L;
+
+    // The folder whose notes are shown, or null while entries are shown
+    private Folder folder;
+    // The notes of the folder in the listed order, a view
+    private List<Note> notes = Collections.emptyList();
+    // The order the notes of a folder are listed in
+    private Folder.Order order = Folder.Order.CREATED;
+    // Whether the notes of a folder are listed last first
+    private boolean descending;
+    // The notes of the folder matching the filter, or null when not filtering
+    private TitleTrie.Matches matches;
+    // The entries shown instead of notes, or null
+    private List<Entry> entries;
+
+    /**
+     * Shows the notes of a folder.
+     * @param folder the folder
+     */
+    public void showFolder(Folder folder) {
+        int oldSize = getSize();
+        this.folder = folder;
+        this.notes = folder.getNotes(order);
+        this.matches = null;
+        this.entries = null;
+        fireChanged(0, oldSize);
+    }
+
+    /**
+     * Sets the order the notes of a folder are listed in. Filter matches and search
+     * results keep their own order.
+     * @param order the order
+     * @param descending true to list the last notes of the order first
+     */
+    public void setOrder(Folder.Order order, boolean descending) {
+        this.order = order;
+        this.descending = descending;
+        if (folder != null && matches == null) {
+            int oldSize = getSize();
+            notes = folder.getNotes(order);
+            fireChanged(0, oldSize);
+        }
+    }
+
+    /**
+     * Shows the notes of a folder whose titles match a filter.
+     * @param folder the folder
+     * @param matches the matches, from the folder's title trie
+     */
+    public void showMatches(Folder folder, TitleTrie.Matches matches) {
+        int oldSize = getSize();
+        this.folder = folder;
+        this.notes = Collections.emptyList();
+        this.matches = matches;
+        this.entries = null;
+        fireChanged(0, oldSize);
+    }
+
+    /**
+     * Shows a list of entries, for example search results.
+     * @param entries the entries; the model keeps the list
+     */
+    public void showEntries(List<Entry> entries) {
+        int oldSize = getSize();
+        this.folder = null;
+        this.notes = Collections.emptyList();
+        this.matches = null;
+        this.entries = entries;
+        fireChanged(0, oldSize);
+    }
+
+    /**
+     * Shows nothing.
+     */
+    public void clear() {
+        showEntries(Collections.emptyList());
+    }
+
+    /**
+     * Returns the folder whose notes are shown.
+     * @return the folder, or null while entries are shown
+     */
+    public Folder getFolder() {
+        return folder;
+    }
+
+    /**
+     * Returns the filter matches shown.
+     * @return the matches, or null when the notes are not filtered
+     */
+    public TitleTrie.Matches getMatches() {
+        return matches;
+    }
+
+    /**
+     * Announces that the notes of the shown folder changed from a position on.
+     * Filtered notes are not updated; filter the folder again instead.
+     * @param first the first position whose note changed
+     * @param oldSize the number of notes before the change
+     */
+    public void notesChanged(int first, int oldSize) {
+        if (entries != null || matches != null) {
+            return;
+        }
+        if (order != Folder.Order.CREATED || descending) {
+            notes = folder.getNotes(order);  // Positions in creation order say nothing about this order
+            first = 0;
+        }
+        fireChanged(first, oldSize);
+    }
+
+    /**
+     * Fires one event for the rows that were added or removed at the end and,
+     * if rows before them changed too, one for those.
+     */
+    private void fireChanged(int first, int oldSize) {
+        int size = getSize();
+        if (size > oldSize) {
+            fireIntervalAdded(this, oldSize, size - 1);
+        } else if (size < oldSize) {
+            fireIntervalRemoved(this, size, oldSize - 1);
+        }
+        int common = Math.min(size, oldSize);
+        if (first < common) {
+            fireContentsChanged(this, first, common - 1);
+        }
+    }
+
+    @Override
+    public int getSize() {
+        if (entries != null) {
+            return entries.size();
+        }
+        return matches != null ? matches.size() : notes.size();
+    }
+
+    @Override
+    public Entry getElementAt(int index) {
+        if (entries != null) {
+            return entries.get(index);
+        }
+        Note note = matches != null ? matches.get(index) : notes.get(descending ? notes.size() - 1 - index : index);
+        return new Entry(folder, note.getTitle(), note, false);
+    }
+
+    /**
+     * A row of the list: a note and the folder it is in.
+     */
+    public static class Entry {
+        private final Folder folder;
+        private final String title;
+        private final Note note;
+        private final boolean showFolder;
+
+        /**
+         * Constructs an entry.
+         * @param folder the folder of the note
+         * @param title the title of the note
+         * @param note the note without content, for its creation time, or null if it is not known
+         * @param showFolder whether the label names the folder, for notes of other folders
+         */
+        public Entry(Folder folder, String title, Note note, boolean showFolder) {
+            this.folder = folder;
+            this.title = title;
+            this.note = note;
+            this.showFolder = showFolder;
+        }
+
+        public Folder getFolder() {
+            return folder;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        /**
+         * Returns the label shown in the list.
+         * @return the title, creation time and, for notes of other folders, the folder name
+         */
+        @Override
+        public String toString() {
+            String label = note == null ? title : title + " - " + note.getFormattedCreationTime();
+            return showFolder ? label + " (" + new File(folder.getName()).getName() + ")" : label;
+        }
+    }
+}
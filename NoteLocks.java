@@ -0,0 +1,208 @@
+package Prototype;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Locks the notes of a folder against other writers in this process and in other processes.
+ * Titles are spread over STRIPES stripes, so writers of different notes seldom wait for each
+ * other and there is no lock over the whole folder. A stripe is a ReentrantLock for the threads
+ * of this process and a one-byte region of the folder's lock file for other processes.
+ * A region is locked by one channel per process, so there is one instance per folder per
+ * process, shared by every storage of the folder.
+ */
+final class NoteLocks {
+    static final String LOCK_FILE = ".notes.lock";
+    static final int STRIPES = 64;
+    // The region a process holds while it has the folder's segment store open
+    private static final long OWNER_REGION = STRIPES;
+
+    // Open instances by folder path
+    private static final Map<String, NoteLocks> OPEN = new HashMap<>();
+
+    private final String path;
+    private final File file;
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    // Opened by the first lock, so folders that are only read create no lock file
+    private FileChannel channel;
+    private FileLock ownerLock;
+    private int owners;
+    private int users;
+
+    private NoteLocks(String path) {
+        this.path = path;
+        this.file = new File(path, LOCK_FILE);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Returns the locks of a folder; release them when the storage using them is closed.
+     * @param directory the folder
+     * @return the locks
+     */
+    static NoteLocks acquire(File directory) {
+        String path;
+        try {
+            path = directory.getCanonicalPath();
+        } catch (IOException e) {
+            path = directory.getAbsoluteFile().toPath().normalize().toString();
+        }
+        synchronized (OPEN) {
+            NoteLocks locks = OPEN.computeIfAbsent(path, NoteLocks::new);
+            locks.users++;
+            return locks;
+        }
+    }
+
+    /**
+     * Gives back locks returned by acquire, closing the lock file when no storage uses it.
+     * @throws IOException if the lock file cannot be closed
+     */
+    void release() throws IOException {
+        synchronized (OPEN) {
+            if (--users > 0) {
+                return;
+            }
+            OPEN.remove(path);
+        }
+        synchronized (this) {
+            if (channel != null) {
+                channel.close();  // Releases the regions still held
+                channel = null;
+            }
+        }
+    }
+
+    /**
+     * Locks the stripe of a note. The calling thread may lock it again while it holds it.
+     * @param title the title of the note
+     * @return the lock, released by unlock
+     * @throws IOException if the lock file cannot be locked
+     */
+    Held lock(String title) throws IOException {
+        return lockStripe(stripeOf(title));
+    }
+
+    /**
+     * Locks the stripes of several notes, in stripe order so that two threads or processes
+     * locking overlapping sets cannot deadlock.
+     * @param titles the titles of the notes
+     * @return the locks, released together by unlock
+     * @throws IOException if the lock file cannot be locked
+     */
+    Held lockAll(Collection<String> titles) throws IOException {
+        TreeSet<Integer> stripes = new TreeSet<>();
+        for (String title : titles) {
+            stripes.add(stripeOf(title));
+        }
+        List<Held> held = new ArrayList<>(stripes.size());
+        Held all = () -> {
+            IOException failure = null;
+            for (int i = held.size() - 1; i >= 0; i--) {
+                try {
+                    held.get(i).unlock();
+                } catch (IOException e) {
+                    failure = failure == null ? e : failure;  // Release the other stripes anyway
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        };
+        try {
+            for (int stripe : stripes) {
+                held.add(lockStripe(stripe));
+            }
+        } catch (IOException | RuntimeException e) {
+            all.unlock();
+            throw e;
+        }
+        return all;
+    }
+
+    private static int stripeOf(String title) {
+        return (title.hashCode() & 0x7FFFFFFF) % STRIPES;
+    }
+
+    private Held lockStripe(int stripe) throws IOException {
+        ReentrantLock lock = stripes[stripe];
+        lock.lock();
+        if (lock.getHoldCount() > 1) {
+            return lock::unlock;  // The region is held by the outer lock
+        }
+        try {
+            FileLock region = channel().lock(stripe, 1, false);
+            return () -> {
+                try {
+                    region.release();
+                } finally {
+                    lock.unlock();
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            lock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Claims the folder for writing by this process, for storages that keep their index in
+     * memory and so cannot share writes with another process.
+     * @return false if another process has claimed the folder
+     * @throws IOException if the lock file cannot be locked
+     */
+    synchronized boolean claim() throws IOException {
+        if (owners == 0) {
+            FileLock lock = channel().tryLock(OWNER_REGION, 1, false);
+            if (lock == null) {
+                return false;
+            }
+            ownerLock = lock;
+        }
+        owners++;
+        return true;
+    }
+
+    /**
+     * Gives up a claim made by claim.
+     * @throws IOException if the lock file cannot be unlocked
+     */
+    synchronized void unclaim() throws IOException {
+        if (--owners == 0 && ownerLock != null) {
+            if (ownerLock.isValid()) {
+                ownerLock.release();
+            }
+            ownerLock = null;
+        }
+    }
+
+    private synchronized FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {  // Reopened if an interrupted lock closed it
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        }
+        return channel;
+    }
+
+    /**
+     * A held lock.
+     */
+    interface Held {
+        /**
+         * Releases the lock.
+         * @throws IOException if the lock file cannot be unlocked
+         */
+        void unlock() throws IOException;
+    }
+}
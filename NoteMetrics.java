@@ -0,0 +1,392 @@
+package Prototype;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.awt.AWTEvent;
+import java.awt.EventQueue;
+import java.awt.GraphicsEnvironment;
+import java.awt.Toolkit;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects latency histograms, I/O byte counts, folder sizes and event-thread stalls,
+ * and publishes them over JMX and as JFR events.
+ * Collection is off unless the notes.metrics system property is true or it is turned on
+ * over JMX. While it is off an operation costs one volatile read, and the JFR events cost
+ * nothing unless a recording has enabled them.
+ */
+public class NoteMetrics implements NoteMetricsMXBean {
+    // The operations that are timed
+    public enum Operation {
+        LOAD_NOTE, SAVE_NOTE, EXPORT_IMAGE, UPDATE_TODOS, SAVE_TODOS
+    }
+
+    static final String ENABLED_PROPERTY = "notes.metrics";
+    static final String STALL_PROPERTY = "notes.metrics.edtStallMillis";
+    static final String OBJECT_NAME = "Prototype:type=NoteMetrics";
+
+    private static final NoteMetrics INSTANCE = new NoteMetrics();
+
+    // Whether metrics are collected; read on every operation
+    private static volatile boolean enabled = Boolean.getBoolean(ENABLED_PROPERTY);
+    private static boolean registered;
+    private static boolean edtMonitorInstalled;
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+    private final LatencyHistogram edtLatency = new LatencyHistogram();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder edtStalls = new LongAdder();
+    // The open folders
+    private final Set<Folder> folders = ConcurrentHashMap.newKeySet();
+    // The cache of loaded notes, or null if none was set
+    private volatile NoteCache cache;
+    // Event-dispatch tasks longer than this are stalls
+    private volatile long stallThresholdNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong(STALL_PROPERTY, 100));
+
+    private NoteMetrics() {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Returns the metrics of the application.
+     * @return the metrics
+     */
+    public static NoteMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers the metrics MBean and, if metrics are on, starts watching the event thread.
+     * Calling it again does nothing.
+     */
+    public static synchronized void install() {
+        if (!registered) {
+            registered = true;
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+        }
+        if (enabled) {
+            installEdtMonitor();
+        }
+    }
+
+    /**
+     * Replaces the event queue with one that times every dispatched event.
+     */
+    private static synchronized void installEdtMonitor() {
+        if (!edtMonitorInstalled && !GraphicsEnvironment.isHeadless()) {
+            edtMonitorInstalled = true;
+            EdtMonitor.push();  // Kept in the nested class so loading NoteMetrics loads no event queue classes
+        }
+    }
+
+    /**
+     * Starts timing an operation.
+     * @param operation the operation
+     * @return the event to pass to end once the operation is done
+     */
+    public static OperationEvent begin(Operation operation) {
+        OperationEvent event = new OperationEvent();
+        event.begin();
+        event.kind = operation;
+        if (enabled) {
+            event.startNanos = System.nanoTime();
+        }
+        return event;
+    }
+
+    /**
+     * Finishes timing an operation: records its latency and commits its JFR event.
+     * @param event the event returned by begin
+     * @param subject the note, file or list the operation worked on
+     * @param size characters of the note, pixels of the image or items of the to-do list
+     */
+    public static void end(OperationEvent event, String subject, long size) {
+        event.end();
+        if (event.startNanos != 0) {
+            INSTANCE.latencies[event.kind.ordinal()].record(System.nanoTime() - event.startNanos);
+        }
+        if (event.shouldCommit()) {
+            event.operation = event.kind.name();
+            event.subject = subject;
+            event.size = size;
+            event.commit();
+        }
+    }
+
+    /**
+     * Counts bytes read from note files.
+     * @param bytes the number of bytes read
+     */
+    public static void addBytesRead(long bytes) {
+        if (enabled) {
+            INSTANCE.bytesRead.add(bytes);
+        }
+    }
+
+    /**
+     * Counts bytes written to note files.
+     * @param bytes the number of bytes written
+     */
+    public static void addBytesWritten(long bytes) {
+        if (enabled) {
+            INSTANCE.bytesWritten.add(bytes);
+        }
+    }
+
+    /**
+     * Returns whether metrics are being collected, for callers that have to work to measure.
+     * @return true if collecting
+     */
+    public static boolean isCollecting() {
+        return enabled;
+    }
+
+    /**
+     * Adds a folder to the note counts.
+     * @param folder the opened folder
+     */
+    static void addFolder(Folder folder) {
+        INSTANCE.folders.add(folder);
+    }
+
+    /**
+     * Removes a folder from the note counts.
+     * @param folder the closed folder
+     */
+    static void removeFolder(Folder folder) {
+        INSTANCE.folders.remove(folder);
+    }
+
+    /**
+     * Sets the cache whose counters are reported.
+     * @param cache the cache of loaded notes
+     */
+    static void setCache(NoteCache cache) {
+        INSTANCE.cache = cache;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        NoteMetrics.enabled = enabled;
+        if (enabled) {
+            installEdtMonitor();
+        }
+    }
+
+    @Override
+    public Map<String, Long> getOperationCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Operation operation : Operation.values()) {
+            counts.put(operation.name(), latencies[operation.ordinal()].getCount());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getMeanMicros() {
+        Map<String, Double> means = new TreeMap<>();
+        for (Operation operation : Operation.values()) {
+            means.put(operation.name(), latencies[operation.ordinal()].getMeanMicros());
+        }
+        return means;
+    }
+
+    @Override
+    public Map<String, Long> getP50Micros() {
+        return percentiles(50);
+    }
+
+    @Override
+    public Map<String, Long> getP99Micros() {
+        return percentiles(99);
+    }
+
+    private Map<String, Long> percentiles(double percentile) {
+        Map<String, Long> values = new TreeMap<>();
+        for (Operation operation : Operation.values()) {
+            values.put(operation.name(), latencies[operation.ordinal()].getPercentileMicros(percentile));
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getMaxMicros() {
+        Map<String, Long> maxima = new TreeMap<>();
+        for (Operation operation : Operation.values()) {
+            maxima.put(operation.name(), latencies[operation.ordinal()].getMaxMicros());
+        }
+        return maxima;
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public Map<String, Integer> getNotesPerFolder() {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (Folder folder : folders) {
+            counts.put(folder.getName(), folder.getTitles().size());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getCompressionRatioPerFolder() {
+        Map<String, Double> ratios = new TreeMap<>();
+        for (Folder folder : folders) {
+            ratios.put(folder.getName(), folder.getStorage().getCompressionStats().getRatio());
+        }
+        return ratios;
+    }
+
+    @Override
+    public Map<String, Long> getCompressMicrosPerFolder() {
+        Map<String, Long> times = new TreeMap<>();
+        for (Folder folder : folders) {
+            times.put(folder.getName(), folder.getStorage().getCompressionStats().getEncodeMicros());
+        }
+        return times;
+    }
+
+    @Override
+    public Map<String, Long> getDecompressMicrosPerFolder() {
+        Map<String, Long> times = new TreeMap<>();
+        for (Folder folder : folders) {
+            times.put(folder.getName(), folder.getStorage().getCompressionStats().getDecodeMicros());
+        }
+        return times;
+    }
+
+    @Override
+    public long getCacheHits() {
+        NoteCache current = cache;
+        return current == null ? 0 : current.getHits();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        NoteCache current = cache;
+        return current == null ? 0 : current.getMisses();
+    }
+
+    @Override
+    public long getCacheEvictions() {
+        NoteCache current = cache;
+        return current == null ? 0 : current.getEvictions();
+    }
+
+    @Override
+    public long getCacheBytes() {
+        NoteCache current = cache;
+        return current == null ? 0 : current.getCurrentBytes();
+    }
+
+    @Override
+    public long getCacheMaxBytes() {
+        NoteCache current = cache;
+        return current == null ? 0 : current.getMaxBytes();
+    }
+
+    @Override
+    public long getEdtStallThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(stallThresholdNanos);
+    }
+
+    @Override
+    public void setEdtStallThresholdMillis(long millis) {
+        stallThresholdNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Override
+    public long getEdtStallCount() {
+        return edtStalls.sum();
+    }
+
+    @Override
+    public long getEdtDispatchCount() {
+        return edtLatency.getCount();
+    }
+
+    @Override
+    public long getEdtP99Micros() {
+        return edtLatency.getPercentileMicros(99);
+    }
+
+    @Override
+    public long getEdtMaxMicros() {
+        return edtLatency.getMaxMicros();
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram latency : latencies) {
+            latency.reset();
+        }
+        bytesRead.reset();
+        bytesWritten.reset();
+        edtStalls.reset();
+        edtLatency.reset();
+    }
+
+    /**
+     * Event queue that times every dispatched event and flags the ones over the stall threshold.
+     */
+    private static class EdtMonitor extends EventQueue {
+        /**
+         * Puts a monitor in front of the system event queue.
+         */
+        static void push() {
+            Toolkit.getDefaultToolkit().getSystemEventQueue().push(new EdtMonitor());
+        }
+
+        @Override
+        protected void dispatchEvent(AWTEvent event) {
+            if (!enabled) {
+                super.dispatchEvent(event);
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                super.dispatchEvent(event);
+            } finally {
+                long nanos = System.nanoTime() - start;
+                INSTANCE.edtLatency.record(nanos);
+                if (nanos > INSTANCE.stallThresholdNanos) {
+                    INSTANCE.edtStalls.increment();
+                    EdtStallEvent stall = new EdtStallEvent();
+                    if (stall.shouldCommit()) {
+                        stall.eventType = event.getClass().getName();
+                        stall.source = event.getSource() == null ? null : event.getSource().getClass().getName();
+                        stall.dispatchTime = nanos;
+                        stall.commit();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package Prototype;
+
+import java.util.Map;
+
+/**
+ * Management interface of NoteMetrics, registered as Prototype:type=NoteMetrics.
+ * Latencies are keyed by operation name and given in microseconds.
+ */
+public interface NoteMetricsMXBean {
+    /**
+     * Returns whether metrics are being collected.
+     * @return true if collecting
+     */
+    boolean isEnabled();
+
+    /**
+     * Turns collecting metrics on or off.
+     * @param enabled true to collect
+     */
+    void setEnabled(boolean enabled);
+
+    Map<String, Long> getOperationCounts();
+
+    Map<String, Double> getMeanMicros();
+
+    Map<String, Long> getP50Micros();
+
+    Map<String, Long> getP99Micros();
+
+    Map<String, Long> getMaxMicros();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    /**
+     * Returns the number of notes in every open folder.
+     * @return the note counts keyed by folder name
+     */
+    Map<String, Integer> getNotesPerFolder();
+
+    /**
+     * Returns how many times smaller the notes saved in every open folder were stored.
+     * @return the compression ratios keyed by folder name
+     */
+    Map<String, Double> getCompressionRatioPerFolder();
+
+    /**
+     * Returns the time every open folder spent compressing notes.
+     * @return the times in microseconds keyed by folder name
+     */
+    Map<String, Long> getCompressMicrosPerFolder();
+
+    /**
+     * Returns the time every open folder spent decompressing notes.
+     * @return the times in microseconds keyed by folder name
+     */
+    Map<String, Long> getDecompressMicrosPerFolder();
+
+    /**
+     * Returns how many note loads were answered by the note cache.
+     * @return the hit count
+     */
+    long getCacheHits();
+
+    /**
+     * Returns how many note loads had to read the stored note.
+     * @return the miss count
+     */
+    long getCacheMisses();
+
+    /**
+     * Returns how many notes the cache evicted to stay within its budget.
+     * @return the eviction count
+     */
+    long getCacheEvictions();
+
+    long getCacheBytes();
+
+    long getCacheMaxBytes();
+
+    long getEdtStallThresholdMillis();
+
+    void setEdtStallThresholdMillis(long millis);
+
+    /**
+     * Returns how many event-dispatch tasks took longer than the stall threshold.
+     * @return the number of stalls
+     */
+    long getEdtStallCount();
+
+    long getEdtDispatchCount();
+
+    long getEdtP99Micros();
+
+    long getEdtMaxMicros();
+
+    /**
+     * Forgets everything collected so far.
+     */
+    void reset();
+}
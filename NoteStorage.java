@@ -0,0 +1,120 @@
+package Prototype;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Stores the notes of one folder.
+ * Implementations decide how notes are laid out on disk.
+ */
+public interface NoteStorage extends Closeable {
+    // System property that selects the storage for folders without notes yet: "legacy" or "segment"
+    String STORAGE_PROPERTY = "notes.storage";
+
+    /**
+     * Lists the stored notes without reading their content.
+     * @return notes with title and creation time; their content is null
+     * @throws IOException if the notes cannot be listed
+     */
+    List<Note> list() throws IOException;
+
+    /**
+     * Reads a note with its content and highlights.
+     * @param title the title of the note
+     * @return the note, or null if it is not stored
+     * @throws IOException if the note cannot be read
+     */
+    Note load(String title) throws IOException;
+
+    /**
+     * Stores a note, replacing a stored note with the same title.
+     * @param note the note to store
+     * @throws IOException if the note cannot be written
+     */
+    void save(Note note) throws IOException;
+
+    /**
+     * Stores a note if the stored note is still the version the note was based on, so a save
+     * from an editor that read an older version is rejected instead of overwriting a newer one.
+     * The check and the write are one step for every writer of the folder, in this process or another.
+     * @param note the note to store
+     * @param expectedStamp the stamp of the version the note was based on, or -1 for a note that must not be stored yet
+     * @return the stamp of the stored note
+     * @throws StaleNoteException if another version was stored since
+     * @throws IOException if the note cannot be written
+     */
+    long saveIfUnchanged(Note note, long expectedStamp) throws IOException;
+
+    /**
+     * Stores several notes, replacing stored notes with the same titles.
+     * Implementations make the whole batch durable together, which is much cheaper than
+     * one save at a time.
+     * @param notes the notes to store
+     * @throws IOException if a note cannot be written
+     */
+    default void saveAll(List<Note> notes) throws IOException {
+        for (Note note : notes) {
+            save(note);
+        }
+    }
+
+    /**
+     * Removes a note.
+     * @param title the title of the note
+     * @return true if the note was stored
+     * @throws IOException if the note cannot be removed
+     */
+    boolean delete(String title) throws IOException;
+
+    /**
+     * Returns a value that changes whenever the stored note changes.
+     * @param title the title of the note
+     * @return the stamp, or -1 if the note is not stored
+     */
+    long stamp(String title);
+
+    /**
+     * Returns the sizes and times of the notes this storage compressed and decompressed.
+     * @return the statistics, updated as notes are saved and loaded
+     */
+    NoteCodec.Stats getCompressionStats();
+
+    /**
+     * Rejects a title that could not name a note inside its folder, for titles that come
+     * from other programs, such as a sync peer or an archive: an empty title, one holding a
+     * path separator or NUL, or "." or "..". Dots within a title name a file in the folder,
+     * since no separator can follow them.
+     * @param title the title
+     * @return the title
+     * @throws IOException if the title is not safe to use as a file name
+     */
+    static String checkTitle(String title) throws IOException {
+        if (title == null || title.isEmpty() || title.equals(".") || title.equals("..")
+                || title.indexOf('/') >= 0 || title.indexOf('\\') >= 0 || title.indexOf(File.separatorChar) >= 0
+                || title.indexOf('\0') >= 0) {
+            throw new IOException("Not a valid note title: " + title);
+        }
+        return title;
+    }
+
+    /**
+     * Opens the storage of a folder.
+     * A folder that already holds a segment store keeps using it; otherwise the
+     * notes.storage system property picks the storage, defaulting to the legacy files.
+     * Temporary files left in the folder by a crash during a write are deleted first.
+     * @param directory the folder
+     * @return the storage
+     * @throws IOException if the storage cannot be opened
+     */
+    static NoteStorage open(File directory) throws IOException {
+        if (directory.isDirectory()) {
+            DurableWriter.sweep(directory.toPath());
+        }
+        if (SegmentNoteStorage.exists(directory) || "segment".equals(System.getProperty(STORAGE_PROPERTY))) {
+            return new SegmentNoteStorage(directory);
+        }
+        return new LegacyNoteStorage(directory);
+    }
+}
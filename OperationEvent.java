@@ -0,0 +1,35 @@
+package Prototype;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for one timed operation of the application, such as loading or saving a note.
+ * Created by NoteMetrics.begin and committed by NoteMetrics.end.
+ */
+@Name("Prototype.Operation")
+@Label("Note Operation")
+@Category("Note Taking")
+@Description("A note, image or to-do operation and how long it took")
+@StackTrace(false)
+public class OperationEvent extends Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("Subject")
+    @Description("The note, file or list the operation worked on")
+    String subject;
+
+    @Label("Size")
+    @Description("Characters of the note, pixels of the image or items of the to-do list")
+    long size;
+
+    // The operation, kept for the latency histograms
+    transient NoteMetrics.Operation kind;
+    // When the operation began, or 0 if metrics were off
+    transient long startNanos;
+}
@@ -0,0 +1,183 @@
+package Prototype;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.plaf.basic.BasicTextAreaUI;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.text.TabExpander;
+import javax.swing.text.Utilities;
+import javax.swing.text.View;
+import javax.swing.text.ViewFactory;
+import java.awt.Component;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Shape;
+
+/**
+ * View of a MappedDocument that only looks at the lines it paints.
+ * PlainView measures every line to find the widest one, which would decode the whole note;
+ * this view sizes itself from the line count and the document's longest line estimate
+ * instead, and maps between offsets and points one line at a time. Lines are not wrapped.
+ */
+public class PagedTextView extends View implements TabExpander {
+    private Font font;
+    private FontMetrics metrics;
+    // Left edge of the text, where tab stops are counted from
+    private float tabBase;
+
+    /**
+     * Constructs a view of the lines of a document.
+     * @param elem the root element of the document
+     */
+    public PagedTextView(Element elem) {
+        super(elem);
+    }
+
+    private void updateMetrics() {
+        Component host = getContainer();
+        Font hostFont = host.getFont();
+        if (font != hostFont) {
+            font = hostFont;
+            metrics = host.getFontMetrics(hostFont);
+        }
+    }
+
+    @Override
+    public float getPreferredSpan(int axis) {
+        updateMetrics();
+        if (axis == View.X_AXIS) {
+            int longestLine = getDocument() instanceof MappedDocument ? ((MappedDocument) getDocument()).getLongestLineEstimate() : 80;
+            return (float) Math.min((double) longestLine * metrics.charWidth('m'), Integer.MAX_VALUE / 2);
+        }
+        return (float) Math.min((double) getElement().getElementCount() * metrics.getHeight(), Integer.MAX_VALUE / 2);
+    }
+
+    /**
+     * Paints the lines inside the clip.
+     */
+    @Override
+    public void paint(Graphics g, Shape a) {
+        updateMetrics();
+        Rectangle alloc = a.getBounds();
+        Rectangle clip = g.getClipBounds() != null ? g.getClipBounds() : alloc;
+        tabBase = alloc.x;
+        JTextComponent host = (JTextComponent) getContainer();
+        g.setFont(font);
+        g.setColor(host.isEnabled() ? host.getForeground() : host.getDisabledTextColor());
+        Element map = getElement();
+        int height = metrics.getHeight();
+        int first = Math.max(0, (clip.y - alloc.y) / height);
+        int last = Math.min(map.getElementCount() - 1, (clip.y + clip.height - alloc.y) / height);
+        Segment text = new Segment();
+        for (int line = first; line <= last; line++) {
+            Element lineElement = map.getElement(line);
+            int start = lineElement.getStartOffset();
+            try {
+                getDocument().getText(start, lineElement.getEndOffset() - 1 - start, text);
+            } catch (BadLocationException e) {
+                e.printStackTrace();
+                return;
+            }
+            Utilities.drawTabbedText(text, (float) alloc.x, (float) (alloc.y + line * height + metrics.getAscent()), (Graphics2D) g, this, start);
+        }
+    }
+
+    @Override
+    public Shape modelToView(int pos, Shape a, Position.Bias b) throws BadLocationException {
+        updateMetrics();
+        Rectangle alloc = a.getBounds();
+        tabBase = alloc.x;
+        Element map = getElement();
+        int line = map.getElementIndex(pos);
+        int start = map.getElement(line).getStartOffset();
+        Segment text = new Segment();
+        getDocument().getText(start, pos - start, text);
+        int x = (int) Utilities.getTabbedTextWidth(text, metrics, (float) alloc.x, this, start);
+        return new Rectangle(alloc.x + x, alloc.y + line * metrics.getHeight(), 1, metrics.getHeight());
+    }
+
+    @Override
+    public int viewToModel(float fx, float fy, Shape a, Position.Bias[] bias) {
+        updateMetrics();
+        bias[0] = Position.Bias.Forward;
+        Rectangle alloc = a.getBounds();
+        tabBase = alloc.x;
+        Element map = getElement();
+        if (fy < alloc.y) {
+            return getStartOffset();
+        }
+        int line = Math.min(map.getElementCount() - 1, (int) (fy - alloc.y) / metrics.getHeight());
+        Element lineElement = map.getElement(line);
+        int start = lineElement.getStartOffset();
+        int end = lineElement.getEndOffset() - 1;
+        if (fx < alloc.x) {
+            return start;
+        }
+        Segment text = new Segment();
+        try {
+            getDocument().getText(start, end - start, text);
+        } catch (BadLocationException e) {
+            return start;
+        }
+        return Math.min(end, start + Utilities.getTabbedTextOffset(text, metrics, (float) alloc.x, fx, this, start, true));
+    }
+
+    @Override
+    public float nextTabStop(float x, int tabOffset) {
+        Object tabSize = getDocument().getProperty(PlainDocument.tabSizeAttribute);
+        int tabWidth = (tabSize instanceof Integer ? (Integer) tabSize : 8) * metrics.charWidth('m');
+        if (tabWidth == 0) {
+            return x;
+        }
+        int tabs = (int) ((x - tabBase) / tabWidth);
+        return tabBase + (tabs + 1) * tabWidth;
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        changed();
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        changed();
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        changed();
+    }
+
+    /**
+     * Resizes the view and repaints the visible lines after an edit.
+     */
+    private void changed() {
+        preferenceChanged(null, true, true);
+        Component host = getContainer();
+        if (host != null) {
+            host.repaint();
+        }
+    }
+
+    /**
+     * Text area UI that shows mapped documents with a PagedTextView and other documents as usual.
+     */
+    public static class TextAreaUI extends BasicTextAreaUI {
+        @Override
+        public View create(Element elem) {
+            Document document = elem.getDocument();
+            if (document instanceof MappedDocument && elem == document.getDefaultRootElement()) {
+                return new PagedTextView(elem);
+            }
+            return super.create(elem);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package Prototype;
+
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.View;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Shape;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Highlighter that paints the runs of a HighlightModel, and the matches of a find over them,
+ * under the selection. Runs and matches are painted line by line as the text view paints,
+ * and only for the lines being painted, so replacing the model with thousands of runs or
+ * finding thousands of matches costs a single repaint.
+ */
+public class RunHighlighter extends DefaultHighlighter {
+    // The runs to paint
+    private HighlightModel model = new HighlightModel();
+    // The text component this highlighter is installed on
+    private JTextComponent component;
+    // One painter per color
+    private final Map<Integer, DefaultHighlighter.DefaultHighlightPainter> painters = new HashMap<>();
+    // The matches of a find, or null
+    private FindMatches findMatches;
+    private final DefaultHighlighter.DefaultHighlightPainter findPainter = new DefaultHighlighter.DefaultHighlightPainter(new Color(0xFFB060));
+
+    /**
+     * Returns the runs being painted.
+     * @return the highlight model
+     */
+    public HighlightModel getModel() {
+        return model;
+    }
+
+    /**
+     * Replaces the runs being painted and repaints the text once.
+     * @param model the highlight model
+     */
+    public void setModel(HighlightModel model) {
+        this.model = model;
+        repaint();
+    }
+
+    /**
+     * Sets the matches of a find to paint. The caller repaints when the matches change.
+     * @param findMatches the matches, or null to paint none
+     */
+    public void setFindMatches(FindMatches findMatches) {
+        this.findMatches = findMatches;
+        repaint();
+    }
+
+    /**
+     * Repaints the text component after the model changed.
+     */
+    public void repaint() {
+        if (component != null) {
+            component.repaint();
+        }
+    }
+
+    @Override
+    public void install(JTextComponent component) {
+        super.install(component);
+        this.component = component;
+    }
+
+    @Override
+    public void deinstall(JTextComponent component) {
+        super.deinstall(component);
+        this.component = null;
+    }
+
+    @Override
+    public void paintLayeredHighlights(Graphics g, int p0, int p1, Shape viewBounds, JTextComponent editor, View view) {
+        for (HighlightModel.Run run : model.getRuns(p0, p1)) {
+            int start = Math.max(p0, run.getStart());
+            int end = Math.min(p1, run.getEnd());
+            painters.computeIfAbsent(run.getRgb(), rgb -> new DefaultHighlighter.DefaultHighlightPainter(new Color(rgb)))
+                    .paintLayer(g, start, end, viewBounds, editor, view);
+        }
+        if (findMatches != null) {
+            for (int i = findMatches.indexAfter(p0); i < findMatches.size() && findMatches.getStart(i) < p1; i++) {
+                findPainter.paintLayer(g, Math.max(p0, findMatches.getStart(i)), Math.min(p1, findMatches.getEnd(i)), viewBounds, editor, view);
+            }
+        }
+        super.paintLayeredHighlights(g, p0, p1, viewBounds, editor, view);  // Selection on top
+    }
+}
@@ -0,0 +1,637 @@
+package Prototype;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+/**
+ * Full-text inverted index over the notes of a folder.
+ * Maps every term to the notes containing it and the term's positions in each note.
+ * The index is saved in the folder so that only notes changed since then are read again.
+ * A save appends the notes changed since the last save to a log next to a snapshot of the
+ * whole index, so its cost follows the size of the changes and not of the folder. Once the
+ * log has grown larger than the snapshot, the next save writes a new snapshot and empties
+ * the log. Saving copies what it writes under the index's lock and writes it after
+ * releasing it, so searches are not held up while the file is written and synced.
+ */
+public class SearchIndex {
+    // Name of the file the index is saved to, inside the indexed folder
+    static final String INDEX_FILE_NAME = ".noteindex";
+    // Name of the log of changes made since the snapshot in INDEX_FILE_NAME
+    static final String LOG_FILE_NAME = INDEX_FILE_NAME + ".log";
+    // Identifies an index file and its layout version
+    private static final int INDEX_MAGIC = 0x4E494458;
+    private static final int INDEX_VERSION = 4;
+    // Identifies a log file; its layout follows INDEX_VERSION
+    private static final int LOG_MAGIC = 0x4E49444C;
+    // Log header: magic, version, generation of the snapshot it follows
+    private static final int LOG_HEADER_BYTES = 16;
+    // Kinds of log records
+    private static final byte LOG_UPDATE = 1;
+    private static final byte LOG_REMOVE = 2;
+    // The log is compacted once it is larger than the snapshot and than this
+    private static final long MIN_COMPACT_BYTES = 1024 * 1024;
+
+    // The folder whose notes are indexed
+    private final Folder folder;
+    // Term dictionary: term mapped to note title mapped to term positions
+    private final TreeMap<String, Map<String, int[]>> postings = new TreeMap<>();
+    // Indexed notes by title
+    private final Map<String, Document> documents = new HashMap<>();
+    // Notes changed since the index was last saved, mapped to their document or to null if removed
+    private Map<String, Document> changes = new HashMap<>();
+    // Held while saving, so saves write their changes in the order they were taken
+    private final Object saveLock = new Object();
+    // Generation of the saved snapshot, which its log must carry; these three are guarded by saveLock
+    private long generation;
+    // Bytes of the saved snapshot, and of the log up to its last whole record; 0 if there is none
+    private long snapshotBytes;
+    private long logBytes;
+
+    /**
+     * Constructs an empty SearchIndex for a folder.
+     * @param folder the folder whose notes are indexed
+     */
+    public SearchIndex(Folder folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Brings the index up to date with the notes in the folder.
+     * Reads the saved index, then reads and tokenizes the notes that are new or changed in parallel.
+     */
+    public void build() {
+        File indexFile = new File(folder.getName(), INDEX_FILE_NAME);
+        if (indexFile.exists()) {
+            try {
+                read(indexFile);
+            } catch (IOException e) {
+                e.printStackTrace();  // Rebuild from the notes instead
+            }
+        }
+
+        Set<String> titles = new LinkedHashSet<>(folder.getTitles());
+        reindex(titles.stream().filter(this::isStale).collect(Collectors.toList()));
+
+        synchronized (this) {
+            for (String title : new ArrayList<>(documents.keySet())) {
+                if (!titles.contains(title)) {
+                    remove(title);
+                }
+            }
+        }
+    }
+
+    /**
+     * Brings the index up to date for some notes only, for example the ones changed on disk.
+     * Notes that are no longer stored are removed from the index.
+     * @param titles the titles of the notes
+     */
+    public void refresh(Collection<String> titles) {
+        List<String> stale = new ArrayList<>();
+        for (String title : titles) {
+            if (folder.getStorage().stamp(title) == -1) {
+                remove(title);
+            } else if (isStale(title)) {
+                stale.add(title);
+            }
+        }
+        reindex(stale);
+    }
+
+    /**
+     * Reads and tokenizes notes in parallel, replacing what was indexed for them.
+     * @param stale the titles of the notes
+     */
+    private void reindex(List<String> stale) {
+        NoteStorage storage = folder.getStorage();
+        stale.parallelStream().forEach(title -> {
+            try {
+                long stamp = storage.stamp(title);
+                Note note = storage.load(title);
+                if (note != null) {
+                    update(title, note.getContent(), stamp);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Checks whether a note has to be read again.
+     * @param title the title of the note
+     * @return true if the note is not indexed or was stored again since it was indexed
+     */
+    private synchronized boolean isStale(String title) {
+        Document document = documents.get(title);
+        return document == null || folder.getStorage().stamp(title) != document.stamp;
+    }
+
+    /**
+     * Indexes the content of a note, replacing what was indexed for it before.
+     * @param title the title of the note
+     * @param content the content of the note
+     * @param stamp the storage stamp of the indexed content
+     */
+    public void update(String title, String content, long stamp) {
+        Map<String, int[]> termPositions = positionsOf(content);
+        String[] terms = termPositions.keySet().toArray(new String[0]);
+        int[][] positions = new int[terms.length][];
+        int tokenCount = 0;
+        for (int i = 0; i < terms.length; i++) {
+            positions[i] = termPositions.get(terms[i]);
+            tokenCount += positions[i].length;
+        }
+        synchronized (this) {
+            remove(title);
+            for (int i = 0; i < terms.length; i++) {
+                postings.computeIfAbsent(terms[i], term -> new HashMap<>()).put(title, positions[i]);
+            }
+            Document document = new Document(stamp, tokenCount, terms, positions);
+            documents.put(title, document);
+            changes.put(title, document);
+        }
+    }
+
+    /**
+     * Removes a note from the index.
+     * @param title the title of the note
+     */
+    public synchronized void remove(String title) {
+        Document document = documents.remove(title);
+        if (document == null) {
+            return;
+        }
+        for (String term : document.terms) {
+            Map<String, int[]> notes = postings.get(term);
+            if (notes != null) {
+                notes.remove(title);
+                if (notes.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+        changes.put(title, null);
+    }
+
+    /**
+     * Finds the notes matching a query, best match first.
+     * Notes are ranked by TF-IDF; notes containing all query terms, and those containing
+     * them as a phrase, rank higher. Unless the query ends with a space, its last term
+     * also matches longer terms starting with it.
+     * @param query the text to search for
+     * @param limit the maximum number of results
+     * @return the matching notes
+     */
+    public synchronized List<Hit> search(String query, int limit) {
+        List<String> terms = tokenize(query);
+        if (terms.isEmpty()) {
+            return new ArrayList<>();
+        }
+        boolean prefixLast = !Character.isWhitespace(query.charAt(query.length() - 1));
+        int noteCount = Math.max(1, documents.size());
+        Map<String, double[]> scores = new HashMap<>();
+        Map<String, int[]> matchedTerms = new HashMap<>();
+
+        for (int i = 0; i < terms.size(); i++) {
+            Map<String, Map<String, int[]>> matching = i == terms.size() - 1 && prefixLast
+                    ? postings.subMap(terms.get(i), true, terms.get(i) + Character.MAX_VALUE, false)
+                    : single(terms.get(i));
+            Set<String> counted = new LinkedHashSet<>();
+            for (Map<String, int[]> notes : matching.values()) {
+                double idf = Math.log(1.0 + (double) noteCount / notes.size());
+                for (Map.Entry<String, int[]> entry : notes.entrySet()) {
+                    double termFrequency = 1.0 + Math.log(entry.getValue().length);
+                    scores.computeIfAbsent(entry.getKey(), title -> new double[1])[0] += termFrequency * idf;
+                    if (counted.add(entry.getKey())) {
+                        matchedTerms.computeIfAbsent(entry.getKey(), title -> new int[1])[0]++;
+                    }
+                }
+            }
+        }
+
+        List<Hit> hits = new ArrayList<>(scores.size());
+        for (Map.Entry<String, double[]> entry : scores.entrySet()) {
+            String title = entry.getKey();
+            Document document = documents.get(title);
+            double score = entry.getValue()[0] / Math.sqrt(Math.max(1, document.tokenCount));
+            score *= (double) matchedTerms.get(title)[0] / terms.size();
+            if (terms.size() > 1 && containsPhrase(title, terms, prefixLast)) {
+                score *= 2;
+            }
+            hits.add(new Hit(folder, title, score));
+        }
+        hits.sort((hit1, hit2) -> Double.compare(hit2.score, hit1.score));
+        return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+    }
+
+    /**
+     * Returns the postings of one term in the same shape as a prefix range.
+     */
+    private Map<String, Map<String, int[]>> single(String term) {
+        Map<String, int[]> notes = postings.get(term);
+        Map<String, Map<String, int[]>> matching = new HashMap<>();
+        if (notes != null) {
+            matching.put(term, notes);
+        }
+        return matching;
+    }
+
+    /**
+     * Checks whether a note contains the query terms next to each other.
+     * The last term is skipped when it is matched as a prefix.
+     */
+    private boolean containsPhrase(String title, List<String> terms, boolean prefixLast) {
+        int phraseLength = prefixLast ? terms.size() - 1 : terms.size();
+        if (phraseLength < 2) {
+            return false;
+        }
+        int[][] positions = new int[phraseLength][];
+        for (int i = 0; i < phraseLength; i++) {
+            Map<String, int[]> notes = postings.get(terms.get(i));
+            positions[i] = notes == null ? null : notes.get(title);
+            if (positions[i] == null) {
+                return false;
+            }
+        }
+        for (int start : positions[0]) {
+            int i = 1;
+            while (i < phraseLength && Arrays.binarySearch(positions[i], start + i) >= 0) {
+                i++;
+            }
+            if (i == phraseLength) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of indexed notes.
+     * @return the note count
+     */
+    public synchronized int size() {
+        return documents.size();
+    }
+
+    /**
+     * Saves the changes made to the index since it was last saved, if there are any.
+     * The changed notes are appended to the log; once the log has grown larger than the
+     * snapshot, the whole index is written as a new snapshot instead and the log is emptied.
+     * Only what is written is copied under the index's lock; the files are written and synced
+     * after releasing it. A failed save is retried by the next one.
+     * @throws IOException if the index cannot be written
+     */
+    public void save() throws IOException {
+        synchronized (saveLock) {
+            boolean compact = logBytes == 0 || logBytes > Math.max(MIN_COMPACT_BYTES, snapshotBytes);
+            Map<String, Document> saved;
+            synchronized (this) {
+                if (changes.isEmpty()) {
+                    return;
+                }
+                saved = compact ? new HashMap<>(documents) : changes;  // Documents are never changed, only replaced
+                changes = new HashMap<>();
+            }
+            try {
+                if (compact) {
+                    writeSnapshot(saved);
+                } else {
+                    appendLog(saved);
+                }
+            } catch (IOException | RuntimeException e) {
+                logBytes = 0;  // The files may not match what is known of them; the next save writes a snapshot
+                synchronized (this) {
+                    for (Map.Entry<String, Document> entry : saved.entrySet()) {
+                        changes.putIfAbsent(entry.getKey(), entry.getValue());  // Saved again next time
+                    }
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Writes the whole index as a new snapshot, then starts an empty log for it. A log left
+     * behind by a failure after the snapshot carries the old generation and is ignored.
+     */
+    private void writeSnapshot(Map<String, Document> saved) throws IOException {
+        long next = generation + 1;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(bytes))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeLong(next);
+            out.writeInt(saved.size());
+            for (Map.Entry<String, Document> entry : saved.entrySet()) {
+                writeDocument(out, entry.getKey(), entry.getValue());
+            }
+        }
+        DurableWriter.getDefault().write(new File(folder.getName(), INDEX_FILE_NAME).toPath(), bytes.toByteArray());
+        generation = next;
+        snapshotBytes = bytes.size();
+        ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_BYTES);
+        header.putInt(LOG_MAGIC).putInt(INDEX_VERSION).putLong(generation);
+        DurableWriter.getDefault().write(new File(folder.getName(), LOG_FILE_NAME).toPath(), header.array());
+        logBytes = LOG_HEADER_BYTES;
+    }
+
+    /**
+     * Appends changed notes to the log as one record: body length, body, CRC32 of the body.
+     * A record cut short by a crash fails its check and is dropped when the log is read,
+     * and overwritten by the next append.
+     */
+    private void appendLog(Map<String, Document> saved) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(bytes))) {
+            out.writeInt(0);  // Body length, set below
+            out.writeInt(saved.size());
+            for (Map.Entry<String, Document> entry : saved.entrySet()) {
+                if (entry.getValue() == null) {
+                    out.writeByte(LOG_REMOVE);
+                    writeString(out, entry.getKey());
+                } else {
+                    out.writeByte(LOG_UPDATE);
+                    writeDocument(out, entry.getKey(), entry.getValue());
+                }
+            }
+            out.writeInt(0);  // Checksum, set below
+        }
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        int bodyLength = record.capacity() - 8;
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, bodyLength);
+        record.putInt(0, bodyLength);
+        record.putInt(4 + bodyLength, (int) crc.getValue());
+        File logFile = new File(folder.getName(), LOG_FILE_NAME);
+        try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.WRITE)) {
+            long position = logBytes;
+            while (record.hasRemaining()) {
+                position += channel.write(record, position);
+            }
+            channel.truncate(position);  // Drops what a failed append left past the last record
+            channel.force(false);
+            logBytes = position;
+        }
+    }
+
+    private static void writeDocument(DataOutputStream out, String title, Document document) throws IOException {
+        writeString(out, title);
+        out.writeLong(document.stamp);
+        out.writeInt(document.tokenCount);
+        out.writeInt(document.terms.length);
+        for (int j = 0; j < document.terms.length; j++) {
+            writeString(out, document.terms[j]);
+            out.writeInt(document.positions[j].length);
+            for (int position : document.positions[j]) {
+                out.writeInt(position);
+            }
+        }
+    }
+
+    private static Document readDocument(DataInputStream in) throws IOException {
+        long stamp = in.readLong();
+        int tokenCount = in.readInt();
+        int termCount = in.readInt();
+        if (termCount < 0) {
+            throw new IOException("Damaged index file");
+        }
+        String[] terms = new String[termCount];
+        int[][] positions = new int[terms.length][];
+        for (int j = 0; j < terms.length; j++) {
+            terms[j] = readString(in);
+            int positionCount = in.readInt();
+            if (positionCount < 0) {
+                throw new IOException("Damaged index file");
+            }
+            positions[j] = new int[positionCount];
+            for (int k = 0; k < positions[j].length; k++) {
+                positions[j][k] = in.readInt();
+            }
+        }
+        return new Document(stamp, tokenCount, terms, positions);
+    }
+
+    /**
+     * Writes a string as its UTF-8 length and bytes; writeUTF fails on strings of more than 64 KB.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Damaged index file");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a saved index and the changes logged since, replacing the current contents.
+     * Log records after the first damaged one are ignored.
+     * @param indexFile the index file
+     * @throws IOException if the file cannot be read or has an unknown layout
+     */
+    private void read(File indexFile) throws IOException {
+        synchronized (saveLock) {
+            synchronized (this) {
+                postings.clear();
+                documents.clear();
+                changes = new HashMap<>();
+                logBytes = 0;
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+                    if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+                        throw new IOException("Unsupported index file: " + indexFile);
+                    }
+                    generation = in.readLong();
+                    int noteCount = in.readInt();
+                    for (int i = 0; i < noteCount; i++) {
+                        String title = readString(in);
+                        put(title, readDocument(in));
+                    }
+                } catch (IOException e) {
+                    postings.clear();
+                    documents.clear();
+                    throw e;
+                }
+                snapshotBytes = indexFile.length();
+                File logFile = new File(folder.getName(), LOG_FILE_NAME);
+                if (logFile.exists()) {
+                    try {
+                        replay(ByteBuffer.wrap(Files.readAllBytes(logFile.toPath())));
+                    } catch (IOException e) {
+                        e.printStackTrace();  // The snapshot alone is used; the notes logged are read again
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the whole records of a log written after the snapshot that was read.
+     */
+    private void replay(ByteBuffer log) throws IOException {
+        if (log.remaining() < LOG_HEADER_BYTES || log.getInt() != LOG_MAGIC || log.getInt() != INDEX_VERSION
+                || log.getLong() != generation) {
+            return;  // Left over from an older snapshot
+        }
+        int end = log.position();
+        while (log.remaining() >= 8) {
+            int start = log.position();
+            int bodyLength = log.getInt();
+            if (bodyLength < 0 || bodyLength > log.remaining() - 4) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(log.array(), start + 4, bodyLength);
+            if (log.getInt(start + 4 + bodyLength) != (int) crc.getValue()) {
+                break;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(log.array(), start + 4, bodyLength));
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte kind = in.readByte();
+                String title = readString(in);
+                if (kind == LOG_REMOVE) {
+                    remove(title);
+                } else if (kind == LOG_UPDATE) {
+                    remove(title);
+                    put(title, readDocument(in));
+                } else {
+                    throw new IOException("Damaged index log");
+                }
+            }
+            end = start + 8 + bodyLength;
+            log.position(end);
+        }
+        changes = new HashMap<>();  // Replaying is not a change to save
+        logBytes = end;
+    }
+
+    /**
+     * Adds a read document to the postings and the documents.
+     */
+    private void put(String title, Document document) {
+        for (int j = 0; j < document.terms.length; j++) {
+            postings.computeIfAbsent(document.terms[j], term -> new HashMap<>()).put(title, document.positions[j]);
+        }
+        documents.put(title, document);
+    }
+
+    /**
+     * Splits text into lower case terms made of letters and digits.
+     * @param text the text to split
+     * @return the terms in order of appearance
+     */
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean termChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (termChar && start < 0) {
+                start = i;
+            } else if (!termChar && start >= 0) {
+                terms.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Collects the positions of every term in a text.
+     * @param content the text to index
+     * @return each term mapped to its ascending positions
+     */
+    private static Map<String, int[]> positionsOf(String content) {
+        List<String> terms = tokenize(content);
+        Map<String, int[]> counts = new HashMap<>();
+        for (String term : terms) {
+            counts.computeIfAbsent(term, t -> new int[1])[0]++;
+        }
+        Map<String, int[]> positions = new HashMap<>();
+        Map<String, int[]> filled = new HashMap<>();
+        for (int i = 0; i < terms.size(); i++) {
+            String term = terms.get(i);
+            int[] termPositions = positions.computeIfAbsent(term, t -> new int[counts.get(t)[0]]);
+            termPositions[filled.computeIfAbsent(term, t -> new int[1])[0]++] = i;
+        }
+        return positions;
+    }
+
+    /**
+     * A note matching a search query.
+     */
+    public static class Hit {
+        private final Folder folder;
+        private final String title;
+        private final double score;
+
+        Hit(Folder folder, String title, double score) {
+            this.folder = folder;
+            this.title = title;
+            this.score = score;
+        }
+
+        public Folder getFolder() {
+            return folder;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public double getScore() {
+            return score;
+        }
+    }
+
+    /**
+     * What the index knows about one indexed note. Never changed once made.
+     */
+    private static class Document {
+        private final long stamp;
+        private final int tokenCount;
+        private final String[] terms;
+        // The positions of each term, the arrays the postings hold
+        private final int[][] positions;
+
+        Document(long stamp, int tokenCount, String[] terms, int[][] positions) {
+            this.stamp = stamp;
+            this.tokenCount = tokenCount;
+            this.terms = terms;
+            this.positions = positions;
+        }
+    }
+}
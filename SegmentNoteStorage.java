@@ -0,0 +1,784 @@
+package Prototype;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Stores the notes of a folder in append-only segment files.
+ * Every save appends a length-prefixed binary record holding the title, creation time,
+ * encoded highlight runs and content; a delete appends a tombstone. Segments are read through
+ * memory mappings, and an in-memory index maps each title to its latest record.
+ * The index is checkpointed to notes.idx so that opening the store only replays records
+ * written after the checkpoint. Once most of the stored bytes are superseded records,
+ * the older segments are compacted on a background thread.
+ * One process at a time writes a store: the first to open it claims it in the folder's lock
+ * file, and other processes read it as it was when they opened it and cannot save to it.
+ */
+public class SegmentNoteStorage implements NoteStorage {
+    // Segment files are named notes-<id>.seg
+    static final String SEGMENT_PREFIX = "notes-";
+    static final String SEGMENT_SUFFIX = ".seg";
+    // Checkpoint of the index
+    static final String INDEX_FILE_NAME = "notes.idx";
+    // Starts every record
+    private static final int RECORD_MAGIC = 0x4E4F5445;
+    // Starts the checkpoint file, followed by its layout version
+    private static final int INDEX_MAGIC = 0x4E494458;
+    private static final int INDEX_VERSION = 2;
+    // Record types; PUT records store highlights as start/length pairs without colors
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte PUT_RUNS = 3;
+    // Like PUT_RUNS, with the content compressed by a NoteCodec
+    private static final byte PUT_PACKED = 4;
+    // Magic and body length before the body, CRC after it
+    private static final int RECORD_OVERHEAD = 12;
+    // A new segment is started once the active one reaches this size
+    private static final long MAX_SEGMENT_SIZE = 256L * 1024 * 1024;
+    // Compaction is considered once the segments hold at least this many bytes
+    private static final long MIN_COMPACTION_SIZE = 4L * 1024 * 1024;
+    // Records appended past a segment's mapping are read from its channel until this many
+    // bytes, or a quarter of the mapping, are unmapped; only then is the segment mapped again
+    private static final long MIN_REMAP_BYTES = 1024 * 1024;
+
+    // Time taken by the forces that make appended records durable
+    static final LatencyHistogram SYNC_LATENCY = new LatencyHistogram();
+
+    // The folder holding the segment files
+    private final File directory;
+    // Open segments by id; records in higher ids are newer
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    // The segment new records are appended to
+    private Segment active;
+    // Latest record of every stored note
+    private final Map<String, Location> index = new HashMap<>();
+    // Bytes of the records the index points to
+    private long liveBytes;
+    // Whether a compaction is queued or running
+    private boolean compacting;
+    // Codec for the content of new records
+    private final NoteCodec codec = NoteCodec.getDefault();
+    // Sizes and times of the contents compressed and decompressed
+    private final NoteCodec.Stats compressionStats = new NoteCodec.Stats();
+    // Runs compactions
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(NoteIOService.namedThreads("segment-compactor", true));
+    // The folder's lock file, claimed while this storage may write
+    private final NoteLocks locks;
+    // Whether another process writes the store, so this one only reads it
+    private final boolean readOnly;
+
+    /**
+     * Opens or creates the segment store of a folder.
+     * @param directory the folder holding the segment files
+     * @throws IOException if the segment files cannot be opened
+     */
+    public SegmentNoteStorage(File directory) throws IOException {
+        this.directory = directory;
+        this.locks = NoteLocks.acquire(directory);
+        boolean claimed;
+        try {
+            claimed = locks.claim();
+        } catch (IOException e) {
+            locks.release();
+            throw e;
+        }
+        this.readOnly = !claimed;
+        try {
+            open();
+        } catch (IOException | RuntimeException e) {
+            if (claimed) {
+                locks.unclaim();
+            }
+            locks.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the segment files and rebuilds the index from the checkpoint and the records after it.
+     */
+    private void open() throws IOException {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                int id = segmentIdOf(file.getName());
+                if (id > 0) {
+                    segments.put(id, new Segment(id, file));
+                }
+            }
+        }
+
+        Map<Integer, Long> covered = readCheckpoint();
+        int lastCovered = covered.isEmpty() ? 0 : covered.keySet().stream().max(Integer::compare).get();
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            Long coveredLength = covered.get(segment.id);
+            if (coveredLength == null && segment.id < lastCovered) {
+                // Left over from a compaction that did not finish or whose inputs were not deleted yet
+                segments.remove(segment.id);
+                if (readOnly) {
+                    segment.close();
+                } else {
+                    segment.delete();
+                }
+            } else {
+                replay(segment, coveredLength == null ? 0 : coveredLength);
+            }
+        }
+        if (segments.isEmpty() && !readOnly) {
+            createSegment(1);
+        }
+        active = segments.isEmpty() ? null : segments.lastEntry().getValue();
+    }
+
+    /**
+     * Checks whether a folder holds a segment store.
+     * @param directory the folder
+     * @return true if there is a segment file or checkpoint in the folder
+     */
+    static boolean exists(File directory) {
+        if (new File(directory, INDEX_FILE_NAME).exists()) {
+            return true;
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (segmentIdOf(file.getName()) > 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the segment id in a segment file name.
+     * @param fileName the file name
+     * @return the id, or 0 if the name is not a segment file name
+     */
+    private static int segmentIdOf(String fileName) {
+        if (!fileName.startsWith(SEGMENT_PREFIX) || !fileName.endsWith(SEGMENT_SUFFIX)) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Creates an empty segment and adds it to the open segments.
+     * @param id the segment id
+     * @return the segment
+     * @throws IOException if the segment file cannot be created
+     */
+    private Segment createSegment(int id) throws IOException {
+        Segment segment = new Segment(id, new File(directory, String.format("%s%08d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX)));
+        segments.put(id, segment);
+        return segment;
+    }
+
+    /**
+     * Applies the records of a segment to the index, starting at an offset.
+     * A record that is cut short or fails its checksum ends the segment; it is truncated there.
+     * @param segment the segment
+     * @param start the offset of the first record to apply
+     * @throws IOException if the segment cannot be read
+     */
+    private void replay(Segment segment, long start) throws IOException {
+        ByteBuffer buffer = segment.map();
+        long offset = start;
+        while (offset + RECORD_OVERHEAD <= segment.size) {
+            buffer.position((int) offset);
+            int magic = buffer.getInt();
+            int bodyLength = buffer.getInt();
+            long recordLength = (long) bodyLength + RECORD_OVERHEAD;
+            if (magic != RECORD_MAGIC || bodyLength <= 0 || offset + recordLength > segment.size) {
+                break;
+            }
+            ByteBuffer body = buffer.duplicate();
+            body.limit((int) offset + 8 + bodyLength);
+            CRC32 crc = new CRC32();
+            crc.update(body.slice());
+            int checksum = buffer.getInt((int) offset + 8 + bodyLength);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            byte type = buffer.get();
+            String title = readString(buffer);
+            Location previous;
+            if (type == PUT || type == PUT_RUNS || type == PUT_PACKED) {
+                long creationMillis = buffer.getLong();
+                previous = index.put(title, new Location(segment.id, offset, (int) recordLength, checksum, creationMillis));
+                liveBytes += recordLength;
+            } else {
+                previous = index.remove(title);
+            }
+            if (previous != null) {
+                liveBytes -= previous.length;
+            }
+            offset += recordLength;
+        }
+        if (offset < segment.size && !readOnly) {
+            segment.truncate(offset);  // Drop a record torn by a crash; in a read-only store it may still be being written
+        }
+    }
+
+    @Override
+    public synchronized List<Note> list() {
+        List<Note> notes = new ArrayList<>(index.size());
+        for (Map.Entry<String, Location> entry : index.entrySet()) {
+            notes.add(new Note(entry.getKey(), null, toDateTime(entry.getValue().creationMillis)));
+        }
+        return notes;
+    }
+
+    @Override
+    public Note load(String title) throws IOException {
+        ByteBuffer record;
+        synchronized (this) {
+            Location location = index.get(title);
+            if (location == null) {
+                return null;
+            }
+            record = segments.get(location.segmentId).read(location.offset, location.length);
+        }
+        NoteMetrics.addBytesRead(record.remaining());
+
+        record.position(8);  // Skip magic and body length
+        byte type = record.get();
+        String storedTitle = readString(record);
+        LocalDateTime creationTime = toDateTime(record.getLong());
+        HighlightModel highlights;
+        if (type == PUT_RUNS || type == PUT_PACKED) {
+            highlights = HighlightModel.decode(readString(record));
+        } else {
+            highlights = new HighlightModel();
+            int highlightCount = record.getInt();
+            for (int i = 0; i < highlightCount; i++) {
+                int start = record.getInt();
+                highlights.add(start, start + record.getInt(), HighlightModel.DEFAULT_RGB);
+            }
+        }
+        String content;
+        if (type == PUT_PACKED) {
+            byte[] packed = new byte[record.getInt()];
+            record.get(packed);
+            ByteBuffer raw = NoteCodec.decode(packed, 0, packed.length, compressionStats);
+            content = new String(raw.array(), raw.arrayOffset() + raw.position(), raw.remaining(), StandardCharsets.UTF_8);
+        } else {
+            content = readString(record);
+        }
+        Note note = new Note(storedTitle, content, creationTime);
+        note.setHighlights(highlights);
+        return note;
+    }
+
+    @Override
+    public void save(Note note) throws IOException {
+        append(note.getTitle(), encode(note), note.getCreationTime());
+    }
+
+    /**
+     * Compares and appends under the storage's monitor; only this process writes the store.
+     */
+    @Override
+    public long saveIfUnchanged(Note note, long expectedStamp) throws IOException {
+        ByteBuffer record = frame(encode(note));
+        Segment segment;
+        long end;
+        long stamp;
+        synchronized (this) {
+            long stored = stamp(note.getTitle());
+            if (stored != expectedStamp) {
+                throw new StaleNoteException(note.getTitle(), stored);
+            }
+            end = put(note.getTitle(), record, note.getCreationTime());
+            segment = active;
+            stamp = stamp(note.getTitle());
+        }
+        segment.sync(end);
+        return stamp;
+    }
+
+    /**
+     * Appends all notes before one sync of the segment they end in.
+     */
+    @Override
+    public void saveAll(List<Note> notes) throws IOException {
+        Segment segment = null;
+        long end = 0;
+        for (Note note : notes) {
+            ByteBuffer record = frame(encode(note));
+            synchronized (this) {
+                end = put(note.getTitle(), record, note.getCreationTime());
+                segment = active;
+            }
+        }
+        if (segment != null) {
+            segment.sync(end);
+        }
+    }
+
+    @Override
+    public NoteCodec.Stats getCompressionStats() {
+        return compressionStats;
+    }
+
+    /**
+     * Encodes the body of the record storing a note, compressing the content if the codec makes it smaller.
+     */
+    private ByteBuffer encode(Note note) {
+        byte[] title = note.getTitle().getBytes(StandardCharsets.UTF_8);
+        byte[] raw = note.getContent().getBytes(StandardCharsets.UTF_8);
+        byte[] content = codec.encode(raw, compressionStats);
+        byte[] highlights = note.getHighlights().encode().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = ByteBuffer.allocate(1 + 4 + title.length + 8 + 4 + highlights.length + 4 + content.length);
+        body.put(content == raw ? PUT_RUNS : PUT_PACKED);
+        body.putInt(title.length).put(title);
+        body.putLong(toEpochMillis(note.getCreationTime()));
+        body.putInt(highlights.length).put(highlights);
+        body.putInt(content.length).put(content);
+        return body;
+    }
+
+    @Override
+    public boolean delete(String title) throws IOException {
+        synchronized (this) {
+            if (!index.containsKey(title)) {
+                return false;
+            }
+        }
+        byte[] titleBytes = title.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = ByteBuffer.allocate(1 + 4 + titleBytes.length);
+        body.put(DELETE);
+        body.putInt(titleBytes.length).put(titleBytes);
+        append(title, body, null);
+        return true;
+    }
+
+    /**
+     * Frames a record body, appends it to the active segment and points the index at it.
+     * @param title the title of the note
+     * @param body the record body
+     * @param creationTime the creation time of a saved note, or null for a tombstone
+     * @throws IOException if the record cannot be written
+     */
+    private void append(String title, ByteBuffer body, LocalDateTime creationTime) throws IOException {
+        ByteBuffer record = frame(body);
+        Segment segment;
+        long end;
+        synchronized (this) {
+            end = put(title, record, creationTime);
+            segment = active;
+        }
+        segment.sync(end);
+    }
+
+    /**
+     * Adds the magic, length and checksum around a record body.
+     * @param body the record body, ready to be flipped
+     * @return the record, ready to be written
+     */
+    private static ByteBuffer frame(ByteBuffer body) {
+        body.flip();
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        int checksum = (int) crc.getValue();
+        ByteBuffer record = ByteBuffer.allocate(body.remaining() + RECORD_OVERHEAD);
+        record.putInt(RECORD_MAGIC).putInt(body.remaining()).put(body).putInt(checksum);
+        record.flip();
+        NoteMetrics.addBytesWritten(record.remaining());
+        return record;
+    }
+
+    /**
+     * Appends a record to the active segment, without syncing it, and points the index at it.
+     * A full segment is synced and a new one started first.
+     * @param title the title of the note
+     * @param record the framed record
+     * @param creationTime the creation time of a saved note, or null for a tombstone
+     * @return the end of the record in the active segment
+     * @throws IOException if the record cannot be written
+     */
+    private synchronized long put(String title, ByteBuffer record, LocalDateTime creationTime) throws IOException {
+        if (readOnly) {
+            throw new IOException("The notes in " + directory + " are being written by another process");
+        }
+        if (active.size > 0 && active.size + record.remaining() > MAX_SEGMENT_SIZE) {
+            active.sync(active.size);  // Later syncs only cover the new segment
+            active = createSegment(active.id + 1);
+        }
+        int length = record.remaining();
+        int checksum = record.getInt(record.limit() - 4);
+        long offset = active.append(record);
+        Location previous = creationTime != null
+                ? index.put(title, new Location(active.id, offset, length, checksum, toEpochMillis(creationTime)))
+                : index.remove(title);
+        if (creationTime != null) {
+            liveBytes += length;
+        }
+        if (previous != null) {
+            liveBytes -= previous.length;
+        }
+        maybeCompact();
+        return offset + length;
+    }
+
+    /**
+     * Schedules a compaction when more than half of the stored bytes are superseded records.
+     */
+    private void maybeCompact() {
+        long totalBytes = 0;
+        for (Segment segment : segments.values()) {
+            totalBytes += segment.size;
+        }
+        if (!compacting && totalBytes >= MIN_COMPACTION_SIZE && liveBytes * 2 < totalBytes) {
+            compacting = true;
+            compactor.execute(() -> {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    synchronized (this) {
+                        compacting = false;
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Copies the live records of all segments except a fresh active one into a new segment
+     * and deletes the old segments. Saves continue in the fresh active segment meanwhile.
+     * @throws IOException if the segments cannot be rewritten
+     */
+    void compact() throws IOException {
+        int compactedId;
+        List<Segment> sealed;
+        Map<String, Location> live = new HashMap<>();
+        synchronized (this) {
+            compactedId = active.id + 1;
+            sealed = new ArrayList<>(segments.values());
+            active = createSegment(active.id + 2);
+            live.putAll(index);
+        }
+
+        Segment compacted = new Segment(compactedId, new File(directory, String.format("%s%08d%s", SEGMENT_PREFIX, compactedId, SEGMENT_SUFFIX)));
+        Map<String, Location> moved = new HashMap<>();
+        Map<Location, String> originals = new HashMap<>();
+        for (Map.Entry<String, Location> entry : live.entrySet()) {
+            Location location = entry.getValue();
+            Segment segment = segmentById(sealed, location.segmentId);
+            if (segment != null) {
+                long offset = compacted.append(segment.read(location.offset, location.length));
+                moved.put(entry.getKey(), new Location(compactedId, offset, location.length, location.checksum, location.creationMillis));
+                originals.put(location, entry.getKey());
+            }
+        }
+        compacted.force();
+
+        synchronized (this) {
+            for (Map.Entry<Location, String> original : originals.entrySet()) {
+                String title = original.getValue();
+                if (index.get(title) == original.getKey()) {
+                    index.put(title, moved.get(title));  // Not saved again since the compaction started
+                }
+            }
+            for (Segment segment : sealed) {
+                segments.remove(segment.id);
+            }
+            segments.put(compactedId, compacted);
+            writeCheckpoint();
+        }
+        for (Segment segment : sealed) {
+            segment.delete();
+        }
+    }
+
+    /**
+     * Finds a segment in a list by id.
+     */
+    private static Segment segmentById(List<Segment> list, int id) {
+        for (Segment segment : list) {
+            if (segment.id == id) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Combines the length and checksum of the latest record of a note, which stay the same when
+     * compaction moves the record.
+     */
+    @Override
+    public synchronized long stamp(String title) {
+        Location location = index.get(title);
+        return location == null ? -1 : ((long) location.length << 32) | (location.checksum & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Waits for a running compaction, then writes the checkpoint and closes the segment files
+     * and gives up the claim on the store.
+     */
+    @Override
+    public void close() throws IOException {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            synchronized (this) {
+                if (!readOnly) {
+                    writeCheckpoint();
+                }
+                for (Segment segment : segments.values()) {
+                    segment.close();
+                }
+            }
+        } finally {
+            if (!readOnly) {
+                locks.unclaim();
+            }
+            locks.release();
+        }
+    }
+
+    /**
+     * Writes the index and the length of every segment it covers to notes.idx.
+     * @throws IOException if the checkpoint cannot be written
+     */
+    private void writeCheckpoint() throws IOException {
+        int size = 16 + 12 * segments.size();
+        List<byte[]> titles = new ArrayList<>(index.size());
+        for (String title : index.keySet()) {
+            byte[] bytes = title.getBytes(StandardCharsets.UTF_8);
+            titles.add(bytes);
+            size += 4 + bytes.length + 4 + 8 + 4 + 4 + 8;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(INDEX_MAGIC).putInt(INDEX_VERSION);
+        buffer.putInt(segments.size());
+        for (Segment segment : segments.values()) {
+            buffer.putInt(segment.id).putLong(segment.size);
+        }
+        buffer.putInt(index.size());
+        int i = 0;
+        for (Location location : index.values()) {
+            byte[] title = titles.get(i++);
+            buffer.putInt(title.length).put(title);
+            buffer.putInt(location.segmentId).putLong(location.offset).putInt(location.length).putInt(location.checksum).putLong(location.creationMillis);
+        }
+
+        DurableWriter.getDefault().write(new File(directory, INDEX_FILE_NAME).toPath(), buffer.array());
+    }
+
+    /**
+     * Reads the checkpoint through a memory mapping and fills the index from it.
+     * @return the covered length of every segment in the checkpoint, empty if there is no usable checkpoint
+     */
+    private Map<Integer, Long> readCheckpoint() {
+        Map<Integer, Long> covered = new HashMap<>();
+        File indexFile = new File(directory, INDEX_FILE_NAME);
+        if (!indexFile.exists()) {
+            return covered;
+        }
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != INDEX_MAGIC || buffer.getInt() != INDEX_VERSION) {
+                return covered;
+            }
+            int segmentCount = buffer.getInt();
+            for (int i = 0; i < segmentCount; i++) {
+                int id = buffer.getInt();
+                long length = buffer.getLong();
+                Segment segment = segments.get(id);
+                if (segment == null || segment.size < length) {
+                    covered.clear();
+                    return covered;  // The segments changed outside the store; replay them all
+                }
+                covered.put(id, length);
+            }
+            int noteCount = buffer.getInt();
+            for (int i = 0; i < noteCount; i++) {
+                String title = readString(buffer);
+                Location location = new Location(buffer.getInt(), buffer.getLong(), buffer.getInt(), buffer.getInt(), buffer.getLong());
+                index.put(title, location);
+                liveBytes += location.length;
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            index.clear();
+            liveBytes = 0;
+            covered.clear();
+        }
+        return covered;
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string.
+     */
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static LocalDateTime toDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    private static long toEpochMillis(LocalDateTime dateTime) {
+        return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Where the latest record of a note is stored.
+     */
+    private static class Location {
+        private final int segmentId;
+        private final long offset;
+        private final int length;
+        private final int checksum;
+        private final long creationMillis;
+
+        Location(int segmentId, long offset, int length, int checksum, long creationMillis) {
+            this.segmentId = segmentId;
+            this.offset = offset;
+            this.length = length;
+            this.checksum = checksum;
+            this.creationMillis = creationMillis;
+        }
+    }
+
+    /**
+     * One segment file. Records are appended through the file channel and read through a
+     * memory mapping. Records appended since the mapping was made are read from the channel,
+     * and the mapping is renewed only once enough has been appended past it.
+     */
+    private static class Segment {
+        private final int id;
+        private final File file;
+        private final FileChannel channel;
+        private long size;
+        private MappedByteBuffer mapping;
+        // Serializes forces; syncedSize is the length known to be on disk
+        private final Object syncLock = new Object();
+        private long syncedSize;
+
+        Segment(int id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.size = channel.size();
+            this.syncedSize = size;
+        }
+
+        synchronized long append(ByteBuffer record) throws IOException {
+            long offset = size;
+            while (record.hasRemaining()) {
+                size += channel.write(record, size);
+            }
+            return offset;
+        }
+
+        synchronized ByteBuffer map() throws IOException {
+            if (mapping == null || mapping.capacity() < size) {
+                mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            return mapping.duplicate();
+        }
+
+        ByteBuffer read(long offset, int length) throws IOException {
+            MappedByteBuffer current;
+            synchronized (this) {
+                current = mapping;
+                if (current == null || offset + length > current.capacity()) {
+                    if (current != null && size - current.capacity() < Math.max(MIN_REMAP_BYTES, current.capacity() / 4)) {
+                        current = null;  // Read from the channel below
+                    } else {
+                        current = mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    }
+                }
+            }
+            if (current == null) {
+                ByteBuffer buffer = ByteBuffer.allocate(length);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, offset + buffer.position()) < 0) {
+                        throw new EOFException("Record ends past the end of " + file);
+                    }
+                }
+                buffer.flip();
+                return buffer;
+            }
+            ByteBuffer buffer = current.duplicate();
+            buffer.position((int) offset);
+            buffer.limit((int) offset + length);
+            return buffer.slice();
+        }
+
+        /**
+         * Forces the segment to disk up to an offset. Saves that wait here while another save
+         * forces the segment are usually covered by that force and return without their own.
+         */
+        void sync(long end) throws IOException {
+            synchronized (syncLock) {
+                if (syncedSize >= end) {
+                    return;
+                }
+                long start = System.nanoTime();
+                long target;
+                synchronized (this) {
+                    target = size;
+                }
+                channel.force(false);
+                syncedSize = target;
+                SYNC_LATENCY.record(System.nanoTime() - start);
+            }
+        }
+
+        synchronized void truncate(long length) throws IOException {
+            channel.truncate(length);
+            size = length;
+            mapping = null;
+        }
+
+        void force() throws IOException {
+            channel.force(false);
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+
+        void delete() throws IOException {
+            channel.close();
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package Prototype;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a note is saved over a version other than the one the save was based on,
+ * because another window or process saved the note in between.
+ */
+public class StaleNoteException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final String title;
+    private final long storedStamp;
+
+    /**
+     * Constructs the exception.
+     * @param title the title of the note
+     * @param storedStamp the stamp of the version stored now, or -1 if the note was deleted
+     */
+    public StaleNoteException(String title, long storedStamp) {
+        super("Note " + title + " was changed by another editor");
+        this.title = title;
+        this.storedStamp = storedStamp;
+    }
+
+    /**
+     * Returns the title of the note.
+     * @return the title
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Returns the stamp of the stored version, which a save meant to replace it can expect.
+     * @return the stamp, or -1 if the note is no longer stored
+     */
+    public long getStoredStamp() {
+        return storedStamp;
+    }
+}
@@ -0,0 +1,99 @@
+package Prototype;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Copies the notes of a folder from one storage to another.
+ * Run it once per folder to move legacy .properties/.txt notes into a segment store, or back.
+ */
+public class StorageMigrator {
+    // Notes read and written together
+    static final int BATCH_SIZE = 64;
+
+    /**
+     * Copies every note, with its content and highlights, from one storage to another.
+     * Notes are copied in batches of BATCH_SIZE on the common fork-join pool, each batch
+     * written with one saveAll.
+     * @param from the storage to read
+     * @param to the storage to write
+     * @return the number of notes copied
+     * @throws IOException if a note cannot be read or written
+     */
+    public static int migrate(NoteStorage from, NoteStorage to) throws IOException {
+        List<Note> listed = from.list();
+        int batches = (listed.size() + BATCH_SIZE - 1) / BATCH_SIZE;
+        try {
+            return IntStream.range(0, batches).parallel().map(batch -> {
+                List<Note> notes = new ArrayList<>(BATCH_SIZE);
+                try {
+                    for (Note note : listed.subList(batch * BATCH_SIZE, Math.min(listed.size(), (batch + 1) * BATCH_SIZE))) {
+                        Note loaded = from.load(note.getTitle());
+                        if (loaded != null) {
+                            notes.add(loaded);
+                        }
+                    }
+                    to.saveAll(notes);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return notes.size();
+            }).sum();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Migrates a folder to the segment store or back to the legacy files.
+     * The legacy files are kept after migrating to the segment store. The segment files are
+     * deleted after migrating back, since a folder holding them always opens as a segment store.
+     * @param directory the folder
+     * @param toSegments true to migrate to the segment store, false to migrate to the legacy files
+     * @return the number of notes copied
+     * @throws IOException if the notes cannot be migrated
+     */
+    public static int migrate(File directory, boolean toSegments) throws IOException {
+        int count;
+        try (NoteStorage legacy = new LegacyNoteStorage(directory);
+             NoteStorage segments = new SegmentNoteStorage(directory)) {
+            count = toSegments ? migrate(legacy, segments) : migrate(segments, legacy);
+        }
+        if (!toSegments) {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    String fileName = file.getName();
+                    if (fileName.equals(SegmentNoteStorage.INDEX_FILE_NAME)
+                            || (fileName.startsWith(SegmentNoteStorage.SEGMENT_PREFIX) && fileName.endsWith(SegmentNoteStorage.SEGMENT_SUFFIX))) {
+                        Files.delete(file.toPath());
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Migrates the folder given on the command line.
+     * @param args the folder, then "segment" or "legacy"
+     */
+    public static void main(String[] args) {
+        if (args.length != 2 || !(args[1].equals("segment") || args[1].equals("legacy"))) {
+            System.err.println("Usage: StorageMigrator <folder> segment|legacy");
+            System.exit(2);
+        }
+        try {
+            int count = migrate(new File(args[0]), args[1].equals("segment"));
+            System.out.println("Migrated " + count + " notes to " + args[1] + " storage");
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package Prototype;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Syncs a folder with a folder served by a SyncServer.
+ * Both manifests are compared with the versions the two sides agreed on at the last sync:
+ * a note changed on one side only is copied to the other, a note deleted on one side and
+ * unchanged on the other is deleted there too, and a note changed on both sides is a
+ * conflict. The local version of a conflicting note is kept and pushed, and the remote
+ * version is kept beside it as a new note named "&lt;title&gt; (conflict)", which the next
+ * sync sends back, so neither edit is lost. Notes are sent as content-defined chunks, and only the chunks the
+ * receiving copy lacks travel, so an edit to a large note sends a few kilobytes.
+ * Titles the server sends are checked before they name a note here.
+ */
+public class SyncClient {
+    // Appended to the title of the remote version of a conflicting note
+    static final String CONFLICT_SUFFIX = " (conflict)";
+
+    private final Folder folder;
+    private final SyncManifest manifest;
+    // The secret the server asks for, or null
+    private final byte[] secret;
+
+    /**
+     * Constructs a client for a folder, for servers without a secret.
+     * @param folder the local folder
+     */
+    public SyncClient(Folder folder) {
+        this(folder, null);
+    }
+
+    /**
+     * Constructs a client for a folder.
+     * @param folder the local folder
+     * @param secret the secret the server was started with, or null
+     */
+    public SyncClient(Folder folder, byte[] secret) {
+        this.folder = folder;
+        this.manifest = SyncManifest.of(folder);
+        this.secret = secret == null ? null : secret.clone();
+    }
+
+    /**
+     * Syncs the folder with a server.
+     * @param address the address of the server
+     * @return what was copied, deleted and found in conflict
+     * @throws IOException if the connection fails; notes synced before the failure stay synced
+     */
+    public Result sync(InetSocketAddress address) throws IOException {
+        Result result = new Result();
+        Map<String, SyncManifest.Version> local = manifest.current();
+        try (Socket socket = new Socket()) {
+            socket.connect(address, SyncProtocol.timeoutMillis());
+            socket.setSoTimeout(SyncProtocol.timeoutMillis());  // A server that stops answering fails the sync
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new CountingInputStream(socket.getInputStream(), result)));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CountingOutputStream(socket.getOutputStream(), result)));
+            out.writeInt(SyncProtocol.MAGIC);
+            out.writeInt(SyncProtocol.VERSION);
+            out.flush();
+            if (in.readInt() != SyncProtocol.MAGIC || in.readInt() != SyncProtocol.VERSION) {
+                throw new IOException("Not a note sync server");
+            }
+            byte[] challenge = new byte[SyncProtocol.CHALLENGE_BYTES];
+            in.readFully(challenge);
+            out.write(SyncProtocol.answer(secret, challenge));
+            out.flush();
+            if (in.readByte() != SyncProtocol.OK) {
+                throw new IOException("The sync server refused the secret");
+            }
+            String peer = in.readUTF();
+            Map<String, byte[]> bases = manifest.bases(peer);
+            Map<String, byte[]> remote = readManifest(in, out);
+
+            TreeSet<String> titles = new TreeSet<>(local.keySet());
+            titles.addAll(remote.keySet());
+            titles.addAll(bases.keySet());
+            TreeSet<String> written = new TreeSet<>();  // Conflict copies saved during this sync
+            for (String title : titles) {
+                if (written.contains(title)) {
+                    continue;
+                }
+                byte[] mine = local.containsKey(title) ? local.get(title).getDigest() : null;
+                byte[] theirs = remote.get(title);
+                byte[] base = bases.get(title);
+                if (Arrays.equals(mine, theirs)) {
+                    agree(bases, title, mine);
+                } else if (Arrays.equals(mine, base) || mine == null && !Arrays.equals(theirs, base)) {
+                    // Changed there only, or deleted here and changed there
+                    long stamp = mine == null ? -1 : local.get(title).getStamp();
+                    if (theirs == null) {
+                        deleteLocal(title);
+                        result.deletedHere.add(title);
+                    } else if (pull(title, title, stamp, in, out)) {
+                        result.pulled.add(title);
+                    } else {
+                        result.conflicts.add(title);  // Saved here during the sync; the next sync resolves it
+                        continue;
+                    }
+                    agree(bases, title, theirs);
+                } else if (Arrays.equals(theirs, base) || theirs == null) {
+                    // Changed here only, or changed here and deleted there
+                    if (mine == null) {
+                        if (send(SyncProtocol.DELETE, title, in, out, theirs)) {
+                            result.deletedThere.add(title);
+                            agree(bases, title, null);
+                        } else {
+                            result.conflicts.add(title);
+                        }
+                    } else if (push(title, theirs, in, out)) {
+                        result.pushed.add(title);
+                        agree(bases, title, mine);
+                    } else {
+                        result.conflicts.add(title);  // Changed there since the manifest; the next sync resolves it
+                    }
+                } else {
+                    // Changed on both sides: keep ours, add theirs as a new note, then ours replaces theirs there
+                    result.conflicts.add(title);
+                    if (!pull(title, title + CONFLICT_SUFFIX, folder.getStorage().stamp(title + CONFLICT_SUFFIX), in, out)) {
+                        continue;  // The conflict copy was saved here during the sync; theirs is not kept yet, so ours is not pushed
+                    }
+                    written.add(title + CONFLICT_SUFFIX);  // Sent to the server by the next sync
+                    if (push(title, theirs, in, out)) {
+                        agree(bases, title, mine);
+                    }
+                }
+            }
+            out.writeByte(SyncProtocol.BYE);
+            out.flush();
+        } finally {
+            manifest.save();
+        }
+        return result;
+    }
+
+    private static void agree(Map<String, byte[]> bases, String title, byte[] digest) {
+        if (digest == null) {
+            bases.remove(title);
+        } else {
+            bases.put(title, digest);
+        }
+    }
+
+    private static Map<String, byte[]> readManifest(DataInputStream in, DataOutputStream out) throws IOException {
+        out.writeByte(SyncProtocol.MANIFEST);
+        out.writeUTF("");
+        out.flush();
+        SyncProtocol.readStatus(in);
+        int count = SyncProtocol.readLength(in, Integer.MAX_VALUE);
+        Map<String, byte[]> remote = new HashMap<>();  // Grows with the entries actually sent
+        for (int i = 0; i < count; i++) {
+            remote.put(SyncProtocol.readTitle(in), SyncManifest.readId(in));
+        }
+        return remote;
+    }
+
+    /**
+     * Copies the server's version of a note, fetching only the chunks the local copy lacks.
+     * @param title the title on the server
+     * @param saveAs the title to save it under here
+     * @param expectedStamp the stamp of the local version it replaces, or -1 if there is none
+     * @return false if the local note was saved since, in which case it is left alone
+     */
+    private boolean pull(String title, String saveAs, long expectedStamp, DataInputStream in, DataOutputStream out) throws IOException {
+        out.writeByte(SyncProtocol.CHUNKS);
+        out.writeUTF(title);
+        out.flush();
+        SyncProtocol.readStatus(in);
+        if (!in.readBoolean()) {
+            return true;  // Deleted there since the manifest
+        }
+        SyncProtocol.Payload incoming = SyncProtocol.Payload.read(in);
+        Note localNote = folder.loadNote(title);
+        SyncProtocol.Payload mine = localNote == null || localNote.getContent() == null ? null : SyncProtocol.Payload.of(localNote);
+        int[] missing = incoming.missing(mine);
+        byte[] sent = new byte[0];
+        if (missing.length > 0) {
+            out.writeByte(SyncProtocol.FETCH);
+            out.writeUTF(title);
+            SyncProtocol.writeIndexes(out, missing);
+            out.flush();
+            SyncProtocol.readStatus(in);
+            sent = SyncProtocol.readBlock(in);
+        }
+        Note note = incoming.assemble(mine, saveAs, sent);
+        try {
+            folder.getStorage().saveIfUnchanged(note, expectedStamp);
+        } catch (StaleNoteException e) {
+            return false;
+        }
+        folder.addNote(new Note(saveAs, null, note.getCreationTime()));
+        manifest.written(saveAs, incoming.digest);
+        return true;
+    }
+
+    /**
+     * Sends the local version of a note, if the server still has the version expected.
+     * @return false if the server's version changed since its manifest
+     */
+    private boolean push(String title, byte[] expected, DataInputStream in, DataOutputStream out) throws IOException {
+        Note note = folder.loadNote(title);
+        if (note == null) {
+            return false;
+        }
+        SyncProtocol.Payload payload = SyncProtocol.Payload.of(note);
+        out.writeByte(SyncProtocol.PUT);
+        out.writeUTF(title);
+        out.writeBoolean(expected != null);
+        if (expected != null) {
+            out.write(expected);
+        }
+        payload.write(out);
+        out.flush();
+        if (SyncProtocol.readStatus(in) != SyncProtocol.OK) {
+            return false;
+        }
+        SyncProtocol.writeBlock(out, payload.chunks(SyncProtocol.readIndexes(in, payload.ids.length)));
+        out.flush();
+        return SyncProtocol.readStatus(in) == SyncProtocol.OK;
+    }
+
+    /**
+     * Sends a request that carries only an expected version and is answered with a status.
+     */
+    private static boolean send(int op, String title, DataInputStream in, DataOutputStream out, byte[] expected) throws IOException {
+        out.writeByte(op);
+        out.writeUTF(title);
+        out.write(expected);
+        out.flush();
+        return SyncProtocol.readStatus(in) == SyncProtocol.OK;
+    }
+
+    private void deleteLocal(String title) throws IOException {
+        folder.getStorage().delete(title);
+        folder.removeNote(title);
+        manifest.written(title, null);
+    }
+
+    /**
+     * What a sync did.
+     */
+    public static class Result {
+        private final List<String> pulled = new ArrayList<>();
+        private final List<String> pushed = new ArrayList<>();
+        private final List<String> deletedHere = new ArrayList<>();
+        private final List<String> deletedThere = new ArrayList<>();
+        private final List<String> conflicts = new ArrayList<>();
+        private long bytesSent;
+        private long bytesReceived;
+
+        /**
+         * Returns the notes copied from the server.
+         * @return the titles
+         */
+        public List<String> getPulled() {
+            return Collections.unmodifiableList(pulled);
+        }
+
+        /**
+         * Returns the notes copied to the server.
+         * @return the titles
+         */
+        public List<String> getPushed() {
+            return Collections.unmodifiableList(pushed);
+        }
+
+        /**
+         * Returns the notes deleted here because they were deleted on the server.
+         * @return the titles
+         */
+        public List<String> getDeletedHere() {
+            return Collections.unmodifiableList(deletedHere);
+        }
+
+        /**
+         * Returns the notes deleted on the server because they were deleted here.
+         * @return the titles
+         */
+        public List<String> getDeletedThere() {
+            return Collections.unmodifiableList(deletedThere);
+        }
+
+        /**
+         * Returns the notes changed on both sides.
+         * @return the titles
+         */
+        public List<String> getConflicts() {
+            return Collections.unmodifiableList(conflicts);
+        }
+
+        /**
+         * Returns the bytes sent to the server.
+         * @return the byte count
+         */
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        /**
+         * Returns the bytes received from the server.
+         * @return the byte count
+         */
+        public long getBytesReceived() {
+            return bytesReceived;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("pulled %d, pushed %d, deleted %d here and %d there, %d conflicts; sent %d bytes, received %d bytes",
+                    pulled.size(), pushed.size(), deletedHere.size(), deletedThere.size(), conflicts.size(), bytesSent, bytesReceived);
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private final Result result;
+
+        CountingInputStream(InputStream in, Result result) {
+            super(in);
+            this.result = result;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                result.bytesReceived++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                result.bytesReceived += count;
+            }
+            return count;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final Result result;
+
+        CountingOutputStream(OutputStream out, Result result) {
+            super(out);
+            this.result = result;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            result.bytesSent++;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            out.write(buffer, offset, length);
+            result.bytesSent += length;
+        }
+    }
+}
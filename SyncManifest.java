@@ -0,0 +1,235 @@
+package Prototype;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The sync state of a folder, kept in sync.state next to the notes.
+ * Holds the version digest of every note, recomputed only for notes whose storage stamp
+ * changed, the id the folder is known by to its peers, and for every peer the versions
+ * both sides agreed on at the last sync. A note whose digest differs from that base was
+ * changed on this side since; one changed on both sides is a conflict.
+ * There is one manifest per open folder, kept by the folder and shared by the sync server
+ * and clients.
+ */
+public class SyncManifest {
+    static final String STATE_FILE = "sync.state";
+    // Starts the state file, followed by its layout version
+    private static final int STATE_MAGIC = 0x4E53594E;
+    private static final int STATE_VERSION = 1;
+
+    private final Folder folder;
+    // The id peers know this folder by
+    private String id;
+    // Digest of every note, with the stamp it was computed for
+    private final Map<String, Version> versions = new ConcurrentHashMap<>();
+    // Agreed digests by peer id, then title
+    private final Map<String, Map<String, byte[]>> bases = new HashMap<>();
+
+    private SyncManifest(Folder folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Returns the manifest of a folder, reading its state file the first time.
+     * @param folder the folder
+     * @return the manifest
+     */
+    public static SyncManifest of(Folder folder) {
+        return folder.getSyncManifest();
+    }
+
+    /**
+     * Reads the manifest of a folder from its state file, for the folder to keep.
+     * @param folder the folder
+     * @return the manifest
+     */
+    static SyncManifest load(Folder folder) {
+        SyncManifest manifest = new SyncManifest(folder);
+        manifest.read();
+        return manifest;
+    }
+
+    /**
+     * Returns the id peers know this folder by.
+     * @return the id, made once per folder
+     */
+    public synchronized String getId() {
+        return id;
+    }
+
+    /**
+     * Brings the digests up to date with the stored notes, reading the changed notes in parallel.
+     * @return the current version of every note, by title
+     * @throws IOException if a note cannot be read
+     */
+    public Map<String, Version> current() throws IOException {
+        NoteStorage storage = folder.getStorage();
+        List<String> stale = new ArrayList<>();
+        for (String title : folder.getTitles()) {
+            Version version = versions.get(title);
+            if (version == null || version.stamp != storage.stamp(title)) {
+                stale.add(title);
+            }
+        }
+        versions.keySet().retainAll(folder.getTitles());
+        try {
+            stale.parallelStream().forEach(title -> {
+                try {
+                    long stamp = storage.stamp(title);
+                    Note note = storage.load(title);
+                    if (note != null) {
+                        versions.put(title, new Version(stamp, Chunker.digest(note)));
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Map<String, Version> current = new HashMap<>(versions);
+        current.keySet().retainAll(folder.getTitles());
+        return current;
+    }
+
+    /**
+     * Records the version of a note just written by a sync, so it is not read again.
+     * @param title the title of the note
+     * @param digest its digest
+     */
+    void written(String title, byte[] digest) {
+        long stamp = folder.getStorage().stamp(title);
+        if (stamp == -1) {
+            versions.remove(title);
+        } else {
+            versions.put(title, new Version(stamp, digest));
+        }
+    }
+
+    /**
+     * Returns the versions both sides agreed on at the last sync with a peer.
+     * @param peer the id of the peer's folder
+     * @return the digests by title; changes are kept by save
+     */
+    public synchronized Map<String, byte[]> bases(String peer) {
+        return bases.computeIfAbsent(peer, p -> new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Saves the state file.
+     * @throws IOException if it cannot be written
+     */
+    public synchronized void save() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(STATE_MAGIC);
+            out.writeInt(STATE_VERSION);
+            out.writeUTF(id);
+            Map<String, Version> snapshot = new HashMap<>(versions);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, Version> entry : snapshot.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().stamp);
+                out.write(entry.getValue().digest);
+            }
+            out.writeInt(bases.size());
+            for (Map.Entry<String, Map<String, byte[]>> peer : bases.entrySet()) {
+                out.writeUTF(peer.getKey());
+                Map<String, byte[]> agreed = new HashMap<>(peer.getValue());
+                out.writeInt(agreed.size());
+                for (Map.Entry<String, byte[]> entry : agreed.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.write(entry.getValue());
+                }
+            }
+        }
+        DurableWriter.getDefault().write(new File(folder.getName(), STATE_FILE).toPath(), bytes.toByteArray());
+    }
+
+    /**
+     * Reads the state file. A missing or damaged file starts over with a new id, so every
+     * note is compared in full at the next sync.
+     */
+    private void read() {
+        File file = new File(folder.getName(), STATE_FILE);
+        try (InputStream stream = Files.newInputStream(file.toPath());
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+            if (in.readInt() == STATE_MAGIC && in.readInt() == STATE_VERSION) {
+                id = in.readUTF();
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    String title = in.readUTF();
+                    long stamp = in.readLong();
+                    versions.put(title, new Version(stamp, readId(in)));
+                }
+                int peers = in.readInt();
+                for (int i = 0; i < peers; i++) {
+                    Map<String, byte[]> agreed = bases(in.readUTF());
+                    int agreedCount = in.readInt();
+                    for (int j = 0; j < agreedCount; j++) {
+                        agreed.put(in.readUTF(), readId(in));
+                    }
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // Never synced
+        } catch (IOException e) {
+            e.printStackTrace();
+            versions.clear();
+            bases.clear();
+        }
+        if (id == null) {
+            id = UUID.randomUUID().toString();
+        }
+    }
+
+    static byte[] readId(DataInputStream in) throws IOException {
+        byte[] id = new byte[Chunker.ID_BYTES];
+        in.readFully(id);
+        return id;
+    }
+
+    /**
+     * The version of a stored note.
+     */
+    public static class Version {
+        private final long stamp;
+        private final byte[] digest;
+
+        Version(long stamp, byte[] digest) {
+            this.stamp = stamp;
+            this.digest = digest;
+        }
+
+        /**
+         * Returns the storage stamp of the note the digest was computed for.
+         * @return the stamp
+         */
+        long getStamp() {
+            return stamp;
+        }
+
+        /**
+         * Returns the digest of the note's content and highlights.
+         * @return the digest
+         */
+        public byte[] getDigest() {
+            return digest;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package Prototype;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The messages SyncServer and SyncClient exchange.
+ * In the handshake the server sends a random challenge, which the client answers with its
+ * HMAC under the shared secret, so only peers knowing the secret are served. The client
+ * then sends requests, each an op byte, a note title (empty for MANIFEST) and the fields of
+ * the request, and the server answers each with a status byte and the answer's fields
+ * before the next. A note travels as a header, holding its creation time, highlights,
+ * digest and the ids and lengths of its content chunks, followed by only the chunks the
+ * receiver does not already have in its own copy of the note. Chunk bytes travel as one
+ * deflated block per message. Every length and index read is checked before it is used,
+ * and a request that breaks the protocol is answered with FAILED and the connection closed.
+ */
+final class SyncProtocol {
+    static final int MAGIC = 0x4E535943;
+    static final int VERSION = 2;
+    // Bytes of the handshake challenge and of the answer to it
+    static final int CHALLENGE_BYTES = 32;
+    // Largest note, highlights or chunk block a peer may send
+    static final int MAX_NOTE_BYTES = 256 * 1024 * 1024;
+    // System property with how long either peer waits to connect or for the other to send, in milliseconds
+    static final String TIMEOUT_PROPERTY = "notes.sync.timeoutMillis";
+    private static final int DEFAULT_TIMEOUT_MILLIS = 30_000;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // Requests
+    static final int BYE = 0;
+    static final int MANIFEST = 1;
+    static final int CHUNKS = 2;
+    static final int FETCH = 3;
+    static final int PUT = 4;
+    static final int DELETE = 5;
+
+    // Answers
+    static final int OK = 0;
+    static final int CONFLICT = 1;
+    static final int FAILED = 2;
+
+    private SyncProtocol() {
+    }
+
+    /**
+     * Returns how long a peer waits to connect or for the other peer to send, so a peer
+     * that stops answering cannot hold a connection open forever.
+     * @return the timeout in milliseconds
+     */
+    static int timeoutMillis() {
+        return Integer.getInteger(TIMEOUT_PROPERTY, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[readLength(in, MAX_NOTE_BYTES)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a note title and rejects one that could name a file outside the folder.
+     */
+    static String readTitle(DataInputStream in) throws IOException {
+        String title = in.readUTF();
+        try {
+            return NoteStorage.checkTitle(title);
+        } catch (IOException e) {
+            throw new ProtocolException(e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a length or count and checks it is between 0 and a limit.
+     * @throws ProtocolException if it is not
+     */
+    static int readLength(DataInputStream in, int limit) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > limit) {
+            throw new ProtocolException("Sync length " + length + " is out of range");
+        }
+        return length;
+    }
+
+    /**
+     * Reads the status byte that starts an answer.
+     * @return OK or CONFLICT
+     * @throws IOException if the peer answered FAILED or something else
+     */
+    static int readStatus(DataInputStream in) throws IOException {
+        int status = in.readByte();
+        if (status != OK && status != CONFLICT) {
+            throw new ProtocolException("The sync peer refused the request");
+        }
+        return status;
+    }
+
+    /**
+     * Makes a random handshake challenge.
+     */
+    static byte[] challenge() {
+        byte[] challenge = new byte[CHALLENGE_BYTES];
+        RANDOM.nextBytes(challenge);
+        return challenge;
+    }
+
+    /**
+     * Answers a handshake challenge: its HMAC under the shared secret, or zeros without one.
+     * @param secret the shared secret, or null
+     * @param challenge the challenge
+     * @return CHALLENGE_BYTES bytes
+     */
+    static byte[] answer(byte[] secret, byte[] challenge) {
+        if (secret == null) {
+            return new byte[CHALLENGE_BYTES];
+        }
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(secret, MAC_ALGORITHM));
+            return mac.doFinal(challenge);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(MAC_ALGORITHM + " is not available", e);
+        }
+    }
+
+    /**
+     * Writes chunk bytes as one compressed block.
+     */
+    static void writeBlock(DataOutputStream out, byte[] raw) throws IOException {
+        byte[] encoded = NoteCodec.DEFLATE.encode(raw, null);
+        out.writeInt(encoded.length);
+        out.write(encoded);
+    }
+
+    static byte[] readBlock(DataInputStream in) throws IOException {
+        byte[] encoded = new byte[readLength(in, MAX_NOTE_BYTES)];
+        in.readFully(encoded);
+        int rawLength = NoteCodec.decodedLength(encoded, 0, encoded.length);
+        if (rawLength < 0 || rawLength > MAX_NOTE_BYTES) {
+            throw new ProtocolException("Sync block of " + rawLength + " bytes is out of range");
+        }
+        ByteBuffer raw = NoteCodec.decode(encoded, 0, encoded.length, null);
+        byte[] bytes = new byte[raw.remaining()];
+        raw.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * A note split for sending: its fields, content and chunks.
+     */
+    static class Payload {
+        final long creationMillis;
+        final String highlights;
+        final byte[] digest;
+        final byte[][] ids;
+        final int[] lengths;
+        // The content, on the side that has it
+        byte[] content;
+
+        Payload(long creationMillis, String highlights, byte[] digest, byte[][] ids, int[] lengths) {
+            this.creationMillis = creationMillis;
+            this.highlights = highlights;
+            this.digest = digest;
+            this.ids = ids;
+            this.lengths = lengths;
+        }
+
+        /**
+         * Splits a note.
+         */
+        static Payload of(Note note) {
+            byte[] content = note.getContent().getBytes(StandardCharsets.UTF_8);
+            List<Chunker.Chunk> chunks = Chunker.split(content);
+            byte[][] ids = new byte[chunks.size()][];
+            int[] lengths = new int[chunks.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = chunks.get(i).getId();
+                lengths[i] = chunks.get(i).getLength();
+            }
+            long creationMillis = note.getCreationTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            Payload payload = new Payload(creationMillis, note.getHighlights().encode(), Chunker.digest(note), ids, lengths);
+            payload.content = content;
+            return payload;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(creationMillis);
+            writeString(out, highlights);
+            out.write(digest);
+            out.writeInt(ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                out.write(ids[i]);
+                out.writeInt(lengths[i]);
+            }
+        }
+
+        /**
+         * Reads a note header, checking that its chunks could have come from Chunker and
+         * add up to at most MAX_NOTE_BYTES.
+         */
+        static Payload read(DataInputStream in) throws IOException {
+            long creationMillis = in.readLong();
+            String highlights = readString(in);
+            byte[] digest = SyncManifest.readId(in);
+            int count = readLength(in, MAX_NOTE_BYTES / Chunker.MIN_SIZE + 1);
+            byte[][] ids = new byte[count][];
+            int[] lengths = new int[count];
+            long total = 0;
+            for (int i = 0; i < count; i++) {
+                ids[i] = SyncManifest.readId(in);
+                lengths[i] = readLength(in, Chunker.MAX_SIZE);
+                total += lengths[i];
+            }
+            if (total > MAX_NOTE_BYTES) {
+                throw new ProtocolException("Synced note of " + total + " bytes is too large");
+            }
+            return new Payload(creationMillis, highlights, digest, ids, lengths);
+        }
+
+        /**
+         * Returns the bytes of some chunks, one after the other.
+         * @param indexes chunk indexes, checked by readIndexes
+         */
+        byte[] chunks(int[] indexes) {
+            int[] offsets = offsets();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (int index : indexes) {
+                bytes.write(content, offsets[index], lengths[index]);
+            }
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Returns the indexes of the chunks a copy of the note does not have.
+         * @param local the receiver's copy, or null
+         */
+        int[] missing(Payload local) {
+            Map<String, Integer> have = local == null ? new HashMap<>() : local.chunkIndex();
+            int[] missing = new int[ids.length];
+            int count = 0;
+            for (int i = 0; i < ids.length; i++) {
+                if (!have.containsKey(Chunker.hex(ids[i]))) {
+                    missing[count++] = i;
+                }
+            }
+            return Arrays.copyOf(missing, count);
+        }
+
+        /**
+         * Rebuilds the note from the receiver's copy and the chunks it was sent.
+         * @param local the receiver's copy, or null
+         * @param title the title of the note
+         * @param sent the bytes of the missing chunks, in order
+         * @return the note
+         * @throws ProtocolException if the result does not match the digest
+         */
+        Note assemble(Payload local, String title, byte[] sent) throws IOException {
+            Map<String, Integer> have = local == null ? new HashMap<>() : local.chunkIndex();
+            int[] localOffsets = local == null ? null : local.offsets();
+            int total = 0;
+            for (int length : lengths) {
+                total += length;
+            }
+            byte[] result = new byte[total];
+            int position = 0;
+            int sentPosition = 0;
+            for (int i = 0; i < ids.length; i++) {
+                Integer index = have.get(Chunker.hex(ids[i]));
+                if (index != null) {
+                    System.arraycopy(local.content, localOffsets[index], result, position, lengths[i]);
+                } else {
+                    if (sentPosition + lengths[i] > sent.length) {
+                        throw new ProtocolException("Sync sent too few chunk bytes");
+                    }
+                    System.arraycopy(sent, sentPosition, result, position, lengths[i]);
+                    sentPosition += lengths[i];
+                }
+                position += lengths[i];
+            }
+            LocalDateTime creationTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(creationMillis), ZoneId.systemDefault());
+            Note note = new Note(title, new String(result, StandardCharsets.UTF_8), creationTime);
+            note.setHighlights(HighlightModel.decode(highlights));
+            if (!Arrays.equals(Chunker.digest(note), digest)) {
+                throw new ProtocolException("Synced note " + title + " does not match its digest");
+            }
+            return note;
+        }
+
+        private Map<String, Integer> chunkIndex() {
+            Map<String, Integer> index = new HashMap<>();
+            for (int i = 0; i < ids.length; i++) {
+                index.putIfAbsent(Chunker.hex(ids[i]), i);
+            }
+            return index;
+        }
+
+        private int[] offsets() {
+            int[] offsets = new int[lengths.length];
+            for (int i = 1; i < offsets.length; i++) {
+                offsets[i] = offsets[i - 1] + lengths[i - 1];
+            }
+            return offsets;
+        }
+    }
+
+    /**
+     * Reads a list of chunk indexes.
+     * @param chunks the number of chunks the indexes refer to
+     * @throws ProtocolException if there are more indexes than chunks or an index is out of range
+     */
+    static int[] readIndexes(DataInputStream in, int chunks) throws IOException {
+        int[] indexes = new int[readLength(in, chunks)];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = in.readInt();
+            if (indexes[i] < 0 || indexes[i] >= chunks) {
+                throw new ProtocolException("Chunk index " + indexes[i] + " is out of range");
+            }
+        }
+        return indexes;
+    }
+
+    static void writeIndexes(DataOutputStream out, int[] indexes) throws IOException {
+        out.writeInt(indexes.length);
+        for (int index : indexes) {
+            out.writeInt(index);
+        }
+    }
+}
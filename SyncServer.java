@@ -0,0 +1,278 @@
+package Prototype;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves a folder to SyncClients on other instances.
+ * The server keeps no per-peer state: clients decide what to pull and push, and the server
+ * only checks that the version a client expects to replace or delete is still the stored
+ * one, so a note changed here since the client's manifest is reported as a conflict
+ * instead of being overwritten. Each connection is handled on its own thread, up to
+ * MAX_CONNECTIONS at once, and is closed once the client has sent nothing for the sync timeout.
+ * Clients prove they know the shared secret in the handshake; a server without a secret
+ * only listens on the loopback address, where only this machine can reach it.
+ */
+public class SyncServer implements Closeable {
+    // How long close waits for the connections being served
+    private static final int CLOSE_TIMEOUT_SECONDS = 5;
+    // Connections served at once; further ones are closed at once
+    static final int MAX_CONNECTIONS = 16;
+
+    private final Folder folder;
+    private final SyncManifest manifest;
+    // The secret clients must know, or null to serve any client on this machine
+    private final byte[] secret;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections = Executors.newCachedThreadPool(NoteIOService.namedThreads("sync-connection", true));
+    // Permits for the connections being served
+    private final Semaphore permits = new Semaphore(MAX_CONNECTIONS);
+
+    /**
+     * Starts serving a folder to clients on this machine.
+     * @param folder the folder
+     * @param address a loopback address to listen on, for example with port 0 for any free port
+     * @throws IOException if the address cannot be bound
+     * @throws IllegalArgumentException if the address is not a loopback address
+     */
+    public SyncServer(Folder folder, InetSocketAddress address) throws IOException {
+        this(folder, address, null);
+    }
+
+    /**
+     * Starts serving a folder to the clients that know a secret.
+     * @param folder the folder
+     * @param address the address to listen on, for example the loopback address with port 0 for any free port
+     * @param secret the secret clients must know, or null to serve only a loopback address
+     * @throws IOException if the address cannot be bound
+     * @throws IllegalArgumentException if there is no secret and the address is not a loopback address
+     */
+    public SyncServer(Folder folder, InetSocketAddress address, byte[] secret) throws IOException {
+        if (secret == null && (address.getAddress() == null || !address.getAddress().isLoopbackAddress())) {
+            throw new IllegalArgumentException("Serving " + address + " needs a shared secret");
+        }
+        this.folder = folder;
+        this.manifest = SyncManifest.of(folder);
+        this.secret = secret == null ? null : secret.clone();
+        this.serverSocket = new ServerSocket();
+        serverSocket.bind(address);
+        NoteIOService.namedThreads("sync-server", true).newThread(this::accept).start();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     * @return the port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stops accepting connections and waits for a while for the connections being served to
+     * finish, so their sync state is saved before the folder is closed.
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        connections.shutdown();
+        try {
+            connections.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                Socket socket = serverSocket.accept();
+                if (!permits.tryAcquire()) {
+                    socket.close();  // Too many connections; the client may try again later
+                    continue;
+                }
+                connections.execute(() -> {
+                    try {
+                        serve(socket);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        } catch (SocketException e) {
+            // Closed
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Answers the requests of one client until it says goodbye. A request that breaks the
+     * protocol is answered with FAILED, and the connection is closed.
+     */
+    private void serve(Socket socket) {
+        try (Socket connection = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()))) {
+            connection.setSoTimeout(SyncProtocol.timeoutMillis());  // A client that stops sending is dropped
+            if (in.readInt() != SyncProtocol.MAGIC || in.readInt() != SyncProtocol.VERSION) {
+                return;
+            }
+            byte[] challenge = SyncProtocol.challenge();
+            out.writeInt(SyncProtocol.MAGIC);
+            out.writeInt(SyncProtocol.VERSION);
+            out.write(challenge);
+            out.flush();
+            byte[] answer = new byte[SyncProtocol.CHALLENGE_BYTES];
+            in.readFully(answer);
+            if (secret != null && !MessageDigest.isEqual(answer, SyncProtocol.answer(secret, challenge))) {
+                out.writeByte(SyncProtocol.FAILED);  // Does not know the secret
+                out.flush();
+                return;
+            }
+            out.writeByte(SyncProtocol.OK);
+            out.writeUTF(manifest.getId());
+            out.flush();
+            try {
+                answerRequests(in, out);
+            } catch (ProtocolException e) {
+                out.writeByte(SyncProtocol.FAILED);
+                out.flush();
+            }
+        } catch (EOFException | SocketException | SocketTimeoutException e) {
+            // The client went away or stopped answering
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                manifest.save();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void answerRequests(DataInputStream in, DataOutputStream out) throws IOException {
+        String cachedTitle = null;
+        SyncProtocol.Payload cached = null;
+        int op;
+        while ((op = in.read()) > SyncProtocol.BYE) {
+            if (op == SyncProtocol.MANIFEST) {
+                in.readUTF();
+                out.writeByte(SyncProtocol.OK);
+                writeManifest(out);
+                out.flush();
+                continue;
+            }
+            String title = SyncProtocol.readTitle(in);
+            switch (op) {
+                case SyncProtocol.CHUNKS:
+                    cachedTitle = title;
+                    cached = payloadOf(title);  // Kept for the FETCH that follows
+                    out.writeByte(SyncProtocol.OK);
+                    out.writeBoolean(cached != null);
+                    if (cached != null) {
+                        cached.write(out);
+                    }
+                    break;
+                case SyncProtocol.FETCH: {
+                    if (!title.equals(cachedTitle) || cached == null) {
+                        cachedTitle = title;
+                        cached = payloadOf(title);
+                    }
+                    int[] indexes = SyncProtocol.readIndexes(in, cached == null ? 0 : cached.ids.length);
+                    out.writeByte(SyncProtocol.OK);
+                    SyncProtocol.writeBlock(out, cached == null ? new byte[0] : cached.chunks(indexes));
+                    break;
+                }
+                case SyncProtocol.PUT:
+                    cachedTitle = null;
+                    receive(title, in, out);
+                    break;
+                case SyncProtocol.DELETE:
+                    cachedTitle = null;
+                    delete(title, SyncManifest.readId(in), out);
+                    break;
+                default:
+                    throw new ProtocolException("Unknown sync request " + op);
+            }
+            out.flush();
+        }
+    }
+
+    private void writeManifest(DataOutputStream out) throws IOException {
+        Map<String, SyncManifest.Version> versions = manifest.current();
+        out.writeInt(versions.size());
+        for (Map.Entry<String, SyncManifest.Version> entry : versions.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.write(entry.getValue().getDigest());
+        }
+    }
+
+    private SyncProtocol.Payload payloadOf(String title) throws IOException {
+        Note note = folder.loadNote(title);
+        return note == null || note.getContent() == null ? null : SyncProtocol.Payload.of(note);
+    }
+
+    /**
+     * Receives a note the client changed: checks the version it replaces, asks for the
+     * chunks this side lacks, rebuilds the note and saves it.
+     */
+    private void receive(String title, DataInputStream in, DataOutputStream out) throws IOException {
+        byte[] expected = in.readBoolean() ? SyncManifest.readId(in) : null;
+        SyncProtocol.Payload incoming = SyncProtocol.Payload.read(in);
+        long stamp = folder.getStorage().stamp(title);
+        SyncProtocol.Payload local = payloadOf(title);
+        if (!Arrays.equals(local == null ? null : local.digest, expected)) {
+            out.writeByte(SyncProtocol.CONFLICT);  // Changed here since the client's manifest
+            return;
+        }
+        out.writeByte(SyncProtocol.OK);
+        SyncProtocol.writeIndexes(out, incoming.missing(local));
+        out.flush();
+        Note note = incoming.assemble(local, title, SyncProtocol.readBlock(in));
+        try {
+            folder.getStorage().saveIfUnchanged(note, stamp);
+        } catch (StaleNoteException e) {
+            out.writeByte(SyncProtocol.CONFLICT);  // Saved here while the chunks were on their way
+            return;
+        }
+        folder.addNote(new Note(title, null, note.getCreationTime()));
+        manifest.written(title, incoming.digest);
+        out.writeByte(SyncProtocol.OK);
+    }
+
+    /**
+     * Deletes a note the client deleted, if it is still the version the client saw.
+     */
+    private void delete(String title, byte[] expected, DataOutputStream out) throws IOException {
+        synchronized (this) {
+            SyncProtocol.Payload local = payloadOf(title);
+            if (local != null && !Arrays.equals(local.digest, expected)) {
+                out.writeByte(SyncProtocol.CONFLICT);
+                return;
+            }
+            folder.getStorage().delete(title);
+            folder.removeNote(title);
+            manifest.written(title, null);
+        }
+        out.writeByte(SyncProtocol.OK);
+    }
+}
@@ -0,0 +1,212 @@
+package Prototype;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the occurrences of a text or a regular expression in a window of a document.
+ * Literal text is found with Boyer-Moore-Horspool: the window is read from the end of each
+ * candidate position backwards and skips ahead by up to the length of the text, so a search
+ * reads a fraction of the characters. The skip table is indexed by the low byte of a
+ * character; characters sharing a low byte share the smallest skip, which keeps the table
+ * small for any alphabet. Matches never overlap and are never empty.
+ */
+public abstract class TextFinder {
+    // Characters read past a scanned range so that a regular expression match starting in it can end.
+    // The matcher sees the window end as the end of the text, so a match reaching further past
+    // the range is cut short or missed, and $ and \z can match at the window end.
+    static final int REGEX_LOOKAHEAD = 16 * 1024;
+    // Characters read before a scanned range for lookbehind and line anchors
+    static final int REGEX_LOOKBEHIND = 1024;
+
+    /**
+     * Creates a finder of literal text.
+     * @param text the text to find, not empty
+     * @param matchCase false to ignore case
+     * @return the finder
+     */
+    public static TextFinder literal(String text, boolean matchCase) {
+        return new Literal(text, matchCase);
+    }
+
+    /**
+     * Creates a finder of a regular expression. ^ and $ match at line ends.
+     * @param regex the regular expression
+     * @param matchCase false to ignore case
+     * @return the finder
+     * @throws java.util.regex.PatternSyntaxException if the expression is not valid
+     */
+    public static TextFinder regex(String regex, boolean matchCase) {
+        int flags = Pattern.MULTILINE | (matchCase ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        return new Regex(Pattern.compile(regex, flags));
+    }
+
+    /**
+     * Adds the matches starting in text[from, limit) to a list; matches may end after limit.
+     * @param text the window of the document
+     * @param from where the scanned range starts in the window
+     * @param limit where the scanned range ends in the window
+     * @param offset the document offset of the window, added to the offsets of the matches
+     * @param out receives the matches, in order
+     */
+    public abstract void findAll(CharSequence text, int from, int limit, int offset, FindMatches out);
+
+    /**
+     * Returns how many characters to read after a scanned range for matches starting in it to end.
+     * @return the characters read ahead
+     */
+    abstract int getLookahead();
+
+    /**
+     * Returns how many characters to read before a scanned range for matches in it to be found.
+     * @return the characters read behind
+     */
+    abstract int getLookbehind();
+
+    /**
+     * Returns the text a match is replaced with, with $n group references expanded for
+     * regular expressions.
+     * @param text a window of the document holding the match
+     * @param start where the match starts in the window
+     * @param end where the match ends in the window
+     * @param replacement the replacement
+     * @return the replacement text, or null if the text no longer matches there
+     */
+    public abstract String expand(CharSequence text, int start, int end, String replacement);
+
+    private static final class Literal extends TextFinder {
+        // The text to find, case-folded unless matching case
+        private final char[] pattern;
+        // The upper-case form of each character of the pattern, which ASCII text is compared with too
+        private final char[] alternate;
+        private final boolean matchCase;
+        // How far to move when the last character compared is a given character, by low byte
+        private final int[] skip = new int[256];
+
+        Literal(String text, boolean matchCase) {
+            if (text.isEmpty()) {
+                throw new IllegalArgumentException("Nothing to find");
+            }
+            this.matchCase = matchCase;
+            pattern = new char[text.length()];
+            alternate = new char[text.length()];
+            for (int i = 0; i < pattern.length; i++) {
+                pattern[i] = matchCase ? text.charAt(i) : fold(text.charAt(i));
+                alternate[i] = matchCase ? pattern[i] : Character.toUpperCase(pattern[i]);
+            }
+            Arrays.fill(skip, pattern.length);
+            for (int i = 0; i < pattern.length - 1; i++) {
+                skip[pattern[i] & 0xFF] = pattern.length - 1 - i;
+                skip[alternate[i] & 0xFF] = pattern.length - 1 - i;
+            }
+        }
+
+        private static char fold(char c) {
+            return Character.toLowerCase(Character.toUpperCase(c));
+        }
+
+        /**
+         * Compares a character of the text with a character of the pattern. ASCII characters
+         * fold to ASCII, so only other characters are folded before comparing.
+         */
+        private boolean matches(char c, int i) {
+            return c == pattern[i] || c == alternate[i] || (!matchCase && c >= 0x80 && fold(c) == pattern[i]);
+        }
+
+        @Override
+        public void findAll(CharSequence text, int from, int limit, int offset, FindMatches out) {
+            int last = pattern.length - 1;
+            int end = text.length() - last;  // First position a match cannot start at
+            int position = from;
+            while (position < limit && position < end) {
+                char c = text.charAt(position + last);
+                int i = last;
+                if (matches(c, last)) {
+                    do {
+                        i--;
+                    } while (i >= 0 && matches(text.charAt(position + i), i));
+                }
+                if (i < 0) {
+                    out.add(offset + position, offset + position + pattern.length);
+                    position += pattern.length;  // Matches do not overlap
+                } else {
+                    if (!matchCase && c >= 0x80) {
+                        c = fold(c);  // The skip table holds the folded forms of other characters
+                    }
+                    position += skip[c & 0xFF];
+                }
+            }
+        }
+
+        @Override
+        int getLookahead() {
+            return pattern.length - 1;
+        }
+
+        @Override
+        int getLookbehind() {
+            return 0;
+        }
+
+        @Override
+        public String expand(CharSequence text, int start, int end, String replacement) {
+            if (end - start != pattern.length) {
+                return null;
+            }
+            for (int i = 0; i < pattern.length; i++) {
+                if (!matches(text.charAt(start + i), i)) {
+                    return null;
+                }
+            }
+            return replacement;
+        }
+    }
+
+    private static final class Regex extends TextFinder {
+        private final Pattern pattern;
+
+        Regex(Pattern pattern) {
+            this.pattern = pattern;
+        }
+
+        private Matcher matcher(CharSequence text, int from, int to) {
+            Matcher matcher = pattern.matcher(text);
+            matcher.region(from, to);
+            matcher.useTransparentBounds(true);  // Lookaround and anchors see the whole window
+            matcher.useAnchoringBounds(false);
+            return matcher;
+        }
+
+        @Override
+        public void findAll(CharSequence text, int from, int limit, int offset, FindMatches out) {
+            Matcher matcher = matcher(text, from, text.length());
+            while (matcher.find() && matcher.start() < limit) {
+                if (matcher.end() > matcher.start()) {  // The next find steps over an empty match
+                    out.add(offset + matcher.start(), offset + matcher.end());
+                }
+            }
+        }
+
+        @Override
+        int getLookahead() {
+            return REGEX_LOOKAHEAD;
+        }
+
+        @Override
+        int getLookbehind() {
+            return REGEX_LOOKBEHIND;
+        }
+
+        @Override
+        public String expand(CharSequence text, int start, int end, String replacement) {
+            Matcher matcher = matcher(text, start, text.length());
+            if (!matcher.lookingAt() || matcher.end() != end) {
+                return null;
+            }
+            StringBuilder expanded = new StringBuilder();
+            matcher.appendReplacement(expanded, replacement);
+            return expanded.substring(start);  // appendReplacement copies the text before the match first
+        }
+    }
+}
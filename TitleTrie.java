@@ -0,0 +1,383 @@
+package Prototype;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A compressed prefix trie over the note titles of a folder, for filtering the note list as
+ * a title is typed. Titles are kept sorted, case-insensitively, and every trie node covers
+ * the range of sorted titles that start with its prefix, so a prefix query walks one node per
+ * branching point of the query and answers with a range, whatever the number of titles.
+ * Fuzzy queries match titles holding the query's characters in order. A query starts from
+ * the titles holding its rarest character, each title carries a bit mask of the characters
+ * in it so most are rejected without being read, and a query that extends the previous one
+ * only looks for the added characters in the previous matches.
+ * A trie is a snapshot; Folder builds a new one from its title-ordered notes after they change.
+ */
+public class TitleTrie {
+    private static final Node[] NO_CHILDREN = new Node[0];
+    private static final char[] NO_CHARS = new char[0];
+    // Bits below this stand for one letter or digit each; the others are shared
+    private static final int SHARED_BITS = 36;
+    private static final Comparator<Keyed> BY_KEY = (a, b) -> a.key.compareTo(b.key);
+
+    // The notes, sorted by key
+    private final Note[] notes;
+    // The lower-case titles, sorted
+    private final String[] keys;
+    // The characters in each key, as set by maskOf
+    private final long[] masks;
+    private final Node root;
+    // For each bit of the masks, the keys having it in title order; made on the first fuzzy query
+    private int[][] postings;
+
+    /**
+     * Builds the trie of some notes.
+     * @param titled the notes, with titles; their content is not used
+     */
+    public TitleTrie(Collection<Note> titled) {
+        this(sortByKey(titled));
+    }
+
+    private TitleTrie(Keyed[] sorted) {
+        notes = new Note[sorted.length];
+        keys = new String[sorted.length];
+        masks = new long[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            notes[i] = sorted[i].note;
+            keys[i] = sorted[i].key;
+            masks[i] = maskOf(keys[i]);
+        }
+        root = sorted.length == 0 ? null : build(0, sorted.length, 0);
+    }
+
+    /**
+     * Builds the trie of notes already in title order, without sorting them again.
+     * @param sorted the notes, ordered by lower-case title as sortByTitle orders them
+     * @return the trie
+     */
+    static TitleTrie ofSorted(List<Note> sorted) {
+        Keyed[] keyed = new Keyed[sorted.size()];
+        for (int i = 0; i < keyed.length; i++) {
+            Note note = sorted.get(i);
+            keyed[i] = new Keyed(note.getTitle().toLowerCase(), note);
+        }
+        return new TitleTrie(keyed);
+    }
+
+    /**
+     * Sorts notes by title, ignoring case, in the order of the trie.
+     * @param titled the notes
+     * @return a new list of the notes in title order
+     */
+    static List<Note> sortByTitle(Collection<Note> titled) {
+        Keyed[] sorted = sortByKey(titled);
+        List<Note> notes = new ArrayList<>(sorted.length);
+        for (Keyed keyed : sorted) {
+            notes.add(keyed.note);
+        }
+        return notes;
+    }
+
+    private static Keyed[] sortByKey(Collection<Note> titled) {
+        Keyed[] sorted = new Keyed[titled.size()];
+        int count = 0;
+        for (Note note : titled) {
+            sorted[count++] = new Keyed(note.getTitle().toLowerCase(), note);  // Each title is lowered once, not per comparison
+        }
+        Arrays.sort(sorted, BY_KEY);
+        return sorted;
+    }
+
+    /**
+     * Builds the node covering keys[lo, hi), which share their first depth characters.
+     */
+    private Node build(int lo, int hi, int depth) {
+        String first = keys[lo];
+        String last = keys[hi - 1];
+        int end = depth;
+        int limit = Math.min(first.length(), last.length());
+        while (end < limit && first.charAt(end) == last.charAt(end)) {
+            end++;  // Sorted, so the first and last keys share what all of them share
+        }
+        int i = lo;
+        while (i < hi && keys[i].length() == end) {
+            i++;  // Keys that end here sort first
+        }
+        int branches = 0;
+        for (int j = i; j < hi; j++) {
+            if (j == i || keys[j].charAt(end) != keys[j - 1].charAt(end)) {
+                branches++;
+            }
+        }
+        char[] chars = branches == 0 ? NO_CHARS : new char[branches];
+        Node[] children = branches == 0 ? NO_CHILDREN : new Node[branches];
+        int child = 0;
+        while (i < hi) {
+            char c = keys[i].charAt(end);
+            int j = i + 1;
+            while (j < hi && keys[j].charAt(end) == c) {
+                j++;
+            }
+            chars[child] = c;
+            children[child++] = build(i, j, end + 1);
+            i = j;
+        }
+        return new Node(lo, hi, end, chars, children);
+    }
+
+    /**
+     * Returns the number of titles.
+     * @return the number of notes in the trie
+     */
+    public int size() {
+        return notes.length;
+    }
+
+    /**
+     * Finds the titles starting with a query, ignoring case.
+     * @param query the start of the title
+     * @return the matching notes in title order
+     */
+    public Matches prefix(String query) {
+        String lower = query.toLowerCase();
+        int[] range = range(lower);
+        return new Matches(lower, range[0], range[1], new int[0], null);
+    }
+
+    /**
+     * Finds the titles holding the characters of a query in order, ignoring case.
+     * Titles starting with the query come first, then the others, each in title order.
+     * @param query the characters to find
+     * @param previous the matches of an earlier query of this trie, or null; if the query
+     *                 extends that query only its matches are looked at
+     * @return the matching notes
+     */
+    public Matches fuzzy(String query, Matches previous) {
+        String lower = query.toLowerCase();
+        int[] range = range(lower);
+        if (previous != null && previous.trie == this && previous.ends != null && lower.startsWith(previous.query)) {
+            // Only the previous matches can match, and only the added characters need finding
+            String added = lower.substring(previous.query.length());
+            long mask = maskOf(added);
+            int[] kept = new int[previous.size()];
+            int[] ends = new int[kept.length];
+            int n = 0;
+            int next = previous.lo;
+            int e = 0;
+            while (next < previous.hi || e < previous.extra.length) {
+                int index;
+                int from;
+                if (e == previous.extra.length || (next < previous.hi && next < previous.extra[e])) {
+                    index = next++;  // Both lists are in title order; merge them
+                    from = previous.query.length();
+                } else {
+                    index = previous.extra[e];
+                    from = previous.ends[e++];
+                }
+                if (index >= range[0] && index < range[1]) {
+                    continue;
+                }
+                int end = (masks[index] & mask) == mask ? find(keys[index], added, from) : -1;
+                if (end >= 0) {
+                    kept[n] = index;
+                    ends[n++] = end;
+                }
+            }
+            return new Matches(lower, range[0], range[1], Arrays.copyOf(kept, n), Arrays.copyOf(ends, n));
+        }
+        // Start from the titles with the query's rarest character
+        long mask = maskOf(lower);
+        int[] candidates = new int[0];
+        for (long bits = mask; bits != 0; bits &= bits - 1) {
+            int[] posting = postings()[Long.numberOfTrailingZeros(bits)];
+            if (bits == mask || posting.length < candidates.length) {
+                candidates = posting;
+            }
+        }
+        int[] kept = new int[candidates.length];
+        int[] ends = new int[candidates.length];
+        int n = 0;
+        for (int index : candidates) {
+            if (index >= range[0] && index < range[1]) {
+                continue;
+            }
+            int end = (masks[index] & mask) == mask ? find(keys[index], lower, 0) : -1;
+            if (end >= 0) {
+                kept[n] = index;
+                ends[n++] = end;
+            }
+        }
+        return new Matches(lower, range[0], range[1], Arrays.copyOf(kept, n), Arrays.copyOf(ends, n));
+    }
+
+    /**
+     * Finds the characters of a query in order in a key, each as early as possible.
+     * @return the position after the last character found, or -1 if they are not all there
+     */
+    private static int find(String key, String query, int from) {
+        for (int q = 0; q < query.length(); q++) {
+            from = key.indexOf(query.charAt(q), from) + 1;
+            if (from == 0) {
+                return -1;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * Returns the postings of the mask bits, making them the first time.
+     */
+    private synchronized int[][] postings() {
+        if (postings == null) {
+            int[] sizes = new int[Long.SIZE];
+            for (long m : masks) {
+                for (long bits = m; bits != 0; bits &= bits - 1) {
+                    sizes[Long.numberOfTrailingZeros(bits)]++;
+                }
+            }
+            int[][] made = new int[Long.SIZE][];
+            for (int b = 0; b < Long.SIZE; b++) {
+                made[b] = new int[sizes[b]];
+                sizes[b] = 0;
+            }
+            for (int i = 0; i < masks.length; i++) {
+                for (long bits = masks[i]; bits != 0; bits &= bits - 1) {
+                    int b = Long.numberOfTrailingZeros(bits);
+                    made[b][sizes[b]++] = i;
+                }
+            }
+            postings = made;
+        }
+        return postings;
+    }
+
+    /**
+     * Walks the trie along a lower-case query.
+     * @return the range of keys starting with the query, empty if there are none
+     */
+    private int[] range(String query) {
+        Node node = root;
+        int p = 0;
+        while (node != null) {
+            String key = keys[node.lo];
+            while (p < query.length() && p < node.end) {
+                if (key.charAt(p) != query.charAt(p)) {
+                    return new int[] {0, 0};
+                }
+                p++;
+            }
+            if (p == query.length()) {
+                return new int[] {node.lo, node.hi};
+            }
+            int child = Arrays.binarySearch(node.chars, query.charAt(p));
+            node = child < 0 ? null : node.children[child];
+        }
+        return new int[] {0, 0};
+    }
+
+    /**
+     * Returns the set of characters in a string as bits: one per letter and digit, and
+     * shared bits for the other characters.
+     */
+    private static long maskOf(String text) {
+        long mask = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int bit;
+            if (c >= 'a' && c <= 'z') {
+                bit = c - 'a';
+            } else if (c >= '0' && c <= '9') {
+                bit = 26 + c - '0';
+            } else {
+                bit = SHARED_BITS + c % (Long.SIZE - SHARED_BITS);
+            }
+            mask |= 1L << bit;
+        }
+        return mask;
+    }
+
+    /**
+     * A note with its lower-case title, for sorting.
+     */
+    private static class Keyed {
+        final String key;
+        final Note note;
+
+        Keyed(String key, Note note) {
+            this.key = key;
+            this.note = note;
+        }
+    }
+
+    /**
+     * A node of the trie: the range of keys sharing its prefix, the length of that prefix,
+     * and the children by the character that follows it.
+     */
+    private static class Node {
+        final int lo;
+        final int hi;
+        final int end;
+        final char[] chars;
+        final Node[] children;
+
+        Node(int lo, int hi, int end, char[] chars, Node[] children) {
+            this.lo = lo;
+            this.hi = hi;
+            this.end = end;
+            this.chars = chars;
+            this.children = children;
+        }
+    }
+
+    /**
+     * The notes matching a query: a range of the sorted titles, followed by other titles.
+     * Matches are a view of the trie and copy no notes.
+     */
+    public class Matches {
+        private final TitleTrie trie = TitleTrie.this;
+        private final String query;
+        private final int lo;
+        private final int hi;
+        // Matching titles outside the range, in title order
+        private final int[] extra;
+        // For fuzzy matches, where the query's characters end in each extra title; null for prefix matches
+        private final int[] ends;
+
+        Matches(String query, int lo, int hi, int[] extra, int[] ends) {
+            this.query = query;
+            this.lo = lo;
+            this.hi = hi;
+            this.extra = extra;
+            this.ends = ends;
+        }
+
+        /**
+         * Returns the number of matching notes.
+         * @return the number of matches
+         */
+        public int size() {
+            return hi - lo + extra.length;
+        }
+
+        /**
+         * Returns a matching note.
+         * @param index the position of the match, from 0
+         * @return the note
+         */
+        public Note get(int index) {
+            return index < hi - lo ? notes[lo + index] : notes[extra[index - (hi - lo)]];
+        }
+
+        /**
+         * Returns the trie the matches were found in.
+         * @return the trie
+         */
+        public TitleTrie getTrie() {
+            return trie;
+        }
+    }
+}
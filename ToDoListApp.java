@@ -6,23 +6,28 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Date;
-
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Window showing the to-do items of the default TodoStore.
+ * The store keeps, saves and reminds of the items; the window only shows and edits them.
+ */
 public class ToDoListApp extends Window{
-    // Panel to hold the list of to-do items
-    private JPanel todoItemsPanel;
-    // List to store to-do items
-    private ArrayList<TodoItem> todoItems;
+    // Table showing the to-do items
+    private JTable todoTable;
+    // The to-do items, sorted by due date
+    private TodoTableModel todoModel;
+    // Shows the reminders of the store
+    private Consumer<List<TodoItem>> reminderListener;
 
     /**
      * Constructs the ToDoListApp and initializes the UI.
      */
     public ToDoListApp() {
         super(600,400);
-        todoItems = new ArrayList<>();
     }
 
     /**
@@ -34,138 +39,113 @@ public class ToDoListApp extends Window{
         // Panel for the to-do list
         JPanel todoPanel = new JPanel(new BorderLayout());
         todoPanel.setBorder(BorderFactory.createTitledBorder("To-Do List"));
-        todoItemsPanel = new JPanel(new GridLayout(0, 1));
+        TodoStore store = TodoStore.getDefault();
+        todoModel = new TodoTableModel(store);
+        todoTable = new JTable(todoModel);
+        // A fixed row height lets the table find the visible rows without measuring any
+        todoTable.setRowHeight(24);
+        todoTable.putClientProperty("terminateEditOnFocusLost", Boolean.TRUE);
+        todoTable.getColumnModel().getColumn(TodoTableModel.DONE_COLUMN).setMaxWidth(50);
+        todoTable.getColumnModel().getColumn(TodoTableModel.DUE_COLUMN).setCellEditor(new DefaultCellEditor(createDateField()));
+        todoPanel.add(new JScrollPane(todoTable), BorderLayout.CENTER);
+
+        JPanel buttonPanel = new JPanel(new FlowLayout());
         JButton addTodoButton = new JButton("Add Todo");
         addTodoButton.addActionListener(new AddTodoListener());
-        todoPanel.add(todoItemsPanel, BorderLayout.CENTER);
-        todoPanel.add(addTodoButton, BorderLayout.SOUTH);
+        JButton deleteButton = new JButton("Delete");
+        deleteButton.addActionListener(new DeleteTodoListener());
+        buttonPanel.add(addTodoButton);
+        buttonPanel.add(deleteButton);
+        todoPanel.add(buttonPanel, BorderLayout.SOUTH);
 
         panel.add(todoPanel, BorderLayout.CENTER);
 
         frame.add(panel);
+
+        reminderListener = items -> SwingUtilities.invokeLater(() -> showReminder(items));
+        store.addReminderListener(reminderListener);
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                store.removeReminderListener(reminderListener);
+                todoModel.dispose();
+                store.flush();
+            }
+        });
         frame.setVisible(true);
     }
 
     /**
-     * Listener class for the Add Todo button.
+     * Shows the items whose due day has begun.
+     * @param items the due items
      */
-    private class AddTodoListener implements ActionListener {
-        @Override
-        public void actionPerformed(ActionEvent e) {
-            // Text field for to-do item
-            JTextField todoField = new JTextField(20);
-            // Text field for due date
-            JTextField dateField = new JTextField(10);
-            // Restrict input to digits, backspace, delete, and forward slash
-            dateField.addKeyListener(new KeyAdapter() {
-                @Override
-                public void keyTyped(KeyEvent e) {
-                    char c = e.getKeyChar();
-                    if (!((c >= '0' && c <= '9') || c == KeyEvent.VK_BACK_SPACE || c == KeyEvent.VK_DELETE || c == '/')) {
-                        e.consume();
-                    }
-                }
-            });
-            // Button to delete the to-do item
-            JButton deleteButton = new JButton("Delete");
-            TodoItem todoItem = new TodoItem(todoField, dateField);
-            deleteButton.addActionListener(ev -> {
-                todoItemsPanel.remove(todoItem.getCheckBox());
-                todoItemsPanel.remove(todoField);
-                todoItemsPanel.remove(dateField);
-                todoItemsPanel.remove(deleteButton);
-                todoItems.remove(todoItem);
-                sortTodoItems();
-                frame.revalidate();
-                frame.repaint();
-            });
-
-            todoItems.add(todoItem);
-            sortTodoItems();
+    private void showReminder(List<TodoItem> items) {
+        StringBuilder message = new StringBuilder("Due now:");
+        for (TodoItem item : items) {
+            message.append("\n").append(item.getDueText()).append("  ").append(item.getText());
         }
+        JOptionPane.showMessageDialog(frame, message.toString(), "To-Do Reminder", JOptionPane.INFORMATION_MESSAGE);
     }
 
     /**
-     * Sorts the to-do items by date and updates the UI.
+     * Creates the text field used to edit due dates.
+     * @return the date field
      */
-    private void sortTodoItems() {
-        // Sort items by date
-        todoItems.sort((item1, item2) -> {
-            Date date1 = parseDate(item1.getDateField().getText());
-            Date date2 = parseDate(item2.getDateField().getText());
-            if (date1 == null) return 1;
-            if (date2 == null) return -1;
-            return date1.compareTo(date2);
+    private JTextField createDateField() {
+        JTextField dateField = new JTextField(10);
+        // Restrict input to digits, backspace, delete, and forward slash
+        dateField.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyTyped(KeyEvent e) {
+                char c = e.getKeyChar();
+                if (!((c >= '0' && c <= '9') || c == KeyEvent.VK_BACK_SPACE || c == KeyEvent.VK_DELETE || c == '/')) {
+                    e.consume();
+                }
+            }
         });
-
-        // Update UI with sorted items
-        todoItemsPanel.removeAll();
-        for (TodoItem item : todoItems) {
-            JPanel todoItemPanel = new JPanel(new FlowLayout());
-            todoItemPanel.add(item.getCheckBox());
-            todoItemPanel.add(item.getTodoField());
-            todoItemPanel.add(item.getDateField());
-            JButton deleteButton = new JButton("Delete");
-            deleteButton.addActionListener(e -> {
-                todoItemsPanel.remove(todoItemPanel);
-                todoItems.remove(item);
-                sortTodoItems();
-                frame.revalidate();
-                frame.repaint();
-            });
-            todoItemPanel.add(deleteButton);
-            todoItemsPanel.add(todoItemPanel);
-        }
-        frame.revalidate();
-        frame.repaint();
+        return dateField;
     }
 
     /**
-     * Parses a date string in MM/dd/yyyy format.
-     * @param dateStr the date string to parse
-     * @return the parsed Date object, or null if parsing fails
+     * Listener class for the Add Todo button.
+     * Adds an empty item and starts editing its description.
      */
-    private Date parseDate(String dateStr) {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
-        try {
-            return dateFormat.parse(dateStr);
-        } catch (ParseException e) {
-            return null;
+    private class AddTodoListener implements ActionListener {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            stopEditing();
+            int row = todoModel.indexOf(TodoStore.getDefault().add("", ""));
+            todoTable.scrollRectToVisible(todoTable.getCellRect(row, TodoTableModel.TEXT_COLUMN, true));
+            todoTable.editCellAt(row, TodoTableModel.TEXT_COLUMN);
+            Component editor = todoTable.getEditorComponent();
+            if (editor != null) {
+                editor.requestFocusInWindow();
+            }
         }
     }
 
     /**
-     * Class to represent a to-do item.
+     * Listener class for the Delete button.
+     * Deletes the selected items.
      */
-    private class TodoItem {
-        // Check box for marking the item as complete
-        private JCheckBox checkBox;
-        // Text field for the to-do item description
-        private JTextField todoField;
-        // Text field for the due date
-        private JTextField dateField;
-
-        /**
-         * Constructs a TodoItem with the specified fields.
-         * @param todoField the text field for the to-do item
-         * @param dateField the text field for the due date
-         */
-        public TodoItem(JTextField todoField, JTextField dateField) {
-            this.checkBox = new JCheckBox();
-            this.todoField = todoField;
-            this.dateField = dateField;
-        }
-
-        public JCheckBox getCheckBox() {
-            return checkBox;
-        }
-
-        public JTextField getTodoField() {
-            return todoField;
+    private class DeleteTodoListener implements ActionListener {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            stopEditing();
+            int[] rows = todoTable.getSelectedRows();
+            // Remove from the bottom up so the remaining rows keep their indexes
+            for (int i = rows.length - 1; i >= 0; i--) {
+                TodoStore.getDefault().remove(todoModel.getItem(rows[i]));
+            }
         }
+    }
 
-        public JTextField getDateField() {
-            return dateField;
+    /**
+     * Commits the cell being edited, if any.
+     */
+    private void stopEditing() {
+        if (todoTable.isEditing()) {
+            todoTable.getCellEditor().stopCellEditing();
         }
     }
 
@@ -0,0 +1,116 @@
+package Prototype;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+
+/**
+ * Represents a to-do item: a description, a due date and whether it is done.
+ * Items are immutable; a TodoStore replaces an item with a changed copy.
+ * The due date is kept as typed and as an epoch day, so sorting and due date
+ * queries compare primitive keys and never parse dates.
+ */
+public class TodoItem {
+    // Epoch day of items without a due date, which sorts them last
+    public static final long NO_DUE = Long.MAX_VALUE;
+    // Format of due dates as the user types them; parsing is thread safe and does not allocate a formatter
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("M/d/uuuu").withResolverStyle(ResolverStyle.STRICT);
+
+    // Identifies the item within its store
+    private final long id;
+    // The description of the item
+    private final String text;
+    // The due date as typed
+    private final String dueText;
+    // The due date as an epoch day, or NO_DUE if the due date is empty or not a date
+    private final long dueDay;
+    // Whether the item is done
+    private final boolean done;
+
+    /**
+     * Constructs a TodoItem.
+     * @param id the id of the item within its store
+     * @param text the description of the item
+     * @param dueText the due date in MM/dd/yyyy format, or an empty string
+     * @param dueDay the due date as an epoch day, or NO_DUE
+     * @param done whether the item is done
+     */
+    TodoItem(long id, String text, String dueText, long dueDay, boolean done) {
+        this.id = id;
+        this.text = text;
+        this.dueText = dueText;
+        this.dueDay = dueDay;
+        this.done = done;
+    }
+
+    /**
+     * Constructs a TodoItem, parsing its due date.
+     * @param id the id of the item within its store
+     * @param text the description of the item
+     * @param dueText the due date in MM/dd/yyyy format, or an empty string
+     */
+    TodoItem(long id, String text, String dueText) {
+        this(id, text, dueText, parseDay(dueText), false);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public String getDueText() {
+        return dueText;
+    }
+
+    public long getDueDay() {
+        return dueDay;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Returns a copy of the item with another description.
+     * @param text the new description
+     * @return the changed item
+     */
+    public TodoItem withText(String text) {
+        return new TodoItem(id, text, dueText, dueDay, done);
+    }
+
+    /**
+     * Returns a copy of the item with another due date.
+     * @param dueText the new due date in MM/dd/yyyy format, or an empty string
+     * @return the changed item
+     */
+    public TodoItem withDue(String dueText) {
+        return new TodoItem(id, text, dueText, parseDay(dueText), done);
+    }
+
+    /**
+     * Returns a copy of the item marked done or not done.
+     * @param done whether the item is done
+     * @return the changed item
+     */
+    public TodoItem withDone(boolean done) {
+        return new TodoItem(id, text, dueText, dueDay, done);
+    }
+
+    /**
+     * Parses a date string in MM/dd/yyyy format.
+     * @param dateStr the date string to parse
+     * @return the date as an epoch day, or NO_DUE if parsing fails
+     */
+    static long parseDay(String dateStr) {
+        try {
+            return LocalDate.parse(dateStr.trim(), DATE_FORMAT).toEpochDay();
+        } catch (DateTimeParseException e) {
+            return NO_DUE;
+        }
+    }
+}
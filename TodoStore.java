@@ -0,0 +1,426 @@
+package Prototype;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Persistent store of to-do items.
+ * Items are indexed in skip lists ordered by due day, one of all items and one of the items
+ * that are not done, which answer "next due" and due date range queries in logarithmic time.
+ * One scheduler thread writes the store to disk shortly after changes and fires reminders:
+ * it sleeps until the start of the day the next open item is due, so nothing polls.
+ * Items that become open and due on a day already reminded of are reminded of right away.
+ */
+public class TodoStore {
+    // File the items are stored in, in the working directory like the note folders
+    static final String TODO_FILE = "todos.properties";
+    // Orders items by due day, items without a due date last, then by the order they were added
+    public static final Comparator<TodoItem> DUE_ORDER = Comparator.comparingLong(TodoItem::getDueDay).thenComparingLong(TodoItem::getId);
+    // Changes are written together once they have been quiet this long
+    private static final long SAVE_DELAY_MILLIS = 200;
+
+    private static TodoStore defaultStore;
+
+    // The file the items are stored in
+    private final File file;
+    // All items by due day
+    private final NavigableSet<TodoItem> items = new ConcurrentSkipListSet<>(DUE_ORDER);
+    // The items that are not done, by due day
+    private final NavigableSet<TodoItem> openItems = new ConcurrentSkipListSet<>(DUE_ORDER);
+    // Writes the store and fires reminders
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(NoteIOService.namedThreads("todo", true));
+    // Told about every change, on the thread making it
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    // Receive the items whose due day has begun, on the scheduler thread
+    private final List<Consumer<List<TodoItem>>> reminderListeners = new CopyOnWriteArrayList<>();
+    // The id of the next item added
+    private long nextId;
+    // The last day reminders were fired for
+    private long remindedDay;
+    // Items added or changed to be open and due on a day already reminded of, not reminded of yet
+    private final List<TodoItem> lateItems = new ArrayList<>();
+    // Whether there are changes that were not written yet
+    private boolean dirty;
+    private ScheduledFuture<?> pendingSave;
+    private ScheduledFuture<?> pendingReminder;
+
+    /**
+     * Opens a store, reading the items already stored in its file.
+     * @param file the file the items are stored in
+     */
+    public TodoStore(File file) {
+        this.file = file;
+        this.remindedDay = LocalDate.now().toEpochDay() - 1;
+        if (file.exists()) {
+            try {
+                read();
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Returns the store shared by all to-do windows.
+     * Its changes that were not written yet are written when the JVM exits.
+     * @return the default store
+     */
+    public static synchronized TodoStore getDefault() {
+        if (defaultStore == null) {
+            TodoStore store = new TodoStore(new File(TODO_FILE));
+            Runtime.getRuntime().addShutdownHook(new Thread(store::flush, "todo-flush"));
+            defaultStore = store;
+        }
+        return defaultStore;
+    }
+
+    /**
+     * Adds an item.
+     * @param text the description of the item
+     * @param dueText the due date in MM/dd/yyyy format, or an empty string
+     * @return the added item
+     */
+    public TodoItem add(String text, String dueText) {
+        TodoItem item;
+        synchronized (this) {
+            item = new TodoItem(nextId++, text, dueText);
+            index(item);
+            remindLate(null, item);
+            changed();
+        }
+        for (Listener listener : listeners) {
+            listener.itemAdded(item);
+        }
+        return item;
+    }
+
+    /**
+     * Removes an item.
+     * @param item the item to remove
+     * @return true if the item was removed, false if it is no longer current
+     */
+    public boolean remove(TodoItem item) {
+        synchronized (this) {
+            if (!isCurrent(item)) {
+                return false;
+            }
+            unindex(item);
+            changed();
+        }
+        for (Listener listener : listeners) {
+            listener.itemRemoved(item);
+        }
+        return true;
+    }
+
+    /**
+     * Replaces an item with a changed copy of it.
+     * @param item the item to replace
+     * @param changed the changed copy, with the same id
+     * @return true if the item was replaced, false if it is no longer current
+     */
+    public boolean replace(TodoItem item, TodoItem changed) {
+        if (item.getId() != changed.getId()) {
+            throw new IllegalArgumentException("Item " + changed.getId() + " cannot replace item " + item.getId());
+        }
+        synchronized (this) {
+            if (!isCurrent(item)) {
+                return false;
+            }
+            unindex(item);
+            index(changed);
+            remindLate(item, changed);
+            changed();
+        }
+        for (Listener listener : listeners) {
+            listener.itemReplaced(item, changed);
+        }
+        return true;
+    }
+
+    /**
+     * Returns all items ordered by due day.
+     * @return a snapshot of the items
+     */
+    public List<TodoItem> getItems() {
+        return new ArrayList<>(items);
+    }
+
+    /**
+     * Returns the open item that is due first.
+     * @return the item, or null if no open item has a due date
+     */
+    public TodoItem getNextDue() {
+        TodoItem first = openItems.isEmpty() ? null : openItems.first();
+        return first == null || first.getDueDay() == TodoItem.NO_DUE ? null : first;
+    }
+
+    /**
+     * Returns the items due within a range of days, ordered by due day.
+     * @param fromDay the first day, as an epoch day
+     * @param toDay the last day, as an epoch day
+     * @param openOnly true to leave out items that are done
+     * @return the items
+     */
+    public List<TodoItem> getItemsDue(long fromDay, long toDay, boolean openOnly) {
+        NavigableSet<TodoItem> index = openOnly ? openItems : items;
+        return new ArrayList<>(index.subSet(firstOf(fromDay), true, lastOf(toDay), true));
+    }
+
+    /**
+     * Registers a listener for changes.
+     * @param listener the listener
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener for changes.
+     * @param listener the listener
+     */
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Registers a receiver of reminders. Reminders are only fired while there is one.
+     * @param reminderListener receives the open items whose due day has begun, on the scheduler thread
+     */
+    public synchronized void addReminderListener(Consumer<List<TodoItem>> reminderListener) {
+        reminderListeners.add(reminderListener);
+        scheduleReminder();
+    }
+
+    /**
+     * Unregisters a receiver of reminders.
+     * @param reminderListener the receiver
+     */
+    public synchronized void removeReminderListener(Consumer<List<TodoItem>> reminderListener) {
+        reminderListeners.remove(reminderListener);
+        scheduleReminder();
+    }
+
+    /**
+     * Writes the changes that were not written yet.
+     */
+    public void flush() {
+        synchronized (this) {
+            if (pendingSave != null) {
+                pendingSave.cancel(false);
+                pendingSave = null;
+            }
+        }
+        save();
+    }
+
+    /**
+     * Checks that an item is the stored version and not one that was replaced or removed.
+     */
+    private boolean isCurrent(TodoItem item) {
+        return items.ceiling(item) == item;
+    }
+
+    private void index(TodoItem item) {
+        items.add(item);
+        if (!item.isDone()) {
+            openItems.add(item);
+        }
+    }
+
+    private void unindex(TodoItem item) {
+        items.remove(item);
+        openItems.remove(item);
+    }
+
+    /**
+     * Queues a reminder for an item that became open and due on a day already reminded of,
+     * which the scheduled reminders would otherwise skip.
+     * @param previous the item it replaces, or null for a new item
+     * @param item the new or changed item
+     */
+    private synchronized void remindLate(TodoItem previous, TodoItem item) {
+        boolean reminded = previous != null && !previous.isDone() && previous.getDueDay() <= remindedDay
+                && !lateItems.remove(previous);
+        if (!reminded && !item.isDone() && item.getDueDay() <= remindedDay) {
+            lateItems.add(item);
+        }
+    }
+
+    /**
+     * Returns a key sorting before every item due on a day.
+     */
+    private static TodoItem firstOf(long day) {
+        return new TodoItem(Long.MIN_VALUE, "", "", day, false);
+    }
+
+    /**
+     * Returns a key sorting after every item due on a day.
+     */
+    private static TodoItem lastOf(long day) {
+        return new TodoItem(Long.MAX_VALUE, "", "", day, false);
+    }
+
+    /**
+     * Schedules a write of the store and moves the reminder if the next due item changed.
+     */
+    private synchronized void changed() {
+        dirty = true;
+        if (pendingSave == null) {
+            pendingSave = scheduler.schedule(this::save, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        scheduleReminder();
+    }
+
+    /**
+     * Schedules the reminder for the first open item due after the last reminded day,
+     * at the start of the day it is due.
+     */
+    private synchronized void scheduleReminder() {
+        if (pendingReminder != null) {
+            pendingReminder.cancel(false);
+            pendingReminder = null;
+        }
+        if (reminderListeners.isEmpty()) {
+            return;
+        }
+        if (!lateItems.isEmpty()) {
+            pendingReminder = scheduler.schedule(this::fireReminders, 0, TimeUnit.MILLISECONDS);
+            return;
+        }
+        TodoItem next = openItems.higher(lastOf(remindedDay));
+        if (next == null || next.getDueDay() == TodoItem.NO_DUE) {
+            return;
+        }
+        long startOfDay = LocalDate.ofEpochDay(next.getDueDay()).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        long delay = Math.max(0, startOfDay - System.currentTimeMillis());
+        pendingReminder = scheduler.schedule(this::fireReminders, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends the open items whose due day has begun since the last reminder, and the items
+     * that became due on a day already reminded of, to the reminder listeners.
+     */
+    private void fireReminders() {
+        List<TodoItem> due = new ArrayList<>();
+        synchronized (this) {
+            for (TodoItem item : lateItems) {
+                if (isCurrent(item)) {
+                    due.add(item);
+                }
+            }
+            lateItems.clear();
+            long today = LocalDate.now().toEpochDay();
+            if (remindedDay < today) {
+                due.addAll(getItemsDue(remindedDay + 1, today, true));
+                remindedDay = today;
+            }
+            changed();
+        }
+        if (!due.isEmpty()) {
+            for (Consumer<List<TodoItem>> reminderListener : reminderListeners) {
+                reminderListener.accept(due);
+            }
+        }
+    }
+
+    /**
+     * Writes the store to its file if it changed.
+     */
+    private void save() {
+        OperationEvent event = NoteMetrics.begin(NoteMetrics.Operation.SAVE_TODOS);
+        Properties props = new Properties();
+        synchronized (this) {
+            pendingSave = null;
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+            props.setProperty("nextId", Long.toString(nextId));
+            props.setProperty("remindedDay", Long.toString(remindedDay));
+            for (TodoItem item : items) {
+                String key = Long.toString(item.getId());
+                props.setProperty(key + ".text", item.getText());
+                props.setProperty(key + ".due", item.getDueText());
+                props.setProperty(key + ".day", Long.toString(item.getDueDay()));
+                props.setProperty(key + ".done", Boolean.toString(item.isDone()));
+            }
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            props.store(bytes, "To-Do Items");
+            DurableWriter.getDefault().write(file.toPath(), bytes.toByteArray());
+            NoteMetrics.end(event, file.getName(), items.size());
+        } catch (IOException e) {
+            e.printStackTrace();
+            synchronized (this) {
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Reads the items from the file of the store.
+     * @throws IOException if the file cannot be read
+     */
+    private void read() throws IOException {
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            props.load(in);
+        }
+        nextId = Long.parseLong(props.getProperty("nextId", "0"));
+        remindedDay = Long.parseLong(props.getProperty("remindedDay", Long.toString(remindedDay)));
+        for (String key : props.stringPropertyNames()) {
+            if (!key.endsWith(".text")) {
+                continue;
+            }
+            String prefix = key.substring(0, key.length() - ".text".length());
+            long id = Long.parseLong(prefix);
+            index(new TodoItem(id, props.getProperty(key), props.getProperty(prefix + ".due", ""),
+                    Long.parseLong(props.getProperty(prefix + ".day", Long.toString(TodoItem.NO_DUE))),
+                    Boolean.parseBoolean(props.getProperty(prefix + ".done"))));
+            nextId = Math.max(nextId, id + 1);
+        }
+    }
+
+    /**
+     * Receives the changes made to a store.
+     */
+    public interface Listener {
+        /**
+         * Called after an item was added.
+         * @param item the added item
+         */
+        void itemAdded(TodoItem item);
+
+        /**
+         * Called after an item was removed.
+         * @param item the removed item
+         */
+        void itemRemoved(TodoItem item);
+
+        /**
+         * Called after an item was replaced with a changed copy.
+         * @param item the replaced item
+         * @param changed the changed copy
+         */
+        void itemReplaced(TodoItem item, TodoItem changed);
+    }
+}
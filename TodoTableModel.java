@@ -0,0 +1,166 @@
+package Prototype;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Table model showing the items of a TodoStore sorted by due date, items without a date last.
+ * The model keeps only the row order: edits go to the store, and the store's change events
+ * place items by binary search and fire table events for the affected rows only, so the
+ * table repaints just those rows and only when they are visible.
+ */
+public class TodoTableModel extends AbstractTableModel implements TodoStore.Listener {
+    private static final long serialVersionUID = 1L;
+    static final int DONE_COLUMN = 0;
+    static final int TEXT_COLUMN = 1;
+    static final int DUE_COLUMN = 2;
+    private static final String[] COLUMN_NAMES = {"Done", "To-Do", "Due (MM/dd/yyyy)"};
+
+    // The store holding the items
+    private final TodoStore store;
+    // The items in due date order
+    private final List<TodoItem> items;
+
+    /**
+     * Constructs a model showing the items of a store.
+     * @param store the store holding the items
+     */
+    public TodoTableModel(TodoStore store) {
+        this.store = store;
+        this.items = new ArrayList<>(store.getItems());
+        store.addListener(this);
+    }
+
+    /**
+     * Stops following the changes of the store.
+     */
+    public void dispose() {
+        store.removeListener(this);
+    }
+
+    @Override
+    public int getRowCount() {
+        return items.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == DONE_COLUMN ? Boolean.class : String.class;
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return true;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        TodoItem item = items.get(row);
+        switch (column) {
+            case DONE_COLUMN:
+                return item.isDone();
+            case TEXT_COLUMN:
+                return item.getText();
+            default:
+                return item.getDueText();
+        }
+    }
+
+    /**
+     * Stores an edited cell. The row follows in the store's change event.
+     */
+    @Override
+    public void setValueAt(Object value, int row, int column) {
+        TodoItem item = items.get(row);
+        switch (column) {
+            case DONE_COLUMN:
+                store.replace(item, item.withDone((Boolean) value));
+                break;
+            case TEXT_COLUMN:
+                store.replace(item, item.withText((String) value));
+                break;
+            default:
+                store.replace(item, item.withDue((String) value));
+        }
+    }
+
+    /**
+     * Returns the item in a row.
+     * @param row the row index
+     * @return the item
+     */
+    public TodoItem getItem(int row) {
+        return items.get(row);
+    }
+
+    /**
+     * Finds the row of an item by binary search.
+     * @param item the item
+     * @return the row, or -1 if the item is not shown
+     */
+    public int indexOf(TodoItem item) {
+        int row = Collections.binarySearch(items, item, TodoStore.DUE_ORDER);
+        return row >= 0 && items.get(row) == item ? row : -1;
+    }
+
+    @Override
+    public void itemAdded(TodoItem item) {
+        OperationEvent event = NoteMetrics.begin(NoteMetrics.Operation.UPDATE_TODOS);
+        insert(item);
+        NoteMetrics.end(event, item.getText(), items.size());
+    }
+
+    /**
+     * Inserts an item at its sorted position.
+     */
+    private void insert(TodoItem item) {
+        int row = -Collections.binarySearch(items, item, TodoStore.DUE_ORDER) - 1;
+        items.add(row, item);
+        fireTableRowsInserted(row, row);
+    }
+
+    @Override
+    public void itemRemoved(TodoItem item) {
+        int row = indexOf(item);
+        if (row >= 0) {
+            items.remove(row);
+            fireTableRowsDeleted(row, row);
+        }
+    }
+
+    /**
+     * Updates the row of a changed item, moving it if its due date sorts elsewhere now.
+     */
+    @Override
+    public void itemReplaced(TodoItem item, TodoItem changed) {
+        OperationEvent event = NoteMetrics.begin(NoteMetrics.Operation.UPDATE_TODOS);
+        try {
+            int row = indexOf(item);
+            if (row < 0) {
+                return;
+            }
+            if (TodoStore.DUE_ORDER.compare(item, changed) == 0) {
+                items.set(row, changed);
+                fireTableRowsUpdated(row, row);
+            } else {
+                items.remove(row);
+                fireTableRowsDeleted(row, row);
+                insert(changed);
+            }
+        } finally {
+            NoteMetrics.end(event, changed.getText(), items.size());
+        }
+    }
+}
@@ -13,6 +13,7 @@ public abstract class Window {
 
         this.frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
         this.frame.setSize(this.width, this.height);
+        NoteMetrics.install();
         this.initialize();
     }
 
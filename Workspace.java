@@ -0,0 +1,361 @@
+package Prototype;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The folders the user has chosen, keyed by canonical path so that a folder chosen twice,
+ * or through another path, is registered once. At most a bounded number of folders are open
+ * at a time; opening one more closes the one used least recently. On exit the workspace is
+ * saved as a compact snapshot holding the titles, creation and modification times of the
+ * notes of every open folder, so the next launch can list them without touching the storage and check
+ * them against the disk in the background. The workspace is used on the event thread.
+ */
+public class Workspace {
+    // System property naming the snapshot file
+    static final String SNAPSHOT_PROPERTY = "notes.workspace";
+    // System property bounding the number of open folders
+    static final String MAX_OPEN_PROPERTY = "notes.workspace.maxOpen";
+    static final int DEFAULT_MAX_OPEN = 8;
+    // Starts the snapshot file, followed by its layout version
+    private static final int SNAPSHOT_MAGIC = 0x4E575350;
+    private static final int SNAPSHOT_VERSION = 2;
+    // Version 1 snapshots lack modification times and are still read
+    private static final int FIRST_SNAPSHOT_VERSION = 1;
+
+    // Registered folders by canonical path, least recently used first
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Registered folders in the order they were registered
+    private final List<Entry> registered = new ArrayList<>();
+    // The most folders kept open
+    private final int maxOpen;
+    // The folder selected when the snapshot was saved, or null
+    private Entry restoredSelection;
+
+    /**
+     * Constructs an empty workspace.
+     * @param maxOpen the most folders kept open at a time
+     */
+    public Workspace(int maxOpen) {
+        this.maxOpen = Math.max(1, maxOpen);
+    }
+
+    /**
+     * Returns the snapshot file named by the notes.workspace system property.
+     * @return the file, by default in the user's home folder
+     */
+    public static File defaultSnapshotFile() {
+        String path = System.getProperty(SNAPSHOT_PROPERTY);
+        return path != null ? new File(path) : new File(System.getProperty("user.home"), ".notes-workspace");
+    }
+
+    /**
+     * Registers a folder, or returns its entry if it is already registered under any path.
+     * @param directory the folder
+     * @return the entry of the folder
+     * @throws IOException if the canonical path cannot be resolved
+     */
+    public Entry register(File directory) throws IOException {
+        String path = directory.getCanonicalPath();
+        Entry entry = entries.get(path);
+        if (entry == null) {
+            entry = new Entry(path);
+            entries.put(path, entry);
+            registered.add(entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the registered folders in the order they were registered.
+     * @return an unmodifiable view of the entries
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(registered);
+    }
+
+    /**
+     * Opens the folder of an entry if it is closed and marks it as used most recently.
+     * A folder opened from the snapshot lists the notes saved there; check it with needsVerify.
+     * Opening a folder beyond the bound closes the open folder used least recently.
+     * @param entry the entry
+     * @param keep an open folder that must not be closed, or null
+     * @param closed receives the folders closed to stay within the bound; the caller closes their storage
+     * @return the open folder
+     */
+    public Folder open(Entry entry, Folder keep, List<Folder> closed) {
+        entries.get(entry.path);  // Most recently used
+        if (entry.folder == null) {
+            entry.folder = entry.known != null ? new Folder(entry.path, entry.known) : new Folder(entry.path);
+            entry.unverified = entry.known != null;
+            entry.known = null;
+        }
+        int open = getOpenFolders().size();
+        for (Iterator<Entry> it = entries.values().iterator(); open > maxOpen && it.hasNext(); ) {
+            Entry eldest = it.next();
+            if (eldest != entry && eldest.folder != null && eldest.folder != keep) {
+                closed.add(eldest.folder);
+                eldest.folder = null;
+                eldest.unverified = false;
+                open--;
+            }
+        }
+        return entry.folder;
+    }
+
+    /**
+     * Checks whether an entry's folder was opened from the snapshot and not checked against the disk yet,
+     * and marks it as checked.
+     * @param entry the entry
+     * @return true the first time it is called after the folder was opened from the snapshot
+     */
+    public boolean needsVerify(Entry entry) {
+        boolean unverified = entry.unverified;
+        entry.unverified = false;
+        return unverified;
+    }
+
+    /**
+     * Finds an open folder by its location.
+     * @param directory the folder location, under any path
+     * @return the folder, or null if it is not open
+     */
+    public Folder find(File directory) {
+        Entry entry = entries.get(canonicalPath(directory));
+        return entry == null ? null : entry.folder;
+    }
+
+    /**
+     * Finds the entry of an open folder.
+     * @param folder the folder
+     * @return the entry, or null if the folder is no longer open
+     */
+    public Entry entryOf(Folder folder) {
+        for (Entry entry : registered) {
+            if (entry.folder == folder) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether a folder is open in this workspace.
+     * @param folder the folder
+     * @return true if it is open
+     */
+    public boolean isOpen(Folder folder) {
+        return entryOf(folder) != null;
+    }
+
+    /**
+     * Returns the open folders.
+     * @return a copy of the open folders in the order they were registered
+     */
+    public List<Folder> getOpenFolders() {
+        List<Folder> open = new ArrayList<>();
+        for (Entry entry : registered) {
+            if (entry.folder != null) {
+                open.add(entry.folder);
+            }
+        }
+        return open;
+    }
+
+    /**
+     * Returns the folder that was selected when the restored snapshot was saved.
+     * @return the entry, or null if there was none
+     */
+    public Entry getRestoredSelection() {
+        return restoredSelection;
+    }
+
+    /**
+     * Encodes the registered folders and the notes of the open ones.
+     * Only titles, creation and modification times are kept, never note content.
+     * @param selected the selected folder, or null
+     * @return the snapshot
+     */
+    public byte[] snapshot(Entry selected) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(registered.indexOf(selected));
+            out.writeInt(registered.size());
+            for (Entry entry : registered) {
+                out.writeUTF(entry.path);
+                List<Note> notes = entry.folder == null ? Collections.emptyList() : entry.folder.getNotes();
+                out.writeBoolean(entry.folder != null);
+                if (entry.folder != null) {
+                    out.writeInt(notes.size());
+                    for (Note note : notes) {
+                        out.writeUTF(note.getTitle());
+                        writeTime(out, note.getCreationTime());
+                        LocalDateTime modifiedTime = note.getModifiedTime();
+                        out.writeBoolean(modifiedTime != null);
+                        if (modifiedTime != null) {
+                            writeTime(out, modifiedTime);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);  // Not thrown by a ByteArrayOutputStream
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Saves a snapshot durably, replacing the previous one.
+     * @param snapshot the snapshot made by snapshot
+     * @param file the snapshot file
+     * @throws IOException if the snapshot cannot be written
+     */
+    public static void save(byte[] snapshot, File file) throws IOException {
+        DurableWriter.getDefault().write(file.toPath(), snapshot);
+    }
+
+    /**
+     * Restores a workspace from a snapshot. Folders that no longer exist are left out.
+     * The folders open when the snapshot was saved are registered with their notes but
+     * not opened; opening them lists those notes without reading the storage.
+     * A missing or damaged snapshot gives an empty workspace.
+     * @param file the snapshot file
+     * @param maxOpen the most folders kept open at a time
+     * @return the workspace
+     */
+    public static Workspace restore(File file, int maxOpen) {
+        Workspace workspace = new Workspace(maxOpen);
+        try (InputStream stream = Files.newInputStream(file.toPath());
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+            int version;
+            if (in.readInt() != SNAPSHOT_MAGIC || (version = in.readInt()) < FIRST_SNAPSHOT_VERSION || version > SNAPSHOT_VERSION) {
+                return workspace;
+            }
+            int selected = in.readInt();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(in.readUTF());
+                if (in.readBoolean()) {
+                    int noteCount = in.readInt();
+                    List<Note> notes = new ArrayList<>(noteCount);
+                    for (int j = 0; j < noteCount; j++) {
+                        Note note = new Note(in.readUTF(), null, readTime(in));
+                        if (version > FIRST_SNAPSHOT_VERSION && in.readBoolean()) {
+                            note.setModifiedTime(readTime(in));
+                        }
+                        notes.add(note);
+                    }
+                    entry.known = notes;
+                }
+                if (!new File(entry.path).isDirectory() || workspace.entries.containsKey(entry.path)) {
+                    continue;
+                }
+                workspace.entries.put(entry.path, entry);
+                workspace.registered.add(entry);
+                if (i == selected) {
+                    workspace.restoredSelection = entry;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // First launch
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return new Workspace(maxOpen);
+        }
+        return workspace;
+    }
+
+    /**
+     * Returns the folders restored with their notes, the ones open when the snapshot was saved.
+     * @return the entries, most recently selected last
+     */
+    public List<Entry> getRestoredOpen() {
+        List<Entry> open = new ArrayList<>();
+        for (Entry entry : registered) {
+            if (entry.known != null && entry != restoredSelection) {
+                open.add(entry);
+            }
+        }
+        if (restoredSelection != null && restoredSelection.known != null) {
+            open.add(restoredSelection);
+        }
+        return open;
+    }
+
+    private static void writeTime(DataOutputStream out, LocalDateTime time) throws IOException {
+        out.writeLong(time.toEpochSecond(ZoneOffset.UTC));
+        out.writeInt(time.getNano());
+    }
+
+    private static LocalDateTime readTime(DataInputStream in) throws IOException {
+        return LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+    }
+
+    private static String canonicalPath(File directory) {
+        try {
+            return directory.getCanonicalPath();
+        } catch (IOException e) {
+            return directory.getAbsolutePath();
+        }
+    }
+
+    /**
+     * A registered folder, open or closed. Shown in the folder combo box by its name.
+     */
+    public static class Entry {
+        // Canonical path of the folder
+        private final String path;
+        // The folder while it is open, otherwise null
+        private Folder folder;
+        // Notes from the snapshot, until the folder is opened
+        private List<Note> known;
+        // Whether the open folder lists notes from the snapshot that were not checked yet
+        private boolean unverified;
+
+        Entry(String path) {
+            this.path = path;
+        }
+
+        /**
+         * Returns the canonical path of the folder.
+         * @return the path
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Returns the folder while it is open.
+         * @return the folder, or null if it is closed
+         */
+        public Folder getFolder() {
+            return folder;
+        }
+
+        /**
+         * Returns the name shown for the folder.
+         * @return the name of the folder's directory
+         */
+        @Override
+        public String toString() {
+            return new File(path).getName();
+        }
+    }
+}
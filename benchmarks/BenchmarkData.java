@@ -0,0 +1,48 @@
+package Prototype;
+
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Generates the data the benchmarks work on.
+ */
+class BenchmarkData {
+    private static final String[] WORDS = {
+        "note", "folder", "meeting", "draft", "idea", "review", "budget", "travel",
+        "recipe", "project", "deadline", "summary", "question", "answer", "list", "plan"
+    };
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Generates text of words and line breaks.
+     * @param length the number of characters
+     * @param seed the random seed, so runs are repeatable
+     * @return the text
+     */
+    static String text(int length, long seed) {
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder(length + 16);
+        while (text.length() < length) {
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+            text.append(random.nextInt(12) == 0 ? '\n' : ' ');
+        }
+        text.setLength(length);
+        return text.toString();
+    }
+
+    /**
+     * Deletes a folder and everything in it.
+     * @param file the folder
+     */
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,78 @@
+package Prototype;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures looking up notes by title in folders of different sizes.
+ * The notes are added in memory only, so large folders do not need files.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx2g"})
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FolderLookupBenchmark {
+    // Titles looked up, in random order so lookups do not follow the insertion order
+    private static final int LOOKUPS = 4096;
+
+    // Number of notes in the folder
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int noteCount;
+
+    private File directory;
+    private Folder folder;
+    private String[] titles;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("folder-bench").toFile();
+        folder = new Folder(directory.getPath());
+        LocalDateTime created = LocalDateTime.of(2024, 1, 1, 0, 0);
+        for (int i = 0; i < noteCount; i++) {
+            folder.addNote(new Note("note-" + i, "", created.plusSeconds(i)));
+        }
+        Random random = new Random(7);
+        titles = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            titles[i] = "note-" + random.nextInt(noteCount);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        folder.close();
+        BenchmarkData.delete(directory);
+    }
+
+    @Benchmark
+    public Note getNoteByTitle() {
+        next = (next + 1) & (LOOKUPS - 1);
+        return folder.getNoteByTitle(titles[next]);
+    }
+
+    @Benchmark
+    public Note getNoteByTitleMissing() {
+        next = (next + 1) & (LOOKUPS - 1);
+        return folder.getNoteByTitle(titles[next] + "-missing");
+    }
+}
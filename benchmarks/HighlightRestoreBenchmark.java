@@ -0,0 +1,83 @@
+package Prototype;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.swing.JTextArea;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures restoring the highlights of a note: decoding the stored runs, installing them
+ * in the text area's highlighter, and painting the visible part of the text area.
+ * Runs headless; the text area is painted into an image and never shown.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HighlightRestoreBenchmark {
+    // Number of highlighted runs, one every 20 characters
+    @Param({"100", "10000", "100000"})
+    public int highlightCount;
+
+    private String encoded;
+    private JTextArea textArea;
+    private RunHighlighter highlighter;
+    private BufferedImage image;
+    private Graphics2D graphics;
+
+    @Setup
+    public void setup() {
+        HighlightModel model = new HighlightModel();
+        for (int i = 0; i < highlightCount; i++) {
+            model.add(i * 20, i * 20 + 8, i % 3 == 0 ? HighlightModel.DEFAULT_RGB : 0xFFAFAF);
+        }
+        encoded = model.encode();
+        textArea = new JTextArea(BenchmarkData.text(highlightCount * 20, 3));
+        highlighter = new RunHighlighter();
+        textArea.setHighlighter(highlighter);
+        textArea.setLineWrap(true);
+        textArea.setSize(800, 600);
+        image = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+        graphics = image.createGraphics();
+        graphics.setClip(0, 0, 800, 600);
+        highlighter.setModel(model);
+    }
+
+    @TearDown
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public HighlightModel decode() {
+        return HighlightModel.decode(encoded);
+    }
+
+    @Benchmark
+    public HighlightModel restore() {
+        HighlightModel model = HighlightModel.decode(encoded);
+        highlighter.setModel(model);
+        return model;
+    }
+
+    @Benchmark
+    public BufferedImage paintVisible() {
+        textArea.paint(graphics);
+        return image;
+    }
+}
@@ -0,0 +1,78 @@
+package Prototype;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures saving and loading a note as a text file and as a properties file with highlights,
+ * the formats written by Note and the folder storage.
+ * The properties note has one highlight for every 256 characters.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class NotePersistenceBenchmark {
+    // Number of characters in the note
+    @Param({"1024", "65536", "1048576"})
+    public int noteSize;
+
+    private File folder;
+    private Note note;
+    private File propertiesFile;
+
+    @Setup
+    public void setup() throws IOException {
+        folder = Files.createTempDirectory("note-bench").toFile();
+        note = new Note("benchmark", BenchmarkData.text(noteSize, 42));
+        for (int start = 0; start + 16 < noteSize; start += 256) {
+            note.getHighlights().add(start, start + 16, start % 512 == 0 ? HighlightModel.DEFAULT_RGB : 0xFFAFAF);
+        }
+        note.saveToFile(folder.getPath());
+        propertiesFile = note.saveToProperties(folder);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkData.delete(folder);
+    }
+
+    @Benchmark
+    public void saveToFile() {
+        note.saveToFile(folder.getPath());
+    }
+
+    @Benchmark
+    public String loadFromFile() {
+        Note loaded = new Note(note.getTitle(), "");
+        loaded.loadFromFile(folder.getPath());
+        return loaded.getContent();
+    }
+
+    @Benchmark
+    public File saveToProperties() throws IOException {
+        return note.saveToProperties(folder);
+    }
+
+    @Benchmark
+    public Note loadFromProperties() throws IOException {
+        return Note.loadFromProperties(propertiesFile);
+    }
+}
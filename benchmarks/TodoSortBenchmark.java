@@ -0,0 +1,97 @@
+package Prototype;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of ordering to-do items by due date: sorting with the epoch-day
+ * comparator, sorting with the comparator ToDoListApp used to have, which parsed both
+ * dates on every comparison, and placing one new item by binary search.
+ * One item in ten has no due date.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TodoSortBenchmark {
+    // The comparator sortTodoItems used before due dates were parsed once, with two
+    // undated items comparing equal so TimSort accepts it
+    private static final Comparator<TodoItem> PARSING_ORDER = (item1, item2) -> {
+        Date date1 = parseDate(item1.getDueText());
+        Date date2 = parseDate(item2.getDueText());
+        if (date1 == null) return date2 == null ? 0 : 1;
+        if (date2 == null) return -1;
+        return date1.compareTo(date2);
+    };
+
+    // Number of to-do items
+    @Param({"1000", "10000", "100000"})
+    public int itemCount;
+
+    private List<TodoItem> items;
+    private List<TodoItem> sortedItems;
+    private TodoItem newItem;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(11);
+        items = new ArrayList<>(itemCount);
+        for (int i = 0; i < itemCount; i++) {
+            String due = random.nextInt(10) == 0 ? ""
+                    : (1 + random.nextInt(12)) + "/" + (1 + random.nextInt(28)) + "/" + (2020 + random.nextInt(10));
+            items.add(new TodoItem(i, "item " + i, due));
+        }
+        sortedItems = new ArrayList<>(items);
+        sortedItems.sort(TodoStore.DUE_ORDER);
+        newItem = new TodoItem(itemCount, "new item", "6/15/2025");
+    }
+
+    @Benchmark
+    public List<TodoItem> sortByDueDay() {
+        List<TodoItem> sorted = new ArrayList<>(items);
+        sorted.sort(TodoStore.DUE_ORDER);
+        return sorted;
+    }
+
+    @Benchmark
+    public List<TodoItem> sortParsingDates() {
+        List<TodoItem> sorted = new ArrayList<>(items);
+        sorted.sort(PARSING_ORDER);
+        return sorted;
+    }
+
+    @Benchmark
+    public int insertionPoint() {
+        return Collections.binarySearch(sortedItems, newItem, TodoStore.DUE_ORDER);
+    }
+
+    private static Date parseDate(String dateStr) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+        try {
+            return dateFormat.parse(dateStr);
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+}
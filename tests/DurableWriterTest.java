@@ -0,0 +1,46 @@
+package Prototype;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DurableWriterTest {
+    @TempDir
+    File temp;
+
+    @Test
+    void writesPastTemporaryFilesOfAnEarlierRun() throws IOException {
+        Path target = temp.toPath().resolve("note.properties");
+        Files.write(target.resolveSibling("note.properties" + DurableWriter.TEMP_MARKER + "1"), new byte[] {1});
+        new DurableWriter(0).write(target, "saved".getBytes(StandardCharsets.UTF_8));
+        assertEquals("saved", new String(Files.readAllBytes(target), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void sweepsTemporaryFilesLeftByACrashWhenTheFolderIsOpened() throws IOException {
+        Path stale = temp.toPath().resolve("note.properties" + DurableWriter.TEMP_MARKER + "1");
+        Path fresh = temp.toPath().resolve("other.properties" + DurableWriter.TEMP_MARKER + "2");
+        Path note = temp.toPath().resolve("kept.properties");
+        for (Path file : new Path[] {stale, fresh, note}) {
+            Files.write(file, new byte[] {1});
+        }
+        Files.setLastModifiedTime(stale, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1)));
+        Files.setLastModifiedTime(note, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1)));
+
+        NoteStorage.open(temp).close();
+        assertFalse(Files.exists(stale));
+        assertTrue(Files.exists(fresh), "may still be renamed by another process");
+        assertTrue(Files.exists(note));
+    }
+}
@@ -0,0 +1,202 @@
+package Prototype;
+
+import org.junit.jupiter.api.Test;
+
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.undo.UndoManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FindEngineTest {
+    @Test
+    void literalFinderMatchesIndexOf() {
+        Random random = new Random(1);
+        for (int round = 0; round < 2000; round++) {
+            String text = randomText(random, random.nextInt(200), "abAB kKsſ\n");
+            String query = randomText(random, 1 + random.nextInt(4), "abABks");
+            boolean matchCase = random.nextBoolean();
+            FindMatches found = new FindMatches();
+            TextFinder.literal(query, matchCase).findAll(text, 0, text.length(), 0, found);
+            assertEquals(indexOfMatches(text, query, matchCase), list(found), text + " / " + query);
+        }
+    }
+
+    @Test
+    void replaceKeepsMatchesOutsideTheRange() {
+        FindMatches matches = matches(0, 2, 4, 6, 10, 12, 20, 22);
+        matches.replace(4, 12, matches(5, 7, 8, 9));
+        assertEquals(list(matches(0, 2, 5, 7, 8, 9, 20, 22)), list(matches));
+
+        matches.replace(3, 6, matches(1, 3, 3, 5));  // Overlaps the match before the range and the one after
+        assertEquals(list(matches(0, 2, 3, 5, 8, 9, 20, 22)), list(matches));
+
+        matches.insertUpdate(8, 3);
+        assertEquals(list(matches(0, 2, 3, 5, 11, 12, 23, 25)), list(matches));
+        matches.insertUpdate(24, 1);  // Into a match, which is dropped
+        assertEquals(list(matches(0, 2, 3, 5, 11, 12)), list(matches));
+        matches.removeUpdate(1, 3);
+        assertEquals(list(matches(8, 9)), list(matches));
+    }
+
+    @Test
+    void literalMatchesFollowEditsLikeAFullScan() throws Exception {
+        checkEdits("aa", false, true, "aab \n");
+        checkEdits("aBa", false, false, "abAB \n");
+    }
+
+    @Test
+    void regexMatchesFollowEditsLikeAFullScan() throws Exception {
+        checkEdits("a+b\\b", true, true, "aab \n");
+        checkEdits("b\\n[ax]+", true, false, "abAx \n");
+    }
+
+    @Test
+    void replaceAllIsUndoneInOneStep() throws Exception {
+        JTextArea area = onEventThread(() -> new JTextArea("one two one\nthree one\n"));
+        FindEngine engine = onEventThread(() -> new FindEngine(area, new RunHighlighter(), () -> { }));
+        UndoManager undo = new UndoManager();
+        onEventThread(() -> {
+            area.getDocument().addUndoableEditListener(undo);
+            engine.setQuery("one", false, true);
+            return null;
+        });
+        awaitScan(engine);
+        assertEquals(3, (int) onEventThread(() -> engine.replaceAll("1")));
+        assertEquals("1 two 1\nthree 1\n", onEventThread(area::getText));
+        onEventThread(() -> {
+            undo.undo();
+            return null;
+        });
+        assertEquals("one two one\nthree one\n", onEventThread(area::getText));
+        assertFalse(undo.canUndo());
+        engine.close();
+    }
+
+    /**
+     * Makes random edits while the engine finds a query, and compares its matches with a full scan.
+     */
+    private static void checkEdits(String query, boolean regex, boolean matchCase, String alphabet) throws Exception {
+        TextFinder finder = regex ? TextFinder.regex(query, matchCase) : TextFinder.literal(query, matchCase);
+        Random random = new Random(query.hashCode());
+        JTextArea area = onEventThread(() -> new JTextArea(randomText(random, 5000, alphabet)));
+        FindEngine engine = onEventThread(() -> {
+            FindEngine created = new FindEngine(area, new RunHighlighter(), () -> { });
+            created.setQuery(query, regex, matchCase);
+            return created;
+        });
+        try {
+            for (int round = 0; round < 30; round++) {
+                int edits = 1 + random.nextInt(10);
+                for (int i = 0; i < edits; i++) {
+                    onEventThread(() -> {
+                        Document document = area.getDocument();
+                        int offset = random.nextInt(document.getLength() + 1);
+                        if (random.nextBoolean()) {
+                            document.insertString(offset, randomText(random, 1 + random.nextInt(5), alphabet), null);
+                        } else {
+                            document.remove(offset, Math.min(document.getLength() - offset, 1 + random.nextInt(5)));
+                        }
+                        return null;
+                    });
+                }
+                awaitScan(engine);
+                String text = onEventThread(area::getText);
+                FindMatches full = new FindMatches();
+                finder.findAll(text, 0, text.length(), 0, full);
+                assertEquals(list(full), onEventThread(() -> shownMatches(area, engine)), "round " + round);
+            }
+        } finally {
+            engine.close();
+        }
+    }
+
+    /**
+     * Lists the matches of an engine by stepping through them from the start of the document.
+     */
+    private static List<List<Integer>> shownMatches(JTextArea area, FindEngine engine) {
+        List<List<Integer>> shown = new ArrayList<>();
+        area.setCaretPosition(0);
+        for (int i = 0; i < engine.getMatchCount(); i++) {
+            engine.next();
+            shown.add(List.of(area.getSelectionStart(), area.getSelectionEnd()));
+        }
+        return shown;
+    }
+
+    private static void awaitScan(FindEngine engine) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (onEventThread(engine::isScanning)) {
+            assertTrue(System.currentTimeMillis() < deadline, "scan did not finish");
+            Thread.sleep(2);
+        }
+    }
+
+    private static <T> T onEventThread(Callable<T> task) throws Exception {
+        Object[] result = new Object[1];
+        Exception[] failure = new Exception[1];
+        SwingUtilities.invokeAndWait(() -> {
+            try {
+                result[0] = task.call();
+            } catch (Exception e) {
+                failure[0] = e;
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        @SuppressWarnings("unchecked")
+        T value = (T) result[0];
+        return value;
+    }
+
+    private static String randomText(Random random, int length, String alphabet) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return text.toString();
+    }
+
+    private static List<List<Integer>> indexOfMatches(String text, String query, boolean matchCase) {
+        String folded = matchCase ? text : fold(text);
+        String pattern = matchCase ? query : fold(query);
+        List<List<Integer>> found = new ArrayList<>();
+        for (int i = folded.indexOf(pattern); i >= 0; i = folded.indexOf(pattern, i + pattern.length())) {
+            found.add(List.of(i, i + pattern.length()));
+        }
+        return found;
+    }
+
+    private static String fold(String text) {
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+
+    private static FindMatches matches(int... offsets) {
+        FindMatches matches = new FindMatches();
+        for (int i = 0; i < offsets.length; i += 2) {
+            matches.add(offsets[i], offsets[i + 1]);
+        }
+        return matches;
+    }
+
+    private static List<List<Integer>> list(FindMatches matches) {
+        List<List<Integer>> list = new ArrayList<>();
+        for (int i = 0; i < matches.size(); i++) {
+            list.add(List.of(matches.getStart(i), matches.getEnd(i)));
+        }
+        return list;
+    }
+}
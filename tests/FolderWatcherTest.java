@@ -0,0 +1,45 @@
+package Prototype;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FolderWatcherTest {
+    @TempDir
+    File temp;
+
+    @Test
+    void reportsChangedNotesWithTheirStoredModifiedTime() throws Exception {
+        try (NoteEngine engine = new NoteEngine()) {
+            engine.create(temp, "older", "first");
+            engine.create(temp, "newer", "second");
+            Folder folder = engine.open(temp);
+            assertTrue(folder.getStorage() instanceof LegacyNoteStorage);
+
+            // Another program rewrites the older note later than anything this program saved
+            LocalDateTime later = LocalDateTime.now().plusHours(1).withNano(0);
+            File file = ((LegacyNoteStorage) folder.getStorage()).getNoteFile("older");
+            Files.setLastModifiedTime(file.toPath(), FileTime.from(later.atZone(ZoneId.systemDefault()).toInstant()));
+
+            FolderWatcher.Change change = FolderWatcher.diff(folder, Set.of("older"));
+            assertEquals(Set.of("older"), change.getChanged());
+            Note stored = change.getChangedNotes().iterator().next();
+            assertEquals(later, stored.getModifiedTime());
+
+            folder.addNote(stored);
+            List<Note> modified = folder.getNotes(Folder.Order.MODIFIED);
+            assertEquals("older", modified.get(modified.size() - 1).getTitle());
+            assertEquals(later, folder.getNoteByTitle("older").getModifiedTime());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package Prototype;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HighlightModelTest {
+    @Test
+    void followsEditsAroundRuns() {
+        HighlightModel model = new HighlightModel();
+        model.add(2, 5, 0xFF0000);
+        model.add(8, 10, 0x00FF00);
+        model.insertUpdate(3, 4);  // Inside the first run: it grows
+        model.insertUpdate(12, 1);  // At the start of the second run: it moves
+        assertEquals("ff0000,00ff00;2,7,0;4,2,1", model.encode());
+        model.removeUpdate(5, 9);  // Ends the first run and starts into the second
+        assertEquals("ff0000,00ff00;2,3,0;0,1,1", model.encode());
+        model.add(6, 7, 0xFF0000);
+        model.removeUpdate(5, 1);  // The red runs now touch and become one
+        assertEquals("ff0000;2,4,0", model.encode());
+    }
+
+    @Test
+    void matchesAModelOfOneColorPerCharacter() {
+        Random random = new Random(8);
+        for (int round = 0; round < 200; round++) {
+            HighlightModel model = new HighlightModel();
+            List<Integer> colors = new ArrayList<>();  // The color of each character, -1 if none
+            for (int i = random.nextInt(50); i > 0; i--) {
+                colors.add(-1);
+            }
+            HighlightModel copy = null;
+            String copied = null;
+            for (int step = 0; step < 100; step++) {
+                int offset = random.nextInt(colors.size() + 1);
+                int length = random.nextInt(8);
+                switch (random.nextInt(3)) {
+                    case 0: {
+                        int end = Math.min(colors.size(), offset + length);
+                        int rgb = random.nextInt(3) * 0x7F7F7F;
+                        model.add(offset, end, rgb);
+                        for (int i = offset; i < end; i++) {
+                            colors.set(i, rgb);
+                        }
+                        break;
+                    }
+                    case 1: {
+                        boolean inside = offset > 0 && offset < colors.size() && colors.get(offset - 1) != -1
+                                && colors.get(offset - 1).equals(colors.get(offset));
+                        int rgb = inside ? colors.get(offset) : -1;
+                        model.insertUpdate(offset, length);
+                        for (int i = 0; i < length; i++) {
+                            colors.add(offset, rgb);
+                        }
+                        break;
+                    }
+                    default: {
+                        length = Math.min(length, colors.size() - offset);
+                        model.removeUpdate(offset, length);
+                        colors.subList(offset, offset + length).clear();
+                    }
+                }
+                assertEquals(runsOf(colors), describe(model.getRuns()), "round " + round + " step " + step);
+                int from = random.nextInt(colors.size() + 1);
+                int to = from + random.nextInt(10);
+                assertEquals(runsOf(colors, from, to), describe(model.getRuns(from, to)));
+                assertEquals(model.encode(), HighlightModel.decode(model.encode()).encode());
+                if (step == 50) {
+                    copy = model.copy();
+                    copied = model.encode();
+                }
+            }
+            assertEquals(copied, copy.encode(), "a copy does not follow later edits");
+            assertEquals(runsOf(colors).size(), model.size());
+        }
+    }
+
+    private static List<String> runsOf(List<Integer> colors) {
+        return runsOf(colors, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    private static List<String> runsOf(List<Integer> colors, int from, int to) {
+        List<String> runs = new ArrayList<>();
+        int i = 0;
+        while (i < colors.size()) {
+            int start = i;
+            int rgb = colors.get(i);
+            while (i < colors.size() && colors.get(i) == rgb) {
+                i++;
+            }
+            if (rgb != -1 && start < to && i > from) {
+                runs.add(start + "-" + i + ":" + rgb);
+            }
+        }
+        return runs;
+    }
+
+    private static List<String> describe(List<HighlightModel.Run> runs) {
+        List<String> described = new ArrayList<>();
+        for (HighlightModel.Run run : runs) {
+            described.add(run.getStart() + "-" + run.getEnd() + ":" + run.getRgb());
+        }
+        return described;
+    }
+}
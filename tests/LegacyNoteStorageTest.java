@@ -0,0 +1,89 @@
+package Prototype;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LegacyNoteStorageTest {
+    @TempDir
+    File temp;
+
+    @Test
+    void saveAllReplacesNotesUnderTheirLocks() throws Exception {
+        LegacyNoteStorage storage = new LegacyNoteStorage(temp);
+        storage.save(new Note("note 1", "first"));
+        long stamp = storage.stamp("note 1");
+
+        List<Note> notes = new ArrayList<>();
+        for (int i = 0; i < 3 * NoteLocks.STRIPES; i++) {
+            notes.add(new Note("note " + i, "batch " + i));  // Several notes share each stripe
+        }
+        storage.saveAll(notes);
+        assertEquals("batch 1", storage.load("note 1").getContent());
+        assertThrows(StaleNoteException.class, () -> storage.saveIfUnchanged(new Note("note 1", "stale"), stamp));
+
+        // The batch released every stripe: another thread can lock each note
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> saved = other.submit(() -> {
+                for (Note note : notes) {
+                    storage.save(new Note(note.getTitle(), "again"));
+                }
+                return null;
+            });
+            saved.get(10, TimeUnit.SECONDS);
+        } finally {
+            other.shutdownNow();
+        }
+        assertEquals("again", storage.load("note 7").getContent());
+        storage.close();
+    }
+
+    @Test
+    void lockAllLocksEachStripeOnce() throws IOException {
+        NoteLocks locks = NoteLocks.acquire(temp);
+        try {
+            NoteLocks.Held held = locks.lockAll(List.of("a", "b", "a", "c"));
+            NoteLocks.Held again = locks.lock("b");  // Reentrant for the holding thread
+            again.unlock();
+            held.unlock();
+        } finally {
+            locks.release();
+        }
+    }
+
+    @Test
+    void listsTheCreationTimeStoredInTheNote() throws IOException {
+        LocalDateTime created = LocalDateTime.of(2020, 5, 17, 8, 0);
+        LegacyNoteStorage storage = new LegacyNoteStorage(temp);
+        storage.save(new Note("old", "first", created));
+        storage.save(new Note("old", "saved again", created));  // Replaces the file
+        storage.close();
+
+        LegacyNoteStorage reopened = new LegacyNoteStorage(temp);
+        assertEquals(created, reopened.list().get(0).getCreationTime());
+        assertEquals(created, reopened.describe("old").getCreationTime());
+        reopened.close();
+
+        assertTrue(new File(temp, LegacyNoteStorage.CREATED_FILE).delete());
+        LegacyNoteStorage uncached = new LegacyNoteStorage(temp);
+        assertEquals(created, uncached.list().get(0).getCreationTime(), "read from the note when not cached");
+        assertTrue(new File(temp, LegacyNoteStorage.CREATED_FILE).exists());
+        uncached.delete("old");
+        assertEquals(0, uncached.list().size());
+        uncached.close();
+    }
+}
@@ -0,0 +1,97 @@
+package Prototype;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LineDiffTest {
+    @Test
+    void writesUnifiedHunks() {
+        String before = "one\ntwo\nthree\nfour\nfive\n";
+        String after = "one\ntwo\n3\nfour\nfive\nsix\n";
+        assertEquals("@@ -2,5 +2,6 @@\n two\n-three\n+3\n four\n five\n+six\n \n", LineDiff.unified(before, after, 1));
+        assertEquals("", LineDiff.unified(before, before, 3));
+    }
+
+    @Test
+    void hunksTurnTheOlderTextIntoTheNewer() {
+        Random random = new Random(11);
+        for (int round = 0; round < 500; round++) {
+            List<String> lines = new ArrayList<>();
+            for (int i = random.nextInt(60); i > 0; i--) {
+                lines.add("line " + random.nextInt(8));
+            }
+            String before = String.join("\n", lines);
+            for (int edits = random.nextInt(6); edits > 0; edits--) {
+                int at = random.nextInt(lines.size() + 1);
+                switch (random.nextInt(3)) {
+                    case 0:
+                        lines.add(at, "new " + random.nextInt(8));
+                        break;
+                    case 1:
+                        if (at < lines.size()) {
+                            lines.remove(at);
+                        }
+                        break;
+                    default:
+                        if (at < lines.size()) {
+                            lines.set(at, "changed " + random.nextInt(8));
+                        }
+                }
+            }
+            String after = String.join("\n", lines);
+            int context = random.nextInt(4);
+            assertEquals(after, apply(before, LineDiff.unified(before, after, context)), before + " -> " + after);
+        }
+    }
+
+    @Test
+    void reportsLargeRegionsAsReplaced() {
+        StringBuilder before = new StringBuilder();
+        StringBuilder after = new StringBuilder();
+        for (int i = 0; i < 3 * LineDiff.MAX_EDITS; i++) {
+            before.append("old ").append(i).append('\n');
+            after.append("new ").append(i).append('\n');
+        }
+        String diff = LineDiff.unified(before.toString(), after.toString(), 3);
+        assertEquals(after.toString(), apply(before.toString(), diff));
+    }
+
+    /**
+     * Applies unified diff hunks to a text.
+     */
+    private static String apply(String text, String diff) {
+        List<String> source = Arrays.asList(text.split("\n", -1));
+        List<String> result = new ArrayList<>();
+        int next = 0;
+        String[] diffLines = diff.isEmpty() ? new String[0] : diff.split("\n", -1);
+        for (int i = 0; i < diffLines.length && !diffLines[i].isEmpty(); ) {
+            String[] header = diffLines[i++].split("[ ,]");  // @@ -start,count +start,count @@
+            int start = Integer.parseInt(header[1].substring(1));
+            int count = Integer.parseInt(header[2]);
+            int from = count > 0 ? start - 1 : start;
+            result.addAll(source.subList(next, from));
+            next = from;
+            while (i < diffLines.length && !diffLines[i].startsWith("@@") && !(diffLines[i].isEmpty() && i == diffLines.length - 1)) {
+                String line = diffLines[i++];
+                char kind = line.charAt(0);
+                if (kind == '+') {
+                    result.add(line.substring(1));
+                } else {
+                    assertEquals(source.get(next), line.substring(1));
+                    next++;
+                    if (kind == ' ') {
+                        result.add(line.substring(1));
+                    }
+                }
+            }
+        }
+        result.addAll(source.subList(next, source.size()));
+        return String.join("\n", result);
+    }
+}
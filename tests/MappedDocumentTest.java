@@ -0,0 +1,50 @@
+package Prototype;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.undo.UndoManager;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MappedDocumentTest {
+    @TempDir
+    Path temp;
+
+    @Test
+    void undoesAndRedoesEdits() throws IOException, BadLocationException {
+        String original = "first line\nsecond line\nthird line\n".repeat(100);
+        Path file = temp.resolve("note.txt");
+        Files.write(file, original.getBytes(Charset.defaultCharset()));
+        MappedDocument document = new MappedDocument(file);
+        UndoManager undo = new UndoManager();
+        document.addUndoableEditListener(undo);
+
+        document.insertString(5, " typed", null);
+        document.insertString(11, " more", null);
+        document.remove(0, 40);
+        Position mark = document.createPosition(20);
+        String edited = document.getText(0, document.getLength());
+        int editedLines = document.getDefaultRootElement().getElementCount();
+
+        undo.undo();
+        assertEquals(original.substring(0, 5) + " typed more" + original.substring(5), document.getText(0, document.getLength()));
+        assertEquals(60, mark.getOffset());
+        undo.undo();
+        undo.undo();
+        assertEquals(original, document.getText(0, document.getLength()));
+        assertEquals(301, document.getDefaultRootElement().getElementCount());
+
+        undo.redo();
+        undo.redo();
+        undo.redo();
+        assertEquals(edited, document.getText(0, document.getLength()));
+        assertEquals(editedLines, document.getDefaultRootElement().getElementCount());
+    }
+}
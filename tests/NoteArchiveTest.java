@@ -0,0 +1,153 @@
+package Prototype;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class NoteArchiveTest {
+    private static final int MAGIC = 0x4E415243;
+
+    @TempDir
+    File temp;
+    private NoteEngine engine;
+    private File target;
+
+    @BeforeEach
+    void start() {
+        engine = new NoteEngine();
+        target = new File(temp, "target");
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        engine.close();
+    }
+
+    @Test
+    void importsWhatWasExported() throws IOException {
+        File source = new File(temp, "source");
+        for (int i = 0; i < NoteArchive.GROUP_SIZE + 5; i++) {
+            engine.create(source, "note " + i, "content of note " + i);
+        }
+        File archive = new File(temp, "all" + NoteArchive.EXTENSION);
+        assertEquals(NoteArchive.GROUP_SIZE + 5, NoteArchive.exportFolder(engine.open(source), archive));
+        assertEquals(NoteArchive.GROUP_SIZE + 5, NoteArchive.readIndex(archive).size());
+
+        List<Note> imported = NoteArchive.importArchive(archive, engine.open(target).getStorage());
+        assertEquals(NoteArchive.GROUP_SIZE + 5, imported.size());
+        assertEquals("content of note 7", engine.load(target, "note 7").getContent());
+    }
+
+    @Test
+    void rejectsTitlesOutsideTheFolder() throws IOException {
+        File archive = archive(block(notes("../escaped")));
+        assertThrows(IOException.class, () -> NoteArchive.importArchive(archive, engine.open(target).getStorage()));
+        assertEquals(0, engine.list(target).size());
+        assertEquals(false, new File(temp, "escaped.txt").exists());
+    }
+
+    @Test
+    void rejectsDamagedLengths() throws IOException {
+        byte[] raw = notes("fine");
+        byte[] compressed = deflate(raw);
+        for (int[] lengths : new int[][] {{-1, compressed.length}, {raw.length, -1}, {Integer.MAX_VALUE, compressed.length}, {raw.length, compressed.length + 1000}}) {
+            File archive = archive(block(raw, lengths[0], compressed, lengths[1]));
+            assertThrows(IOException.class, () -> NoteArchive.importArchive(archive, engine.open(target).getStorage()));
+        }
+        byte[] badCount = notes("fine");
+        badCount[3] = 100;  // More notes than the block holds
+        File archive = archive(block(badCount));
+        assertThrows(IOException.class, () -> NoteArchive.importArchive(archive, engine.open(target).getStorage()));
+    }
+
+    @Test
+    void leavesTheFolderUsableAfterAFailedImport() throws IOException {
+        engine.create(target, "existing", "kept");
+        engine.convert(target, true);
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+        for (int i = 0; i < 64; i++) {
+            blocks.write(block(notes(i == 0 ? "../escaped" : "note " + i, "content ".repeat(20_000))));
+        }
+        File archive = archive(blocks.toByteArray());
+        assertThrows(IOException.class, () -> NoteArchive.importArchive(archive, engine.open(target).getStorage()));
+        engine.create(target, "after", "saved after the failure");
+        assertEquals("kept", engine.load(target, "existing").getContent());
+        assertEquals("saved after the failure", engine.load(target, "after").getContent());
+    }
+
+    private static byte[] notes(String title) throws IOException {
+        return notes(title, "content");
+    }
+
+    private static byte[] notes(String title, String content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(1);
+        writeString(out, title);
+        out.writeLong(0);
+        writeString(out, "");
+        writeString(out, content);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] block(byte[] raw) throws IOException {
+        byte[] compressed = deflate(raw);
+        return block(raw, raw.length, compressed, compressed.length);
+    }
+
+    private static byte[] block(byte[] raw, int rawLength, byte[] compressed, int compressedLength) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(raw);
+        out.writeInt(rawLength);
+        out.writeInt(compressedLength);
+        out.writeInt((int) crc.getValue());
+        out.write(compressed);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(raw);
+        deflater.finish();
+        byte[] buffer = new byte[raw.length + 64];
+        int length = deflater.deflate(buffer);
+        deflater.end();
+        return java.util.Arrays.copyOf(buffer, length);
+    }
+
+    private File archive(byte[] block) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(1);
+        out.write(block);
+        out.writeInt(0);  // Empty central index
+        out.writeLong(8 + block.length);
+        out.writeInt(MAGIC);
+        File archive = new File(temp, "crafted" + NoteArchive.EXTENSION);
+        Files.write(archive.toPath(), bytes.toByteArray());
+        return archive;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,94 @@
+package Prototype;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NoteCodecTest {
+    @Test
+    void decodesWhatEveryCodecEncodes() throws IOException {
+        Random random = new Random(3);
+        String prose = "The quick brown fox jumps over the lazy dog. ";
+        for (NoteCodec codec : NoteCodec.values()) {
+            for (int length : new int[] {0, 1, NoteCodec.MIN_SIZE - 1, NoteCodec.MIN_SIZE, 5000, 300_000}) {
+                byte[] repetitive = prose.repeat(length / prose.length() + 1).substring(0, length).getBytes(StandardCharsets.UTF_8);
+                byte[] noise = new byte[length];
+                random.nextBytes(noise);
+                for (byte[] raw : new byte[][] {repetitive, noise}) {
+                    NoteCodec.Stats stats = new NoteCodec.Stats();
+                    byte[] encoded = codec.encode(raw, stats);
+                    assertTrue(encoded.length <= raw.length, codec + " never stores more than the raw bytes");
+                    assertEquals(raw.length, NoteCodec.decodedLength(encoded, 0, encoded.length));
+                    assertArrayEquals(raw, bytes(NoteCodec.decode(encoded, 0, encoded.length, stats)), codec + " " + length);
+                }
+            }
+        }
+    }
+
+    @Test
+    void compressesRepetitiveNotes() {
+        byte[] raw = "line of a note\n".repeat(1000).getBytes(StandardCharsets.UTF_8);
+        for (NoteCodec codec : new NoteCodec[] {NoteCodec.DEFLATE, NoteCodec.LZ}) {
+            byte[] encoded = codec.encode(raw, null);
+            assertTrue(NoteCodec.isEncoded(encoded, 0, encoded.length));
+            assertTrue(encoded.length < raw.length / 4, codec + " " + encoded.length);
+        }
+        assertSame(raw, NoteCodec.NONE.encode(raw, null));
+        assertFalse(NoteCodec.isEncoded(raw, 0, raw.length));
+    }
+
+    @Test
+    void rejectsDamagedNotes() {
+        byte[] raw = "line of a note\n".repeat(1000).getBytes(StandardCharsets.UTF_8);
+        for (NoteCodec codec : new NoteCodec[] {NoteCodec.DEFLATE, NoteCodec.LZ}) {
+            byte[] encoded = codec.encode(raw, null);
+            byte[] truncated = Arrays.copyOf(encoded, encoded.length / 2);
+            assertThrows(IOException.class, () -> NoteCodec.decode(truncated, 0, truncated.length, null), codec.toString());
+        }
+        byte[] unknown = NoteCodec.LZ.encode(raw, null);
+        unknown[3] = 9;
+        assertThrows(IOException.class, () -> NoteCodec.decode(unknown, 0, unknown.length, null));
+    }
+
+    @Test
+    void damagedLzInputFailsWithIOException() {
+        byte[] raw = "line of a note\n".repeat(1000).getBytes(StandardCharsets.UTF_8);
+        byte[] encoded = NoteCodec.LZ.encode(raw, null);
+        Random random = new Random(5);
+        for (int round = 0; round < 2000; round++) {
+            byte[] damaged = encoded.clone();
+            for (int i = 0; i < 3; i++) {
+                damaged[8 + random.nextInt(damaged.length - 8)] = (byte) random.nextInt();
+            }
+            try {
+                NoteCodec.decode(damaged, 0, damaged.length, null);
+            } catch (IOException e) {
+                // Expected for most damage; anything else is a bug
+            }
+        }
+    }
+
+    @Test
+    void findsCodecsByName() {
+        assertEquals(NoteCodec.LZ, NoteCodec.forName("lz"));
+        assertEquals(NoteCodec.DEFLATE, NoteCodec.forName("Deflate"));
+        assertEquals(NoteCodec.NONE, NoteCodec.forName("zstd"));
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
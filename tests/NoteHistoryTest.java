@@ -0,0 +1,82 @@
+package Prototype;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.time.LocalDateTime;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NoteHistoryTest {
+    @TempDir
+    File temp;
+
+    @Test
+    void recordsAndReadsVersions() throws IOException {
+        try (NoteHistory history = new NoteHistory(temp)) {
+            LocalDateTime created = LocalDateTime.of(2024, 3, 1, 9, 30);
+            NoteHistory.Version one = history.record(new Note("note", "first line\n", created));
+            assertSame(one, history.record(new Note("note", "first line\n", created)), "unchanged notes add no version");
+
+            Note second = new Note("note", "first line\nsecond line\n", created);
+            second.getHighlights().add(0, 5, HighlightModel.DEFAULT_RGB);
+            NoteHistory.Version two = history.record(second);
+            assertEquals(2, two.getNumber());
+            assertEquals(2, history.list("note").size());
+
+            Note read = history.read(history.get("note", 1));
+            assertEquals("first line\n", read.getContent());
+            assertEquals(created, read.getCreationTime());
+            Note readTwo = history.read(two);
+            assertEquals(second.getContent(), readTwo.getContent());
+            assertEquals(second.getHighlights().encode(), readTwo.getHighlights().encode());
+            assertEquals("@@ -1,2 +1,3 @@\n first line\n+second line\n \n", history.diff(one, two));
+            assertNull(history.get("note", 3));
+            assertTrue(history.list("other").isEmpty());
+        }
+    }
+
+    @Test
+    void storesOnlyTheChunksAnEditChanged() throws IOException {
+        Random random = new Random(2);
+        StringBuilder content = new StringBuilder();
+        while (content.length() < 1_000_000) {
+            content.append("word").append(random.nextInt(100_000)).append(random.nextInt(10) == 0 ? '\n' : ' ');
+        }
+        try (NoteHistory history = new NoteHistory(temp)) {
+            history.record(new Note("large", content.toString()));
+            long stored = history.getStoredBytes();
+            content.insert(500_000, "an edit in the middle ");
+            history.record(new Note("large", content.toString()));
+            assertTrue(history.getStoredBytes() - stored < 3 * Chunker.MAX_SIZE, "grew by " + (history.getStoredBytes() - stored));
+            assertEquals(content.toString(), history.read(history.get("large", 2)).getContent());
+        }
+    }
+
+    @Test
+    void dropsARecordCutShortWhenReopened() throws IOException {
+        try (NoteHistory history = new NoteHistory(temp)) {
+            history.record(new Note("note", "one"));
+            history.record(new Note("note", "two"));
+        }
+        File log = new File(new File(temp, NoteHistory.DIRECTORY), NoteHistory.VERSIONS_FILE);
+        try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+        try (NoteHistory history = new NoteHistory(temp)) {
+            assertEquals(1, history.list("note").size());
+            assertEquals("one", history.read(history.get("note", 1)).getContent());
+            history.record(new Note("note", "three"));
+        }
+        try (NoteHistory history = new NoteHistory(temp)) {
+            assertEquals("three", history.read(history.get("note", 2)).getContent());
+        }
+    }
+}
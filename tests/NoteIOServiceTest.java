@@ -0,0 +1,44 @@
+package Prototype;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NoteIOServiceTest {
+    @Test
+    void supersedesLoadsWithoutInterruptingThem() throws InterruptedException {
+        NoteIOService service = new NoteIOService(Runnable::run);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        List<String> loaded = new CopyOnWriteArrayList<>();
+        boolean[] interrupted = new boolean[1];
+        service.load(() -> {
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                interrupted[0] = true;
+            }
+            return "first";
+        }, loaded::add, Throwable::printStackTrace);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        service.load(() -> "skipped", loaded::add, Throwable::printStackTrace);
+        service.load(() -> "last", result -> {
+            loaded.add(result);
+            done.countDown();
+        }, Throwable::printStackTrace);
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertFalse(interrupted[0], "a running load must not be interrupted");
+        assertEquals(List.of("last"), loaded);
+        service.shutdown();
+    }
+}
@@ -0,0 +1,29 @@
+package Prototype;
+
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class NoteMetricsTest {
+    @Test
+    void reportsTheNoteCacheThroughJmx() throws Exception {
+        NoteCache cache = new NoteCache(1000);
+        NoteMetrics.setCache(cache);
+        NoteMetrics.install();
+        cache.get("a", 1, () -> new Note("a", "x".repeat(600)));
+        cache.get("a", 1, () -> null);
+        cache.get("b", 1, () -> new Note("b", "y".repeat(600)));  // Evicts a
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(NoteMetrics.OBJECT_NAME);
+        assertEquals(1L, server.getAttribute(name, "CacheHits"));
+        assertEquals(2L, server.getAttribute(name, "CacheMisses"));
+        assertEquals(1L, server.getAttribute(name, "CacheEvictions"));
+        assertEquals(cache.getCurrentBytes(), server.getAttribute(name, "CacheBytes"));
+        assertEquals(1000L, server.getAttribute(name, "CacheMaxBytes"));
+    }
+}
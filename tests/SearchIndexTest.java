@@ -0,0 +1,148 @@
+package Prototype;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchIndexTest {
+    @TempDir
+    File temp;
+    private NoteEngine engine;
+
+    @BeforeEach
+    void start() {
+        engine = new NoteEngine();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        engine.close();
+    }
+
+    @Test
+    void savesAndReadsTermsLongerThan64K() throws IOException {
+        String longTerm = "x".repeat(70_000);
+        engine.create(temp, "long", "short words and " + longTerm);
+        engine.create(temp, "other", "short words only");
+        Folder folder = engine.open(temp);
+        SearchIndex index = new SearchIndex(folder);
+        index.build();
+        index.save();
+
+        SearchIndex reread = new SearchIndex(folder);
+        reread.build();
+        assertEquals(2, reread.size());
+        List<SearchIndex.Hit> hits = reread.search(longTerm + " ", 10);
+        assertEquals(1, hits.size());
+        assertEquals("long", hits.get(0).getTitle());
+        assertEquals(2, reread.search("short words ", 10).size());
+    }
+
+    @Test
+    void appendsChangesWithoutRewritingTheSnapshot() throws IOException {
+        engine.create(temp, "kept", "apples and pears");
+        engine.create(temp, "removed", "plums");
+        Folder folder = engine.open(temp);
+        SearchIndex index = new SearchIndex(folder);
+        index.build();
+        index.save();
+        File snapshot = new File(temp, SearchIndex.INDEX_FILE_NAME);
+        File log = new File(temp, SearchIndex.LOG_FILE_NAME);
+        byte[] saved = Files.readAllBytes(snapshot.toPath());
+        long emptyLog = log.length();
+
+        indexAsStored(folder, index, "added", "cherries", "logged");
+        index.save();
+        long oneRecord = log.length();
+        folder.getStorage().delete("removed");
+        index.remove("removed");
+        index.save();
+        assertArrayEquals(saved, Files.readAllBytes(snapshot.toPath()), "saves append to the log");
+        assertTrue(oneRecord > emptyLog && log.length() > oneRecord);
+
+        SearchIndex reread = new SearchIndex(folder);
+        reread.build();
+        assertEquals(1, reread.search("logged", 10).size(), "read from the log, not the note");
+        assertEquals(0, reread.search("plums", 10).size());
+        assertEquals(1, reread.search("apples", 10).size());
+    }
+
+    @Test
+    void dropsALogRecordCutShort() throws IOException {
+        engine.create(temp, "first", "apples");
+        Folder folder = engine.open(temp);
+        SearchIndex index = new SearchIndex(folder);
+        index.build();
+        index.save();
+        indexAsStored(folder, index, "logged", "cherries", "kept");
+        index.save();
+        indexAsStored(folder, index, "torn", "plums", "lost");
+        index.save();
+        File log = new File(temp, SearchIndex.LOG_FILE_NAME);
+        try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        SearchIndex reread = new SearchIndex(folder);
+        reread.build();
+        assertEquals(1, reread.search("kept", 10).size());
+        assertEquals(0, reread.search("lost", 10).size(), "the torn record is dropped");
+        assertEquals(1, reread.search("plums", 10).size(), "and its note read again");
+        indexAsStored(folder, reread, "appended", "dates", "figs");
+        reread.save();
+
+        SearchIndex again = new SearchIndex(folder);
+        again.build();
+        assertEquals(1, again.search("figs", 10).size(), "appended over the torn record");
+        assertEquals(1, again.search("kept", 10).size());
+    }
+
+    @Test
+    void compactsTheLogOnceItOutgrowsTheSnapshot() throws IOException {
+        engine.create(temp, "small", "apples");
+        Folder folder = engine.open(temp);
+        SearchIndex index = new SearchIndex(folder);
+        index.build();
+        index.save();
+        File log = new File(temp, SearchIndex.LOG_FILE_NAME);
+        long emptyLog = log.length();
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 60_000; i++) {
+            large.append("word").append(i).append(' ');
+        }
+        boolean compacted = false;
+        int round = 0;
+        while (round < 5 && !compacted) {
+            long before = log.length();
+            indexAsStored(folder, index, "large", "stored", large + "round" + round++);
+            index.save();
+            compacted = log.length() < before;
+        }
+        assertTrue(compacted, "the log is emptied by a snapshot");
+        assertEquals(emptyLog, log.length());
+
+        SearchIndex reread = new SearchIndex(folder);
+        reread.build();
+        assertEquals(1, reread.search("round" + (round - 1) + " ", 10).size());
+    }
+
+    /**
+     * Stores a note and indexes other content for it with the stored stamp, so that an index
+     * read back shows the indexed content only if it came from the saved index.
+     */
+    private void indexAsStored(Folder folder, SearchIndex index, String title, String stored, String indexed) throws IOException {
+        engine.create(temp, title, stored);
+        index.update(title, indexed, folder.getStorage().stamp(title));
+    }
+}
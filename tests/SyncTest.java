@@ -0,0 +1,219 @@
+package Prototype;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SyncTest {
+    private static final byte[] SECRET = "correct horse".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    File temp;
+    private NoteEngine engine;
+    private File serverFolder;
+    private File clientFolder;
+    private SyncServer server;
+
+    @BeforeEach
+    void start() throws IOException {
+        engine = new NoteEngine();
+        serverFolder = new File(temp, "server");
+        clientFolder = new File(temp, "client");
+        server = engine.serve(serverFolder, loopback(0), SECRET);
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        server.close();
+        engine.close();
+    }
+
+    private static InetSocketAddress loopback(int port) {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    }
+
+    @Test
+    void copiesChangesBothWays() throws IOException {
+        engine.create(clientFolder, "mine", "written on the client\n".repeat(2000));
+        engine.create(serverFolder, "theirs", "written on the server");
+        SyncClient.Result result = engine.sync(clientFolder, loopback(server.getPort()), SECRET);
+        assertEquals(1, result.getPushed().size());
+        assertEquals(1, result.getPulled().size());
+        assertEquals("written on the client\n".repeat(2000), engine.load(serverFolder, "mine").getContent());
+        assertEquals("written on the server", engine.load(clientFolder, "theirs").getContent());
+
+        engine.create(clientFolder, "mine", "written on the client\n".repeat(1000) + "edited\n" + "written on the client\n".repeat(1000));
+        result = engine.sync(clientFolder, loopback(server.getPort()), SECRET);
+        assertEquals(1, result.getPushed().size());
+        assertTrue(result.getBytesSent() < 10_000, "only the changed chunks travel: " + result.getBytesSent());
+    }
+
+    @Test
+    void refusesClientsWithoutTheSecret() throws IOException {
+        engine.create(clientFolder, "mine", "content");
+        assertThrows(IOException.class, () -> engine.sync(clientFolder, loopback(server.getPort()), null));
+        assertThrows(IOException.class, () -> engine.sync(clientFolder, loopback(server.getPort()), "wrong".getBytes(StandardCharsets.UTF_8)));
+        assertNull(engine.load(serverFolder, "mine"));
+    }
+
+    @Test
+    void servesOtherAddressesOnlyWithASecret() throws IOException {
+        File folder = new File(temp, "open");
+        assertThrows(IllegalArgumentException.class, () -> engine.serve(folder, new InetSocketAddress(0), null));
+        engine.serve(folder, loopback(0), null).close();
+    }
+
+    @Test
+    void rejectsTitlesOutsideTheFolder() throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = handshake(socket, in);
+            out.writeByte(SyncProtocol.DELETE);
+            out.writeUTF("../outside");
+            out.write(new byte[Chunker.ID_BYTES]);
+            out.flush();
+            assertEquals(SyncProtocol.FAILED, in.readByte());
+        }
+        assertThrows(IOException.class, () -> NoteStorage.checkTitle("a/b"));
+        assertThrows(IOException.class, () -> NoteStorage.checkTitle(".."));
+        assertThrows(IOException.class, () -> NoteStorage.checkTitle("a\0b"));
+        assertEquals("Wait...", NoteStorage.checkTitle("Wait..."));
+    }
+
+    @Test
+    void answersOversizedFramesWithFailed() throws IOException {
+        engine.create(serverFolder, "note", "content");
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = handshake(socket, in);
+            out.writeByte(SyncProtocol.FETCH);
+            out.writeUTF("note");
+            out.writeInt(Integer.MAX_VALUE);  // More indexes than the note has chunks
+            out.flush();
+            assertEquals(SyncProtocol.FAILED, in.readByte());
+        }
+        assertFalse(new File(temp, "outside.properties").exists());
+    }
+
+    @Test
+    void checksLengthsAndIndexesBeforeAllocating() {
+        assertThrows(ProtocolException.class, () -> SyncProtocol.readString(input(out -> out.writeInt(-1))));
+        assertThrows(ProtocolException.class, () -> SyncProtocol.readBlock(input(out -> out.writeInt(Integer.MAX_VALUE))));
+        assertThrows(ProtocolException.class, () -> SyncProtocol.readIndexes(input(out -> {
+            out.writeInt(1);
+            out.writeInt(5);
+        }), 3));
+        assertThrows(ProtocolException.class, () -> SyncProtocol.Payload.read(input(out -> {
+            out.writeLong(0);
+            out.writeInt(0);
+            out.write(new byte[Chunker.ID_BYTES]);
+            out.writeInt(-7);
+        })));
+    }
+
+    @Test
+    void answersChallengesWithTheSecretsHmac() {
+        byte[] challenge = SyncProtocol.challenge();
+        assertArrayEquals(SyncProtocol.answer(SECRET, challenge), SyncProtocol.answer(SECRET.clone(), challenge));
+        assertFalse(java.util.Arrays.equals(SyncProtocol.answer(SECRET, challenge), SyncProtocol.answer(SECRET, SyncProtocol.challenge())));
+        assertEquals(SyncProtocol.CHALLENGE_BYTES, SyncProtocol.answer(null, challenge).length);
+    }
+
+    @Test
+    void dropsClientsThatStopSending() throws IOException {
+        System.setProperty(SyncProtocol.TIMEOUT_PROPERTY, "200");
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            socket.setSoTimeout(10_000);
+            assertEquals(-1, socket.getInputStream().read(), "closed by the server, not by our timeout");
+        } finally {
+            System.clearProperty(SyncProtocol.TIMEOUT_PROPERTY);
+        }
+    }
+
+    @Test
+    void givesUpOnServersThatStopAnswering() throws IOException {
+        System.setProperty(SyncProtocol.TIMEOUT_PROPERTY, "200");
+        try (ServerSocket silent = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            engine.create(clientFolder, "mine", "content");
+            assertThrows(IOException.class, () -> engine.sync(clientFolder, loopback(silent.getLocalPort()), SECRET));
+        } finally {
+            System.clearProperty(SyncProtocol.TIMEOUT_PROPERTY);
+        }
+    }
+
+    @Test
+    void closesConnectionsPastTheLimit() throws IOException {
+        List<Socket> idle = new ArrayList<>();
+        try {
+            for (int i = 0; i < SyncServer.MAX_CONNECTIONS; i++) {
+                Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+                idle.add(socket);
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.writeInt(SyncProtocol.MAGIC);
+                out.writeInt(SyncProtocol.VERSION);
+                out.flush();
+                socket.getInputStream().read();  // Served: the challenge arrives
+            }
+            try (Socket extra = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                extra.setSoTimeout(10_000);
+                assertEquals(-1, extra.getInputStream().read());
+            }
+        } finally {
+            for (Socket socket : idle) {
+                socket.close();
+            }
+        }
+    }
+
+    private static DataOutputStream handshake(Socket socket, DataInputStream in) throws IOException {
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeInt(SyncProtocol.MAGIC);
+        out.writeInt(SyncProtocol.VERSION);
+        out.flush();
+        assertEquals(SyncProtocol.MAGIC, in.readInt());
+        assertEquals(SyncProtocol.VERSION, in.readInt());
+        byte[] challenge = new byte[SyncProtocol.CHALLENGE_BYTES];
+        in.readFully(challenge);
+        out.write(SyncProtocol.answer(SECRET, challenge));
+        out.flush();
+        assertEquals(SyncProtocol.OK, in.readByte());
+        in.readUTF();
+        return out;
+    }
+
+    private interface Frame {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static DataInputStream input(Frame frame) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            frame.write(out);
+        }
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+}
@@ -0,0 +1,113 @@
+package Prototype;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class TitleTrieTest {
+    private static final String ALPHABET = "abcAB1 -é";
+
+    @Test
+    void findsPrefixesIgnoringCase() {
+        TitleTrie trie = new TitleTrie(notes("Groceries", "grocery list", "Garden", "go", "Go", "Travel"));
+        assertEquals(Arrays.asList("Groceries", "grocery list"), titles(trie.prefix("GROC")));
+        assertEquals(Arrays.asList("Garden", "go", "Go", "Groceries", "grocery list"), titles(trie.prefix("g")));
+        assertEquals(Arrays.asList("go", "Go"), titles(trie.prefix("go")));
+        assertEquals(6, trie.prefix("").size());
+        assertEquals(0, trie.prefix("gz").size());
+        assertEquals(0, trie.prefix("travels").size());
+    }
+
+    @Test
+    void putsFuzzyMatchesAfterPrefixMatches() {
+        TitleTrie trie = new TitleTrie(notes("Meeting notes", "Menu", "Summer plans", "Home movies"));
+        assertEquals(Arrays.asList("Meeting notes", "Menu", "Home movies", "Summer plans"), titles(trie.fuzzy("me", null)));
+        assertEquals(Arrays.asList("Home movies", "Meeting notes", "Summer plans"), titles(trie.fuzzy("mes", null)));
+        assertEquals(0, new TitleTrie(Collections.emptyList()).fuzzy("a", null).size());
+    }
+
+    @Test
+    void matchesLikeAScanOfEveryTitle() {
+        Random random = new Random(5);
+        for (int round = 0; round < 200; round++) {
+            List<Note> notes = new ArrayList<>();
+            for (int i = random.nextInt(60); i > 0; i--) {
+                notes.add(new Note(randomText(random, 1 + random.nextInt(8)), ""));
+            }
+            TitleTrie trie = round % 2 == 0 ? new TitleTrie(notes) : TitleTrie.ofSorted(TitleTrie.sortByTitle(notes));
+            List<Note> sorted = TitleTrie.sortByTitle(notes);
+            String query = randomText(random, 4);
+            TitleTrie.Matches previous = null;
+            for (int length = 0; length <= query.length(); length++) {
+                String typed = query.substring(0, length);
+                assertEquals(scan(sorted, typed, false), titles(trie.prefix(typed)), typed);
+                TitleTrie.Matches fresh = trie.fuzzy(typed, null);
+                assertEquals(scan(sorted, typed, true), titles(fresh), typed);
+                previous = trie.fuzzy(typed, previous);
+                assertEquals(titles(fresh), titles(previous), "narrowed from the previous query: " + typed);
+                assertSame(trie, previous.getTrie());
+            }
+        }
+    }
+
+    private static List<String> scan(List<Note> sorted, String query, boolean fuzzy) {
+        String lower = query.toLowerCase();
+        List<String> matches = new ArrayList<>();
+        for (Note note : sorted) {
+            if (note.getTitle().toLowerCase().startsWith(lower)) {
+                matches.add(note.getTitle());
+            }
+        }
+        if (fuzzy) {
+            for (Note note : sorted) {
+                String title = note.getTitle().toLowerCase();
+                if (!title.startsWith(lower) && isSubsequence(lower, title)) {
+                    matches.add(note.getTitle());
+                }
+            }
+        }
+        return matches;
+    }
+
+    private static boolean isSubsequence(String query, String title) {
+        int from = 0;
+        for (int i = 0; i < query.length(); i++) {
+            from = title.indexOf(query.charAt(i), from) + 1;
+            if (from == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return text.toString();
+    }
+
+    private static List<Note> notes(String... titles) {
+        List<Note> notes = new ArrayList<>();
+        for (String title : titles) {
+            notes.add(new Note(title, ""));
+        }
+        return notes;
+    }
+
+    private static List<String> titles(TitleTrie.Matches matches) {
+        List<String> titles = new ArrayList<>();
+        for (int i = 0; i < matches.size(); i++) {
+            titles.add(matches.get(i).getTitle());
+        }
+        return titles;
+    }
+}
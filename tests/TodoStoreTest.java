@@ -0,0 +1,51 @@
+package Prototype;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class TodoStoreTest {
+    private static final String TODAY = LocalDate.now().format(DateTimeFormatter.ofPattern("MM/dd/yyyy"));
+
+    @TempDir
+    File temp;
+
+    @Test
+    void remindsOfItemsDueTodayAddedAfterTodaysReminder() throws InterruptedException {
+        TodoStore store = new TodoStore(new File(temp, TodoStore.TODO_FILE));
+        BlockingQueue<List<TodoItem>> reminders = new LinkedBlockingQueue<>();
+        store.addReminderListener(reminders::add);
+        TodoItem first = store.add("first", TODAY);
+        assertEquals(List.of(first), reminders.poll(5, TimeUnit.SECONDS));
+
+        TodoItem late = store.add("late", TODAY);
+        assertEquals(List.of(late), reminders.poll(5, TimeUnit.SECONDS));
+
+        TodoItem undated = store.add("undated", "");
+        TodoItem changed = new TodoItem(undated.getId(), "undated", TODAY, LocalDate.now().toEpochDay(), false);
+        store.replace(undated, changed);
+        assertEquals(List.of(changed), reminders.poll(5, TimeUnit.SECONDS));
+        store.flush();
+    }
+
+    @Test
+    void flushWritesPendingChanges() {
+        File file = new File(temp, TodoStore.TODO_FILE);
+        TodoStore store = new TodoStore(file);
+        store.add("written", TODAY);
+        store.flush();
+        TodoItem read = new TodoStore(file).getNextDue();
+        assertNotNull(read);
+        assertEquals("written", read.getText());
+    }
+}
@@ -0,0 +1,42 @@
+package Prototype;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class WorkspaceTest {
+    @TempDir
+    File temp;
+
+    @Test
+    void snapshotKeepsCreationAndModificationTimes() throws IOException {
+        File directory = new File(temp, "notes");
+        try (NoteEngine engine = new NoteEngine()) {
+            engine.create(directory, "note", "content");
+        }
+        Workspace workspace = new Workspace(Workspace.DEFAULT_MAX_OPEN);
+        Workspace.Entry entry = workspace.register(directory);
+        Folder folder = workspace.open(entry, null, new ArrayList<>());
+        Note note = folder.getNoteByTitle("note");
+        note.setModifiedTime(LocalDateTime.of(2024, 5, 6, 7, 8, 9, 123_000_000));
+        File snapshotFile = new File(temp, "workspace.snapshot");
+        Workspace.save(workspace.snapshot(entry), snapshotFile);
+        folder.close();
+
+        Workspace restored = Workspace.restore(snapshotFile, Workspace.DEFAULT_MAX_OPEN);
+        List<Workspace.Entry> open = restored.getRestoredOpen();
+        assertEquals(1, open.size());
+        Note listed = restored.open(open.get(0), null, new ArrayList<>()).getNoteByTitle("note");
+        assertNotNull(listed);
+        assertEquals(note.getCreationTime(), listed.getCreationTime());
+        assertEquals(note.getModifiedTime(), listed.getModifiedTime());
+    }
+}